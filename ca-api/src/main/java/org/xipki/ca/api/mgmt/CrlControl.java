@@ -76,6 +76,10 @@ import org.xipki.util.TripleState;
  * # Default is false
  * invalidity.date=&lt;'required'|'optional'|'forbidden'&gt;
  *
+ * # Number of revoked certificates read from the database at once while generating CRL.
+ * # Should be greater than 0. Default is 1000
+ * page.size=&lt;integer&gt;
+ *
  * </pre>
  * @author Lijun Liao
  * @since 2.0.0
@@ -153,6 +157,8 @@ public class CrlControl {
 
   public static final String KEY_INVALIDITY_DATE = "invalidity.date";
 
+  public static final String KEY_PAGE_SIZE = "page.size";
+
   private int fullCrlIntervals = 1;
 
   private int deltaCrlIntervals;
@@ -171,6 +177,8 @@ public class CrlControl {
 
   private TripleState invalidityDateMode = TripleState.optional;
 
+  private int pageSize = 1000;
+
   private final Set<String> extensionOids;
 
   public CrlControl(String conf) throws InvalidConfException {
@@ -210,6 +218,7 @@ public class CrlControl {
     this.fullCrlIntervals = getInteger(props, KEY_FULLCRL_INTERVALS, 7);
     this.deltaCrlIntervals = getInteger(props, KEY_DELTACRL_INTERVALS, 0);
     this.extendedNextUpdate = getBoolean(props, KEY_FULLCRL_EXTENDED_NEXTUPDATE, false);
+    this.pageSize = getInteger(props, KEY_PAGE_SIZE, 1000);
 
     if (props.value(KEY_OVERLAP_DAYS) != null) {
       this.overlapDays = getInteger(props, KEY_OVERLAP_DAYS, 1);
@@ -257,6 +266,7 @@ public class CrlControl {
     pairs.putPair(KEY_ONLY_CONTAINS_CACERTS, Boolean.toString(onlyContainsCaCerts));
     pairs.putPair(KEY_ONLY_CONTAINS_USERCERTS, Boolean.toString(onlyContainsUserCerts));
     pairs.putPair(KEY_OVERLAP_DAYS, Integer.toString(overlapDays));
+    pairs.putPair(KEY_PAGE_SIZE, Integer.toString(pageSize));
 
     if (CollectionUtil.isNotEmpty(extensionOids)) {
       StringBuilder extensionsSb = new StringBuilder(200);
@@ -288,6 +298,7 @@ public class CrlControl {
         "\n  only CA certificates: ", onlyContainsCaCerts,
         "\n  exclude reason: ", excludeReason,
         "\n  invalidity date mode: ", invalidityDateMode,
+        "\n  page size: ", pageSize,
         "\n  interval: ", intervalStr,
         (verbose ? "\n  encoded: " : ""), (verbose ? getConf() : ""));
   } // method toString(boolean)
@@ -332,6 +343,10 @@ public class CrlControl {
     return invalidityDateMode;
   }
 
+  public int getPageSize() {
+    return pageSize;
+  }
+
   public final void validate() throws InvalidConfException {
     if (onlyContainsCaCerts && onlyContainsUserCerts) {
       throw new InvalidConfException(
@@ -353,6 +368,10 @@ public class CrlControl {
       throw new InvalidConfException(
           "deltaCRLIntervals may not be less than 0: " + deltaCrlIntervals);
     }
+
+    if (pageSize < 1) {
+      throw new InvalidConfException("pageSize may not be less than 1: " + pageSize);
+    }
   } // method validate
 
   @Override
@@ -48,12 +48,43 @@ public class CtlogControl {
    */
   public static final String KEY_SSLCONTEXT_NAME = "sslcontext.name";
 
+  /**
+   * Minimal number of SCTs to be embedded in the certificate. The default is the number of
+   * CT Log servers.
+   */
+  public static final String KEY_MIN_SCTS = "min.scts";
+
+  /**
+   * Maximal time in milliseconds to wait for the SCT of a CT Log server. The default is
+   * 10000.
+   */
+  public static final String KEY_TIMEOUT_MS = "timeout.ms";
+
+  /**
+   * Number of consecutive failures of a CT Log server after which the server is skipped
+   * temporarily. The default is 2, 0 to never skip a server.
+   */
+  public static final String KEY_BREAKER_FAILURES = "breaker.failures";
+
+  /**
+   * Time in milliseconds a CT Log server is skipped. The default is 60000.
+   */
+  public static final String KEY_BREAKER_OPEN_MS = "breaker.open.ms";
+
   private boolean enabled;
 
   private String sslContextName;
 
   private List<String> servers;
 
+  private int minScts;
+
+  private int timeoutMs = 10000;
+
+  private int breakerFailures = 2;
+
+  private int breakerOpenMs = 60000;
+
   private String conf;
 
   public CtlogControl(String conf) throws InvalidConfException {
@@ -70,6 +101,12 @@ public class CtlogControl {
       throw new InvalidConfException(KEY_SERVERS + " is not specified");
     }
 
+    minScts = getInteger(pairs, KEY_MIN_SCTS, servers.size());
+    timeoutMs = getInteger(pairs, KEY_TIMEOUT_MS, timeoutMs);
+    breakerFailures = getInteger(pairs, KEY_BREAKER_FAILURES, breakerFailures);
+    breakerOpenMs = getInteger(pairs, KEY_BREAKER_OPEN_MS, breakerOpenMs);
+    validate();
+
     this.conf = pairs.getEncoded();
   } // constructor
 
@@ -83,6 +120,7 @@ public class CtlogControl {
 
     pairs.putPair(KEY_SERVERS, StringUtil.collectionAsString(servers, ";"));
     this.servers = servers;
+    this.minScts = servers.size();
 
     this.sslContextName = sslContextName;
     if (sslContextName != null) {
@@ -116,6 +154,22 @@ public class CtlogControl {
     this.servers = servers;
   }
 
+  public int getMinScts() {
+    return minScts;
+  }
+
+  public int getTimeoutMs() {
+    return timeoutMs;
+  }
+
+  public int getBreakerFailures() {
+    return breakerFailures;
+  }
+
+  public int getBreakerOpenMs() {
+    return breakerOpenMs;
+  }
+
   public void setEnabled(boolean enabled) {
     this.enabled = enabled;
   }
@@ -134,7 +188,10 @@ public class CtlogControl {
     return StringUtil.concatObjects(
         "  enabled: ", enabled,
         "\n  SSL context name: ", sslContextName,
-        "\n  Servers: ", servers);
+        "\n  Servers: ", servers,
+        "\n  min. SCTs: ", minScts,
+        "\n  timeout: ", timeoutMs, " ms",
+        "\n  circuit breaker: ", breakerFailures, " failures, open for ", breakerOpenMs, " ms");
   }
 
   @Override
@@ -148,6 +205,41 @@ public class CtlogControl {
     return conf.equals(((CtlogControl) obj).conf);
   }
 
+  private void validate() throws InvalidConfException {
+    if (minScts < 1 || minScts > servers.size()) {
+      throw new InvalidConfException(KEY_MIN_SCTS + " is not between 1 and " + servers.size()
+          + ": " + minScts);
+    }
+
+    if (timeoutMs < 1) {
+      throw new InvalidConfException(KEY_TIMEOUT_MS + " may not be less than 1: " + timeoutMs);
+    }
+
+    if (breakerFailures < 0) {
+      throw new InvalidConfException(
+          KEY_BREAKER_FAILURES + " may not be negative: " + breakerFailures);
+    }
+
+    if (breakerOpenMs < 0) {
+      throw new InvalidConfException(
+          KEY_BREAKER_OPEN_MS + " may not be negative: " + breakerOpenMs);
+    }
+  } // method validate
+
+  private static int getInteger(ConfPairs pairs, String key, int defaultValue)
+      throws InvalidConfException {
+    String str = pairs.value(key);
+    if (StringUtil.isBlank(str)) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new InvalidConfException(key + " does not have numeric value: " + str);
+    }
+  } // method getInteger
+
   private static boolean getBoolean(ConfPairs pairs, String key, boolean defaultValue) {
     String str = pairs.value(key);
     boolean ret = StringUtil.isBlank(str) ? defaultValue : Boolean.parseBoolean(str);
@@ -51,6 +51,7 @@ import org.xipki.security.X509Cert;
 import org.xipki.security.XiSecurityException;
 import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
+import org.xipki.util.ConfPairs;
 import org.xipki.util.LogUtil;
 import org.xipki.util.Validity;
 
@@ -63,6 +64,24 @@ import org.xipki.util.Validity;
 
 public class CaInfo {
 
+  /**
+   * Name of the extra control which specifies the maximal number of certificates of one
+   * request generated in parallel. The default is 1.
+   */
+  public static final String EXTRA_CONTROL_CERTGEN_PARALLELISM = "certgen.parallelism";
+
+  /**
+   * Name of the extra control which specifies how the serial numbers are generated:
+   * {@code random} (default) or {@code counter}, see {@link CounterSerialNumberGenerator}.
+   */
+  public static final String EXTRA_CONTROL_SERIAL_STRATEGY = "serial.strategy";
+
+  /**
+   * Name of the extra control which specifies that the signature of every n-th generated
+   * certificate is verified: 1 (default) to verify all certificates, 0 to verify none.
+   */
+  public static final String EXTRA_CONTROL_CERT_VERIFY_INTERVAL = "cert.verify.interval";
+
   private static final Logger LOG = LoggerFactory.getLogger(CaInfo.class);
 
   private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
@@ -87,7 +106,11 @@ public class CaInfo {
 
   private final CertStore certStore;
 
-  private final RandomSerialNumberGenerator randomSnGenerator;
+  private final SerialNumberGenerator snGenerator;
+
+  private final int certgenParallelism;
+
+  private final int certVerifyInterval;
 
   private DhpocControl dhpocControl;
 
@@ -111,7 +134,51 @@ public class CaInfo {
     List<X509Cert> certs = caEntry.getCertchain();
     this.certchain = certs == null ? Collections.emptyList() : new ArrayList<>(certs);
     this.noNewCertificateAfter = notAfter.getTime() - MS_PER_DAY * caEntry.getExpirationPeriod();
-    this.randomSnGenerator = RandomSerialNumberGenerator.getInstance();
+
+    ConfPairs extraControl = caEntry.getExtraControl();
+    String str = (extraControl == null) ? null
+        : extraControl.value(EXTRA_CONTROL_SERIAL_STRATEGY);
+    if (str == null || "random".equalsIgnoreCase(str.trim())) {
+      this.snGenerator = RandomSerialNumberGenerator.getInstance();
+    } else if ("counter".equalsIgnoreCase(str.trim())) {
+      UniqueIdGenerator idGenerator = certStore.getIdGenerator();
+      this.snGenerator = new CounterSerialNumberGenerator(idGenerator.getEpoch(),
+          idGenerator.getShardId());
+    } else {
+      LOG.warn("invalid " + EXTRA_CONTROL_SERIAL_STRATEGY + " '{}', use random", str);
+      this.snGenerator = RandomSerialNumberGenerator.getInstance();
+    }
+
+    int parallelism = 1;
+    str = (extraControl == null) ? null : extraControl.value(EXTRA_CONTROL_CERTGEN_PARALLELISM);
+    if (str != null) {
+      try {
+        parallelism = Integer.parseInt(str.trim());
+      } catch (NumberFormatException ex) {
+        LOG.warn("invalid " + EXTRA_CONTROL_CERTGEN_PARALLELISM + " '{}', use 1", str);
+      }
+
+      if (parallelism < 1) {
+        parallelism = 1;
+      }
+    }
+    this.certgenParallelism = parallelism;
+
+    int verifyInterval = 1;
+    str = (extraControl == null) ? null
+        : extraControl.value(EXTRA_CONTROL_CERT_VERIFY_INTERVAL);
+    if (str != null) {
+      try {
+        verifyInterval = Integer.parseInt(str.trim());
+      } catch (NumberFormatException ex) {
+        LOG.warn("invalid " + EXTRA_CONTROL_CERT_VERIFY_INTERVAL + " '{}', use 1", str);
+      }
+
+      if (verifyInterval < 0) {
+        verifyInterval = 1;
+      }
+    }
+    this.certVerifyInterval = verifyInterval;
   } // constructor
 
   public PublicCaInfo getPublicCaInfo() {
@@ -323,8 +390,20 @@ public class CaInfo {
     return caEntry.getKeepExpiredCertInDays();
   }
 
+  public int getCertgenParallelism() {
+    return certgenParallelism;
+  }
+
+  /**
+   * Returns the interval of the certificates whose signature is verified.
+   * @return 1 to verify all certificates, n to verify every n-th certificate, 0 to verify none.
+   */
+  public int getCertVerifyInterval() {
+    return certVerifyInterval;
+  }
+
   public BigInteger nextSerial() throws OperationException {
-    return randomSnGenerator.nextSerialNumber(caEntry.getSerialNoLen());
+    return snGenerator.nextSerialNumber(caEntry.getSerialNoLen());
   }
 
   public BigInteger nextCrlNumber() throws OperationException {
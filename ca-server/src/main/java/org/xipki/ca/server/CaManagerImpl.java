@@ -469,12 +469,21 @@ public class CaManagerImpl implements CaManager, Closeable {
     final long epoch = DateUtil.parseUtcTimeyyyyMMdd("20100101").getTime();
     UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
 
+    if (this.certstore != null) {
+      this.certstore.close();
+    }
+
     try {
       this.certstore = new CertStore(datasource, idGen);
     } catch (DataAccessException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
 
+    CaServerConf.CertGroupCommit groupCommit = caServerConf.getCertGroupCommit();
+    if (groupCommit != null) {
+      certstore.startGroupCommit(groupCommit.getBatchSize(), groupCommit.getMaxWaitMs());
+    }
+
     initCaAliases();
     initCertprofiles();
     initPublishers();
@@ -770,7 +779,7 @@ public class CaManagerImpl implements CaManager, Closeable {
           }
         }
       }
-      ctlogClient = new CtLogClient(ctlogControl.getServers(), ctxConf);
+      ctlogClient = new CtLogClient(ctlogControl, ctxConf);
     }
 
     X509Ca ca;
@@ -829,6 +838,10 @@ public class CaManagerImpl implements CaManager, Closeable {
       }
     }
 
+    if (certstore != null) {
+      certstore.close();
+    }
+
     if (caLockedByMe) {
       try {
         unlockCa();
@@ -3278,6 +3291,12 @@ public class CaManagerImpl implements CaManager, Closeable {
     return ctLogPublicKeyFinder;
   }
 
+  CaServerConf.PublishQueue getPublishQueueConf() {
+    CaServerConf.PublishQueue conf = (caServerConf == null) ? null
+        : caServerConf.getPublishQueue();
+    return (conf == null) ? new CaServerConf.PublishQueue() : conf;
+  }
+
   private static FileOrValue createFileOrValue(ZipOutputStream zipStream,
       String content, String fileName) throws IOException {
     if (StringUtil.isBlank(content)) {
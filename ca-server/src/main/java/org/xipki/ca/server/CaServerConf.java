@@ -126,6 +126,125 @@ public class CaServerConf extends ValidatableConf {
 
   } // class CtLogConf
 
+  public static class CertGroupCommit extends ValidatableConf {
+
+    /**
+     * Maximal number of certificates written with one commit, the default is 100.
+     */
+    private int batchSize = 100;
+
+    /**
+     * Maximal time in milliseconds to wait for further certificates before the commit,
+     * the default is 0: only the certificates queued while the previous group was being
+     * written are committed together.
+     */
+    private int maxWaitMs = 0;
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getMaxWaitMs() {
+      return maxWaitMs;
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+      this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize may not be less than 1: " + batchSize);
+      }
+
+      if (maxWaitMs < 0) {
+        throw new InvalidConfException("maxWaitMs may not be negative: " + maxWaitMs);
+      }
+    } // method validate
+
+  } // class CertGroupCommit
+
+  public static class PublishQueue extends ValidatableConf {
+
+    /**
+     * Number of threads publishing the certificates of one publisher, the default is 4.
+     */
+    private int threads = 4;
+
+    /**
+     * Number of entries read from the publish queue at once, the default is 500.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Number of retries of a certificate which could not be published, the default is 3.
+     */
+    private int maxRetries = 3;
+
+    /**
+     * Time in milliseconds before the first retry, doubled for each further retry, the
+     * default is 100.
+     */
+    private int retryBackoffMs = 100;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getMaxRetries() {
+      return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+      this.maxRetries = maxRetries;
+    }
+
+    public int getRetryBackoffMs() {
+      return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs(int retryBackoffMs) {
+      this.retryBackoffMs = retryBackoffMs;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (threads < 1) {
+        throw new InvalidConfException("threads may not be less than 1: " + threads);
+      }
+
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize may not be less than 1: " + batchSize);
+      }
+
+      if (maxRetries < 0) {
+        throw new InvalidConfException("maxRetries may not be negative: " + maxRetries);
+      }
+
+      if (retryBackoffMs < 0) {
+        throw new InvalidConfException("retryBackoffMs may not be negative: " + retryBackoffMs);
+      }
+    } // method validate
+
+  } // class PublishQueue
+
   private AuditConf audit;
 
   private SecurityConf security;
@@ -149,6 +268,17 @@ public class CaServerConf extends ValidatableConf {
 
   private CtLogConf ctLog;
 
+  /**
+   * Group commit of the issued certificates. If not set, each certificate is committed
+   * separately.
+   */
+  private CertGroupCommit certGroupCommit;
+
+  /**
+   * Processing of the publish queue. If not set, the default values are used.
+   */
+  private PublishQueue publishQueue;
+
   /**
    * list of classes that implement org.xipki.ca.api.profile.CertprofileFactory
    */
@@ -246,6 +376,22 @@ public class CaServerConf extends ValidatableConf {
     this.certprofileFactories = certprofileFactories;
   }
 
+  public CertGroupCommit getCertGroupCommit() {
+    return certGroupCommit;
+  }
+
+  public void setCertGroupCommit(CertGroupCommit certGroupCommit) {
+    this.certGroupCommit = certGroupCommit;
+  }
+
+  public PublishQueue getPublishQueue() {
+    return publishQueue;
+  }
+
+  public void setPublishQueue(PublishQueue publishQueue) {
+    this.publishQueue = publishQueue;
+  }
+
   public CtLogConf getCtLog() {
     return ctLog;
   }
@@ -284,6 +430,8 @@ public class CaServerConf extends ValidatableConf {
     notEmpty(datasources, "datasources");
     validate(remoteMgmt);
     validate(security);
+    validate(certGroupCommit);
+    validate(publishQueue);
   } // method validate
 
 }
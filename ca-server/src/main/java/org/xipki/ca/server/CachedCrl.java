@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import static org.xipki.util.Args.notNull;
+
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.xipki.security.util.X509Util;
+
+/**
+ * CRL together with its encoded form, as held in the CRL cache of {@link X509Ca}. If only the
+ * encoded form and the CRL number are known, the CRL is parsed when it is requested the first
+ * time, since most clients need only the encoded form.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CachedCrl {
+
+  private final byte[] encoded;
+
+  private volatile X509CRLHolder crl;
+
+  private final BigInteger crlNumber;
+
+  private final long thisUpdate;
+
+  private final String etag;
+
+  CachedCrl(byte[] encoded) throws CRLException {
+    this(encoded, X509Util.parseCrl(encoded));
+  }
+
+  private CachedCrl(byte[] encoded, X509CRLHolder crl) {
+    this(encoded, getCrlNumber(notNull(crl, "crl")), crl.getThisUpdate().getTime());
+    // the CRL has been parsed anyway, avoid parsing it again in getCrl().
+    this.crl = crl;
+  }
+
+  CachedCrl(byte[] encoded, BigInteger crlNumber, long thisUpdate) {
+    this.encoded = notNull(encoded, "encoded");
+    this.crlNumber = crlNumber;
+    this.thisUpdate = thisUpdate;
+
+    // thisUpdate is contained to distinguish CRLs without crlNumber.
+    this.etag = "\"" + (crlNumber == null ? "" : crlNumber.toString(16) + "-")
+        + Long.toHexString(thisUpdate / 1000) + "\"";
+  } // constructor
+
+  private static BigInteger getCrlNumber(X509CRLHolder crl) {
+    byte[] extnValue = X509Util.getCoreExtValue(crl.getExtensions(), Extension.cRLNumber);
+    return (extnValue == null) ? null : ASN1Integer.getInstance(extnValue).getPositiveValue();
+  }
+
+  byte[] getEncoded() {
+    return encoded;
+  }
+
+  /**
+   * Returns the parsed CRL.
+   * @return the parsed CRL.
+   * @throws CRLException
+   *           If the CRL could not be parsed.
+   */
+  X509CRLHolder getCrl() throws CRLException {
+    X509CRLHolder result = crl;
+    if (result == null) {
+      result = X509Util.parseCrl(encoded);
+      crl = result;
+    }
+    return result;
+  } // method getCrl
+
+  BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  /**
+   * Returns thisUpdate in milliseconds.
+   * @return thisUpdate in milliseconds.
+   */
+  long getThisUpdate() {
+    return thisUpdate;
+  }
+
+  String getEtag() {
+    return etag;
+  }
+
+}
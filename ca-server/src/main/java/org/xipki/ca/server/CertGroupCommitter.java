@@ -0,0 +1,293 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import static org.xipki.util.Args.notBlank;
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.LogUtil;
+
+/**
+ * Writes the rows of concurrent callers with one JDBC batch and one commit per group. A caller
+ * is blocked until its row has been committed. A group is written once it contains
+ * {@code batchSize} rows, or {@code maxWaitMs} milliseconds after its first row has been
+ * queued.
+ *
+ * <p>If a group could not be written, its rows are written one by one, so that an invalid row,
+ * e.g. a duplicated certificate, only fails its own caller.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CertGroupCommitter implements Runnable {
+
+  interface Row {
+
+    void setParameters(PreparedStatement ps) throws SQLException;
+
+  } // interface Row
+
+  private static final class Job {
+
+    private final Row row;
+
+    private boolean done;
+
+    private DataAccessException exception;
+
+    Job(Row row) {
+      this.row = row;
+    }
+
+    synchronized void complete(DataAccessException exception) {
+      this.exception = exception;
+      this.done = true;
+      notifyAll();
+    }
+
+    synchronized void await() throws DataAccessException {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          // the row is being written, wait for the result.
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (exception != null) {
+        throw exception;
+      }
+    } // method await
+
+  } // class Job
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertGroupCommitter.class);
+
+  private final DataSourceWrapper datasource;
+
+  private final String sql;
+
+  private final int batchSize;
+
+  private final long maxWaitMs;
+
+  private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+
+  private final Object lock = new Object();
+
+  private volatile boolean closed;
+
+  private Thread committer;
+
+  CertGroupCommitter(DataSourceWrapper datasource, String sql, int batchSize, long maxWaitMs) {
+    this.datasource = notNull(datasource, "datasource");
+    this.sql = notBlank(sql, "sql");
+    this.batchSize = positive(batchSize, "batchSize");
+    if (maxWaitMs < 0) {
+      throw new IllegalArgumentException("maxWaitMs may not be negative: " + maxWaitMs);
+    }
+    this.maxWaitMs = maxWaitMs;
+  } // constructor
+
+  void start() {
+    committer = new Thread(this, "ca-cert-committer");
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  /**
+   * Writes the row and waits until it has been committed.
+   *
+   * @param row
+   *          Row to be written.
+   * @return {@code false} if the committer has been closed and the row must be written by
+   *         the caller, {@code true} if the row has been written.
+   * @throws DataAccessException
+   *           If the row could not be written.
+   */
+  boolean write(Row row) throws DataAccessException {
+    Job job = new Job(row);
+    synchronized (lock) {
+      if (closed) {
+        return false;
+      }
+      queue.add(job);
+    }
+
+    job.await();
+    return true;
+  } // method write
+
+  @Override
+  public void run() {
+    List<Job> batch = new ArrayList<>(batchSize);
+    while (true) {
+      Job job;
+      try {
+        job = queue.poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException ex) {
+        continue;
+      }
+
+      if (job == null) {
+        if (closed && queue.isEmpty()) {
+          break;
+        }
+        continue;
+      }
+
+      batch.add(job);
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+      while (batch.size() < batchSize) {
+        job = queue.poll();
+        if (job == null) {
+          long waitNs = deadline - System.nanoTime();
+          if (waitNs <= 0 || closed) {
+            break;
+          }
+
+          try {
+            job = queue.poll(waitNs, TimeUnit.NANOSECONDS);
+          } catch (InterruptedException ex) {
+            break;
+          }
+
+          if (job == null) {
+            break;
+          }
+        }
+        batch.add(job);
+      }
+
+      flush(batch);
+      batch.clear();
+    }
+  } // method run
+
+  private void flush(List<Job> batch) {
+    if (batch.size() > 1) {
+      try {
+        writeBatch(batch);
+        for (Job job : batch) {
+          job.complete(null);
+        }
+        return;
+      } catch (DataAccessException ex) {
+        LogUtil.warn(LOG, ex,
+            "could not write " + batch.size() + " certificates at once, write them one by one");
+      }
+    }
+
+    for (Job job : batch) {
+      try {
+        writeRow(job.row);
+        job.complete(null);
+      } catch (DataAccessException ex) {
+        job.complete(ex);
+      }
+    }
+  } // method flush
+
+  private void writeBatch(List<Job> batch) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    boolean origAutoCommit = true;
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      ps = datasource.prepareStatement(conn, sql);
+      for (Job job : batch) {
+        job.row.setParameters(ps);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+
+      conn.commit();
+      LOG.debug("added {} certificates", batch.size());
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LogUtil.warn(LOG, ex2, "could not rollback");
+      }
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not restore autoCommit");
+      }
+      datasource.releaseResources(ps, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method writeBatch
+
+  private void writeRow(Row row) throws DataAccessException {
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    try {
+      row.setParameters(ps);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method writeRow
+
+  /**
+   * Writes the queued rows and stops the committer thread.
+   */
+  void close() {
+    synchronized (lock) {
+      closed = true;
+    }
+
+    if (committer != null) {
+      try {
+        committer.join();
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted while waiting for the committer");
+        Thread.currentThread().interrupt();
+      }
+      committer = null;
+    }
+  } // method close
+
+}
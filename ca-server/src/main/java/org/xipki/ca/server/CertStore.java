@@ -19,6 +19,7 @@ package org.xipki.ca.server;
 
 import static org.xipki.ca.api.OperationException.ErrorCode.BAD_REQUEST;
 import static org.xipki.ca.api.OperationException.ErrorCode.CERT_REVOKED;
+import static org.xipki.ca.api.OperationException.ErrorCode.CRL_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.CERT_UNREVOKED;
 import static org.xipki.ca.api.OperationException.ErrorCode.DATABASE_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.NOT_PERMITTED;
@@ -27,9 +28,12 @@ import static org.xipki.util.Args.notNull;
 import static org.xipki.util.Args.positive;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -172,6 +176,73 @@ public class CertStore {
 
   } // class SerialWithId
 
+  private static class CertRow implements CertGroupCommitter.Row {
+
+    private long certId;
+
+    private long lastUpdate;
+
+    private String serialNumber;
+
+    private String subjectText;
+
+    private long fpSubject;
+
+    private Long fpReqSubject;
+
+    private long notBefore;
+
+    private long notAfter;
+
+    private int certprofileId;
+
+    private int caId;
+
+    private Integer requestorId;
+
+    private Integer userId;
+
+    private boolean ee;
+
+    private int reqType;
+
+    private String tid;
+
+    private String b64FpCert;
+
+    private String reqSubjectText;
+
+    private String b64Cert;
+
+    @Override
+    public void setParameters(PreparedStatement ps) throws SQLException {
+      int idx = 1;
+      ps.setLong(idx++, certId);
+      ps.setLong(idx++, lastUpdate);
+      ps.setString(idx++, serialNumber);
+      ps.setString(idx++, subjectText);
+      ps.setLong(idx++, fpSubject);
+      setLong(ps, idx++, fpReqSubject);
+      ps.setLong(idx++, notBefore);
+      ps.setLong(idx++, notAfter);
+      setBoolean(ps, idx++, false);
+      ps.setInt(idx++, certprofileId);
+      ps.setInt(idx++, caId);
+      setInt(ps, idx++, requestorId);
+      setInt(ps, idx++, userId);
+      ps.setInt(idx++, ee ? 1 : 0);
+      ps.setInt(idx++, reqType);
+      ps.setString(idx++, tid);
+
+      ps.setString(idx++, b64FpCert);
+      ps.setString(idx++, reqSubjectText);
+      // in this version we set CRL_SCOPE to fixed value 0
+      ps.setInt(idx++, 0);
+      ps.setString(idx++, b64Cert);
+    } // method setParameters
+
+  } // class CertRow
+
   private static final Logger LOG = LoggerFactory.getLogger(CertStore.class);
 
   private static final String SQL_ADD_CERT_V4 =
@@ -196,6 +267,11 @@ public class CertStore {
   private static final String SQL_REMOVE_PUBLISHQUEUE =
       "DELETE FROM PUBLISHQUEUE WHERE PID=? AND CID=?";
 
+  private static final String SQL_COUNT_PUBLISHQUEUE =
+      "SELECT COUNT(*) FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=?";
+
+  private static final int NUM_IDS_PER_SELECT = 100;
+
   private static final String SQL_MAXID_DELTACRL_CACHE =
       "SELECT MAX(ID) FROM DELTACRL_CACHE WHERE CA_ID=?";
 
@@ -231,6 +307,8 @@ public class CertStore {
 
   private final String sqlCertForId;
 
+  private final String sqlCertsForIds;
+
   private final String sqlCertWithRevInfo;
 
   private final String sqlCertInfo;
@@ -286,6 +364,8 @@ public class CertStore {
 
   private final UniqueIdGenerator idGenerator;
 
+  private volatile CertGroupCommitter groupCommitter;
+
   public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
     this.datasource = notNull(datasource, "datasource");
@@ -297,6 +377,13 @@ public class CertStore {
 
     this.sqlCaHasCrl = buildSelectFirstSql("ID FROM CRL WHERE CA_ID=?");
     this.sqlCertForId = buildSelectFirstSql("PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID=?");
+
+    StringBuilder sb = new StringBuilder(100 + 2 * NUM_IDS_PER_SELECT);
+    sb.append("SELECT ID,PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID IN (?");
+    for (int i = 1; i < NUM_IDS_PER_SELECT; i++) {
+      sb.append(",?");
+    }
+    this.sqlCertsForIds = sb.append(")").toString();
     this.sqlCertWithRevInfo = buildSelectFirstSql(
         "ID,REV,RR,RT,RIT,PID,CERT FROM CERT WHERE CA_ID=? AND SN=?");
     this.sqlCertInfo = buildSelectFirstSql(
@@ -322,6 +409,43 @@ public class CertStore {
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=? AND CRL_NO=?");
   } // constructor
 
+  UniqueIdGenerator getIdGenerator() {
+    return idGenerator;
+  }
+
+  /**
+   * Writes the certificates of concurrent {@link #addCert(CertificateInfo)} calls in groups
+   * with one commit per group.
+   *
+   * @param batchSize
+   *          Maximal number of certificates in one group.
+   * @param maxWaitMs
+   *          Maximal time in milliseconds to wait for further certificates of a group.
+   */
+  public synchronized void startGroupCommit(int batchSize, long maxWaitMs) {
+    if (groupCommitter != null) {
+      throw new IllegalStateException("group commit has been started");
+    }
+
+    final String sql = dbSchemaVersion < 5 ? SQL_ADD_CERT_V4 : SQL_ADD_CERT;
+    CertGroupCommitter committer = new CertGroupCommitter(datasource, sql, batchSize, maxWaitMs);
+    committer.start();
+    this.groupCommitter = committer;
+    LOG.info("started group commit of certificates, batchSize={}, maxWaitMs={}",
+        batchSize, maxWaitMs);
+  } // method startGroupCommit
+
+  /**
+   * Writes the queued certificates and stops the group commit.
+   */
+  public synchronized void close() {
+    CertGroupCommitter committer = groupCommitter;
+    if (committer != null) {
+      committer.close();
+      groupCommitter = null;
+    }
+  } // method close
+
   private String buildSelectFirstSql(String coreSql) {
     return datasource.buildSelectFirstSql(1, coreSql);
   }
@@ -369,50 +493,45 @@ public class CertStore {
       }
     }
 
-    byte[] encodedCert = certificate.getCert().getEncoded();
-    String b64FpCert = base64Fp(encodedCert);
-    String b64Cert = Base64.encodeToString(encodedCert);
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
-
-    final String sql = dbSchemaVersion < 5 ? SQL_ADD_CERT_V4 : SQL_ADD_CERT;
-    PreparedStatement ps = borrowPreparedStatement(sql);
-
-    try {
-      // cert
-      X509Cert cert = certificate.getCert();
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, cert.getSerialNumber().toString(16));
-      ps.setString(idx++, subjectText);
-      ps.setLong(idx++, fpSubject);
-      setLong(ps, idx++, fpReqSubject);
-      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
-      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
-      setBoolean(ps, idx++, false);
-      ps.setInt(idx++, certprofile.getId());
-      ps.setInt(idx++, ca.getId());
-      setInt(ps, idx++, requestor.getId());
-      setInt(ps, idx++, userId);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      ps.setInt(idx++, isEeCert ? 1 : 0);
-      ps.setInt(idx++, reqType.getCode());
-      ps.setString(idx++, tid);
-
-      ps.setString(idx++, b64FpCert);
-      ps.setString(idx++, reqSubjectText);
-      // in this version we set CRL_SCOPE to fixed value 0
-      ps.setInt(idx++, 0);
-      ps.setString(idx++, b64Cert);
-
-      ps.executeUpdate();
+    X509Cert cert = certificate.getCert();
+    byte[] encodedCert = cert.getEncoded();
+
+    CertRow row = new CertRow();
+    row.certId = certId;
+    row.lastUpdate = System.currentTimeMillis() / 1000; // currentTimeSeconds
+    row.serialNumber = cert.getSerialNumber().toString(16);
+    row.subjectText = subjectText;
+    row.fpSubject = fpSubject;
+    row.fpReqSubject = fpReqSubject;
+    row.notBefore = cert.getNotBefore().getTime() / 1000; // notBeforeSeconds
+    row.notAfter = cert.getNotAfter().getTime() / 1000; // notAfterSeconds
+    row.certprofileId = certprofile.getId();
+    row.caId = ca.getId();
+    row.requestorId = requestor.getId();
+    row.userId = userId;
+    row.ee = cert.getBasicConstraints() == -1;
+    row.reqType = reqType.getCode();
+    row.tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    row.b64FpCert = base64Fp(encodedCert);
+    row.reqSubjectText = reqSubjectText;
+    row.b64Cert = Base64.encodeToString(encodedCert);
+
+    CertGroupCommitter committer = groupCommitter;
+    if (committer == null || !committer.write(row)) {
+      final String sql = dbSchemaVersion < 5 ? SQL_ADD_CERT_V4 : SQL_ADD_CERT;
+      PreparedStatement ps = borrowPreparedStatement(sql);
 
-      certificate.setCertId(certId);
-    } catch (SQLException ex) {
-      throw datasource.translate(sql, ex);
-    } finally {
-      datasource.releaseResources(ps, null);
+      try {
+        row.setParameters(ps);
+        ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null);
+      }
     }
+
+    certificate.setCertId(certId);
   } // method addCert
 
   public void addToPublishQueue(NameId publisher, long certId, NameId ca)
@@ -447,6 +566,65 @@ public class CertStore {
     }
   } // method removeFromPublishQueue
 
+  /**
+   * Removes the certificates from the publish queue with one JDBC batch and one commit.
+   *
+   * @param publisher
+   *          Publisher.
+   * @param certIds
+   *          Ids of the certificates.
+   * @throws OperationException
+   *           If the certificates could not be removed.
+   * @since 5.3.9
+   */
+  public void removeFromPublishQueue(NameId publisher, List<Long> certIds)
+      throws OperationException {
+    if (certIds.isEmpty()) {
+      return;
+    }
+
+    final String sql = SQL_REMOVE_PUBLISHQUEUE;
+    Connection conn;
+    try {
+      conn = datasource.getConnection();
+    } catch (DataAccessException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+    }
+
+    PreparedStatement ps = null;
+    boolean origAutoCommit = true;
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      ps = datasource.prepareStatement(conn, sql);
+      for (Long certId : certIds) {
+        ps.setInt(1, publisher.getId());
+        ps.setLong(2, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      conn.commit();
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LogUtil.warn(LOG, ex2, "could not rollback");
+      }
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } catch (DataAccessException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+    } finally {
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not restore autoCommit");
+      }
+      datasource.releaseResources(ps, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method removeFromPublishQueue
+
   public long getMaxIdOfDeltaCrlCache(NameId ca) throws OperationException {
     notNull(ca, "ca");
 
@@ -599,6 +777,49 @@ public class CertStore {
       baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
     }
 
+    String b64Crl;
+    try {
+      b64Crl = Base64.encodeToString(crl.getEncoded());
+    } catch (IOException ex) {
+      throw new CRLException(ex.getMessage(), ex);
+    }
+
+    addCrl(ca, crlNumber, baseCrlNumber, crl.getThisUpdate(), crl.getNextUpdate(),
+        new StringReader(b64Crl), b64Crl.length());
+  } // method addCrl
+
+  /**
+   * Adds the CRL. The CRL is streamed from its temporary file into the database.
+   *
+   * @param ca
+   *          CA of the CRL.
+   * @param crl
+   *          The CRL.
+   * @throws OperationException
+   *           If the CRL could not be added.
+   */
+  void addCrl(NameId ca, StreamedCrl crl) throws OperationException {
+    notNull(ca, "ca");
+    notNull(crl, "crl");
+
+    long b64Length = crl.getBase64Length();
+    if (b64Length > Integer.MAX_VALUE) {
+      throw new OperationException(CRL_FAILURE, "CRL is too large: " + crl.getLength());
+    }
+
+    BigInteger crlNumber = crl.getCrlNumber();
+    BigInteger baseCrlNumber = crl.getBaseCrlNumber();
+    try (Reader reader = crl.openBase64Reader()) {
+      addCrl(ca, (crlNumber == null) ? null : crlNumber.longValue(),
+          (baseCrlNumber == null) ? null : baseCrlNumber.longValue(),
+          crl.getThisUpdate(), crl.getNextUpdate(), reader, (int) b64Length);
+    } catch (IOException ex) {
+      throw new OperationException(CRL_FAILURE, ex);
+    }
+  } // method addCrl
+
+  private void addCrl(NameId ca, Long crlNumber, Long baseCrlNumber, Date thisUpdate,
+      Date nextUpdate, Reader b64Crl, int b64CrlLength) throws OperationException {
     final String sql = SQL_ADD_CRL;
     long currentMaxCrlId;
     try {
@@ -608,13 +829,6 @@ public class CertStore {
     }
     long crlId = currentMaxCrlId + 1;
 
-    String b64Crl;
-    try {
-      b64Crl = Base64.encodeToString(crl.getEncoded());
-    } catch (IOException ex) {
-      throw new CRLException(ex.getMessage(), ex);
-    }
-
     PreparedStatement ps = null;
 
     try {
@@ -624,14 +838,13 @@ public class CertStore {
       ps.setLong(idx++, crlId);
       ps.setInt(idx++, ca.getId());
       setLong(ps, idx++, crlNumber);
-      Date date = crl.getThisUpdate();
-      ps.setLong(idx++, date.getTime() / 1000);
-      setDateSeconds(ps, idx++, crl.getNextUpdate());
+      ps.setLong(idx++, thisUpdate.getTime() / 1000);
+      setDateSeconds(ps, idx++, nextUpdate);
       setBoolean(ps, idx++, (baseCrlNumber != null));
       setLong(ps, idx++, baseCrlNumber);
       // in this version we set CRL_SCOPE to fixed value 0
       ps.setInt(idx++, 0);
-      ps.setString(idx++, b64Crl);
+      ps.setCharacterStream(idx++, b64Crl, b64CrlLength);
 
       ps.executeUpdate();
     } catch (SQLException ex) {
@@ -874,6 +1087,27 @@ public class CertStore {
 
   public List<Long> getPublishQueueEntries(NameId ca, NameId publisher, int numEntries)
       throws OperationException {
+    return getPublishQueueEntries(ca, publisher, 0, numEntries);
+  }
+
+  /**
+   * Retrieves the ids of the certificates in the publish queue, in ascending order.
+   *
+   * @param ca
+   *          CA of the certificates.
+   * @param publisher
+   *          Publisher.
+   * @param minCertId
+   *          Minimal id of the certificates.
+   * @param numEntries
+   *          Maximal number of returned ids.
+   * @return the ids of the certificates.
+   * @throws OperationException
+   *           If the ids could not be retrieved.
+   * @since 5.3.9
+   */
+  public List<Long> getPublishQueueEntries(NameId ca, NameId publisher, long minCertId,
+      int numEntries) throws OperationException {
     final String sql = getSqlCidFromPublishQueue(numEntries);
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -881,6 +1115,7 @@ public class CertStore {
     try {
       ps.setInt(1, publisher.getId());
       ps.setInt(2, ca.getId());
+      ps.setLong(3, minCertId);
       rs = ps.executeQuery();
       List<Long> ret = new ArrayList<>();
       while (rs.next() && ret.size() < numEntries) {
@@ -897,6 +1132,25 @@ public class CertStore {
     }
   } // method getPublishQueueEntries
 
+  public long getCountOfPublishQueueEntries(NameId ca, NameId publisher)
+      throws OperationException {
+    final String sql = SQL_COUNT_PUBLISHQUEUE;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+
+    try {
+      ps.setInt(1, publisher.getId());
+      ps.setInt(2, ca.getId());
+      rs = ps.executeQuery();
+      rs.next();
+      return rs.getLong(1);
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getCountOfPublishQueueEntries
+
   public long getCountOfCerts(NameId ca, boolean onlyRevoked) throws OperationException {
     final String sql = onlyRevoked ? "SELECT COUNT(*) FROM CERT WHERE CA_ID=? AND REV=1"
                     : "SELECT COUNT(*) FROM CERT WHERE CA_ID=?";
@@ -1159,6 +1413,72 @@ public class CertStore {
       datasource.releaseResources(ps, rs);
     }
 
+    return buildCertificateInfo(certId, b64Cert, certprofileId, requestorId, revoked,
+        revReason, revTime, revInvTime, ca, caCert, idNameMap);
+  } // method getCertForId
+
+  /**
+   * Retrieves the certificates with the given ids.
+   *
+   * @param ca
+   *          CA of the certificates.
+   * @param caCert
+   *          Certificate of the CA.
+   * @param certIds
+   *          Ids of the certificates.
+   * @param idNameMap
+   *          Map from id to name.
+   * @return map from the id to the certificate, the ids of unknown certificates are absent.
+   * @throws OperationException
+   *           If the certificates could not be retrieved.
+   * @throws CertificateException
+   *           If a certificate could not be parsed.
+   * @since 5.3.9
+   */
+  public Map<Long, CertificateInfo> getCertsForIds(NameId ca, X509Cert caCert,
+      List<Long> certIds, CaIdNameMap idNameMap) throws OperationException, CertificateException {
+    notNull(ca, "ca");
+    notNull(caCert, "caCert");
+    notNull(certIds, "certIds");
+    notNull(idNameMap, "idNameMap");
+
+    final String sql = sqlCertsForIds;
+    final int n = certIds.size();
+    Map<Long, CertificateInfo> ret = new HashMap<>(n * 4 / 3 + 1);
+
+    for (int off = 0; off < n; off += NUM_IDS_PER_SELECT) {
+      PreparedStatement ps = borrowPreparedStatement(sql);
+      ResultSet rs = null;
+      try {
+        int num = Math.min(NUM_IDS_PER_SELECT, n - off);
+        for (int i = 0; i < NUM_IDS_PER_SELECT; i++) {
+          // fill the remaining parameters with the last id, so that the SQL is always the same.
+          ps.setLong(i + 1, certIds.get(off + Math.min(i, num - 1)));
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          long certId = rs.getLong("ID");
+          boolean revoked = rs.getBoolean("REV");
+          ret.put(certId, buildCertificateInfo(certId, rs.getString("CERT"), rs.getInt("PID"),
+              rs.getInt("RID"), revoked, revoked ? rs.getInt("RR") : 0,
+              revoked ? rs.getLong("RT") : 0, revoked ? rs.getLong("RIT") : 0,
+              ca, caCert, idNameMap));
+        }
+      } catch (SQLException ex) {
+        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+    }
+
+    return ret;
+  } // method getCertsForIds
+
+  private static CertificateInfo buildCertificateInfo(long certId, String b64Cert,
+      int certprofileId, int requestorId, boolean revoked, int revReason, long revTime,
+      long revInvTime, NameId ca, X509Cert caCert, CaIdNameMap idNameMap)
+      throws CertificateException {
     byte[] encodedCert = Base64.decodeFast(b64Cert);
     X509Cert cert = X509Util.parseCert(encodedCert);
     CertWithDbId certWithMeta = new CertWithDbId(cert);
@@ -1175,7 +1495,7 @@ public class CertStore {
         new Date(revTime * 1000), invalidityTime);
     certInfo.setRevocationInfo(revInfo);
     return certInfo;
-  } // method getCertForId
+  } // method buildCertificateInfo
 
   public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
       CaIdNameMap idNameMap) throws OperationException {
@@ -1932,7 +2252,7 @@ public class CertStore {
     String sql = cacheSqlCidFromPublishQueue.get(numEntries);
     if (sql == null) {
       sql = datasource.buildSelectFirstSql(numEntries, "CID ASC",
-          "CID FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=?");
+          "CID FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=? AND CID>=?");
       cacheSqlCidFromPublishQueue.put(numEntries, sql);
     }
     return sql;
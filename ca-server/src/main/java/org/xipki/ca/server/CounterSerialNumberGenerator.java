@@ -0,0 +1,92 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xipki.util.Args;
+
+/**
+ * Serial number generator based on a monotonic counter, prefixed by the shard id.
+ *
+ * <p>The serial number consists of
+ * <ol>
+ *  <li>highest bit is set to 0 to assure positive serial number.
+ *  <li>shard_id: 7 bits
+ *  <li>counter: 56 bits, initialized with the milliseconds after the epoch multiplied by 1024,
+ *      and never less than this value at the time the serial number is generated. Hence the
+ *      counter is unique after a restart as long as not more than 1024 serial numbers per
+ *      millisecond have been generated on average.
+ *  <li>random bytes if the serial number is longer than 8 bytes.
+ * </ol>
+ *
+ * <p>Note that the serial number contains less random bits than that generated by
+ * {@link RandomSerialNumberGenerator}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CounterSerialNumberGenerator implements SerialNumberGenerator {
+
+  private static final long COUNTER_MASK = 0xFFFFFFFFFFFFFFL;
+
+  private final long epoch; // in milliseconds
+
+  private final long prefix;
+
+  private final AtomicLong counter = new AtomicLong(0);
+
+  public CounterSerialNumberGenerator(long epoch, int shardId) {
+    this.epoch = Args.notNegative(epoch, "epoch");
+    this.prefix = ((long) Args.range(shardId, "shardId", 0, 127)) << 56;
+  } // constructor
+
+  @Override
+  public BigInteger nextSerialNumber(int byteLen) {
+    Args.min(byteLen, "byteLen", 8);
+
+    long timeBased = ((System.currentTimeMillis() - epoch) << 10) & COUNTER_MASK;
+    long value;
+    while (true) {
+      long current = counter.get();
+      value = Math.max(current + 1, timeBased);
+      if (counter.compareAndSet(current, value)) {
+        break;
+      }
+    }
+
+    long id = prefix | (value & COUNTER_MASK);
+    if (byteLen == 8) {
+      return BigInteger.valueOf(id);
+    }
+
+    // the counter in the most significant bytes, random bytes in the remaining bytes.
+    byte[] bytes = new byte[byteLen];
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (id >>> (56 - 8 * i));
+    }
+
+    byte[] rndBytes = new byte[byteLen - 8];
+    RandomSerialNumberGenerator.getInstance().nextBytes(rndBytes);
+    System.arraycopy(rndBytes, 0, bytes, 8, rndBytes.length);
+    return new BigInteger(bytes);
+  } // method nextSerialNumber
+
+}
@@ -0,0 +1,243 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import static org.xipki.util.Args.notNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Date;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentSigner;
+import org.xipki.util.IoUtil;
+
+/**
+ * Builds a CRL whose revoked certificates are written, DER-encoded, to a temporary file as
+ * they are added, instead of being held in memory. While signing, the TBSCertList is streamed
+ * from the file to the signer. The produced CRL has the same encoding as that built by
+ * {@link org.bouncycastle.cert.X509v2CRLBuilder} with the same entries in the same order. The
+ * CRL itself is written to a temporary file as well, see {@link StreamedCrl}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CrlStreamBuilder implements Closeable {
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private BigInteger crlNumber;
+
+  private BigInteger baseCrlNumber;
+
+  private final ExtensionsGenerator extensionsGenerator = new ExtensionsGenerator();
+
+  private final File entriesFile;
+
+  private OutputStream entriesOut;
+
+  private long entriesLength;
+
+  private long numEntries;
+
+  CrlStreamBuilder(X500Name issuer, Date thisUpdate, Date nextUpdate) throws IOException {
+    this.issuer = notNull(issuer, "issuer");
+    this.thisUpdate = notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+
+    this.entriesFile = File.createTempFile("xipki-crl-", ".tmp");
+    try {
+      this.entriesOut = new BufferedOutputStream(
+          Files.newOutputStream(entriesFile.toPath()), 64 * 1024);
+    } catch (IOException ex) {
+      entriesFile.delete();
+      throw ex;
+    }
+  } // constructor
+
+  void addEntry(BigInteger serialNumber, Date revocationDate, Extensions extensions)
+      throws IOException {
+    ASN1EncodableVector vec = new ASN1EncodableVector(3);
+    vec.add(new ASN1Integer(serialNumber));
+    vec.add(new Time(revocationDate));
+    if (extensions != null) {
+      vec.add(extensions);
+    }
+
+    byte[] encoded = new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+    entriesOut.write(encoded);
+    entriesLength += encoded.length;
+    numEntries++;
+  } // method addEntry
+
+  void addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value)
+      throws IOException {
+    extensionsGenerator.addExtension(oid, critical, value);
+    if (value instanceof ASN1Integer) {
+      if (Extension.cRLNumber.equals(oid)) {
+        crlNumber = ((ASN1Integer) value).getPositiveValue();
+      } else if (Extension.deltaCRLIndicator.equals(oid)) {
+        baseCrlNumber = ((ASN1Integer) value).getPositiveValue();
+      }
+    }
+  } // method addExtension
+
+  /**
+   * Signs the CRL and writes it to a temporary file.
+   *
+   * @param signer
+   *          Signer of the CRL.
+   * @return the CRL, which must be closed by the caller.
+   * @throws IOException
+   *           If the CRL could not be built.
+   */
+  StreamedCrl build(ContentSigner signer) throws IOException {
+    entriesOut.close();
+    entriesOut = null;
+
+    byte[] sigAlgId = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+
+    // TBSCertList up to the header of revokedCertificates
+    ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    body.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER));
+    body.write(sigAlgId);
+    body.write(issuer.getEncoded(ASN1Encoding.DER));
+    body.write(new Time(thisUpdate).getEncoded(ASN1Encoding.DER));
+    if (nextUpdate != null) {
+      body.write(new Time(nextUpdate).getEncoded(ASN1Encoding.DER));
+    }
+    if (numEntries > 0) {
+      writeHeader(body, 0x30, entriesLength);
+    }
+
+    byte[] extensions = extensionsGenerator.isEmpty() ? new byte[0]
+        : new DERTaggedObject(true, 0, extensionsGenerator.generate())
+            .getEncoded(ASN1Encoding.DER);
+
+    long tbsBodyLength = body.size() + (numEntries > 0 ? entriesLength : 0) + extensions.length;
+    ByteArrayOutputStream prefix = new ByteArrayOutputStream(body.size() + 6);
+    writeHeader(prefix, 0x30, tbsBodyLength);
+    body.writeTo(prefix);
+    byte[] tbsPrefix = prefix.toByteArray();
+
+    OutputStream signerOut = signer.getOutputStream();
+    writeTbs(signerOut, tbsPrefix, extensions);
+    signerOut.close();
+    byte[] signature = new DERBitString(signer.getSignature()).getEncoded(ASN1Encoding.DER);
+
+    long tbsLength = tbsPrefix.length + (numEntries > 0 ? entriesLength : 0) + extensions.length;
+    long crlBodyLength = tbsLength + sigAlgId.length + signature.length;
+    long crlLength = headerLength(crlBodyLength) + crlBodyLength;
+
+    File crlFile = File.createTempFile("xipki-crl-", ".der");
+    boolean successful = false;
+    try {
+      try (OutputStream out = new BufferedOutputStream(
+          Files.newOutputStream(crlFile.toPath()), 64 * 1024)) {
+        writeHeader(out, 0x30, crlBodyLength);
+        writeTbs(out, tbsPrefix, extensions);
+        out.write(sigAlgId);
+        out.write(signature);
+      }
+      successful = true;
+    } finally {
+      if (!successful) {
+        crlFile.delete();
+      }
+    }
+
+    return new StreamedCrl(crlFile, crlLength, crlNumber, baseCrlNumber, thisUpdate, nextUpdate);
+  } // method build
+
+  private void writeTbs(OutputStream out, byte[] tbsPrefix, byte[] extensions)
+      throws IOException {
+    out.write(tbsPrefix);
+    if (numEntries > 0) {
+      try (InputStream in = Files.newInputStream(entriesFile.toPath())) {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+    out.write(extensions);
+  } // method writeTbs
+
+  private static int headerLength(long bodyLength) {
+    int len = 2;
+    if (bodyLength > 127) {
+      for (long v = bodyLength; v > 0; v >>>= 8) {
+        len++;
+      }
+    }
+    return len;
+  } // method headerLength
+
+  private static void writeHeader(OutputStream out, int tag, long bodyLength)
+      throws IOException {
+    out.write(tag);
+    if (bodyLength < 128) {
+      out.write((int) bodyLength);
+      return;
+    }
+
+    int numBytes = headerLength(bodyLength) - 2;
+    out.write(0x80 | numBytes);
+    for (int i = numBytes - 1; i >= 0; i--) {
+      out.write((int) (bodyLength >>> (8 * i)));
+    }
+  } // method writeHeader
+
+  /**
+   * Deletes the temporary file.
+   */
+  @Override
+  public void close() {
+    if (entriesOut != null) {
+      IoUtil.closeQuietly(entriesOut);
+      entriesOut = null;
+    }
+    entriesFile.delete();
+  } // method close
+
+}
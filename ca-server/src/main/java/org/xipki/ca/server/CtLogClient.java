@@ -17,6 +17,7 @@
 
 package org.xipki.ca.server;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -25,10 +26,23 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.cert.X509CertificateHolder;
@@ -36,6 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.api.mgmt.CtlogControl;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
 import org.xipki.security.ctlog.CtLog;
@@ -51,6 +66,7 @@ import org.xipki.util.Curl;
 import org.xipki.util.Curl.CurlResult;
 import org.xipki.util.DefaultCurl;
 import org.xipki.util.Hex;
+import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 import org.xipki.util.http.SslContextConf;
 
@@ -59,33 +75,255 @@ import com.alibaba.fastjson.JSON;
 /**
  * Certificate transparency (CT) log client.
  *
+ * <p>The pre-certificate is submitted to all CT Log servers concurrently. The SCTs are
+ * returned as soon as the configured minimal number of SCTs has been received, the SCTs
+ * received later are discarded. A server which failed for the configured number of times in
+ * series is skipped for the configured time (circuit breaker), after which one submission is
+ * tried again.
+ *
  * @author Lijun Liao
  */
-public class CtLogClient {
+public class CtLogClient implements Closeable {
+
+  /**
+   * Statistics of the submissions to one CT Log server.
+   *
+   * @since 5.3.9
+   */
+  public static class CtLogStatistics {
+
+    private final String url;
+
+    private final long successes;
+
+    private final long failures;
+
+    private final long skipped;
+
+    private final long[] latencyCounts;
+
+    private final boolean available;
+
+    private CtLogStatistics(String url, long successes, long failures, long skipped,
+        long[] latencyCounts, boolean available) {
+      this.url = url;
+      this.successes = successes;
+      this.failures = failures;
+      this.skipped = skipped;
+      this.latencyCounts = latencyCounts;
+      this.available = available;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public long getSuccesses() {
+      return successes;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    /**
+     * Returns the number of submissions skipped by the circuit breaker.
+     * @return the number of skipped submissions.
+     */
+    public long getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the upper bounds of the latency buckets.
+     * @return the upper bounds in milliseconds. The last bucket has no upper bound.
+     */
+    public long[] getLatencyBucketsMs() {
+      return LATENCY_BUCKETS_MS.clone();
+    }
+
+    /**
+     * Returns the number of completed submissions in each latency bucket.
+     * @return the number of submissions, one more element than
+     *         {@link #getLatencyBucketsMs()}.
+     */
+    public long[] getLatencyCounts() {
+      return latencyCounts.clone();
+    }
+
+    /**
+     * Whether the server is not skipped by the circuit breaker.
+     * @return true if the server is not skipped, false otherwise.
+     */
+    public boolean isAvailable() {
+      return available;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(200);
+      sb.append(url).append(": available=").append(available)
+        .append(", successes=").append(successes)
+        .append(", failures=").append(failures)
+        .append(", skipped=").append(skipped)
+        .append(", latency={");
+      for (int i = 0; i < latencyCounts.length; i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        sb.append(i < LATENCY_BUCKETS_MS.length ? "<=" + LATENCY_BUCKETS_MS[i]
+            : ">" + LATENCY_BUCKETS_MS[i - 1]).append("ms: ").append(latencyCounts[i]);
+      }
+      return sb.append("}").toString();
+    } // method toString
+
+  } // class CtLogStatistics
+
+  private class CtLogServer {
+
+    private final String url;
+
+    private final String addPreChainUrl;
+
+    private final long[] latencyCounts = new long[LATENCY_BUCKETS_MS.length + 1];
+
+    private long successes;
+
+    private long failures;
+
+    private long skipped;
+
+    private int consecutiveFailures;
+
+    private long openUntil;
+
+    CtLogServer(String url) {
+      this.url = url;
+      this.addPreChainUrl = url.endsWith("/")
+          ? url + "ct/v1/add-pre-chain" : url + "/ct/v1/add-pre-chain";
+    }
+
+    synchronized boolean allowSubmission() {
+      if (breakerFailures == 0 || consecutiveFailures < breakerFailures) {
+        return true;
+      }
+
+      long now = System.currentTimeMillis();
+      if (now < openUntil) {
+        skipped++;
+        return false;
+      }
+
+      // try one submission, further submissions are skipped until it fails again.
+      openUntil = now + breakerOpenMs;
+      return true;
+    } // method allowSubmission
+
+    synchronized void onSuccess(long latencyMs) {
+      successes++;
+      addLatency(latencyMs);
+      if (breakerFailures > 0 && consecutiveFailures >= breakerFailures) {
+        LOG.info("CT Log server {} is available again", url);
+      }
+      consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure(long latencyMs) {
+      failures++;
+      addLatency(latencyMs);
+      consecutiveFailures++;
+      if (breakerFailures > 0 && consecutiveFailures >= breakerFailures) {
+        openUntil = System.currentTimeMillis() + breakerOpenMs;
+        if (consecutiveFailures == breakerFailures) {
+          LOG.warn("CT Log server {} failed {} times in series, skip it for {} ms",
+              url, consecutiveFailures, breakerOpenMs);
+        }
+      }
+    } // method onFailure
+
+    private void addLatency(long latencyMs) {
+      int idx = 0;
+      while (idx < LATENCY_BUCKETS_MS.length && latencyMs > LATENCY_BUCKETS_MS[idx]) {
+        idx++;
+      }
+      latencyCounts[idx]++;
+    }
+
+    synchronized CtLogStatistics getStatistics() {
+      boolean available = breakerFailures == 0 || consecutiveFailures < breakerFailures
+          || System.currentTimeMillis() >= openUntil;
+      return new CtLogStatistics(url, successes, failures, skipped, latencyCounts.clone(),
+          available);
+    }
+
+  } // class CtLogServer
+
+  private static final Logger LOG = LoggerFactory.getLogger(CtLogClient.class);
+
+  private static final long[] LATENCY_BUCKETS_MS = {50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+  private static final AtomicInteger CLIENT_INDEX = new AtomicInteger(0);
+
+  private final DefaultCurl curl;
+
+  private final List<CtLogServer> servers;
 
-  private static Logger LOG = LoggerFactory.getLogger(CtLogClient.class);
+  private final int minScts;
 
-  private final Curl curl;
+  private final int timeoutMs;
 
-  private final List<String> addPreChainUrls;
+  private final int breakerFailures;
+
+  private final int breakerOpenMs;
+
+  private final ExecutorService executor;
 
   public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf) {
+    this(serverUrls, sslContextConf, Args.notEmpty(serverUrls, "serverUrls").size(),
+        10000, 2, 60000);
+  }
+
+  public CtLogClient(CtlogControl control, SslContextConf sslContextConf) {
+    this(Args.notNull(control, "control").getServers(), sslContextConf, control.getMinScts(),
+        control.getTimeoutMs(), control.getBreakerFailures(), control.getBreakerOpenMs());
+  }
+
+  private CtLogClient(List<String> serverUrls, SslContextConf sslContextConf, int minScts,
+      int timeoutMs, int breakerFailures, int breakerOpenMs) {
     Args.notEmpty(serverUrls, "serverUrls");
+    this.minScts = Args.range(minScts, "minScts", 1, serverUrls.size());
+    this.timeoutMs = Args.positive(timeoutMs, "timeoutMs");
+    this.breakerFailures = Args.notNegative(breakerFailures, "breakerFailures");
+    this.breakerOpenMs = Args.notNegative(breakerOpenMs, "breakerOpenMs");
 
     DefaultCurl dfltCurl  = new DefaultCurl();
     dfltCurl.setSslContextConf(sslContextConf);
+    // a submission does not block its thread much longer than the caller waits for it.
+    dfltCurl.setConnectTimeoutMs(timeoutMs);
+    dfltCurl.setReadTimeoutMs(timeoutMs);
     this.curl = dfltCurl;
-    this.addPreChainUrls = new ArrayList<>(serverUrls.size());
+
+    this.servers = new ArrayList<>(serverUrls.size());
     for (String m : serverUrls) {
-      String addPreChainUrl = m.endsWith("/")
-          ? m + "ct/v1/add-pre-chain" : m + "/ct/v1/add-pre-chain";
-      this.addPreChainUrls.add(addPreChainUrl);
+      this.servers.add(new CtLogServer(m));
     }
+
+    final String threadNamePrefix = "ctlog-client-" + CLIENT_INDEX.incrementAndGet() + "-";
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger index = new AtomicInteger(0);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadNamePrefix + index.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
   } // constructor
 
   public SignedCertificateTimestampList getCtLogScts(
       X509CertificateHolder precert, X509Cert caCert, List<X509Cert> certchain,
-      CtLogPublicKeyFinder publicKeyFinder) throws OperationException {
+      final CtLogPublicKeyFinder publicKeyFinder) throws OperationException {
     AddPreChainRequest request = new AddPreChainRequest();
     List<byte[]> chain = new LinkedList<>();
     request.setChain(chain);
@@ -97,14 +335,14 @@ public class CtLogClient {
       throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
     }
 
-    byte[] issuerKeyHash;
+    final byte[] issuerKeyHash;
     try {
       issuerKeyHash = HashAlgo.SHA256.hash(caCert.getSubjectPublicKeyInfo().getEncoded());
     } catch (IOException ex) {
       throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
     }
 
-    byte[] preCertTbsCert;
+    final byte[] preCertTbsCert;
     try {
       preCertTbsCert = CtLog.getPreCertTbsCert(precert.toASN1Structure().getTBSCertificate());
     } catch (IOException ex) {
@@ -119,75 +357,201 @@ public class CtLogClient {
       }
     }
 
-    byte[] content = JSON.toJSONBytes(request);
+    final byte[] content = JSON.toJSONBytes(request);
     if (LOG.isDebugEnabled()) {
       LOG.debug("CTLog Request: {}", StringUtil.toUtf8String(content));
     }
 
-    List<SignedCertificateTimestamp> scts = new ArrayList<>(addPreChainUrls.size());
-    Map<String, String> headers = new HashMap<>();
-    headers.put("content-type", "application/json");
-    for (String url : addPreChainUrls) {
-      CurlResult res;
-      try {
-        res = curl.curlPost(url, false, headers, null, content);
-      } catch (Exception ex) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "error while calling " + url + ": " + ex.getMessage());
-      }
+    final int n = servers.size();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    CompletionService<SignedCertificateTimestamp> completionService =
+        new ExecutorCompletionService<>(executor);
+    Map<Future<SignedCertificateTimestamp>, Integer> indexes = new IdentityHashMap<>(n);
+    String[] errors = new String[n];
 
-      byte[] respContent = res.getContent();
-      if (respContent == null) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "server does not return any content while responding " + url);
+    for (int i = 0; i < n; i++) {
+      final CtLogServer server = servers.get(i);
+      if (!server.allowSubmission()) {
+        errors[i] = "skipped after consecutive failures";
+        continue;
       }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
-      }
+      Callable<SignedCertificateTimestamp> task = new Callable<SignedCertificateTimestamp>() {
+        @Override
+        public SignedCertificateTimestamp call() throws Exception {
+          long start = System.currentTimeMillis();
+          boolean successful = false;
+          try {
+            SignedCertificateTimestamp sct = submit(server, content, issuerKeyHash,
+                preCertTbsCert, publicKeyFinder);
+            successful = true;
+            return sct;
+          } finally {
+            long latency = System.currentTimeMillis() - start;
+            if (successful) {
+              server.onSuccess(latency);
+            } else {
+              server.onFailure(latency);
+            }
+          }
+        }
+      };
 
-      AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+      try {
+        indexes.put(completionService.submit(task), i);
+      } catch (RejectedExecutionException ex) {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "CtLogClient is closed");
+      }
+    }
 
-      DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
-      byte sctVersion = resp.getSct_version();
-      byte[] logId = resp.getId();
-      String hexLogId = Hex.encodeUpper(logId);
-      long timestamp = resp.getTimestamp();
-      byte[] extensions = resp.getExtensions();
+    SignedCertificateTimestamp[] scts = new SignedCertificateTimestamp[n];
+    int numScts = 0;
+    int numPending = indexes.size();
+    // the number of servers which have not failed yet
+    int numCandidates = numPending;
 
-      PublicKey verifyKey = publicKeyFinder == null ? null : publicKeyFinder.getPublicKey(logId);
-      if (verifyKey == null) {
-        LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
-      } else {
-        SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
-        String sigAlgo = getSignatureAlgo(algorithm);
+    try {
+      while (numScts < minScts && numCandidates >= minScts && numPending > 0) {
+        long waitNs = deadline - System.nanoTime();
+        Future<SignedCertificateTimestamp> future = (waitNs <= 0) ? null
+            : completionService.poll(waitNs, TimeUnit.NANOSECONDS);
+        if (future == null) {
+          break;
+        }
 
-        boolean sigValid;
+        numPending--;
+        int idx = indexes.remove(future);
         try {
-          Signature sig = Signature.getInstance(sigAlgo, "BC");
-          sig.initVerify(verifyKey);
-          CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
-          sigValid = sig.verify(ds.getSignature());
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
-            | SignatureException ex) {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
+          scts[idx] = future.get();
+          numScts++;
+        } catch (ExecutionException ex) {
+          numCandidates--;
+          Throwable cause = ex.getCause();
+          errors[idx] = cause.getMessage();
+          LogUtil.warn(LOG, cause, "could not get SCT from " + servers.get(idx).url);
         }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "interrupted while waiting for the SCTs");
+    } finally {
+      // the SCTs of the remaining servers are not required anymore.
+      for (Future<SignedCertificateTimestamp> future : indexes.keySet()) {
+        future.cancel(true);
+      }
+    }
 
-        if (sigValid) {
-          LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
-        } else {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "SCT signature is invalid");
+    if (numScts < minScts) {
+      for (Integer idx : indexes.values()) {
+        errors[idx] = "timed out after " + timeoutMs + " ms";
+      }
+
+      StringBuilder sb = new StringBuilder(200);
+      sb.append("received only ").append(numScts).append(" of ").append(minScts)
+        .append(" required SCTs");
+      for (int i = 0; i < n; i++) {
+        if (errors[i] != null) {
+          sb.append("; ").append(servers.get(i).url).append(": ").append(errors[i]);
         }
       }
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE, sb.toString());
+    }
 
-      SignedCertificateTimestamp sct = new SignedCertificateTimestamp(sctVersion,
-          logId, timestamp, extensions, ds);
-      scts.add(sct);
+    // keep the order of the configured servers
+    List<SignedCertificateTimestamp> sctList = new ArrayList<>(numScts);
+    for (SignedCertificateTimestamp sct : scts) {
+      if (sct != null) {
+        sctList.add(sct);
+      }
     }
 
-    return new SignedCertificateTimestampList(new SerializedSCT(scts));
+    return new SignedCertificateTimestampList(new SerializedSCT(sctList));
   } // method getCtLogScts
 
+  private SignedCertificateTimestamp submit(CtLogServer server, byte[] content,
+      byte[] issuerKeyHash, byte[] preCertTbsCert, CtLogPublicKeyFinder publicKeyFinder)
+      throws OperationException {
+    String url = server.addPreChainUrl;
+    Map<String, String> headers = new HashMap<>();
+    headers.put("content-type", "application/json");
+
+    CurlResult res;
+    try {
+      res = curl.curlPost(url, false, headers, null, content);
+    } catch (Exception ex) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "error while calling " + url + ": " + ex.getMessage());
+    }
+
+    byte[] respContent = res.getContent();
+    if (respContent == null) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "server does not return any content while responding " + url);
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
+    }
+
+    AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+
+    DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
+    byte sctVersion = resp.getSct_version();
+    byte[] logId = resp.getId();
+    String hexLogId = Hex.encodeUpper(logId);
+    long timestamp = resp.getTimestamp();
+    byte[] extensions = resp.getExtensions();
+
+    PublicKey verifyKey = publicKeyFinder == null ? null : publicKeyFinder.getPublicKey(logId);
+    if (verifyKey == null) {
+      LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
+    } else {
+      SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
+      String sigAlgo = getSignatureAlgo(algorithm);
+
+      boolean sigValid;
+      try {
+        Signature sig = Signature.getInstance(sigAlgo, "BC");
+        sig.initVerify(verifyKey);
+        CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
+        sigValid = sig.verify(ds.getSignature());
+      } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
+          | SignatureException ex) {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
+      }
+
+      if (sigValid) {
+        LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
+      } else {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "SCT signature is invalid");
+      }
+    }
+
+    return new SignedCertificateTimestamp(sctVersion, logId, timestamp, extensions, ds);
+  } // method submit
+
+  /**
+   * Returns the statistics of the CT Log servers.
+   * @return the statistics, in the order of the configured servers.
+   * @since 5.3.9
+   */
+  public List<CtLogStatistics> getStatistics() {
+    List<CtLogStatistics> ret = new ArrayList<>(servers.size());
+    for (CtLogServer server : servers) {
+      ret.add(server.getStatistics());
+    }
+    return Collections.unmodifiableList(ret);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("CT Log statistics: {}", Arrays.toString(getStatistics().toArray()));
+    }
+  }
+
   private static String getSignatureAlgo(SignatureAndHashAlgorithm algorithm)
       throws OperationException {
     String hashName;
@@ -0,0 +1,360 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ProcessLog;
+
+/**
+ * Publishes the certificates in the publish queue of one CA and one publisher.
+ *
+ * <p>The calling thread reads the queue page by page and retrieves the certificates of each
+ * page with a few queries. The certificates are published by the configured number of
+ * consumers, which run in the executor of the CA, a failed certificate is retried with
+ * exponential backoff. The published
+ * certificates are removed from the queue in batches. Certificates which could not be
+ * published remain in the queue for the next run, the run is aborted only if
+ * {@value #MAX_CONSECUTIVE_FAILURES} certificates failed in series.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class PublishQueueProcessor {
+
+  private class Consumer implements Runnable {
+
+    private final List<Long> publishedIds = new ArrayList<>(REMOVE_BATCH_SIZE);
+
+    @Override
+    public void run() {
+      try {
+        while (!stop.get()) {
+          CertificateInfo certInfo;
+          try {
+            certInfo = queue.poll(1, TimeUnit.SECONDS);
+          } catch (InterruptedException ex) {
+            stop.set(true);
+            break;
+          }
+
+          if (certInfo == null) {
+            if (producerFinished) {
+              break;
+            }
+            continue;
+          }
+
+          if (publish(certInfo)) {
+            consecutiveFailures.set(0);
+            publishedIds.add(certInfo.getCert().getCertId());
+            if (publishedIds.size() >= REMOVE_BATCH_SIZE) {
+              removeFromQueue(publishedIds);
+            }
+          } else {
+            numFailed.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+              LOG.error("{} certificates could not be published to {} in series, abort",
+                  MAX_CONSECUTIVE_FAILURES, publisher.getIdent().getName());
+              stop.set(true);
+            }
+          }
+          processLog.addNumProcessed(1);
+        }
+      } finally {
+        removeFromQueue(publishedIds);
+      }
+    } // method run
+
+    private boolean publish(CertificateInfo certInfo) {
+      long backoffMs = retryBackoffMs;
+      for (int i = 0; ; i++) {
+        try {
+          if (publisher.certificateAdded(certInfo)) {
+            return true;
+          }
+        } catch (RuntimeException ex) {
+          LogUtil.warn(LOG, ex, "could not publish certificate id="
+              + certInfo.getCert().getCertId());
+        }
+
+        if (i >= maxRetries || stop.get()) {
+          LOG.error("republishing certificate id={} failed", certInfo.getCert().getCertId());
+          return false;
+        }
+
+        try {
+          Thread.sleep(backoffMs);
+        } catch (InterruptedException ex) {
+          stop.set(true);
+          return false;
+        }
+        backoffMs *= 2;
+      }
+    } // method publish
+
+    private void removeFromQueue(List<Long> certIds) {
+      if (certIds.isEmpty()) {
+        return;
+      }
+
+      try {
+        certstore.removeFromPublishQueue(publisher.getIdent(), certIds);
+      } catch (OperationException ex) {
+        // the certificates will be published again in the next run.
+        LogUtil.warn(LOG, ex, "could not remove " + certIds.size()
+            + " republished certificates of publisher " + publisher.getIdent().getName());
+      }
+      certIds.clear();
+    } // method removeFromQueue
+
+  } // class Consumer
+
+  private static final Logger LOG = LoggerFactory.getLogger(PublishQueueProcessor.class);
+
+  private static final int MAX_CONSECUTIVE_FAILURES = 100;
+
+  private static final int REMOVE_BATCH_SIZE = 100;
+
+  private static final long STATUS_INTERVAL_MS = 10000;
+
+  private final NameId ca;
+
+  private final X509Cert caCert;
+
+  private final CaIdNameMap caIdNameMap;
+
+  private final CertStore certstore;
+
+  private final IdentifiedCertPublisher publisher;
+
+  private final ExecutorService executor;
+
+  private final int numThreads;
+
+  private final int batchSize;
+
+  private final int maxRetries;
+
+  private final long retryBackoffMs;
+
+  private final BlockingQueue<CertificateInfo> queue;
+
+  private final AtomicBoolean stop = new AtomicBoolean(false);
+
+  private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+
+  private final AtomicLong numFailed = new AtomicLong(0);
+
+  private volatile boolean producerFinished;
+
+  private ProcessLog processLog;
+
+  PublishQueueProcessor(NameId ca, X509Cert caCert, CaIdNameMap caIdNameMap,
+      CertStore certstore, IdentifiedCertPublisher publisher, ExecutorService executor,
+      CaServerConf.PublishQueue conf) {
+    this.ca = Args.notNull(ca, "ca");
+    this.caCert = Args.notNull(caCert, "caCert");
+    this.caIdNameMap = Args.notNull(caIdNameMap, "caIdNameMap");
+    this.certstore = Args.notNull(certstore, "certstore");
+    this.publisher = Args.notNull(publisher, "publisher");
+    this.executor = Args.notNull(executor, "executor");
+    Args.notNull(conf, "conf");
+    this.numThreads = Args.positive(conf.getThreads(), "conf.threads");
+    this.batchSize = Args.positive(conf.getBatchSize(), "conf.batchSize");
+    this.maxRetries = Args.notNegative(conf.getMaxRetries(), "conf.maxRetries");
+    this.retryBackoffMs = Args.notNegative(conf.getRetryBackoffMs(), "conf.retryBackoffMs");
+    this.queue = new ArrayBlockingQueue<>(2 * batchSize);
+  } // constructor
+
+  /**
+   * Publishes the certificates in the publish queue.
+   * @return true if all certificates have been published, false otherwise.
+   */
+  boolean process() {
+    List<Long> certIds;
+    try {
+      certIds = certstore.getPublishQueueEntries(ca, publisher.getIdent(), 0, batchSize);
+    } catch (OperationException ex) {
+      LogUtil.error(LOG, ex);
+      return false;
+    }
+
+    if (certIds.isEmpty()) {
+      return true;
+    }
+
+    long total = 0;
+    try {
+      total = certstore.getCountOfPublishQueueEntries(ca, publisher.getIdent());
+    } catch (OperationException ex) {
+      LogUtil.warn(LOG, ex, "could not count the entries in the publish queue");
+    }
+
+    processLog = new ProcessLog(total);
+    LOG.info("publishing {} certificates of CA {} in PUBLISHQUEUE to {}",
+        total, ca.getName(), publisher.getIdent().getName());
+
+    List<Future<?>> consumers = new ArrayList<>(numThreads);
+    boolean successful;
+    try {
+      for (int i = 0; i < numThreads; i++) {
+        consumers.add(executor.submit(new Consumer()));
+      }
+      successful = produce(certIds);
+    } finally {
+      producerFinished = true;
+    }
+
+    boolean interrupted = false;
+    for (Future<?> consumer : consumers) {
+      while (true) {
+        try {
+          consumer.get(STATUS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException ex) {
+          logStatus();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+          stop.set(true);
+        } catch (ExecutionException ex) {
+          LogUtil.error(LOG, ex.getCause(), "error while publishing certificates");
+          successful = false;
+          break;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    processLog.finish();
+    long failed = numFailed.get();
+    LOG.info("published {} certificates of CA {} in PUBLISHQUEUE to {} in {} ms ({}/s), "
+        + "{} failed", processLog.numProcessed() - failed, ca.getName(),
+        publisher.getIdent().getName(), processLog.totalElapsedTime(),
+        processLog.totalAverageSpeed(), failed);
+
+    return successful && !stop.get() && failed == 0;
+  } // method process
+
+  private boolean produce(List<Long> firstCertIds) {
+    List<Long> certIds = firstCertIds;
+    long lastStatusTime = System.currentTimeMillis();
+
+    while (!stop.get()) {
+      Map<Long, CertificateInfo> certInfos;
+      try {
+        certInfos = certstore.getCertsForIds(ca, caCert, certIds, caIdNameMap);
+      } catch (OperationException | CertificateException ex) {
+        LogUtil.error(LOG, ex, "could not retrieve certificates to be published");
+        return false;
+      }
+
+      List<Long> unknownIds = null;
+      for (Long certId : certIds) {
+        CertificateInfo certInfo = certInfos.get(certId);
+        if (certInfo == null) {
+          if (unknownIds == null) {
+            unknownIds = new ArrayList<>();
+          }
+          unknownIds.add(certId);
+          continue;
+        }
+
+        try {
+          while (!queue.offer(certInfo, 1, TimeUnit.SECONDS)) {
+            if (stop.get()) {
+              return false;
+            }
+          }
+        } catch (InterruptedException ex) {
+          stop.set(true);
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+
+      if (unknownIds != null) {
+        // certificates which do not exist anymore cannot be published.
+        LOG.warn("remove {} unknown certificates from PUBLISHQUEUE", unknownIds.size());
+        try {
+          certstore.removeFromPublishQueue(publisher.getIdent(), unknownIds);
+        } catch (OperationException ex) {
+          LogUtil.warn(LOG, ex, "could not remove unknown certificates from PUBLISHQUEUE");
+        }
+      }
+
+      long now = System.currentTimeMillis();
+      if (now - lastStatusTime >= STATUS_INTERVAL_MS) {
+        logStatus();
+        lastStatusTime = now;
+      }
+
+      if (certIds.size() < batchSize) {
+        break;
+      }
+
+      long nextId = certIds.get(certIds.size() - 1) + 1;
+      try {
+        certIds = certstore.getPublishQueueEntries(ca, publisher.getIdent(), nextId, batchSize);
+      } catch (OperationException ex) {
+        LogUtil.error(LOG, ex);
+        return false;
+      }
+
+      if (certIds.isEmpty()) {
+        break;
+      }
+    }
+
+    return !stop.get();
+  } // method produce
+
+  private void logStatus() {
+    long processed = processLog.numProcessed();
+    long elapsed = System.currentTimeMillis() - processLog.startTimeMs();
+    LOG.info("publishing certificates of CA {} to {}: {} of {} processed ({}/s), {} failed",
+        ca.getName(), publisher.getIdent().getName(), processed, processLog.total(),
+        (elapsed > 0) ? processed * 1000 / elapsed : 0, numFailed.get());
+  } // method logStatus
+
+}
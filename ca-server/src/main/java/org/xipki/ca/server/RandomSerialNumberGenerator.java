@@ -23,47 +23,114 @@ import java.security.SecureRandom;
 /**
  * Random serial number generator.
  *
+ * <p>To avoid the contention on one {@link SecureRandom}, the random bytes are taken from
+ * several stripes, each with its own {@link SecureRandom} and a buffer of pre-generated random
+ * bytes. The stripe is chosen by the id of the current thread.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
-class RandomSerialNumberGenerator {
+class RandomSerialNumberGenerator implements SerialNumberGenerator {
+
+  private static class Stripe {
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int offset = BUFFER_SIZE;
+
+    synchronized void nextBytes(byte[] bytes) {
+      if (bytes.length > BUFFER_SIZE) {
+        random.nextBytes(bytes);
+        return;
+      }
+
+      if (offset + bytes.length > BUFFER_SIZE) {
+        random.nextBytes(buffer);
+        offset = 0;
+      }
+
+      System.arraycopy(buffer, offset, bytes, 0, bytes.length);
+      offset += bytes.length;
+    } // method nextBytes
+
+  } // class Stripe
+
+  private static final int BUFFER_SIZE = 4096;
 
   private static RandomSerialNumberGenerator instance;
 
-  private final SecureRandom random;
+  private final Stripe[] stripes;
+
+  private final int stripeMask;
 
   private RandomSerialNumberGenerator() {
-    this.random = new SecureRandom();
-  }
+    // power of 2, not less than twice the number of processors
+    int numStripes = Integer.highestOneBit(
+        Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+    this.stripes = new Stripe[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.stripeMask = numStripes - 1;
+  } // constructor
 
   /**
    * Generate the next serial number.
    * @param byteLen byte length of the serial number.
    * @return the serial number.
    */
+  @Override
   public BigInteger nextSerialNumber(int byteLen) {
     final byte[] rndBytes = new byte[byteLen];
     final int minWeight = byteLen * 2;
+    final Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
 
     while (true) {
-      random.nextBytes(rndBytes);
+      stripe.nextBytes(rndBytes);
       // set the first bit to 0.
       rndBytes[0] &= 0x7F;
 
       // check NAF weight
-      BigInteger bi = new BigInteger(rndBytes);
-
-      BigInteger threeBi = bi.shiftLeft(1).add(bi);
-      BigInteger diff = threeBi.xor(bi);
-      int nafWeight = diff.bitCount();
-      if (nafWeight >= minWeight) {
-        return bi;
+      if (nafWeight(rndBytes) >= minWeight) {
+        return new BigInteger(rndBytes);
       }
     }
-
   } // method nextSerialNumber
 
+  /**
+   * Fills the array with random bytes.
+   * @param bytes array to be filled.
+   */
+  void nextBytes(byte[] bytes) {
+    stripes[(int) Thread.currentThread().getId() & stripeMask].nextBytes(bytes);
+  }
+
+  /**
+   * Computes the number of bits set in {@code (3 * n) XOR n}, where n is the non-negative
+   * big-endian integer {@code bytes}, without creating any object.
+   * @param bytes big-endian encoded non-negative integer.
+   * @return the NAF weight as computed by {@code n.shiftLeft(1).add(n).xor(n).bitCount()}.
+   */
+  static int nafWeight(byte[] bytes) {
+    int weight = 0;
+    int carry = 0;
+    // the highest bit of the less significant byte, shifted into the current byte.
+    int shiftIn = 0;
+    for (int i = bytes.length - 1; i >= 0; i--) {
+      int v = bytes[i] & 0xFF;
+      int sum = v + (((v << 1) | shiftIn) & 0xFF) + carry;
+      weight += Integer.bitCount((sum & 0xFF) ^ v);
+      carry = sum >>> 8;
+      shiftIn = v >>> 7;
+    }
+
+    // bits of 3 * n above the most significant byte, those of n are 0.
+    return weight + Integer.bitCount(carry + shiftIn);
+  } // method nafWeight
+
   public static synchronized RandomSerialNumberGenerator getInstance() {
     if (instance == null) {
       instance = new RandomSerialNumberGenerator();
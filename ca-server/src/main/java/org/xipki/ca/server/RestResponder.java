@@ -24,9 +24,13 @@ import static org.xipki.audit.AuditStatus.FAILED;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
@@ -65,6 +69,7 @@ import org.xipki.util.PemEncoder;
 import org.xipki.util.PemEncoder.PemLabel;
 import org.xipki.util.RandomUtil;
 import org.xipki.util.StringUtil;
+import org.xipki.util.http.ConditionalRequests;
 
 /**
  * REST API responder.
@@ -168,6 +173,8 @@ public class RestResponder {
 
   private static final int OK = 200;
 
+  private static final int NOT_MODIFIED = 304;
+
   private static final int BAD_REQUEST = 400;
 
   private static final int UNAUTHORIZED = 401;
@@ -184,6 +191,10 @@ public class RestResponder {
 
   private static final Logger LOG = LoggerFactory.getLogger(RestResponder.class);
 
+  private static final DateTimeFormatter HTTP_DATE_FORMATTER =
+      DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+          .withZone(ZoneOffset.UTC);
+
   private final CaManagerImpl responderManager;
 
   public RestResponder(CaManagerImpl responderManager) {
@@ -536,15 +547,24 @@ public class RestResponder {
           }
         }
 
-        X509CRLHolder crl = ca.getCrl(crlNumber);
+        CachedCrl crl = ca.getCachedCrl(crlNumber);
         if (crl == null) {
           String message = "could not get CRL";
           LOG.warn(message);
           throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, message, INFO, FAILED);
         }
 
-        respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RestAPIConstants.HEADER_PKISTATUS, RestAPIConstants.PKISTATUS_accepted);
+        headers.put("ETag", crl.getEtag());
+        headers.put("Last-Modified", HTTP_DATE_FORMATTER.format(
+            Instant.ofEpochMilli(crl.getThisUpdate())));
+        if (ConditionalRequests.isNotModified(httpRetriever.getHeader("If-None-Match"),
+            httpRetriever.getHeader("If-Modified-Since"), crl.getEtag(), crl.getThisUpdate())) {
+          return new RestResponse(NOT_MODIFIED, null, headers, null);
+        }
+
+        return new RestResponse(OK, RestAPIConstants.CT_pkix_crl, headers, crl.getEncoded());
       } else if (RestAPIConstants.CMD_new_crl.equals(command)) {
         try {
           requestor.assertPermitted(PermissionConstants.GEN_CRL);
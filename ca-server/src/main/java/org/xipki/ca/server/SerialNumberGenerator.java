@@ -0,0 +1,38 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+
+/**
+ * Serial number generator.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+interface SerialNumberGenerator {
+
+  /**
+   * Generate the next serial number.
+   * @param byteLen byte length of the serial number.
+   * @return the serial number.
+   */
+  BigInteger nextSerialNumber(int byteLen);
+
+}
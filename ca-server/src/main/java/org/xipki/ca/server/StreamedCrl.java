@@ -0,0 +1,218 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import static org.xipki.util.Args.notNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bouncycastle.cert.X509CRLHolder;
+import org.xipki.util.Base64;
+
+/**
+ * DER-encoded CRL held in a temporary file, as built by {@link CrlStreamBuilder}. The CRL can be
+ * read as a stream, so that it does not need to be held in memory as a whole.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class StreamedCrl implements Closeable {
+
+  /**
+   * Reads a stream and returns its Base64 encoding (without line breaks).
+   */
+  private static class Base64Reader extends Reader {
+
+    private final InputStream in;
+
+    private final byte[] block = new byte[3 * 1024];
+
+    private char[] chars = new char[0];
+
+    private int charsOffset;
+
+    private boolean eof;
+
+    Base64Reader(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      if (charsOffset == chars.length) {
+        if (!fill()) {
+          return -1;
+        }
+      }
+
+      int n = Math.min(len, chars.length - charsOffset);
+      System.arraycopy(chars, charsOffset, cbuf, off, n);
+      charsOffset += n;
+      return n;
+    } // method read
+
+    private boolean fill() throws IOException {
+      if (eof) {
+        return false;
+      }
+
+      // read a complete block, only the last block may be shorter than the block size, so
+      // that padding is only applied at the end.
+      int blockLen = 0;
+      while (blockLen < block.length) {
+        int read = in.read(block, blockLen, block.length - blockLen);
+        if (read == -1) {
+          eof = true;
+          break;
+        }
+        blockLen += read;
+      }
+
+      if (blockLen == 0) {
+        return false;
+      }
+
+      chars = Base64.encodeToChar(
+          (blockLen == block.length) ? block : Arrays.copyOf(block, blockLen));
+      charsOffset = 0;
+      return true;
+    } // method fill
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  } // class Base64Reader
+
+  private final File file;
+
+  private final long length;
+
+  private final BigInteger crlNumber;
+
+  private final BigInteger baseCrlNumber;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  StreamedCrl(File file, long length, BigInteger crlNumber, BigInteger baseCrlNumber,
+      Date thisUpdate, Date nextUpdate) {
+    this.file = notNull(file, "file");
+    this.length = length;
+    this.crlNumber = crlNumber;
+    this.baseCrlNumber = baseCrlNumber;
+    this.thisUpdate = notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+  } // constructor
+
+  /**
+   * Returns the length of the encoded CRL.
+   * @return the length in bytes.
+   */
+  long getLength() {
+    return length;
+  }
+
+  BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  /**
+   * Returns the CRL number of the base CRL.
+   * @return the base CRL number, {@code null} if this is not a delta CRL.
+   */
+  BigInteger getBaseCrlNumber() {
+    return baseCrlNumber;
+  }
+
+  Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  InputStream openStream() throws IOException {
+    return new BufferedInputStream(Files.newInputStream(file.toPath()), 64 * 1024);
+  }
+
+  /**
+   * Returns a reader of the Base64 encoding of the CRL.
+   * @return a reader of {@link #getBase64Length()} characters.
+   * @throws IOException
+   *           If the file could not be opened.
+   */
+  Reader openBase64Reader() throws IOException {
+    return new Base64Reader(openStream());
+  }
+
+  long getBase64Length() {
+    return (length + 2) / 3 * 4;
+  }
+
+  /**
+   * Reads the whole encoded CRL into memory.
+   * @return the encoded CRL.
+   * @throws IOException
+   *           If the CRL is too large or could not be read.
+   */
+  byte[] getEncoded() throws IOException {
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new IOException("CRL is too large: " + length + " bytes");
+    }
+    return Files.readAllBytes(file.toPath());
+  }
+
+  /**
+   * Parses the CRL.
+   * @return the parsed CRL.
+   * @throws IOException
+   *           If the CRL could not be read or parsed.
+   */
+  X509CRLHolder toCrlHolder() throws IOException {
+    try (InputStream in = openStream()) {
+      return new X509CRLHolder(in);
+    }
+  }
+
+  /**
+   * Deletes the temporary file.
+   */
+  @Override
+  public void close() {
+    file.delete();
+  }
+
+}
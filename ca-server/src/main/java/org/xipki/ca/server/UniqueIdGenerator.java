@@ -67,6 +67,14 @@ class UniqueIdGenerator {
     this.accumulatorFunction = new OffsetIncrement();
   } // constructor
 
+  long getEpoch() {
+    return epoch;
+  }
+
+  int getShardId() {
+    return shardId;
+  }
+
   public long nextId() {
     long now = System.currentTimeMillis();
     long ret = now - epoch;
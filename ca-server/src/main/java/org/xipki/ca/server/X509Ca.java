@@ -53,15 +53,23 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -93,7 +101,6 @@ import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.slf4j.Logger;
@@ -131,12 +138,14 @@ import org.xipki.ca.api.profile.KeypairGenControl;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.ContentVerifierProviderCache;
 import org.xipki.security.CrlReason;
 import org.xipki.security.EdECConstants;
 import org.xipki.security.KeyUsage;
 import org.xipki.security.NoIdleSignerException;
 import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.ObjectIdentifiers.Extn;
+import org.xipki.security.SignerPriority;
 import org.xipki.security.X509Cert;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.ctlog.CtLog.SignedCertificateTimestampList;
@@ -310,7 +319,8 @@ public class X509Ca implements Closeable {
       long maxIdOfDeltaCrlCache;
       try {
         maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-        generateCrl(createDeltaCrlNow, now, nextUpdate, CaAuditConstants.MSGID_ca_routine);
+        generateCrl(createDeltaCrlNow, now, nextUpdate, false,
+            CaAuditConstants.MSGID_ca_routine);
       } catch (Throwable th) {
         LogUtil.error(LOG, th);
         return;
@@ -325,6 +335,28 @@ public class X509Ca implements Closeable {
 
   } // class CrlGenerationService
 
+  private class CrlCacheRefresher implements Runnable {
+
+    @Override
+    public void run() {
+      CachedCrl crl = currentCrl;
+      if (crl == null) {
+        return;
+      }
+
+      try {
+        long maxCrlNumber = certstore.getMaxCrlNumber(caIdent);
+        if (crl.getCrlNumber() == null || crl.getCrlNumber().longValue() != maxCrlNumber) {
+          // a new CRL has been generated by the CA in master mode
+          invalidateCrlCache(crl);
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not check the CRL of CA " + caIdent.getName());
+      }
+    } // method run
+
+  } // class CrlCacheRefresher
+
   private class SuspendedCertsRevoker implements Runnable {
 
     private boolean inProcess;
@@ -394,6 +426,10 @@ public class X509Ca implements Closeable {
 
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
+  // shared by all CAs, the verifiers of the CA keys are created only once.
+  private static final ContentVerifierProviderCache VERIFIERS =
+      new ContentVerifierProviderCache(100);
+
   private final CaInfo caInfo;
 
   private final NameId caIdent;
@@ -423,6 +459,24 @@ public class X509Ca implements Closeable {
 
   private ScheduledFuture<?> suspendedCertsRevoker;
 
+  private ScheduledFuture<?> crlCacheRefresher;
+
+  // generates the certificates of one request in parallel, null if not configured.
+  private ExecutorService certgenExecutor;
+
+  // publishes the certificates in the publish queue, created on first use.
+  private ExecutorService publishQueueExecutor;
+
+  private final Object publishQueueExecutorLock = new Object();
+
+  // number of generated certificates, used to verify only every n-th certificate.
+  private final AtomicLong numGeneratedCerts = new AtomicLong();
+
+  private final Object crlCacheLock = new Object();
+
+  // the current CRL, null if not loaded yet.
+  private volatile CachedCrl currentCrl;
+
   public X509Ca(CaManagerImpl caManager, CaInfo caInfo, CertStore certstore,
       CtLogClient ctlogClient)
       throws OperationException {
@@ -493,7 +547,32 @@ public class X509Ca implements Closeable {
       }
     }
 
+    int certgenParallelism = caInfo.getCertgenParallelism();
+    if (certgenParallelism > 1) {
+      final String threadNamePrefix = "ca-certgen-" + caIdent.getName() + "-";
+      this.certgenExecutor = Executors.newFixedThreadPool(certgenParallelism - 1,
+          new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, threadNamePrefix + index.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    }
+
+    Random random = new Random();
+    ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
+
     if (!masterMode) {
+      // The CRLs are generated by the CA in master mode, check whether the cached CRL is
+      // still the current one.
+      if (caInfo.getCrlControl() != null) {
+        this.crlCacheRefresher = executor.scheduleAtFixedRate(
+            new CrlCacheRefresher(), 60 + random.nextInt(60), 60, TimeUnit.SECONDS);
+      }
       return;
     }
 
@@ -501,8 +580,6 @@ public class X509Ca implements Closeable {
       publisher.caAdded(caCert);
     }
 
-    Random random = new Random();
-    ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     // CRL generation services
     this.crlGenerationService = executor.scheduleAtFixedRate(
         new CrlGenerationService(), 60 + random.nextInt(60), 60, TimeUnit.SECONDS);
@@ -594,66 +671,91 @@ public class X509Ca implements Closeable {
   }
 
   public X509CRLHolder getCrl(BigInteger crlNumber) throws OperationException {
-    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
-    boolean successful = false;
-
+    CachedCrl crl = getCachedCrl(crlNumber);
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
-        return null;
-      }
-
-      try {
-        X509CRLHolder crl = X509Util.parseCrl(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
-              crl.getThisUpdate());
-        }
-        return crl;
-      } catch (CRLException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
-      }
-    } finally {
-      if (!successful) {
-        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
-      }
+      return (crl == null) ? null : crl.getCrl();
+    } catch (CRLException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
     }
-  } // method getCrl
+  }
 
   public CertificateList getBcCurrentCrl() throws OperationException {
     return getBcCrl(null);
   }
 
   public CertificateList getBcCrl(BigInteger crlNumber) throws OperationException {
+    CachedCrl crl = getCachedCrl(crlNumber);
+    try {
+      return (crl == null) ? null : crl.getCrl().toASN1Structure();
+    } catch (CRLException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  }
+
+  /**
+   * Returns the CRL. The current CRL is kept in memory until a new CRL is generated.
+   *
+   * @param crlNumber
+   *          CRL number. {@code null} for the current CRL.
+   * @return the CRL, or {@code null} if not available.
+   * @throws OperationException
+   *           If the CRL could not be retrieved.
+   */
+  CachedCrl getCachedCrl(BigInteger crlNumber) throws OperationException {
     LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
     boolean successful = false;
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
-      if (encodedCrl == null) {
+      CachedCrl crl = currentCrl;
+      if (crl == null) {
+        synchronized (crlCacheLock) {
+          if (currentCrl == null) {
+            byte[] encodedCrl = certstore.getEncodedCrl(caIdent, null);
+            if (encodedCrl != null) {
+              currentCrl = parseCrl(encodedCrl);
+            }
+          }
+          crl = currentCrl;
+        }
+      }
+
+      if (crl != null && crlNumber != null && !crlNumber.equals(crl.getCrlNumber())) {
+        byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
+        crl = (encodedCrl == null) ? null : parseCrl(encodedCrl);
+      }
+
+      if (crl == null) {
         return null;
       }
 
-      try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
-        successful = true;
-        if (LOG.isInfoEnabled()) {
-          LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
-              crl.getThisUpdate().getTime());
-        }
-        return crl;
-      } catch (RuntimeException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
+      successful = true;
+      if (LOG.isInfoEnabled()) {
+        LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
+            new Date(crl.getThisUpdate()));
       }
+      return crl;
     } finally {
       if (!successful) {
         LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
       }
     }
-  } // method getCrl
+  } // method getCachedCrl
+
+  private static CachedCrl parseCrl(byte[] encodedCrl) throws OperationException {
+    try {
+      return new CachedCrl(encodedCrl);
+    } catch (CRLException | RuntimeException ex) {
+      throw new OperationException(SYSTEM_FAILURE, ex);
+    }
+  }
+
+  private void invalidateCrlCache(CachedCrl crl) {
+    synchronized (crlCacheLock) {
+      if (currentCrl == crl) {
+        currentCrl = null;
+      }
+    }
+  }
 
   private void cleanupCrlsWithoutException(String msgId) throws OperationException {
     try {
@@ -711,7 +813,7 @@ public class X509Ca implements Closeable {
           + (intervals + control.getOverlapDays()) * MS_PER_DAY);
 
       long maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-      X509CRLHolder crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
+      X509CRLHolder crl = generateCrl(false, thisUpdate, nextUpdate, true, msgId);
       if (crl == null) {
         return null;
       }
@@ -727,12 +829,21 @@ public class X509Ca implements Closeable {
     }
   } // method generateCrlOnDemand
 
+  /**
+   * Generates the CRL.
+   *
+   * @param returnCrl
+   *          Whether the generated CRL is returned. If {@code false}, the CRL is only parsed if
+   *          it has to be passed to the publishers.
+   * @return the CRL if {@code returnCrl} is {@code true}, {@code null} otherwise.
+   */
   private X509CRLHolder generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
-      String msgId) throws OperationException {
+      boolean returnCrl, String msgId) throws OperationException {
     boolean successful = false;
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_crl, msgId);
     try {
-      X509CRLHolder crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
+      X509CRLHolder crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, returnCrl, event,
+          msgId);
       successful = true;
       return crl;
     } finally {
@@ -741,7 +852,7 @@ public class X509Ca implements Closeable {
   }
 
   private X509CRLHolder generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
-      AuditEvent event, String msgId) throws OperationException {
+      boolean returnCrl, AuditEvent event, String msgId) throws OperationException {
     CrlControl control = caInfo.getCrlControl();
     if (control == null) {
       throw new OperationException(NOT_PERMITTED, "CRL generation is not allowed");
@@ -781,187 +892,169 @@ public class X509Ca implements Closeable {
       boolean indirectCrl = (crlSigner != null);
       X500Name crlIssuer = indirectCrl ? crlSigner.getSubject() : pci.getSubject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(nextUpdate);
-      }
-
-      final int numEntries = 100;
+      final int numEntries = control.getPageSize();
 
       // 10 minutes buffer
       Date notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
 
-      long startId = 1;
-
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
-
-      List<CertRevInfoWithSerial> revInfos;
-
-      do {
-        if (deltaCrl) {
-          revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        } else {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        }
-        allRevInfos.addAll(revInfos);
-
-        long maxId = 1;
-        for (CertRevInfoWithSerial revInfo : revInfos) {
-          if (revInfo.getId() > maxId) {
-            maxId = revInfo.getId();
+      BigInteger crlNumber;
+      StreamedCrl crl;
+
+      // The entries are written to a temporary file in the order of the database ID, instead of
+      // being sorted by serial number in memory. RFC 5280 does not require any order.
+      try (CrlStreamBuilder crlBuilder =
+          new CrlStreamBuilder(crlIssuer, thisUpdate, nextUpdate)) {
+        long startId = 1;
+        boolean isFirstCrlEntry = true;
+        List<CertRevInfoWithSerial> revInfos;
+
+        do {
+          if (deltaCrl) {
+            revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
+                control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+          } else {
+            revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
+                control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
           }
-        } // end for
-        startId = maxId + 1;
-      } while (revInfos.size() >= numEntries); // end do
 
-      if (revInfos != null) { // free the memory
-        revInfos.clear();
-      }
-
-      // sort the list by SerialNumber ASC
-      Collections.sort(allRevInfos);
+          long maxId = 1;
+          for (CertRevInfoWithSerial revInfo : revInfos) {
+            if (revInfo.getId() > maxId) {
+              maxId = revInfo.getId();
+            }
 
-      boolean isFirstCrlEntry = true;
-      CrlControl crlControl = caInfo.getCrlControl();
+            CrlReason reason = revInfo.getReason();
+            if (control.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+              reason = CrlReason.UNSPECIFIED;
+            }
 
-      for (CertRevInfoWithSerial revInfo : allRevInfos) {
-        CrlReason reason = revInfo.getReason();
-        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-          reason = CrlReason.UNSPECIFIED;
-        }
+            Date revocationTime = revInfo.getRevocationTime();
+            Date invalidityTime = revInfo.getInvalidityTime();
+
+            switch (control.getInvalidityDateMode()) {
+              case forbidden:
+                invalidityTime = null;
+                break;
+              case optional:
+                break;
+              case required:
+                if (invalidityTime == null) {
+                  invalidityTime = revocationTime;
+                }
+                break;
+              default:
+                throw new IllegalStateException(
+                    "unknown TripleState " + control.getInvalidityDateMode());
+            }
 
-        Date revocationTime = revInfo.getRevocationTime();
-        Date invalidityTime = revInfo.getInvalidityTime();
+            BigInteger serial = revInfo.getSerial();
+            LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
 
-        switch (crlControl.getInvalidityDateMode()) {
-          case forbidden:
-            invalidityTime = null;
-            break;
-          case optional:
-            break;
-          case required:
-            if (invalidityTime == null) {
-              invalidityTime = revocationTime;
+            boolean withCertIssuer = indirectCrl && isFirstCrlEntry;
+            List<Extension> extensions = new ArrayList<>(3);
+            if (reason != CrlReason.UNSPECIFIED) {
+              extensions.add(createReasonExtension(reason.getCode()));
+            }
+            if (invalidityTime != null) {
+              extensions.add(createInvalidityDateExtension(invalidityTime));
+            }
+            if (withCertIssuer) {
+              extensions.add(createCertificateIssuerExtension(pci.getSubject()));
+              isFirstCrlEntry = false;
             }
-            break;
-          default:
-            throw new IllegalStateException(
-                "unknown TripleState " + crlControl.getInvalidityDateMode());
-        }
-
-        BigInteger serial = revInfo.getSerial();
-        LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
 
-        if (!indirectCrl || !isFirstCrlEntry) {
-          if (invalidityTime != null) {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                invalidityTime);
-          } else {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
+            crlBuilder.addEntry(serial, revocationTime, extensions.isEmpty() ? null
+                : new Extensions(extensions.toArray(new Extension[0])));
           }
-          continue;
-        }
+          startId = maxId + 1;
+        } while (revInfos.size() >= numEntries); // end do
 
-        List<Extension> extensions = new ArrayList<>(3);
-        if (reason != CrlReason.UNSPECIFIED) {
-          Extension ext = createReasonExtension(reason.getCode());
-          extensions.add(ext);
-        }
-        if (invalidityTime != null) {
-          Extension ext = createInvalidityDateExtension(invalidityTime);
-          extensions.add(ext);
+        crlNumber = caInfo.nextCrlNumber();
+        event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
+        if (baseCrlNumber != null) {
+          event.addEventData(CaAuditConstants.NAME_basecrl_number, baseCrlNumber);
         }
 
-        Extension ext = createCertificateIssuerExtension(pci.getSubject());
-        extensions.add(ext);
-
-        crlBuilder.addCRLEntry(serial, revocationTime,
-            new Extensions(extensions.toArray(new Extension[0])));
-        isFirstCrlEntry = false;
-      }
-
-      allRevInfos.clear(); // free the memory
+        boolean onlyUserCerts = control.isOnlyContainsUserCerts();
+        boolean onlyCaCerts = control.isOnlyContainsCaCerts();
+        if (onlyUserCerts && onlyCaCerts) {
+          throw new IllegalStateException(
+              "should not reach here, onlyUserCerts and onlyCACerts are both true");
+        }
 
-      BigInteger crlNumber = caInfo.nextCrlNumber();
-      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
-      if (baseCrlNumber != null) {
-        event.addEventData(CaAuditConstants.NAME_basecrl_number, baseCrlNumber);
-      }
+        try {
+          // AuthorityKeyIdentifier
+          byte[] akiValues = indirectCrl
+              ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
+              : pci.getSubjectKeyIdentifer();
+          AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
+          crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+
+          // add extension CRL Number
+          crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+          // IssuingDistributionPoint
+          if (onlyUserCerts || onlyCaCerts || indirectCrl) {
+            IssuingDistributionPoint idp = new IssuingDistributionPoint(
+                (DistributionPointName) null, // distributionPoint,
+                onlyUserCerts, // onlyContainsUserCerts,
+                onlyCaCerts, // onlyContainsCACerts,
+                (ReasonFlags) null, // onlySomeReasons,
+                indirectCrl, // indirectCRL,
+                false); // onlyContainsAttributeCerts
+
+            crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
+          }
 
-      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
-      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
-      if (onlyUserCerts && onlyCaCerts) {
-        throw new IllegalStateException(
-            "should not reach here, onlyUserCerts and onlyCACerts are both true");
-      }
+          // Delta CRL Indicator
+          if (deltaCrl) {
+            crlBuilder.addExtension(Extension.deltaCRLIndicator, true,
+                new ASN1Integer(baseCrlNumber));
+          }
 
-      try {
-        // AuthorityKeyIdentifier
-        byte[] akiValues = indirectCrl
-            ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
-            : pci.getSubjectKeyIdentifer();
-        AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
-        crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
-
-        // add extension CRL Number
-        crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
-
-        // IssuingDistributionPoint
-        if (onlyUserCerts || onlyCaCerts || indirectCrl) {
-          IssuingDistributionPoint idp = new IssuingDistributionPoint(
-              (DistributionPointName) null, // distributionPoint,
-              onlyUserCerts, // onlyContainsUserCerts,
-              onlyCaCerts, // onlyContainsCACerts,
-              (ReasonFlags) null, // onlySomeReasons,
-              indirectCrl, // indirectCRL,
-              false); // onlyContainsAttributeCerts
-
-          crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
+          // freshestCRL
+          List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
+          if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
+            CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris,
+                pci.getSubject(), crlIssuer);
+            crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+          }
+        } catch (IOException ex) {
+          LogUtil.error(LOG, ex, "crlBuilder.addExtension");
+          throw new OperationException(INVALID_EXTENSION, ex);
         }
 
-        // Delta CRL Indicator
-        if (deltaCrl) {
-          crlBuilder.addExtension(Extension.deltaCRLIndicator, true,
-              new ASN1Integer(baseCrlNumber));
-        }
+        @SuppressWarnings("resource")
+        ConcurrentContentSigner concurrentSigner = (crlSigner == null)
+            ? caInfo.getSigner(null) : crlSigner.getSigner();
 
-        // freshestCRL
-        List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
-        if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
-          CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getSubject(),
-              crlIssuer);
-          crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+        ConcurrentBagEntrySigner signer0;
+        try {
+          signer0 = concurrentSigner.borrowSigner(SignerPriority.BATCH);
+        } catch (NoIdleSignerException ex) {
+          throw new OperationException(SYSTEM_UNAVAILABLE,
+              "NoIdleSignerException: " + ex.getMessage());
         }
-      } catch (CertIOException ex) {
-        LogUtil.error(LOG, ex, "crlBuilder.addExtension");
-        throw new OperationException(INVALID_EXTENSION, ex);
-      }
 
-      @SuppressWarnings("resource")
-      ConcurrentContentSigner concurrentSigner = (crlSigner == null)
-          ? caInfo.getSigner(null) : crlSigner.getSigner();
-
-      ConcurrentBagEntrySigner signer0;
-      try {
-        signer0 = concurrentSigner.borrowSigner();
-      } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
+        try {
+          crl = crlBuilder.build(signer0.value());
+        } finally {
+          concurrentSigner.requiteSigner(signer0);
+        }
+      } catch (IOException ex) {
+        LogUtil.error(LOG, ex, "could not build CRL");
+        throw new OperationException(CRL_FAILURE, ex);
       }
 
-      X509CRLHolder crl;
+      X509CRLHolder crlHolder;
       try {
-        crl = crlBuilder.build(signer0.value());
+        caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
+        caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
+        crlHolder = publishCrl(crl, returnCrl);
       } finally {
-        concurrentSigner.requiteSigner(signer0);
+        crl.close();
       }
 
-      caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
-      caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
-      publishCrl(crl);
-
       successful = true;
       LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caIdent.getName(),
           crlNumber, crl.getThisUpdate());
@@ -970,7 +1063,7 @@ public class X509Ca implements Closeable {
         // clean up the CRL
         cleanupCrlsWithoutException(msgId);
       }
-      return crl;
+      return crlHolder;
     } finally {
       if (!successful) {
         LOG.info("    FAILED generateCrl: ca={}", caIdent.getName());
@@ -1155,69 +1248,93 @@ public class X509Ca implements Closeable {
 
   private boolean publishCertsInQueue(IdentifiedCertPublisher publisher) {
     notNull(publisher, "publisher");
-    final int numEntries = 500;
+    CaServerConf.PublishQueue conf = caManager.getPublishQueueConf();
+    return new PublishQueueProcessor(caIdent, caCert, caIdNameMap, certstore, publisher,
+        getPublishQueueExecutor(conf.getThreads()), conf).process();
+  } // method publishCertsInQueue
 
-    while (true) {
-      List<Long> certIds;
-      try {
-        certIds = certstore.getPublishQueueEntries(caIdent, publisher.getIdent(), numEntries);
-      } catch (OperationException ex) {
-        LogUtil.error(LOG, ex);
-        return false;
-      }
+  private ExecutorService getPublishQueueExecutor(int numThreads) {
+    synchronized (publishQueueExecutorLock) {
+      if (publishQueueExecutor == null) {
+        final String threadNamePrefix = "publish-queue-" + caIdent.getName() + "-";
+        publishQueueExecutor = Executors.newFixedThreadPool(numThreads,
+            new ThreadFactory() {
+              private final AtomicInteger index = new AtomicInteger(0);
 
-      if (CollectionUtil.isEmpty(certIds)) {
-        break;
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadNamePrefix + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
       }
+      return publishQueueExecutor;
+    }
+  } // method getPublishQueueExecutor
 
-      for (Long certId : certIds) {
-        CertificateInfo certInfo;
-
-        try {
-          certInfo = certstore.getCertForId(caIdent, caCert, certId, caIdNameMap);
-        } catch (OperationException | CertificateException ex) {
-          LogUtil.error(LOG, ex);
-          return false;
-        }
-
-        boolean successful = publisher.certificateAdded(certInfo);
-        if (!successful) {
-          LOG.error("republishing certificate id={} failed", certId);
-          return false;
-        }
-
-        try {
-          certstore.removeFromPublishQueue(publisher.getIdent(), certId);
-        } catch (OperationException ex) {
-          LogUtil.warn(LOG, ex, "could not remove republished cert id=" + certId
-              + " and publisher=" + publisher.getIdent().getName());
-          continue;
-        }
-      } // end for
-    } // end while
-
-    return true;
-  } // method publishCertsInQueue
-
-  private boolean publishCrl(X509CRLHolder crl) {
+  /**
+   * Stores the CRL in the database, caches it and passes it to the publishers. The CRL is
+   * streamed into the database, and is only parsed if required.
+   *
+   * @param crl
+   *          The CRL.
+   * @param returnCrl
+   *          Whether the parsed CRL is returned.
+   * @return the parsed CRL if {@code returnCrl} is {@code true}, {@code null} otherwise.
+   * @throws OperationException
+   *           If the CRL could not be parsed.
+   */
+  private X509CRLHolder publishCrl(StreamedCrl crl, boolean returnCrl)
+      throws OperationException {
+    boolean stored;
     try {
       certstore.addCrl(caIdent, crl);
+      stored = true;
     } catch (Exception ex) {
       LOG.error("could not add CRL ca={}, thisUpdate={}: {}, ",
           caIdent.getName(), crl.getThisUpdate(), ex.getMessage());
       LOG.debug("Exception", ex);
-      return false;
+      invalidateCrlCache(currentCrl);
+      stored = false;
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
+    CachedCrl cachedCrl = null;
+    if (stored) {
       try {
-        publisher.crlAdded(caCert, crl);
+        cachedCrl = new CachedCrl(crl.getEncoded(), crl.getCrlNumber(),
+            crl.getThisUpdate().getTime());
+        synchronized (crlCacheLock) {
+          currentCrl = cachedCrl;
+        }
+      } catch (IOException | RuntimeException ex) {
+        LogUtil.warn(LOG, ex, "could not cache the CRL");
+        invalidateCrlCache(currentCrl);
+      }
+    }
+
+    List<IdentifiedCertPublisher> publishers = stored
+        ? publishers() : Collections.<IdentifiedCertPublisher>emptyList();
+    if (!returnCrl && publishers.isEmpty()) {
+      return null;
+    }
+
+    X509CRLHolder crlHolder;
+    try {
+      crlHolder = (cachedCrl != null) ? cachedCrl.getCrl() : crl.toCrlHolder();
+    } catch (CRLException | IOException ex) {
+      throw new OperationException(CRL_FAILURE, ex);
+    }
+
+    for (IdentifiedCertPublisher publisher : publishers) {
+      try {
+        publisher.crlAdded(caCert, crlHolder);
       } catch (RuntimeException ex) {
         LogUtil.error(LOG, ex, "could not publish CRL to the publisher " + publisher.getIdent());
       }
     } // end for
 
-    return true;
+    return returnCrl ? crlHolder : null;
   } // method publishCrl
 
   public CertWithRevocationInfo revokeCert(BigInteger serialNumber, CrlReason reason,
@@ -1620,49 +1737,77 @@ public class X509Ca implements Closeable {
       }
     }
 
-    List<CertificateInfo> certInfos = new ArrayList<>(n);
-    OperationExceptionWithIndex exception = null;
-
-    for (int i = 0; i < n; i++) {
-      if (exception != null) {
-        break;
+    final CertificateInfo[] certInfos = new CertificateInfo[n];
+    final AtomicReference<OperationExceptionWithIndex> exception = new AtomicReference<>();
+    final AtomicInteger nextIndex = new AtomicInteger(0);
+
+    // Each worker takes the next template until all are processed or one has failed.
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        int i;
+        while (exception.get() == null && (i = nextIndex.getAndIncrement()) < n) {
+          try {
+            certInfos[i] = generateCert(gcts.get(i), requestor, reqType, transactionId, msgId);
+          } catch (OperationException ex) {
+            setException(exception, new OperationExceptionWithIndex(i, ex));
+          } catch (Throwable th) {
+            setException(exception,
+                new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th)));
+          }
+        }
       }
-      GrantedCertTemplate gct = gcts.get(i);
-      final NameId certprofilIdent = gct.certprofile.getIdent();
-      final String subjectText = gct.grantedSubjectText;
-      LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
-          caIdent.getName(), certprofilIdent.getName(), subjectText);
+    };
 
-      boolean successful = false;
-      try {
-        CertificateInfo certInfo = generateCert(gct, requestor, reqType, transactionId, msgId);
-        successful = true;
-        certInfos.add(certInfo);
-
-        if (LOG.isInfoEnabled()) {
-          String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-          CertWithDbId cert = certInfo.getCert();
-          LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-              prefix, caIdent.getName(), certprofilIdent.getName(),
-              cert.getCert().getSubjectRfc4519Text(), cert.getCert().getSerialNumberHex());
+    List<Future<?>> helpers = new ArrayList<>();
+    ExecutorService executor = certgenExecutor;
+    if (executor != null && n > 1) {
+      int numHelpers = Math.min(n, caInfo.getCertgenParallelism()) - 1;
+      for (int i = 0; i < numHelpers; i++) {
+        try {
+          helpers.add(executor.submit(worker));
+        } catch (RejectedExecutionException ex) {
+          // executor has been shutdown, the templates are processed by this thread.
+          break;
         }
-      } catch (OperationException ex) {
-        exception = new OperationExceptionWithIndex(i, ex);
-      } catch (Throwable th) {
-        exception = new OperationExceptionWithIndex(i, new OperationException(SYSTEM_FAILURE, th));
-      } finally {
-        if (!successful) {
-          LOG.error("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-              caIdent.getName(), certprofilIdent.getName(), subjectText);
+      }
+    }
+
+    worker.run();
+
+    // wait for the helpers also if interrupted, the generated certificates may be removed
+    // only after all helpers are finished.
+    boolean interrupted = false;
+    for (Future<?> helper : helpers) {
+      while (true) {
+        try {
+          helper.get();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          // should not happen, the worker catches all Throwables.
+          setException(exception, new OperationExceptionWithIndex(n - 1,
+              new OperationException(SYSTEM_FAILURE, ex.getCause())));
+          break;
         }
       }
     }
 
-    if (exception != null) {
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (exception.get() != null) {
+      OperationExceptionWithIndex ex = exception.get();
       LOG.error("could not generate certificate for request[{}], reverted all generated"
-          + " certificates", exception.getIndex());
+          + " certificates", ex.getIndex());
       // delete generated certificates
       for (CertificateInfo m : certInfos) {
+        if (m == null) {
+          continue;
+        }
+
         BigInteger serial = m.getCert().getCert().getSerialNumber();
         try {
           removeCert(serial, msgId);
@@ -1671,12 +1816,27 @@ public class X509Ca implements Closeable {
         }
       }
 
-      LogUtil.warn(LOG, exception);
-      throw exception;
+      LogUtil.warn(LOG, ex);
+      throw ex;
     }
 
-    return certInfos;
-  }
+    return new ArrayList<>(Arrays.asList(certInfos));
+  } // method generateCerts
+
+  // keeps the exception with the lowest index
+  private static void setException(AtomicReference<OperationExceptionWithIndex> holder,
+      OperationExceptionWithIndex ex) {
+    while (true) {
+      OperationExceptionWithIndex current = holder.get();
+      if (current != null && current.getIndex() <= ex.getIndex()) {
+        return;
+      }
+
+      if (holder.compareAndSet(current, ex)) {
+        return;
+      }
+    }
+  } // method setException
 
   public CertificateInfo generateCert(CertTemplateData certTemplate, RequestorInfo requestor,
       RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
@@ -1687,17 +1847,34 @@ public class X509Ca implements Closeable {
 
   private CertificateInfo generateCert(GrantedCertTemplate gct, RequestorInfo requestor,
       RequestType reqType, byte[] transactionId, String msgId) throws OperationException {
+    final NameId certprofilIdent = gct.certprofile.getIdent();
+    final String subjectText = gct.grantedSubjectText;
+    LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'",
+        caIdent.getName(), certprofilIdent.getName(), subjectText);
+
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_cert, msgId);
 
     boolean successful = false;
     try {
       CertificateInfo ret = generateCert0(gct, requestor, reqType, transactionId, event);
       successful = (ret != null);
+
+      if (successful && LOG.isInfoEnabled()) {
+        String prefix = ret.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+        CertWithDbId cert = ret.getCert();
+        LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+            prefix, caIdent.getName(), certprofilIdent.getName(),
+            cert.getCert().getSubjectRfc4519Text(), cert.getCert().getSerialNumberHex());
+      }
       return ret;
     } finally {
       finish(event, successful);
+      if (!successful) {
+        LOG.error("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
+            caIdent.getName(), certprofilIdent.getName(), subjectText);
+      }
     }
-  }
+  } // method generateCert
 
   private CertificateInfo generateCert0(GrantedCertTemplate gct, RequestorInfo requestor,
       RequestType reqType, byte[] transactionId, AuditEvent event) throws OperationException {
@@ -1754,7 +1931,7 @@ public class X509Ca implements Closeable {
         try {
           signer0 = gct.signer.borrowSigner();
         } catch (NoIdleSignerException ex) {
-          throw new OperationException(SYSTEM_FAILURE, ex);
+          throw new OperationException(SYSTEM_UNAVAILABLE, ex);
         }
 
         X509CertificateHolder precert;
@@ -1785,7 +1962,7 @@ public class X509Ca implements Closeable {
       try {
         signer0 = gct.signer.borrowSigner();
       } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, ex);
+        throw new OperationException(SYSTEM_UNAVAILABLE, ex);
       }
 
       X509CertificateHolder bcCert;
@@ -1807,7 +1984,10 @@ public class X509Ca implements Closeable {
       }
 
       X509Cert cert = new X509Cert(bcCert, encodedCert);
-      if (!verifySignature(cert)) {
+      int verifyInterval = caInfo.getCertVerifyInterval();
+      boolean verify = verifyInterval == 1
+          || (verifyInterval > 1 && numGeneratedCerts.getAndIncrement() % verifyInterval == 0);
+      if (verify && !verifySignature(cert)) {
         throw new OperationException(SYSTEM_FAILURE,
             "could not verify the signature of generated certificate");
       }
@@ -2477,8 +2657,7 @@ public class X509Ca implements Closeable {
     notNull(cert, "cert");
     PublicKey caPublicKey = caCert.getPublicKey();
     try {
-      cert.verify(caPublicKey);
-      return true;
+      return VERIFIERS.verify(cert, caPublicKey);
     } catch (Exception ex) {
       LOG.debug("{} while verifying signature: {}", ex.getClass().getName(), ex.getMessage());
       return false;
@@ -2523,6 +2702,29 @@ public class X509Ca implements Closeable {
       suspendedCertsRevoker = null;
     }
 
+    if (crlCacheRefresher != null) {
+      crlCacheRefresher.cancel(false);
+      crlCacheRefresher = null;
+    }
+
+    if (certgenExecutor != null) {
+      certgenExecutor.shutdown();
+      certgenExecutor = null;
+    }
+
+    synchronized (publishQueueExecutorLock) {
+      if (publishQueueExecutor != null) {
+        publishQueueExecutor.shutdown();
+        publishQueueExecutor = null;
+      }
+    }
+
+    if (ctlogClient != null) {
+      ctlogClient.close();
+    }
+
+    currentCrl = null;
+
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     if (executor != null) {
       executor.purge();
@@ -20,20 +20,29 @@ package org.xipki.ca.server.cmp;
 import static org.xipki.util.Args.notNull;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xipki.ca.api.CertificateInfo;
 import org.xipki.security.HashAlgo;
-import org.xipki.util.CollectionUtil;
 import org.xipki.util.Hex;
 
 /**
  * Pending certificate pool.
  *
+ * <p>The entries are distributed over {@link #NUM_SHARDS} shards by the transaction ID, each
+ * shard has its own lock. The entry is also registered in a hashed timing wheel by its
+ * confirm deadline, so that the expired entries are found without visiting all entries. The
+ * shard is the owner of an entry: an entry is confirmed or expired only once, by the one who
+ * removes it from its shard.
+ *
  * @author Lijun Liao
  * @since 5.3.4
  */
@@ -42,6 +51,8 @@ class PendingCertificatePool {
 
   private static class MyEntry {
 
+    private final String hexTid;
+
     private final BigInteger certReqId;
 
     private final long waitForConfirmTill;
@@ -50,35 +61,55 @@ class PendingCertificatePool {
 
     private final byte[] certHash;
 
-    MyEntry(BigInteger certReqId, long waitForConfirmTill, CertificateInfo certInfo) {
+    MyEntry(String hexTid, BigInteger certReqId, long waitForConfirmTill,
+        CertificateInfo certInfo) {
+      this.hexTid = hexTid;
       this.certReqId = notNull(certReqId, "certReqId");
       this.certInfo = notNull(certInfo, "certInfo");
       this.waitForConfirmTill = waitForConfirmTill;
       this.certHash = HashAlgo.SHA1.hash(certInfo.getCert().getCert().getEncoded());
     } // constructor
 
-    @Override
-    public int hashCode() {
-      return certReqId.hashCode() + 961 * (int) waitForConfirmTill + 31 * certInfo.hashCode();
-    }
+  } // class MyEntry
 
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      } else if (!(obj instanceof PendingCertificatePool.MyEntry)) {
-        return false;
-      }
+  private static final int NUM_SHARDS = 16;
 
-      PendingCertificatePool.MyEntry another = (PendingCertificatePool.MyEntry) obj;
-      return certReqId.equals(another.certReqId) && certInfo.equals(another.certInfo);
-    } // method equals
+  // duration of one slot of the timing wheel.
+  private static final long TICK_MS = 60 * 1000L;
 
-  } // class MyEntry
+  // the wheel covers 64 minutes, entries with later deadline stay in their slot for more rounds.
+  private static final int NUM_SLOTS = 64;
+
+  // each shard is guarded by itself.
+  private final Map<String, List<MyEntry>>[] shards;
 
-  private final Map<String, Set<PendingCertificatePool.MyEntry>> map = new HashMap<>();
+  private final Set<MyEntry>[] wheel;
 
+  // all slots of the ticks before this tick have been processed, guarded by wheel.
+  private long nextTick;
+
+  @SuppressWarnings("unchecked")
   PendingCertificatePool() {
+    shards = new Map[NUM_SHARDS];
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      shards[i] = new HashMap<>();
+    }
+
+    wheel = new Set[NUM_SLOTS];
+    for (int i = 0; i < NUM_SLOTS; i++) {
+      wheel[i] = ConcurrentHashMap.newKeySet();
+    }
+    nextTick = System.currentTimeMillis() / TICK_MS;
+  } // constructor
+
+  private Map<String, List<MyEntry>> shard(String hexTid) {
+    int hash = hexTid.hashCode();
+    hash ^= (hash >>> 16);
+    return shards[(hash & 0x7FFFFFFF) % NUM_SHARDS];
+  }
+
+  private Set<MyEntry> slot(long waitForConfirmTill) {
+    return wheel[(int) ((waitForConfirmTill / TICK_MS) % NUM_SLOTS)];
   }
 
   void addCertificate(byte[] transactionId, BigInteger certReqId, CertificateInfo certInfo,
@@ -90,14 +121,17 @@ class PendingCertificatePool {
     }
 
     String hexTid = Hex.encode(transactionId);
-    PendingCertificatePool.MyEntry myEntry = new MyEntry(certReqId, waitForConfirmTill, certInfo);
-    synchronized (map) {
-      Set<PendingCertificatePool.MyEntry> entries = map.get(hexTid);
+    MyEntry myEntry = new MyEntry(hexTid, certReqId, waitForConfirmTill, certInfo);
+    Map<String, List<MyEntry>> shard = shard(hexTid);
+    synchronized (shard) {
+      List<MyEntry> entries = shard.get(hexTid);
       if (entries == null) {
-        entries = new HashSet<>();
-        map.put(hexTid, entries);
+        entries = new ArrayList<>(1);
+        shard.put(hexTid, entries);
       }
       entries.add(myEntry);
+      // registered while holding the lock, so that a concurrent remove cannot miss it.
+      slot(waitForConfirmTill).add(myEntry);
     }
   } // method addCertificate
 
@@ -107,15 +141,16 @@ class PendingCertificatePool {
     notNull(certHash, "certHash");
 
     String hexTid = Hex.encode(transactionId);
-    PendingCertificatePool.MyEntry retEntry = null;
+    MyEntry retEntry = null;
 
-    synchronized (map) {
-      Set<PendingCertificatePool.MyEntry> entries = map.get(hexTid);
+    Map<String, List<MyEntry>> shard = shard(hexTid);
+    synchronized (shard) {
+      List<MyEntry> entries = shard.get(hexTid);
       if (entries == null) {
         return null;
       }
 
-      for (PendingCertificatePool.MyEntry entry : entries) {
+      for (MyEntry entry : entries) {
         if (certReqId.equals(entry.certReqId)) {
           retEntry = entry;
           break;
@@ -125,9 +160,10 @@ class PendingCertificatePool {
       if (retEntry != null) {
         if (Arrays.equals(certHash, retEntry.certHash)) {
           entries.remove(retEntry);
+          slot(retEntry.waitForConfirmTill).remove(retEntry);
 
-          if (CollectionUtil.isEmpty(entries)) {
-            map.remove(hexTid);
+          if (entries.isEmpty()) {
+            shard.remove(hexTid);
           }
         }
       }
@@ -140,9 +176,15 @@ class PendingCertificatePool {
     notNull(transactionId, "transactionId");
 
     String hexId = Hex.encode(transactionId);
-    Set<PendingCertificatePool.MyEntry> entries;
-    synchronized  (map) {
-      entries = map.remove(hexId);
+    List<MyEntry> entries;
+    Map<String, List<MyEntry>> shard = shard(hexId);
+    synchronized (shard) {
+      entries = shard.remove(hexId);
+      if (entries != null) {
+        for (MyEntry myEntry : entries) {
+          slot(myEntry.waitForConfirmTill).remove(myEntry);
+        }
+      }
     }
 
     if (entries == null) {
@@ -150,32 +192,64 @@ class PendingCertificatePool {
     }
 
     Set<CertificateInfo> ret = new HashSet<>();
-    for (PendingCertificatePool.MyEntry myEntry :entries) {
+    for (MyEntry myEntry : entries) {
       ret.add(myEntry.certInfo);
     }
     return ret;
   } // method removeCertificates
 
+  /**
+   * Removes the certificates whose confirm deadline has passed. Only the slots of the timing
+   * wheel which have passed since the last call are visited. The deadline is checked with the
+   * granularity of {@link #TICK_MS}: entries whose deadline is in the current tick are
+   * returned by a later call.
+   *
+   * @return the removed certificates, or {@code null} if no certificate has been removed.
+   */
   Set<CertificateInfo> removeConfirmTimeoutedCertificates() {
-    synchronized (map) {
-      if (CollectionUtil.isEmpty(map)) {
-        return null;
+    List<MyEntry> expired = new ArrayList<>();
+    synchronized (wheel) {
+      long currentTick = System.currentTimeMillis() / TICK_MS;
+      // each slot needs to be visited at most once.
+      long fromTick = Math.max(nextTick, currentTick - NUM_SLOTS);
+      for (long tick = fromTick; tick < currentTick; tick++) {
+        Iterator<MyEntry> it = wheel[(int) (tick % NUM_SLOTS)].iterator();
+        while (it.hasNext()) {
+          MyEntry entry = it.next();
+          if (entry.waitForConfirmTill / TICK_MS < currentTick) {
+            // entries of later rounds stay in the slot.
+            it.remove();
+            expired.add(entry);
+          }
+        }
       }
+      nextTick = Math.max(nextTick, currentTick);
+    }
 
-      long now = System.currentTimeMillis();
-
-      Set<CertificateInfo> ret = new HashSet<>();
-
-      for (String tid : map.keySet()) {
-        Set<PendingCertificatePool.MyEntry> entries = map.get(tid);
-        for (PendingCertificatePool.MyEntry entry : entries) {
-          if (entry.waitForConfirmTill < now) {
-            ret.add(entry.certInfo);
+    Set<CertificateInfo> ret = null;
+    for (MyEntry entry : expired) {
+      Map<String, List<MyEntry>> shard = shard(entry.hexTid);
+      boolean removed = false;
+      synchronized (shard) {
+        List<MyEntry> entries = shard.get(entry.hexTid);
+        if (entries != null) {
+          removed = entries.remove(entry);
+          if (entries.isEmpty()) {
+            shard.remove(entry.hexTid);
           }
         }
       }
-      return ret;
+
+      // entries not removed here have been confirmed concurrently.
+      if (removed) {
+        if (ret == null) {
+          ret = new HashSet<>();
+        }
+        ret.add(entry.certInfo);
+      }
     }
+
+    return ret;
   } // method removeConfirmTimeoutedCertificates
 
 } // class PendingCertificatePool
@@ -34,6 +34,7 @@ import org.xipki.ca.api.CertWithDbId;
 import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.publisher.CertPublisher;
 import org.xipki.ca.api.publisher.CertPublisherException;
+import org.xipki.ca.server.publisher.OcspStoreQueryExecutor.CertStatusChange;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceFactory;
 import org.xipki.datasource.DataSourceWrapper;
@@ -64,6 +65,8 @@ public class OcspCertPublisher extends CertPublisher {
 
   private DataSourceWrapper datasource;
 
+  private OcspStatusBatcher batcher;
+
   public OcspCertPublisher() {
   }
 
@@ -98,8 +101,39 @@ public class OcspCertPublisher extends CertPublisher {
     } catch (NoSuchAlgorithmException | DataAccessException ex) {
       throw new CertPublisherException(ex.getMessage(), ex);
     }
+
+    str = pairs.value("batch");
+    if (str != null && Boolean.parseBoolean(str)) {
+      int batchSize = getInt(pairs, "batch.size", 500);
+      int intervalMs = getInt(pairs, "batch.interval.ms", 20);
+      int queueSize = getInt(pairs, "batch.queue.size", 10000);
+      batcher = new OcspStatusBatcher(queryExecutor, batchSize, intervalMs, queueSize);
+      batcher.start(datasourceName);
+      LOG.info("publish certificates in batches: batch.size={}, batch.interval.ms={}, "
+          + "batch.queue.size={}", batchSize, intervalMs, queueSize);
+    }
   } // method initialize
 
+  private static int getInt(ConfPairs pairs, String name, int defaultValue)
+      throws CertPublisherException {
+    String str = pairs.value(name);
+    if (str == null) {
+      return defaultValue;
+    }
+
+    int value;
+    try {
+      value = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new CertPublisherException("invalid " + name + ": " + str);
+    }
+
+    if (value < 1) {
+      throw new CertPublisherException(name + " must be positive: " + str);
+    }
+    return value;
+  } // method getInt
+
   private DataSourceWrapper loadDatasource(String datasourceName, FileOrValue datasourceConf,
       PasswordResolver passwordResolver) throws CertPublisherException {
     try {
@@ -139,6 +173,10 @@ public class OcspCertPublisher extends CertPublisher {
     CertWithDbId cert = certInfo.getCert();
 
     try {
+      if (batcher != null) {
+        return offer(caCert, cert, CertStatusChange.Type.ADD, certInfo.getRevocationInfo());
+      }
+
       queryExecutor.addCert(caCert, cert, certInfo.getRevocationInfo());
       return true;
     } catch (Exception ex) {
@@ -153,6 +191,10 @@ public class OcspCertPublisher extends CertPublisher {
   public boolean certificateRevoked(X509Cert caCert, CertWithDbId cert,
       String certprofile, CertRevocationInfo revInfo) {
     try {
+      if (batcher != null) {
+        return offer(caCert, cert, CertStatusChange.Type.REVOKE, revInfo);
+      }
+
       queryExecutor.revokeCert(caCert, cert, revInfo);
       return true;
     } catch (Exception ex) {
@@ -166,6 +208,10 @@ public class OcspCertPublisher extends CertPublisher {
   @Override
   public boolean certificateUnrevoked(X509Cert caCert, CertWithDbId cert) {
     try {
+      if (batcher != null) {
+        return offer(caCert, cert, CertStatusChange.Type.UNREVOKE, null);
+      }
+
       queryExecutor.unrevokeCert(caCert, cert);
       return true;
     } catch (Exception ex) {
@@ -176,6 +222,48 @@ public class OcspCertPublisher extends CertPublisher {
     }
   } // method certificateUnrevoked
 
+  /**
+   * Writes the change with the next batch of the batcher, and waits until it is committed.
+   * @return {@code false} if the change could not be written or the queue of the batcher is
+   *         full. The CA then adds the certificate to its publish queue.
+   */
+  private boolean offer(X509Cert caCert, CertWithDbId cert, CertStatusChange.Type type,
+      CertRevocationInfo revInfo) {
+    Integer issuerId = queryExecutor.findIssuerId(caCert);
+    if (issuerId == null) {
+      if (type == CertStatusChange.Type.UNREVOKE || type == CertStatusChange.Type.REMOVE) {
+        // nothing to do, as in the non-batch mode.
+        return true;
+      }
+      throw new IllegalStateException("could not find issuer, "
+          + "please start XiPKI in master mode first the restart this XiPKI system");
+    }
+
+    boolean written = batcher.write(new CertStatusChange(issuerId, cert, type, revInfo));
+    if (!written) {
+      LOG.warn("could not publish certificate {} in batch", cert.getCert().getSerialNumberHex());
+    }
+    return written;
+  } // method offer
+
+  /**
+   * Returns the number of certificate status changes which are not written to the database
+   * yet.
+   * @return the number of pending changes, 0 if batch is not enabled.
+   */
+  public int getQueueDepth() {
+    return (batcher == null) ? 0 : batcher.getQueueDepth();
+  }
+
+  /**
+   * Returns the age of the oldest certificate status change which is not written to the
+   * database yet.
+   * @return the age in milliseconds, 0 if there is no pending change or batch is not enabled.
+   */
+  public long getOldestPendingAgeMs() {
+    return (batcher == null) ? 0 : batcher.getOldestPendingAgeMs();
+  }
+
   private void logAndAudit(String issuer, X509Cert cert, Long certId, Exception ex,
       String messagePrefix) {
     String subjectText = cert.getSubjectRfc4519Text();
@@ -238,6 +326,10 @@ public class OcspCertPublisher extends CertPublisher {
   @Override
   public boolean certificateRemoved(X509Cert issuerCert, CertWithDbId cert) {
     try {
+      if (batcher != null) {
+        return offer(issuerCert, cert, CertStatusChange.Type.REMOVE, null);
+      }
+
       queryExecutor.removeCert(issuerCert, cert);
       return true;
     } catch (Exception ex) {
@@ -260,6 +352,11 @@ public class OcspCertPublisher extends CertPublisher {
 
   @Override
   public void close() {
+    if (batcher != null) {
+      batcher.close();
+      batcher = null;
+    }
+
     if (datasource != null) {
       datasource.close();
     }
@@ -0,0 +1,308 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.publisher;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.server.publisher.OcspStoreQueryExecutor.CertStatusChange;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.util.LogUtil;
+
+/**
+ * Collects the status changes of certificates of concurrent callers and writes them to the OCSP
+ * database in batches by a background thread. A batch is written once it contains
+ * {@code batchSize} changes, or {@code intervalMs} milliseconds after its first change has been
+ * queued. Changes of the same certificate which are not written yet are merged into one change.
+ *
+ * <p>A caller is blocked until its change has been committed, so that a change is never
+ * acknowledged before it is in the database. If the change could not be written, or if the
+ * queue is full or the batcher is closed, {@code false} is returned, and the caller is
+ * responsible to handle it, e.g. by adding the certificate to the publish queue of the CA.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class OcspStatusBatcher implements Runnable {
+
+  interface StatusWriter {
+
+    void writeCertStatusChanges(List<CertStatusChange> changes) throws DataAccessException;
+
+  } // interface StatusWriter
+
+  private static final class PendingChange {
+
+    private final CertStatusChange change;
+
+    private boolean done;
+
+    private boolean written;
+
+    PendingChange(CertStatusChange change) {
+      this.change = change;
+    }
+
+    synchronized void complete(boolean written) {
+      this.written = written;
+      this.done = true;
+      notifyAll();
+    }
+
+    synchronized boolean await() {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          // the change is being written, wait for the result.
+          interrupted = true;
+        }
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return written;
+    } // method await
+
+  } // class PendingChange
+
+  private static final Logger LOG = LoggerFactory.getLogger(OcspStatusBatcher.class);
+
+  private final StatusWriter writer;
+
+  private final int batchSize;
+
+  private final long intervalMs;
+
+  private final int queueSize;
+
+  // guarded by this
+  private final LinkedHashMap<String, PendingChange> pending = new LinkedHashMap<>();
+
+  private volatile boolean closed;
+
+  private Thread flusher;
+
+  OcspStatusBatcher(StatusWriter writer, int batchSize, long intervalMs, int queueSize) {
+    this.writer = notNull(writer, "writer");
+    this.batchSize = positive(batchSize, "batchSize");
+    this.intervalMs = positive(intervalMs, "intervalMs");
+    this.queueSize = positive(queueSize, "queueSize");
+  } // constructor
+
+  void start(String name) {
+    flusher = new Thread(this, "ocsp-publisher-" + name);
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Writes the change with the next batch, and waits until the batch has been committed.
+   *
+   * @param change
+   *          Change to be written.
+   * @return {@code true} if the change has been committed, {@code false} if the change could
+   *         not be written, or if the batcher is closed or the queue is full.
+   */
+  boolean write(CertStatusChange change) {
+    PendingChange pendingChange;
+    synchronized (this) {
+      if (closed) {
+        return false;
+      }
+
+      pendingChange = pending.get(change.getKey());
+      if (pendingChange != null) {
+        pendingChange.change.merge(change);
+      } else {
+        if (pending.size() >= queueSize) {
+          return false;
+        }
+
+        pendingChange = new PendingChange(change);
+        pending.put(change.getKey(), pendingChange);
+        if (pending.size() == 1 || pending.size() >= batchSize) {
+          notifyAll();
+        }
+      }
+    }
+
+    return pendingChange.await();
+  } // method write
+
+  /**
+   * Returns the number of changes which are not written yet.
+   * @return the number of changes which are not written yet.
+   */
+  synchronized int getQueueDepth() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the age of the oldest change which is not written yet.
+   * @return the age in milliseconds, or 0 if there is no such change.
+   */
+  synchronized long getOldestPendingAgeMs() {
+    if (pending.isEmpty()) {
+      return 0;
+    }
+
+    long oldest = Long.MAX_VALUE;
+    for (PendingChange pendingChange : pending.values()) {
+      oldest = Math.min(oldest, pendingChange.change.getTime());
+    }
+    return Math.max(0, System.currentTimeMillis() - oldest);
+  } // method getOldestPendingAgeMs
+
+  @Override
+  public void run() {
+    while (true) {
+      List<PendingChange> batch;
+      synchronized (this) {
+        while (!closed && pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            // continue waiting, the flusher is stopped via close().
+          }
+        }
+
+        if (pending.isEmpty()) {
+          // closed
+          break;
+        }
+
+        long deadline = System.currentTimeMillis() + intervalMs;
+        while (!closed && pending.size() < batchSize) {
+          long remainingMs = deadline - System.currentTimeMillis();
+          if (remainingMs <= 0) {
+            break;
+          }
+
+          try {
+            wait(remainingMs);
+          } catch (InterruptedException ex) {
+            break;
+          }
+        }
+
+        batch = poll();
+      }
+
+      write(batch);
+    }
+  } // method run
+
+  // must be called with the lock held.
+  private List<PendingChange> poll() {
+    int num = Math.min(batchSize, pending.size());
+    List<PendingChange> batch = new ArrayList<>(num);
+    Iterator<Map.Entry<String, PendingChange>> it = pending.entrySet().iterator();
+    while (batch.size() < num) {
+      batch.add(it.next().getValue());
+      it.remove();
+    }
+    return batch;
+  } // method poll
+
+  /**
+   * Writes the changes and completes them. If the batch could not be written at once, its
+   * changes are written one by one, so that an invalid change only fails its own callers.
+   */
+  private void write(List<PendingChange> batch) {
+    final int size = batch.size();
+    long start = System.currentTimeMillis();
+    long oldest = Long.MAX_VALUE;
+    List<CertStatusChange> changes = new ArrayList<>(size);
+    for (PendingChange pendingChange : batch) {
+      changes.add(pendingChange.change);
+      oldest = Math.min(oldest, pendingChange.change.getTime());
+    }
+
+    int numFailed = 0;
+    try {
+      writer.writeCertStatusChanges(changes);
+      for (PendingChange pendingChange : batch) {
+        pendingChange.complete(true);
+      }
+    } catch (DataAccessException | RuntimeException ex) {
+      if (size == 1) {
+        LogUtil.error(LOG, ex, "could not write status change of certificate "
+            + changes.get(0).getCert().getCert().getSerialNumberHex());
+        batch.get(0).complete(false);
+        numFailed = 1;
+      } else {
+        LogUtil.warn(LOG, ex, "could not write " + size
+            + " certificate status changes at once, write them one by one");
+
+        for (PendingChange pendingChange : batch) {
+          boolean written = false;
+          try {
+            writer.writeCertStatusChanges(Collections.singletonList(pendingChange.change));
+            written = true;
+          } catch (DataAccessException | RuntimeException ex2) {
+            LogUtil.error(LOG, ex2, "could not write status change of certificate "
+                + pendingChange.change.getCert().getCert().getSerialNumberHex());
+            numFailed++;
+          }
+          pendingChange.complete(written);
+        }
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      long now = System.currentTimeMillis();
+      LOG.debug("wrote {} certificate status changes in {} ms, lag {} ms, {} failed, "
+          + "{} pending", size - numFailed, now - start, now - oldest, numFailed,
+          getQueueDepth());
+    }
+  } // method write
+
+  /**
+   * Writes the queued changes and stops the flusher thread.
+   */
+  void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+
+    if (flusher != null) {
+      try {
+        flusher.join();
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted while waiting for the flusher");
+        Thread.currentThread().interrupt();
+      }
+      flusher = null;
+    }
+  } // method close
+
+}
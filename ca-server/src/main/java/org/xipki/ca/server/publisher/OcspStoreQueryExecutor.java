@@ -21,6 +21,7 @@ import static org.xipki.util.Args.notNull;
 
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -54,7 +55,7 @@ import org.xipki.util.LogUtil;
  * @since 2.0.0
  */
 
-class OcspStoreQueryExecutor {
+class OcspStoreQueryExecutor implements OcspStatusBatcher.StatusWriter {
 
   private static class IssuerEntry {
 
@@ -114,6 +115,72 @@ class OcspStoreQueryExecutor {
 
   } // class IssuerStore
 
+  /**
+   * Change of the status of one certificate. Several changes of the same certificate are
+   * merged into one change.
+   */
+  static class CertStatusChange {
+
+    enum Type {
+      ADD,
+      REVOKE,
+      UNREVOKE,
+      REMOVE
+    }
+
+    private final int issuerId;
+
+    private final CertWithDbId cert;
+
+    private final String key;
+
+    private final long time;
+
+    private Type type;
+
+    private CertRevocationInfo revInfo;
+
+    // whether the certificate may be inserted into the database.
+    private boolean add;
+
+    CertStatusChange(int issuerId, CertWithDbId cert, Type type, CertRevocationInfo revInfo) {
+      this.issuerId = issuerId;
+      this.cert = notNull(cert, "cert");
+      this.type = notNull(type, "type");
+      this.revInfo = (type == Type.UNREVOKE || type == Type.REMOVE) ? null : revInfo;
+      this.add = (type == Type.ADD || type == Type.REVOKE);
+      this.key = issuerId + ":" + cert.getCert().getSerialNumber().toString(16);
+      this.time = System.currentTimeMillis();
+    } // constructor
+
+    String getKey() {
+      return key;
+    }
+
+    /**
+     * Returns the time when the first merged change has been created.
+     * @return time in milliseconds.
+     */
+    long getTime() {
+      return time;
+    }
+
+    CertWithDbId getCert() {
+      return cert;
+    }
+
+    /**
+     * Merges the later change into this change.
+     * @param later Later change of the same certificate.
+     */
+    void merge(CertStatusChange later) {
+      this.type = later.type;
+      this.revInfo = later.revInfo;
+      this.add = (later.type == Type.REMOVE) ? false : (this.add || later.add);
+    } // method merge
+
+  } // class CertStatusChange
+
   private static final String SQL_ADD_REVOKED_CERT =
       "INSERT INTO CERT (ID,LUPDATE,SN,NBEFORE,NAFTER,REV,IID,HASH,SUBJECT,RT,RIT,RR)"
       + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
@@ -122,12 +189,21 @@ class OcspStoreQueryExecutor {
       "INSERT INTO CERT (ID,LUPDATE,SN,NBEFORE,NAFTER,REV,IID,HASH,SUBJECT) "
       + "VALUES (?,?,?,?,?,?,?,?,?)";
 
+  private static final String SQL_UPDATE_CERT =
+      "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+
+  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE ID=?";
+
+  private static final int NUM_SERIALS_PER_SELECT = 100;
+
   private static final Logger LOG = LoggerFactory.getLogger(OcspStoreQueryExecutor.class);
 
   private final DataSourceWrapper datasource;
 
   private final String sqlCertRegistered;
 
+  private final String sqlCertIdsForSerials;
+
   private final IssuerStore issuerStore;
 
   private final boolean publishGoodCerts;
@@ -146,6 +222,13 @@ class OcspStoreQueryExecutor {
     this.publishGoodCerts = publishGoodCerts;
 
     this.sqlCertRegistered = datasource.buildSelectFirstSql(1, "ID FROM CERT WHERE SN=? AND IID=?");
+
+    StringBuilder sb = new StringBuilder(50 + 2 * NUM_SERIALS_PER_SELECT);
+    sb.append("SELECT ID,SN FROM CERT WHERE IID=? AND SN IN (?");
+    for (int i = 1; i < NUM_SERIALS_PER_SELECT; i++) {
+      sb.append(",?");
+    }
+    this.sqlCertIdsForSerials = sb.append(")").toString();
     final String sql = "SELECT NAME,VALUE2 FROM DBSCHEMA";
 
     Map<String, String> variables = new HashMap<>();
@@ -231,41 +314,10 @@ class OcspStoreQueryExecutor {
     final String sql = revoked ? SQL_ADD_REVOKED_CERT : SQL_ADD_CERT;
 
     long certId = certificate.getCertId();
-    byte[] encodedCert = certificate.getCert().getEncoded();
-    String certHash = certhashAlgo.base64Hash(encodedCert);
-
-    X509Cert cert = certificate.getCert();
-    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
-    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
-    String cuttedSubject = X509Util.cutText(certificate.getCert().getSubjectRfc4519Text(),
-                            maxX500nameLen);
-
     PreparedStatement ps = datasource.prepareStatement(sql);
 
     try {
-      // CERT
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, serialNumber.toString(16));
-      ps.setLong(idx++, notBeforeSeconds);
-      ps.setLong(idx++, notAfterSeconds);
-      setBoolean(ps, idx++, revoked);
-      ps.setInt(idx++, issuerId);
-      ps.setString(idx++, certHash);
-      ps.setString(idx++, cuttedSubject);
-
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
-        } else {
-          ps.setNull(idx++, Types.BIGINT);
-        }
-        int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
-        ps.setInt(idx++, reasonCode);
-      }
+      setInsertParameters(ps, certificate, issuerId, revInfo);
 
       try {
         ps.executeUpdate();
@@ -289,33 +341,48 @@ class OcspStoreQueryExecutor {
     }
   } // method addOrUpdateCert
 
-  private void updateRegisteredCert(long registeredCertId, CertRevocationInfo revInfo)
-      throws DataAccessException {
+  private void setInsertParameters(PreparedStatement ps, CertWithDbId certificate,
+      int issuerId, CertRevocationInfo revInfo) throws SQLException {
     boolean revoked = (revInfo != null);
+    X509Cert cert = certificate.getCert();
+    String certHash = certhashAlgo.base64Hash(cert.getEncoded());
+    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
+    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
+    String cuttedSubject = X509Util.cutText(cert.getSubjectRfc4519Text(), maxX500nameLen);
+
+    // CERT
+    int idx = 1;
+    ps.setLong(idx++, certificate.getCertId());
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    ps.setString(idx++, cert.getSerialNumber().toString(16));
+    ps.setLong(idx++, notBeforeSeconds);
+    ps.setLong(idx++, notAfterSeconds);
+    setBoolean(ps, idx++, revoked);
+    ps.setInt(idx++, issuerId);
+    ps.setString(idx++, certHash);
+    ps.setString(idx++, cuttedSubject);
+
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      } else {
+        ps.setNull(idx++, Types.BIGINT);
+      }
+      int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
+      ps.setInt(idx++, reasonCode);
+    }
+  } // method setInsertParameters
 
-    final String sql = "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+  private void updateRegisteredCert(long registeredCertId, CertRevocationInfo revInfo)
+      throws DataAccessException {
+    final String sql = SQL_UPDATE_CERT;
 
     PreparedStatement ps = datasource.prepareStatement(sql);
 
     try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      setBoolean(ps, idx++, revoked);
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
-        } else {
-          ps.setNull(idx++, Types.INTEGER);
-        }
-        ps.setInt(idx++, revInfo.getReason().getCode());
-      } else {
-        ps.setNull(idx++, Types.INTEGER); // rev_time
-        ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
-        ps.setNull(idx++, Types.INTEGER); // rev_reason
-      }
-      ps.setLong(idx++, registeredCertId);
+      setUpdateParameters(ps, registeredCertId, revInfo);
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
@@ -324,6 +391,29 @@ class OcspStoreQueryExecutor {
     }
   } // method updateRegisteredCert
 
+  private static void setUpdateParameters(PreparedStatement ps, long registeredCertId,
+      CertRevocationInfo revInfo) throws SQLException {
+    boolean revoked = (revInfo != null);
+    int idx = 1;
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    setBoolean(ps, idx++, revoked);
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      } else {
+        ps.setNull(idx++, Types.INTEGER);
+      }
+      ps.setInt(idx++, revInfo.getReason().getCode());
+    } else {
+      ps.setNull(idx++, Types.INTEGER); // rev_time
+      ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
+      ps.setNull(idx++, Types.INTEGER); // rev_reason
+    }
+    ps.setLong(idx++, registeredCertId);
+  } // method setUpdateParameters
+
   void revokeCert(X509Cert caCert, CertWithDbId cert, CertRevocationInfo revInfo)
       throws DataAccessException, OperationException {
     addOrUpdateCert(caCert, cert, revInfo);
@@ -438,6 +528,185 @@ class OcspStoreQueryExecutor {
     }
   } // method unrevokeCa
 
+  /**
+   * Writes the changes with JDBC batches in one transaction.
+   *
+   * @param changes
+   *          Changes of different certificates.
+   * @throws DataAccessException
+   *           If the changes could not be written. In this case no change has been written.
+   */
+  @Override
+  public void writeCertStatusChanges(List<CertStatusChange> changes)
+      throws DataAccessException {
+    Map<String, Long> registeredIds = getCertIds(changes);
+
+    Connection conn = datasource.getConnection();
+    PreparedStatement psAdd = null;
+    PreparedStatement psAddRevoked = null;
+    PreparedStatement psUpdate = null;
+    PreparedStatement psDelete = null;
+    String sql = null;
+    boolean origAutoCommit = true;
+
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      for (CertStatusChange change : changes) {
+        Long registeredId = registeredIds.get(change.key);
+        boolean revoked = (change.revInfo != null);
+
+        // one of insert, update, delete
+        CertRevocationInfo insertRevInfo = null;
+        boolean insert = false;
+        boolean update = false;
+        boolean delete = false;
+
+        if (change.type == CertStatusChange.Type.REMOVE
+            || (change.type == CertStatusChange.Type.UNREVOKE && !publishGoodCerts)) {
+          delete = (registeredId != null);
+        } else if (change.type == CertStatusChange.Type.UNREVOKE) {
+          update = (registeredId != null);
+          insert = !update && change.add;
+        } else if (registeredId != null) {
+          // same as in addOrUpdateCert
+          update = publishGoodCerts || revoked;
+        } else {
+          insert = true;
+          insertRevInfo = change.revInfo;
+        }
+
+        if (insert) {
+          if (insertRevInfo == null) {
+            sql = SQL_ADD_CERT;
+            if (psAdd == null) {
+              psAdd = datasource.prepareStatement(conn, sql);
+            }
+            setInsertParameters(psAdd, change.cert, change.issuerId, null);
+            psAdd.addBatch();
+          } else {
+            sql = SQL_ADD_REVOKED_CERT;
+            if (psAddRevoked == null) {
+              psAddRevoked = datasource.prepareStatement(conn, sql);
+            }
+            setInsertParameters(psAddRevoked, change.cert, change.issuerId, insertRevInfo);
+            psAddRevoked.addBatch();
+          }
+        } else if (update) {
+          sql = SQL_UPDATE_CERT;
+          if (psUpdate == null) {
+            psUpdate = datasource.prepareStatement(conn, sql);
+          }
+          setUpdateParameters(psUpdate, registeredId, change.revInfo);
+          psUpdate.addBatch();
+        } else if (delete) {
+          sql = SQL_DELETE_CERT;
+          if (psDelete == null) {
+            psDelete = datasource.prepareStatement(conn, sql);
+          }
+          psDelete.setLong(1, registeredId);
+          psDelete.addBatch();
+        }
+      }
+
+      sql = SQL_ADD_CERT;
+      executeBatch(psAdd);
+      sql = SQL_ADD_REVOKED_CERT;
+      executeBatch(psAddRevoked);
+      sql = SQL_UPDATE_CERT;
+      executeBatch(psUpdate);
+      sql = SQL_DELETE_CERT;
+      executeBatch(psDelete);
+
+      conn.commit();
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LogUtil.warn(LOG, ex2, "could not rollback");
+      }
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not restore autoCommit");
+      }
+
+      datasource.releaseResources(psAdd, null, false);
+      datasource.releaseResources(psAddRevoked, null, false);
+      datasource.releaseResources(psUpdate, null, false);
+      datasource.releaseResources(psDelete, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method writeCertStatusChanges
+
+  private static void executeBatch(PreparedStatement ps) throws SQLException {
+    if (ps != null) {
+      ps.executeBatch();
+    }
+  }
+
+  /**
+   * Returns the database ids of the registered certificates.
+   * @return map from the key of the change to the database id.
+   */
+  private Map<String, Long> getCertIds(List<CertStatusChange> changes)
+      throws DataAccessException {
+    Map<Integer, List<String>> serialsOfIssuers = new HashMap<>();
+    for (CertStatusChange change : changes) {
+      List<String> serials = serialsOfIssuers.get(change.issuerId);
+      if (serials == null) {
+        serials = new ArrayList<>();
+        serialsOfIssuers.put(change.issuerId, serials);
+      }
+      serials.add(change.cert.getCert().getSerialNumber().toString(16));
+    }
+
+    final String sql = sqlCertIdsForSerials;
+    Map<String, Long> ret = new HashMap<>();
+    for (Map.Entry<Integer, List<String>> entry : serialsOfIssuers.entrySet()) {
+      int issuerId = entry.getKey();
+      List<String> serials = entry.getValue();
+      final int n = serials.size();
+
+      for (int off = 0; off < n; off += NUM_SERIALS_PER_SELECT) {
+        PreparedStatement ps = datasource.prepareStatement(sql);
+        ResultSet rs = null;
+        try {
+          int num = Math.min(NUM_SERIALS_PER_SELECT, n - off);
+          ps.setInt(1, issuerId);
+          for (int i = 0; i < NUM_SERIALS_PER_SELECT; i++) {
+            // fill the remaining parameters with the last serial number, so that the SQL is
+            // always the same.
+            ps.setString(i + 2, serials.get(off + Math.min(i, num - 1)));
+          }
+
+          rs = ps.executeQuery();
+          while (rs.next()) {
+            ret.put(issuerId + ":" + rs.getString("SN"), rs.getLong("ID"));
+          }
+        } catch (SQLException ex) {
+          throw datasource.translate(sql, ex);
+        } finally {
+          datasource.releaseResources(ps, rs);
+        }
+      }
+    }
+
+    return ret;
+  } // method getCertIds
+
+  /**
+   * Returns the id of the issuer.
+   * @param issuerCert Certificate of the issuer.
+   * @return the id of the issuer, or {@code null} if the issuer is not known.
+   */
+  Integer findIssuerId(X509Cert issuerCert) {
+    return issuerStore.getIdForCert(notNull(issuerCert, "issuerCert").getEncoded());
+  }
+
   private int getIssuerId(X509Cert issuerCert) throws DataAccessException {
     notNull(issuerCert, "issuerCert");
     Integer id = issuerStore.getIdForCert(issuerCert.getEncoded());
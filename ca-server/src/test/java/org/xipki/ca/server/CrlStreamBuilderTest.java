@@ -0,0 +1,195 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Random;
+
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * CrlStreamBuilder test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class CrlStreamBuilderTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=CRL Test CA,O=xipki,C=DE");
+
+  private static KeyPair keypair;
+
+  @BeforeClass
+  public static void generateKeypair() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @Test
+  public void testWithoutEntries() throws Exception {
+    assertSameAsBcBuilder(0, false, new Date(System.currentTimeMillis() + 86400000L));
+  }
+
+  @Test
+  public void testWithoutNextUpdate() throws Exception {
+    assertSameAsBcBuilder(10, false, null);
+  }
+
+  @Test
+  public void testWithEntries() throws Exception {
+    assertSameAsBcBuilder(2000, false, new Date(System.currentTimeMillis() + 86400000L));
+  }
+
+  @Test
+  public void testDeltaCrl() throws Exception {
+    assertSameAsBcBuilder(100, true, new Date(System.currentTimeMillis() + 86400000L));
+  }
+
+  @Test
+  public void testBase64Reader() throws Exception {
+    // the lengths cover all remainders modulo 3 of the CRL length.
+    for (int numEntries = 0; numEntries < 4; numEntries++) {
+      try (CrlStreamBuilder builder = newBuilder(numEntries, new Date(), null, false);
+          StreamedCrl crl = builder.build(newSigner())) {
+        String expected = Base64.getEncoder().encodeToString(crl.getEncoded());
+        Assert.assertEquals("base64Length", expected.length(), crl.getBase64Length());
+
+        StringBuilder sb = new StringBuilder();
+        try (Reader reader = crl.openBase64Reader()) {
+          char[] buffer = new char[7];
+          int read;
+          while ((read = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+          }
+        }
+        Assert.assertEquals("base64", expected, sb.toString());
+      }
+    }
+  } // method testBase64Reader
+
+  private void assertSameAsBcBuilder(int numEntries, boolean deltaCrl, Date nextUpdate)
+      throws Exception {
+    Date thisUpdate = new Date();
+
+    X509v2CRLBuilder bcBuilder = new X509v2CRLBuilder(ISSUER, thisUpdate);
+    if (nextUpdate != null) {
+      bcBuilder.setNextUpdate(nextUpdate);
+    }
+
+    Random random = new Random(numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      bcBuilder.addCRLEntry(serial(random), revocationTime(random), entryExtensions(i));
+    }
+    addCrlExtensions(bcBuilder, null, deltaCrl);
+    byte[] expected = bcBuilder.build(newSigner()).getEncoded();
+
+    try (CrlStreamBuilder builder = newBuilder(numEntries, thisUpdate, nextUpdate, deltaCrl);
+        StreamedCrl crl = builder.build(newSigner())) {
+      Assert.assertEquals("length", expected.length, crl.getLength());
+      Assert.assertArrayEquals("encoded CRL", expected, crl.getEncoded());
+
+      X509CRLHolder parsed = crl.toCrlHolder();
+      Assert.assertEquals("number of entries", numEntries, parsed.getRevokedCertificates().size());
+      Assert.assertEquals("crlNumber", BigInteger.valueOf(5), crl.getCrlNumber());
+      Assert.assertEquals("baseCrlNumber", deltaCrl ? BigInteger.valueOf(4) : null,
+          crl.getBaseCrlNumber());
+    }
+  } // method assertSameAsBcBuilder
+
+  private CrlStreamBuilder newBuilder(int numEntries, Date thisUpdate, Date nextUpdate,
+      boolean deltaCrl) throws IOException {
+    CrlStreamBuilder builder = new CrlStreamBuilder(ISSUER, thisUpdate, nextUpdate);
+    Random random = new Random(numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      builder.addEntry(serial(random), revocationTime(random), entryExtensions(i));
+    }
+    addCrlExtensions(null, builder, deltaCrl);
+    return builder;
+  } // method newBuilder
+
+  private static void addCrlExtensions(X509v2CRLBuilder bcBuilder, CrlStreamBuilder builder,
+      boolean deltaCrl) throws IOException {
+    AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(new byte[20]);
+    if (bcBuilder != null) {
+      bcBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+      bcBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(5));
+      if (deltaCrl) {
+        bcBuilder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(4));
+      }
+    } else {
+      builder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+      builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(5));
+      if (deltaCrl) {
+        builder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(4));
+      }
+    }
+  } // method addCrlExtensions
+
+  private static BigInteger serial(Random random) {
+    return new BigInteger(159, random).add(BigInteger.ONE);
+  }
+
+  private static Date revocationTime(Random random) {
+    // whole seconds, as encoded in the CRL.
+    return new Date((1500000000L + random.nextInt(100000000)) * 1000);
+  }
+
+  private static Extensions entryExtensions(int index) throws IOException {
+    switch (index % 3) {
+      case 0:
+        return null;
+      case 1:
+        return new Extensions(new Extension(Extension.reasonCode, false,
+            new DEROctetString(new ASN1Enumerated(1))));
+      default:
+        return new Extensions(new Extension[] {
+            new Extension(Extension.reasonCode, false,
+                new DEROctetString(new ASN1Enumerated(4))),
+            new Extension(Extension.invalidityDate, false,
+                new DEROctetString(new ASN1GeneralizedTime(
+                    new Date(1500000000000L))))});
+    }
+  } // method entryExtensions
+
+  private static ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withRSA").build(keypair.getPrivate());
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.api.mgmt.CtlogControl;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.security.X509Cert;
+import org.xipki.security.ctlog.CtLog.SignedCertificateTimestampList;
+import org.xipki.util.ConfPairs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * CtLogClient test with stub CT Log servers.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class CtLogClientTest {
+
+  private static class StubLog implements HttpHandler {
+
+    private final int status;
+
+    private final long delayMs;
+
+    private final AtomicInteger hits = new AtomicInteger(0);
+
+    StubLog(int status, long delayMs) {
+      this.status = status;
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      hits.incrementAndGet();
+      InputStream in = exchange.getRequestBody();
+      byte[] buffer = new byte[4096];
+      while (in.read(buffer) != -1) {
+        // read the request completely
+      }
+
+      if (delayMs > 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      if (status != 200) {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+        return;
+      }
+
+      byte[] resp = SCT_RESPONSE.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, resp.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(resp);
+      out.close();
+    } // method handle
+
+  } // class StubLog
+
+  // SCT v1 with a dummy ECDSA-SHA256 signature, not verified without public key finder.
+  private static final String SCT_RESPONSE = "{\"sct_version\":0,\"id\":\""
+      + Base64.getEncoder().encodeToString(new byte[32]) + "\",\"timestamp\":1600000000000,"
+      + "\"extensions\":\"\",\"signature\":\""
+      + Base64.getEncoder().encodeToString(new byte[]{4, 3, 0, 1, 0}) + "\"}";
+
+  private static final long SLOW_DELAY_MS = 3000;
+
+  private static HttpServer server;
+
+  private static ExecutorService serverExecutor;
+
+  private static X509Cert caCert;
+
+  private static X509CertificateHolder precert;
+
+  private final StubLog good1 = new StubLog(200, 0);
+
+  private final StubLog good2 = new StubLog(200, 0);
+
+  private final StubLog slow = new StubLog(200, SLOW_DELAY_MS);
+
+  private final StubLog failing = new StubLog(500, 0);
+
+  private static final AtomicInteger PATH_INDEX = new AtomicInteger(0);
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keypair = kpGen.generateKeyPair();
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withECDSA")
+        .build(keypair.getPrivate());
+
+    X500Name caSubject = new X500Name("CN=CT Test CA,O=xipki,C=DE");
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    caCert = new X509Cert(new JcaX509v3CertificateBuilder(caSubject, BigInteger.ONE,
+        notBefore, notAfter, caSubject, keypair.getPublic()).build(signer));
+
+    X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(caSubject,
+        BigInteger.valueOf(2), notBefore, notAfter, new X500Name("CN=ct-test,O=xipki,C=DE"),
+        keypair.getPublic());
+    builder.addExtension(ObjectIdentifiers.Extn.id_precertificate, true, DERNull.INSTANCE);
+    precert = builder.build(signer);
+
+    serverExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ctlog-stub");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.start();
+  } // method init
+
+  @AfterClass
+  public static void shutdown() {
+    if (server != null) {
+      server.stop(0);
+    }
+    if (serverExecutor != null) {
+      serverExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void quorumReached() throws Exception {
+    try (CtLogClient client = newClient(2, 10000, good1, failing, good2)) {
+      SignedCertificateTimestampList scts = getScts(client);
+      Assert.assertEquals(2, scts.getSctList().size());
+    }
+  } // method quorumReached
+
+  @Test
+  public void timeout() throws Exception {
+    try (CtLogClient client = newClient(2, 500, good1, slow)) {
+      long start = System.currentTimeMillis();
+      try {
+        getScts(client);
+        Assert.fail("OperationException expected");
+      } catch (OperationException ex) {
+        Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("received only 1 of 2"));
+        Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("timed out after 500 ms"));
+      }
+      // the caller does not wait for the slow server.
+      Assert.assertTrue(System.currentTimeMillis() - start < SLOW_DELAY_MS);
+    }
+  } // method timeout
+
+  @Test
+  public void breakerSkipsFailingLog() throws Exception {
+    // with the default breaker.failures, the log is skipped after two failures.
+    try (CtLogClient client = newClient(2, 10000, failing, good1)) {
+      for (int i = 0; i < 3; i++) {
+        try {
+          getScts(client);
+          Assert.fail("OperationException expected");
+        } catch (OperationException ex) {
+          boolean skipped = ex.getMessage().contains("skipped after consecutive failures");
+          Assert.assertEquals(ex.getMessage(), i == 2, skipped);
+        }
+      }
+
+      Assert.assertEquals(2, failing.hits.get());
+      CtLogClient.CtLogStatistics stats = client.getStatistics().get(0);
+      Assert.assertEquals(2, stats.getFailures());
+      Assert.assertEquals(1, stats.getSkipped());
+      Assert.assertFalse(stats.isAvailable());
+    }
+  } // method breakerSkipsFailingLog
+
+  private static CtLogClient newClient(int minScts, int timeoutMs, StubLog... logs)
+      throws Exception {
+    StringBuilder servers = new StringBuilder();
+    for (StubLog log : logs) {
+      String path = "/log" + PATH_INDEX.incrementAndGet();
+      server.createContext(path + "/ct/v1/add-pre-chain", log);
+      if (servers.length() > 0) {
+        servers.append(";");
+      }
+      servers.append("http://127.0.0.1:").append(server.getAddress().getPort()).append(path);
+    }
+
+    ConfPairs pairs = new ConfPairs();
+    pairs.putPair(CtlogControl.KEY_ENABLED, "true");
+    pairs.putPair(CtlogControl.KEY_SERVERS, servers.toString());
+    pairs.putPair(CtlogControl.KEY_MIN_SCTS, Integer.toString(minScts));
+    pairs.putPair(CtlogControl.KEY_TIMEOUT_MS, Integer.toString(timeoutMs));
+    return new CtLogClient(new CtlogControl(pairs.getEncoded()), null);
+  } // method newClient
+
+  private static SignedCertificateTimestampList getScts(CtLogClient client)
+      throws OperationException {
+    return client.getCtLogScts(precert, caCert, null, null);
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of {@link RandomSerialNumberGenerator} and {@link CounterSerialNumberGenerator}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class SerialNumberGeneratorTest {
+
+  @Test
+  public void testNafWeightOfZero() {
+    for (int len = 1; len <= 20; len++) {
+      assertNafWeight(new byte[len]);
+    }
+  }
+
+  @Test
+  public void testNafWeightOfPowersOfTwo() {
+    for (int len = 1; len <= 20; len++) {
+      for (int bit = 0; bit < 8 * len; bit++) {
+        assertNafWeight(toBytes(BigInteger.ONE.shiftLeft(bit), len));
+      }
+    }
+  }
+
+  @Test
+  public void testNafWeightOfRunsOfOnes() {
+    for (int len = 1; len <= 20; len++) {
+      int numBits = 8 * len;
+      for (int runLen = 1; runLen <= numBits; runLen++) {
+        BigInteger run = BigInteger.ONE.shiftLeft(runLen).subtract(BigInteger.ONE);
+        for (int shift = 0; shift + runLen <= numBits; shift++) {
+          assertNafWeight(toBytes(run.shiftLeft(shift), len));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNafWeightOfRandomValues() {
+    Random random = new Random(0x5eed);
+    for (int i = 0; i < 200000; i++) {
+      byte[] bytes = new byte[1 + random.nextInt(20)];
+      random.nextBytes(bytes);
+      assertNafWeight(bytes);
+    }
+  }
+
+  @Test
+  public void testRandomSerialNumbers() {
+    RandomSerialNumberGenerator generator = RandomSerialNumberGenerator.getInstance();
+    for (int len = 8; len <= 20; len++) {
+      Set<BigInteger> serials = new HashSet<>();
+      for (int i = 0; i < 1000; i++) {
+        BigInteger serial = generator.nextSerialNumber(len);
+        Assert.assertTrue("serial number is not positive", serial.signum() >= 0);
+        Assert.assertTrue("serial number too long", serial.bitLength() <= 8 * len - 1);
+        Assert.assertTrue("NAF weight too small", nafWeight(serial) >= 2 * len);
+        Assert.assertTrue("duplicated serial number", serials.add(serial));
+      }
+    }
+  } // method testRandomSerialNumbers
+
+  @Test
+  public void testCounterSerialNumbers() {
+    final int shardId = 99;
+    CounterSerialNumberGenerator generator = new CounterSerialNumberGenerator(0, shardId);
+
+    BigInteger prevCounter = BigInteger.valueOf(-1);
+    for (int i = 0; i < 10000; i++) {
+      int len = 8 + (i % 5);
+      BigInteger serial = generator.nextSerialNumber(len);
+      Assert.assertTrue("serial number is not positive", serial.signum() > 0);
+      Assert.assertTrue("serial number too long", serial.bitLength() <= 8 * len - 1);
+
+      // the first 8 bytes: shard id (7 bits) and the counter (56 bits)
+      BigInteger id = serial.shiftRight(8 * (len - 8));
+      Assert.assertEquals("shardId", shardId, id.shiftRight(56).intValue());
+
+      BigInteger counter = id.and(BigInteger.ONE.shiftLeft(56).subtract(BigInteger.ONE));
+      Assert.assertTrue("counter not increasing", counter.compareTo(prevCounter) > 0);
+      prevCounter = counter;
+    }
+  } // method testCounterSerialNumbers
+
+  private static void assertNafWeight(byte[] bytes) {
+    Assert.assertEquals("NAF weight of 0x" + new BigInteger(1, bytes).toString(16),
+        nafWeight(new BigInteger(1, bytes)), RandomSerialNumberGenerator.nafWeight(bytes));
+  }
+
+  private static int nafWeight(BigInteger value) {
+    // the former computation of the NAF weight
+    return value.shiftLeft(1).add(value).xor(value).bitCount();
+  }
+
+  private static byte[] toBytes(BigInteger value, int len) {
+    byte[] encoded = value.toByteArray();
+    byte[] bytes = new byte[len];
+    int n = Math.min(len, encoded.length);
+    System.arraycopy(encoded, encoded.length - n, bytes, len - n, n);
+    return bytes;
+  }
+
+}
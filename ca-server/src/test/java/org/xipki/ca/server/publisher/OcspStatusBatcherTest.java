@@ -0,0 +1,245 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.publisher;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ca.api.CertWithDbId;
+import org.xipki.ca.server.publisher.OcspStatusBatcher.StatusWriter;
+import org.xipki.ca.server.publisher.OcspStoreQueryExecutor.CertStatusChange;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.security.X509Cert;
+
+/**
+ * OcspStatusBatcher test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class OcspStatusBatcherTest {
+
+  private static class RecordingWriter implements StatusWriter {
+
+    private final List<List<String>> batches = new ArrayList<>();
+
+    private final List<String> failingKeys = new ArrayList<>();
+
+    private boolean failAll;
+
+    @Override
+    public synchronized void writeCertStatusChanges(List<CertStatusChange> changes)
+        throws DataAccessException {
+      List<String> keys = new ArrayList<>(changes.size());
+      for (CertStatusChange change : changes) {
+        if (failAll || failingKeys.contains(change.getKey())) {
+          throw new DataAccessException("could not write " + change.getKey());
+        }
+        keys.add(change.getKey());
+      }
+      batches.add(keys);
+    }
+
+    synchronized List<List<String>> getBatches() {
+      return new ArrayList<>(batches);
+    }
+
+  } // class RecordingWriter
+
+  private static KeyPair keypair;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private OcspStatusBatcher batcher;
+
+  @BeforeClass
+  public static void generateKeypair() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @After
+  public void shutdown() {
+    if (batcher != null) {
+      batcher.close();
+    }
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void acknowledgeAfterCommit() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    batcher = new OcspStatusBatcher(writer, 3, 60000, 100);
+    batcher.start("test");
+
+    List<Future<Boolean>> results = new ArrayList<>();
+    for (int i = 1; i <= 2; i++) {
+      results.add(submit(change(i, CertStatusChange.Type.ADD)));
+    }
+
+    // the batch is not full and the interval is not reached, nothing is committed.
+    Thread.sleep(200);
+    for (Future<Boolean> result : results) {
+      Assert.assertFalse("acknowledged before commit", result.isDone());
+    }
+    Assert.assertTrue(writer.getBatches().isEmpty());
+
+    // the third change fills the batch.
+    results.add(submit(change(3, CertStatusChange.Type.ADD)));
+    for (Future<Boolean> result : results) {
+      Assert.assertTrue(result.get(10, TimeUnit.SECONDS));
+    }
+    Assert.assertEquals(1, writer.getBatches().size());
+    Assert.assertEquals(3, writer.getBatches().get(0).size());
+  } // method acknowledgeAfterCommit
+
+  @Test
+  public void writeAfterInterval() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    batcher = new OcspStatusBatcher(writer, 100, 50, 100);
+    batcher.start("test");
+
+    Assert.assertTrue(batcher.write(change(1, CertStatusChange.Type.ADD)));
+    Assert.assertEquals(1, writer.getBatches().size());
+    Assert.assertEquals(0, batcher.getQueueDepth());
+  } // method writeAfterInterval
+
+  @Test
+  public void mergeChangesOfSameCert() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    batcher = new OcspStatusBatcher(writer, 100, 500, 100);
+    batcher.start("test");
+
+    Future<Boolean> added = submit(change(1, CertStatusChange.Type.ADD));
+    waitForQueueDepth(1);
+    Future<Boolean> revoked = submit(change(1, CertStatusChange.Type.REVOKE));
+
+    Assert.assertTrue(added.get(10, TimeUnit.SECONDS));
+    Assert.assertTrue(revoked.get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(1, writer.getBatches().size());
+    Assert.assertEquals(1, writer.getBatches().get(0).size());
+  } // method mergeChangesOfSameCert
+
+  @Test
+  public void failedChangeIsNotAcknowledged() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    CertStatusChange failing = change(2, CertStatusChange.Type.ADD);
+    writer.failingKeys.add(failing.getKey());
+
+    batcher = new OcspStatusBatcher(writer, 3, 60000, 100);
+    batcher.start("test");
+
+    Future<Boolean> result1 = submit(change(1, CertStatusChange.Type.ADD));
+    Future<Boolean> result2 = submit(failing);
+    Future<Boolean> result3 = submit(change(3, CertStatusChange.Type.ADD));
+
+    Assert.assertTrue(result1.get(10, TimeUnit.SECONDS));
+    Assert.assertFalse(result2.get(10, TimeUnit.SECONDS));
+    Assert.assertTrue(result3.get(10, TimeUnit.SECONDS));
+
+    // the failed change is not retried.
+    Thread.sleep(100);
+    Assert.assertEquals(0, batcher.getQueueDepth());
+    Assert.assertEquals(2, writer.getBatches().size());
+  } // method failedChangeIsNotAcknowledged
+
+  @Test
+  public void fullQueueRejects() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    batcher = new OcspStatusBatcher(writer, 100, 60000, 2);
+    batcher.start("test");
+
+    Future<Boolean> result1 = submit(change(1, CertStatusChange.Type.ADD));
+    Future<Boolean> result2 = submit(change(2, CertStatusChange.Type.ADD));
+    waitForQueueDepth(2);
+
+    Assert.assertFalse(batcher.write(change(3, CertStatusChange.Type.ADD)));
+
+    batcher.close();
+    Assert.assertTrue(result1.get(10, TimeUnit.SECONDS));
+    Assert.assertTrue(result2.get(10, TimeUnit.SECONDS));
+  } // method fullQueueRejects
+
+  @Test
+  public void closeCompletesPendingChanges() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    writer.failAll = true;
+    batcher = new OcspStatusBatcher(writer, 100, 60000, 100);
+    batcher.start("test");
+
+    Future<Boolean> result1 = submit(change(1, CertStatusChange.Type.ADD));
+    Future<Boolean> result2 = submit(change(2, CertStatusChange.Type.REVOKE));
+    waitForQueueDepth(2);
+
+    batcher.close();
+    Assert.assertFalse(result1.get(10, TimeUnit.SECONDS));
+    Assert.assertFalse(result2.get(10, TimeUnit.SECONDS));
+    Assert.assertFalse(batcher.write(change(3, CertStatusChange.Type.ADD)));
+  } // method closeCompletesPendingChanges
+
+  private Future<Boolean> submit(final CertStatusChange change) {
+    return executor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return batcher.write(change);
+      }
+    });
+  } // method submit
+
+  private void waitForQueueDepth(int depth) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (batcher.getQueueDepth() < depth) {
+      Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  } // method waitForQueueDepth
+
+  private static CertStatusChange change(long serialNumber, CertStatusChange.Type type)
+      throws Exception {
+    X500Name subject = new X500Name("CN=test " + serialNumber);
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject,
+        BigInteger.valueOf(serialNumber), notBefore, notAfter, subject, keypair.getPublic());
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA")
+        .build(keypair.getPrivate());
+    X509Cert cert = new X509Cert(builder.build(signer));
+    return new CertStatusChange(1, new CertWithDbId(cert), type, null);
+  } // method change
+
+}
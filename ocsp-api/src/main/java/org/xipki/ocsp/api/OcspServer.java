@@ -35,5 +35,23 @@ public interface OcspServer extends Closeable {
 
   OcspRespWithCacheInfo answer(Responder responder, byte[] request, boolean viaGet);
 
+  /**
+   * Answers the OCSP request contained in the first {@code requestLength} bytes of
+   * {@code request}. The array is not retained after this method returns, so that it can be
+   * reused, e.g. as per-thread buffer.
+   *
+   * @param responder
+   *          Responder.
+   * @param request
+   *          Buffer containing the DER encoded OCSPRequest.
+   * @param requestLength
+   *          Number of valid bytes in the buffer.
+   * @param viaGet
+   *          Whether the request is sent via HTTP GET.
+   * @return the response.
+   */
+  OcspRespWithCacheInfo answer(Responder responder, byte[] request, int requestLength,
+      boolean viaGet);
+
   HealthCheckResult healthCheck(Responder responder);
 }
@@ -21,7 +21,9 @@ import static org.xipki.util.Args.notBlank;
 
 import java.io.Closeable;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.xipki.datasource.DataSourceWrapper;
@@ -111,7 +113,47 @@ public abstract class OcspStore implements Closeable {
       boolean inheritCaRevocation) throws OcspStoreException {
     CertStatusInfo info = getCertStatus0(time, reqIssuer, serialNumber,
         includeCertHash, includeRit, inheritCaRevocation);
+    applyMinNextUpdate(time, info);
+    return info;
+  } // method getCertStatus
+
+  /**
+   * Return the status of several certificates of the same issuer.
+   *
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate statuses, in the same order as the {@code serialNumbers}.
+   *         An element is {@code null} if the store does not know the issuer.
+   * @throws OcspStoreException
+   *           If OCSP store failed to retrieve the statuses.
+   */
+  public final List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer, serialNumbers,
+        includeCertHash, includeRit, inheritCaRevocation);
+    if (infos.size() != serialNumbers.size()) {
+      throw new OcspStoreException("expected " + serialNumbers.size()
+          + " certificate statuses, but got " + infos.size());
+    }
+
+    for (CertStatusInfo info : infos) {
+      applyMinNextUpdate(time, info);
+    }
+    return infos;
+  } // method getCertStatuses
 
+  private void applyMinNextUpdate(Date time, CertStatusInfo info) {
     if (info != null && minNextUpdatePeriod != null && !isIgnoreExpiredCrls()) {
       if (unknownCertBehaviour == UnknownCertBehaviour.good
           || unknownCertBehaviour == UnknownCertBehaviour.unknown) {
@@ -127,9 +169,7 @@ public abstract class OcspStore implements Closeable {
         }
       }
     }
-
-    return info;
-  } // method getCertStatus
+  } // method applyMinNextUpdate
 
   /**
    * Return the certificate status.
@@ -154,6 +194,39 @@ public abstract class OcspStore implements Closeable {
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException;
 
+  /**
+   * Return the status of several certificates of the same issuer. The default implementation
+   * calls {@link #getCertStatus0(Date, RequestIssuer, BigInteger, boolean, boolean, boolean)}
+   * for each serial number. Stores that can retrieve several statuses in one round trip
+   * should override it.
+   *
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate statuses, in the same order as the {@code serialNumbers}.
+   * @throws OcspStoreException
+   *           If OCSP store failed to retrieve the statuses.
+   */
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> infos = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      infos.add(getCertStatus0(time, reqIssuer, serialNumber,
+          includeCertHash, includeRit, inheritCaRevocation));
+    }
+    return infos;
+  } // method getCertStatuses0
+
   /**
    * Initialize the OCSP store.
    *
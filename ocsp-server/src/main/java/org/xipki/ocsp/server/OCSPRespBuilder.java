@@ -34,6 +34,7 @@ import org.xipki.ocsp.server.type.TaggedCertSequence;
 import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.SignerPriority;
 import org.xipki.security.XiContentSigner;
 import org.xipki.util.Hex;
 
@@ -87,16 +88,11 @@ public class OCSPRespBuilder {
   }
 
   // CHECKSTYLE:SKIP
-  public byte[] buildOCSPResponse(ConcurrentContentSigner signer,
+  public byte[] buildOCSPResponse(ConcurrentContentSigner signer, SignerPriority priority,
       TaggedCertSequence taggedCertSequence, Date producedAt)
       throws OCSPException, NoIdleSignerException {
-    ResponseData responseData = new ResponseData(0,
-        responderId, producedAt, list, responseExtensions);
-
-    byte[] tbs = new byte[responseData.getEncodedLength()];
-    responseData.write(tbs, 0);
-
-    ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
+    byte[] tbs = encodeTbs(producedAt);
+    ConcurrentBagEntrySigner signer0 = signer.borrowSigner(priority);
 
     byte[] signature;
     byte[] sigAlgId;
@@ -117,6 +113,44 @@ public class OCSPRespBuilder {
       signer.requiteSigner(signer0);
     }
 
+    return encode(tbs, sigAlgId, signature, taggedCertSequence);
+  } // method buildOCSPResponse
+
+  /**
+   * Builds the response whose signature is created by the {@link SigningScheduler}.
+   *
+   * @param scheduler
+   *          Signing scheduler.
+   * @param taggedCertSequence
+   *          Certificates to be included in the response. May be {@code null}.
+   * @param producedAt
+   *          Production time of the response.
+   * @return the encoded OCSP response.
+   * @throws OCSPException
+   *           If the response could not be signed.
+   * @throws NoIdleSignerException
+   *           If the response could not be signed within the wait time of the scheduler.
+   */
+  // CHECKSTYLE:SKIP
+  byte[] buildOCSPResponse(SigningScheduler scheduler, TaggedCertSequence taggedCertSequence,
+      Date producedAt) throws OCSPException, NoIdleSignerException {
+    byte[] tbs = encodeTbs(producedAt);
+    byte[] signature = scheduler.sign(tbs);
+    return encode(tbs, scheduler.getEncodedAlgorithmIdentifier(), signature,
+        taggedCertSequence);
+  } // method buildOCSPResponse
+
+  private byte[] encodeTbs(Date producedAt) {
+    ResponseData responseData = new ResponseData(0,
+        responderId, producedAt, list, responseExtensions);
+
+    byte[] tbs = new byte[responseData.getEncodedLength()];
+    responseData.write(tbs, 0);
+    return tbs;
+  } // method encodeTbs
+
+  private static byte[] encode(byte[] tbs, byte[] sigAlgId, byte[] signature,
+      TaggedCertSequence taggedCertSequence) {
     // ----- Get the length -----
     // BasicOCSPResponse.signature
     int signatureBodyLen = signature.length + 1;
@@ -177,7 +211,7 @@ public class OCSPRespBuilder {
       offset += taggedCertSequence.write(out, offset);
     }
     return out;
-  } // method buildOCSPResponse
+  } // method encode
 
   private static int getLen(int bodyLen) {
     return ASN1Type.getHeaderLen(bodyLen) + bodyLen;
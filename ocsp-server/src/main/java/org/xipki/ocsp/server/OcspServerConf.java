@@ -51,6 +51,26 @@ public class OcspServerConf extends ValidatableConf {
     SIGNER_AND_CA;
   } // class EmbedCertsMode
 
+  /**
+   * What to do if the write-behind queue of the response cache is full.
+   */
+  public enum WriteBehindDropPolicy {
+    /**
+     * The new response is not cached in the database.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest queued response is discarded.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new response is written to the database by the request thread.
+     */
+    WRITE_THROUGH;
+  } // class WriteBehindDropPolicy
+
   public static class CertCollection extends ValidatableConf {
 
     private String dir;
@@ -404,12 +424,223 @@ public class OcspServerConf extends ValidatableConf {
 
   } // class Responder
 
+  public static class MemoryCache extends ValidatableConf {
+
+    /**
+     * Maximal number of responses cached in memory.
+     */
+    private int maxEntries = 100000;
+
+    /**
+     * Maximal sum of the size of the responses cached in memory, in MiB.
+     */
+    private int maxSizeMb = 256;
+
+    public int getMaxEntries() {
+      return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    public int getMaxSizeMb() {
+      return maxSizeMb;
+    }
+
+    public void setMaxSizeMb(int maxSizeMb) {
+      this.maxSizeMb = maxSizeMb;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (maxEntries < 1) {
+        throw new InvalidConfException("maxEntries may not be less than 1");
+      }
+
+      if (maxSizeMb < 1) {
+        throw new InvalidConfException("maxSizeMb may not be less than 1");
+      }
+    }
+
+  } // class MemoryCache
+
+  public static class Pregeneration extends ValidatableConf {
+
+    /**
+     * Names of the responders whose responses will be pre-generated. If not set, the
+     * responses of all responders will be pre-generated.
+     */
+    private List<String> responders;
+
+    /**
+     * Interval between two runs.
+     */
+    private String interval = "1h";
+
+    /**
+     * Cached responses whose nextUpdate or end of validity is within this period will be
+     * re-generated. Must be shorter than the validity of the response cache.
+     */
+    private String renewBefore = "2h";
+
+    /**
+     * Number of threads to sign the responses.
+     */
+    private int threads = 4;
+
+    /**
+     * Number of certificates read from the store and responses written to the cache database
+     * at once.
+     */
+    private int batchSize = 1000;
+
+    public List<String> getResponders() {
+      return responders;
+    }
+
+    public void setResponders(List<String> responders) {
+      this.responders = responders;
+    }
+
+    public String getInterval() {
+      return interval;
+    }
+
+    public void setInterval(String interval) {
+      this.interval = interval;
+    }
+
+    public String getRenewBefore() {
+      return renewBefore;
+    }
+
+    public void setRenewBefore(String renewBefore) {
+      this.renewBefore = renewBefore;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      notBlank(interval, "interval");
+      notBlank(renewBefore, "renewBefore");
+      if (threads < 1) {
+        throw new InvalidConfException("threads may not be less than 1");
+      }
+
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize may not be less than 1");
+      }
+    }
+
+  } // class Pregeneration
+
+  public static class WriteBehind extends ValidatableConf {
+
+    /**
+     * Maximal number of responses waiting to be written to the cache database.
+     */
+    private int queueSize = 10000;
+
+    /**
+     * Maximal number of responses written in one batch.
+     */
+    private int batchSize = 100;
+
+    /**
+     * Maximal time in milliseconds a response waits before it is written.
+     */
+    private int flushIntervalMs = 200;
+
+    private WriteBehindDropPolicy dropPolicy = WriteBehindDropPolicy.DROP_NEWEST;
+
+    public int getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getFlushIntervalMs() {
+      return flushIntervalMs;
+    }
+
+    public void setFlushIntervalMs(int flushIntervalMs) {
+      this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public WriteBehindDropPolicy getDropPolicy() {
+      return dropPolicy;
+    }
+
+    public void setDropPolicy(WriteBehindDropPolicy dropPolicy) {
+      this.dropPolicy = dropPolicy;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      notNull(dropPolicy, "dropPolicy");
+      if (queueSize < 1) {
+        throw new InvalidConfException("queueSize may not be less than 1");
+      }
+
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize may not be less than 1");
+      }
+
+      if (flushIntervalMs < 1) {
+        throw new InvalidConfException("flushIntervalMs may not be less than 1");
+      }
+    }
+
+  } // class WriteBehind
+
   public static class ResponseCache extends ValidatableConf {
 
     private DataSourceConf datasource;
 
     private String validity;
 
+    /**
+     * If present, the responses will be additionally cached in memory.
+     */
+    private MemoryCache memoryCache;
+
+    /**
+     * If present, the responses will be pre-generated and stored in the cache database.
+     * Only applied to the master responder.
+     */
+    private Pregeneration pregeneration;
+
+    /**
+     * If present, the responses will be written to the cache database asynchronously.
+     */
+    private WriteBehind writeBehind;
+
     public DataSourceConf getDatasource() {
       return datasource;
     }
@@ -430,9 +661,36 @@ public class OcspServerConf extends ValidatableConf {
       return validity == null ? new Validity(1, Unit.DAY) : Validity.getInstance(validity);
     }
 
+    public MemoryCache getMemoryCache() {
+      return memoryCache;
+    }
+
+    public void setMemoryCache(MemoryCache memoryCache) {
+      this.memoryCache = memoryCache;
+    }
+
+    public Pregeneration getPregeneration() {
+      return pregeneration;
+    }
+
+    public void setPregeneration(Pregeneration pregeneration) {
+      this.pregeneration = pregeneration;
+    }
+
+    public WriteBehind getWriteBehind() {
+      return writeBehind;
+    }
+
+    public void setWriteBehind(WriteBehind writeBehind) {
+      this.writeBehind = writeBehind;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notNull(datasource, "datasource");
+      validate(memoryCache);
+      validate(pregeneration);
+      validate(writeBehind);
     }
 
   } // class ResponseCache
@@ -516,6 +774,82 @@ public class OcspServerConf extends ValidatableConf {
 
   } // class ResponseOption
 
+  public static class SignScheduler extends ValidatableConf {
+
+    /**
+     * Number of threads which sign the queued responses. Should not be greater than the
+     * number of parallel signing sessions of the signer.
+     */
+    private int threads = 4;
+
+    /**
+     * Maximal number of responses signed with one borrowed signer.
+     */
+    private int batchSize = 16;
+
+    /**
+     * Maximal number of responses waiting to be signed.
+     */
+    private int queueSize = 1000;
+
+    /**
+     * Maximal time in milliseconds a request waits for its signature.
+     */
+    private int maxWaitMs = 2000;
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+    }
+
+    public int getMaxWaitMs() {
+      return maxWaitMs;
+    }
+
+    public void setMaxWaitMs(int maxWaitMs) {
+      this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (threads < 1) {
+        throw new InvalidConfException("threads may not be less than 1");
+      }
+
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize may not be less than 1");
+      }
+
+      if (queueSize < 1) {
+        throw new InvalidConfException("queueSize may not be less than 1");
+      }
+
+      if (maxWaitMs < 1) {
+        throw new InvalidConfException("maxWaitMs may not be less than 1");
+      }
+    }
+
+  } // class SignScheduler
+
   public static class Signer extends ValidatableConf {
 
     private String name;
@@ -530,6 +864,11 @@ public class OcspServerConf extends ValidatableConf {
 
     private List<FileOrBinary> caCerts;
 
+    /**
+     * If present, the responses are signed in batches by background threads.
+     */
+    private SignScheduler signScheduler;
+
     public String getName() {
       return name;
     }
@@ -584,12 +923,21 @@ public class OcspServerConf extends ValidatableConf {
       this.caCerts = caCerts;
     }
 
+    public SignScheduler getSignScheduler() {
+      return signScheduler;
+    }
+
+    public void setSignScheduler(SignScheduler signScheduler) {
+      this.signScheduler = signScheduler;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notBlank(name, "name");
       notBlank(type, "type");
       notBlank(key, "key");
       notEmpty(algorithms, "algorithms");
+      validate(signScheduler);
     }
 
   } // class Signer
@@ -39,10 +39,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -79,6 +82,7 @@ import org.xipki.ocsp.server.ResponderOption.OcspMode;
 import org.xipki.ocsp.server.store.CaDbCertStatusStore;
 import org.xipki.ocsp.server.store.CrlDbCertStatusStore;
 import org.xipki.ocsp.server.store.DbCertStatusStore;
+import org.xipki.ocsp.server.store.IssuerHashKey;
 import org.xipki.ocsp.server.store.ResponseCacher;
 import org.xipki.ocsp.server.store.ejbca.EjbcaCertStatusStore;
 import org.xipki.ocsp.server.type.CertID;
@@ -100,6 +104,7 @@ import org.xipki.security.HashAlgo;
 import org.xipki.security.NoIdleSignerException;
 import org.xipki.security.SecurityFactory;
 import org.xipki.security.SignerConf;
+import org.xipki.security.SignerPriority;
 import org.xipki.security.X509Cert;
 import org.xipki.security.XiSecurityException;
 import org.xipki.security.util.X509Util;
@@ -148,6 +153,7 @@ public class OcspServerImpl implements OcspServer {
   private static class OcspRespControl {
     boolean canCacheInfo;
     boolean includeExtendedRevokeExtension;
+    boolean unknownAsRevoked;
     long cacheNextUpdate;
 
     public OcspRespControl() {
@@ -156,6 +162,16 @@ public class OcspServerImpl implements OcspServer {
     }
   } // class OcspRespControl
 
+  private static class PrefetchedStatus {
+    final OcspStore store;
+    final CertStatusInfo certStatusInfo;
+
+    PrefetchedStatus(OcspStore store, CertStatusInfo certStatusInfo) {
+      this.store = store;
+      this.certStatusInfo = certStatusInfo;
+    }
+  } // class PrefetchedStatus
+
   public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
   private static final String STORE_TYPE_XIPKI_DB = "xipki-db";
@@ -197,6 +213,8 @@ public class OcspServerImpl implements OcspServer {
 
   private ResponseCacher responseCacher;
 
+  private ScheduledThreadPoolExecutor pregenerationExecutor;
+
   private Map<String, ResponderImpl> responders = new HashMap<>();
 
   private Map<String, ResponseSigner> signers = new HashMap<>();
@@ -326,8 +344,15 @@ public class OcspServerImpl implements OcspServer {
     initialized.set(false);
 
     // reset
+    if (pregenerationExecutor != null) {
+      pregenerationExecutor.shutdownNow();
+      pregenerationExecutor = null;
+    }
     responseCacher = null;
     responders.clear();
+    for (ResponseSigner signer : signers.values()) {
+      signer.close();
+    }
     signers.clear();
 
     requestOptions.clear();
@@ -479,7 +504,19 @@ public class OcspServerImpl implements OcspServer {
       } finally {
         closeStream(dsStream);
       }
-      responseCacher = new ResponseCacher(datasource, master, cacheType.validity());
+      OcspServerConf.MemoryCache memoryCache = cacheType.getMemoryCache();
+      if (memoryCache == null) {
+        responseCacher = new ResponseCacher(datasource, master, cacheType.validity());
+      } else {
+        responseCacher = new ResponseCacher(datasource, master, cacheType.validity(),
+            memoryCache.getMaxEntries(), memoryCache.getMaxSizeMb() * 1024L * 1024);
+      }
+
+      OcspServerConf.WriteBehind writeBehind = cacheType.getWriteBehind();
+      if (writeBehind != null) {
+        responseCacher.setWriteBehind(writeBehind.getQueueSize(), writeBehind.getBatchSize(),
+            writeBehind.getFlushIntervalMs(), writeBehind.getDropPolicy());
+      }
       responseCacher.init();
     }
 
@@ -588,6 +625,41 @@ public class OcspServerImpl implements OcspServer {
       responders.put(name, responder);
     } // end for
 
+    // pre-generation of responses
+    OcspServerConf.Pregeneration pregenerationConf =
+        (cacheType == null) ? null : cacheType.getPregeneration();
+    if (pregenerationConf != null && master) {
+      List<String> names = pregenerationConf.getResponders();
+      if (CollectionUtil.isEmpty(names)) {
+        names = new ArrayList<>(responders.keySet());
+      }
+
+      long validitySec = cacheType.validity().approxMinutes() * 60;
+      long intervalSec = Validity.getInstance(pregenerationConf.getInterval()).approxMinutes() * 60;
+
+      List<ResponsePregenerator> pregenerators = new ArrayList<>(names.size());
+      for (String name : names) {
+        ResponderImpl responder = responders.get(name);
+        if (responder == null) {
+          throw new InvalidConfException("no responder named '" + name + "' is defined");
+        }
+
+        try {
+          pregenerators.add(new ResponsePregenerator(this, name, responder, responseCacher,
+              validitySec, pregenerationConf));
+        } catch (IllegalArgumentException ex) {
+          throw new InvalidConfException("invalid pregeneration: " + ex.getMessage(), ex);
+        }
+      }
+
+      pregenerationExecutor = new ScheduledThreadPoolExecutor(1);
+      pregenerationExecutor.setRemoveOnCancelPolicy(true);
+      for (ResponsePregenerator pregenerator : pregenerators) {
+        pregenerationExecutor.scheduleWithFixedDelay(pregenerator, 60, intervalSec,
+            TimeUnit.SECONDS);
+      }
+    }
+
     // servlet paths
     List<SizeComparableString> tmpList = new LinkedList<>();
     for (String name : responderOptions.keySet()) {
@@ -613,10 +685,19 @@ public class OcspServerImpl implements OcspServer {
   @Override
   public void close() {
     LOG.info("stopped OCSP Responder");
+    if (pregenerationExecutor != null) {
+      pregenerationExecutor.shutdownNow();
+      pregenerationExecutor = null;
+    }
+
     if (responseCacher != null) {
       responseCacher.close();
     }
 
+    for (ResponseSigner signer : signers.values()) {
+      signer.close();
+    }
+
     for (OcspStore store : stores.values()) {
       try {
         store.close();
@@ -627,12 +708,19 @@ public class OcspServerImpl implements OcspServer {
   } // method close
 
   @Override
-  public OcspRespWithCacheInfo answer(Responder responder2, byte[] request, boolean viaGet) {
+  public OcspRespWithCacheInfo answer(Responder responder, byte[] request, boolean viaGet) {
+    return answer(responder, request, request.length, viaGet);
+  }
+
+  @Override
+  public OcspRespWithCacheInfo answer(Responder responder2, byte[] request, int requestLength,
+      boolean viaGet) {
     ResponderImpl responder = (ResponderImpl) responder2;
     RequestOption reqOpt = responder.getRequestOption();
 
     int version;
     try {
+      OcspRequest.checkLength(request, requestLength);
       version = OcspRequest.readRequestVersion(request);
     } catch (EncodingException ex) {
       String message = "could not extract version from request";
@@ -650,7 +738,7 @@ public class OcspServerImpl implements OcspServer {
     OcspServerConf.ResponseOption repOpt = responder.getResponseOption();
 
     try {
-      Object reqOrRrrorResp = checkSignature(request, reqOpt);
+      Object reqOrRrrorResp = checkSignature(request, requestLength, reqOpt);
       if (reqOrRrrorResp instanceof OcspRespWithCacheInfo) {
         return (OcspRespWithCacheInfo) reqOrRrrorResp;
       }
@@ -670,7 +758,7 @@ public class OcspServerImpl implements OcspServer {
       repControl.canCacheInfo = true;
 
       List<ExtendedExtension> reqExtensions = req.getExtensions();
-      List<Extension> respExtensions = new LinkedList<>();
+      List<Extension> respExtensions = new ArrayList<>(2);
 
       ExtendedExtension ocspRespExtn = removeExtension(reqExtensions, OID.ID_PKIX_OCSP_RESPONSE);
       if (ocspRespExtn != null) {
@@ -828,23 +916,20 @@ public class OcspServerImpl implements OcspServer {
       ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
       OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
 
-      boolean unknownAsRevoked = false;
-      AtomicBoolean unknownAsRevoked0 = new AtomicBoolean(false);
+      PrefetchedStatus[] prefetchedStatuses = (requestsSize > 1)
+          ? prefetchCertStatuses(requestList, responder, reqOpt, repOpt) : null;
+
       for (int i = 0; i < requestsSize; i++) {
-        OcspRespWithCacheInfo failureOcspResp = processCertReq(
-            unknownAsRevoked0, requestList.get(i),
+        OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
+            prefetchedStatuses == null ? null : prefetchedStatuses[i],
             builder, responder, reqOpt, repOpt, repControl);
 
         if (failureOcspResp != null) {
           return failureOcspResp;
         }
-
-        if (unknownAsRevoked0.get()) {
-          unknownAsRevoked = true;
-        }
       }
 
-      if (unknownAsRevoked && repControl.includeExtendedRevokeExtension) {
+      if (repControl.unknownAsRevoked && repControl.includeExtendedRevokeExtension) {
         respExtensions.add(extension_pkix_ocsp_extendedRevoke);
       }
 
@@ -852,21 +937,13 @@ public class OcspServerImpl implements OcspServer {
         builder.setResponseExtensions(new Extensions(respExtensions));
       }
 
-      TaggedCertSequence certsInResp;
-      EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
-      if (certsMode == EmbedCertsMode.SIGNER) {
-        certsInResp = signer.getSequenceOfCert();
-      } else if (certsMode == EmbedCertsMode.NONE) {
-        certsInResp = null;
-      } else {
-        // certsMode == EmbedCertsMode.SIGNER_AND_CA
-        certsInResp = signer.getSequenceOfCertChain();
-      }
+      TaggedCertSequence certsInResp = getCertsInResp(signer, repOpt);
 
       Date producedAt = new Date();
       byte[] encodeOcspResponse;
       try {
-        encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp, producedAt);
+        encodeOcspResponse = buildOcspResponse(builder, signer, concurrentSigner,
+            SignerPriority.OCSP, certsInResp, producedAt);
       } catch (NoIdleSignerException ex) {
         return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
       } catch (OCSPException ex) {
@@ -899,9 +976,137 @@ public class OcspServerImpl implements OcspServer {
     }
   } // method ask
 
-  private OcspRespWithCacheInfo processCertReq(AtomicBoolean unknownAsRevoked,
-      CertID certId, OCSPRespBuilder builder,
-      ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt,
+  /**
+   * Generates the response for a single CertID, as it would be answered for a request
+   * without nonce and without preferred signature algorithms.
+   *
+   * @param responder
+   *          Responder.
+   * @param certId
+   *          CertID.
+   * @param cacheIssuerId
+   *          Id of the issuer in the cache database.
+   * @return the response to be cached, or {@code null} if the response cannot be cached.
+   * @throws IOException
+   *           If the status of the certificate could not be encoded.
+   * @throws OCSPException
+   *           If the response could not be signed.
+   * @throws NoIdleSignerException
+   *           If no signer is available.
+   */
+  ResponseCacher.ResponseEntry generateCacheableResponse(ResponderImpl responder,
+      CertID certId, int cacheIssuerId)
+      throws IOException, OCSPException, NoIdleSignerException {
+    ResponseSigner signer = responder.getSigner();
+    OcspServerConf.ResponseOption repOpt = responder.getResponseOption();
+    ConcurrentContentSigner concurrentSigner = signer.getFirstSigner();
+
+    OcspRespControl repControl = new OcspRespControl();
+    repControl.canCacheInfo = true;
+
+    OCSPRespBuilder builder =
+        new OCSPRespBuilder(signer.getResponderId(repOpt.isResponderIdByName()));
+    OcspRespWithCacheInfo failureOcspResp = processCertReq(certId, null, builder,
+        responder, responder.getRequestOption(), repOpt, repControl);
+    if (failureOcspResp != null || !repControl.canCacheInfo) {
+      return null;
+    }
+
+    Date producedAt = new Date();
+    byte[] encodeOcspResponse = buildOcspResponse(builder, signer, concurrentSigner,
+        SignerPriority.BATCH, getCertsInResp(signer, repOpt), producedAt);
+
+    Long nextUpdate = (repControl.cacheNextUpdate == Long.MAX_VALUE)
+        ? null : repControl.cacheNextUpdate;
+    return new ResponseCacher.ResponseEntry(cacheIssuerId, certId.getSerialNumber(),
+        concurrentSigner.getAlgorithmCode(), producedAt.getTime() / 1000, nextUpdate,
+        encodeOcspResponse);
+  } // method generateCacheableResponse
+
+  private static TaggedCertSequence getCertsInResp(ResponseSigner signer,
+      OcspServerConf.ResponseOption repOpt) {
+    EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
+    if (certsMode == EmbedCertsMode.SIGNER) {
+      return signer.getSequenceOfCert();
+    } else if (certsMode == EmbedCertsMode.NONE) {
+      return null;
+    } else {
+      // certsMode == EmbedCertsMode.SIGNER_AND_CA
+      return signer.getSequenceOfCertChain();
+    }
+  } // method getCertsInResp
+
+  /**
+   * Retrieves the statuses of the certificates of the same issuer with one call of
+   * {@link OcspStore#getCertStatuses(Date, RequestIssuer, List, boolean, boolean, boolean)}
+   * per issuer. The status of a CertID which is not contained in the returned array is
+   * retrieved by {@link #processCertReq} itself.
+   */
+  private PrefetchedStatus[] prefetchCertStatuses(List<CertID> requestList,
+      ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt) {
+    final int size = requestList.size();
+    Map<IssuerHashKey, List<Integer>> issuerIndexesMap = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      RequestIssuer reqIssuer = requestList.get(i).getIssuer();
+      if (!reqOpt.allows(reqIssuer.hashAlgorithm())) {
+        continue;
+      }
+
+      IssuerHashKey key = IssuerHashKey.getInstance(reqIssuer);
+      if (key == null) {
+        // unsupported hash algorithm, the CertID is rejected by processCertReq.
+        continue;
+      }
+
+      List<Integer> indexes = issuerIndexesMap.get(key);
+      if (indexes == null) {
+        indexes = new ArrayList<>(size);
+        issuerIndexesMap.put(key, indexes);
+      }
+      indexes.add(i);
+    }
+
+    PrefetchedStatus[] statuses = new PrefetchedStatus[size];
+    Date now = new Date();
+    for (List<Integer> indexes : issuerIndexesMap.values()) {
+      if (indexes.size() < 2) {
+        continue;
+      }
+
+      RequestIssuer reqIssuer = requestList.get(indexes.get(0)).getIssuer();
+      for (OcspStore store : responder.getStores()) {
+        if (!store.knowsIssuer(reqIssuer)) {
+          continue;
+        }
+
+        List<BigInteger> serials = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+          serials.add(requestList.get(index).getSerialNumber());
+        }
+
+        try {
+          List<CertStatusInfo> infos = store.getCertStatuses(now, reqIssuer, serials,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+          for (int i = 0; i < infos.size(); i++) {
+            CertStatusInfo info = infos.get(i);
+            if (info != null) {
+              statuses[indexes.get(i)] = new PrefetchedStatus(store, info);
+            }
+          }
+        } catch (OcspStoreException ex) {
+          LogUtil.warn(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
+        }
+        break;
+      }
+    }
+
+    return statuses;
+  } // method prefetchCertStatuses
+
+  private OcspRespWithCacheInfo processCertReq(CertID certId,
+      PrefetchedStatus prefetchedStatus, OCSPRespBuilder builder, ResponderImpl responder,
+      RequestOption reqOpt, OcspServerConf.ResponseOption repOpt,
       OcspRespControl repControl) throws IOException {
     HashAlgo reqHashAlgo = certId.getIssuer().hashAlgorithm();
     if (!reqOpt.allows(reqHashAlgo)) {
@@ -922,9 +1127,13 @@ public class OcspServerImpl implements OcspServer {
       }
 
       try {
-        certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
-            repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
-            responder.getResponderOption().isInheritCaRevocation());
+        if (prefetchedStatus != null && prefetchedStatus.store == store) {
+          certStatusInfo = prefetchedStatus.certStatusInfo;
+        } else {
+          certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+        }
         if (certStatusInfo != null) {
           CertStatus status = certStatusInfo.getCertStatus();
           if (status == CertStatus.UNKNOWN || status == CertStatus.IGNORE) {
@@ -990,8 +1199,9 @@ public class OcspServerImpl implements OcspServer {
 
     Date nextUpdate = certStatusInfo.getNextUpdate();
 
-    List<Extension> extensions = new LinkedList<>();
-    unknownAsRevoked.set(false);
+    // most responses have no single extension, allocate the list only if required
+    List<Extension> extensions = null;
+    boolean unknownAsRevoked = false;
     byte[] certStatus;
     switch (certStatusInfo.getCertStatus()) {
       case GOOD:
@@ -1007,7 +1217,8 @@ public class OcspServerImpl implements OcspServer {
         if (responder.getResponderOption().getMode() == OcspMode.RFC2560) {
           certStatus = bytes_certstatus_unknown;
         } else { // (ocspMode == OCSPMode.RFC6960)
-          unknownAsRevoked.set(true);
+          unknownAsRevoked = true;
+          repControl.unknownAsRevoked = true;
           certStatus = bytes_certstatus_rfc6960_unknown;
         }
         break;
@@ -1019,6 +1230,7 @@ public class OcspServerImpl implements OcspServer {
         Date invalidityDate = revInfo.getInvalidityTime();
         if (repOpt.isIncludeInvalidityDate() && invalidityDate != null
             && !invalidityDate.equals(revInfo.getRevocationTime())) {
+          extensions = new ArrayList<>(3);
           extensions.add(Template.getInvalidityDateExtension(invalidityDate));
         }
         break;
@@ -1033,10 +1245,16 @@ public class OcspServerImpl implements OcspServer {
 
     byte[] certHash = certStatusInfo.getCertHash();
     if (certHash != null) {
+      if (extensions == null) {
+        extensions = new ArrayList<>(2);
+      }
       extensions.add(Template.getCertHashExtension(certStatusInfo.getCertHashAlgo(), certHash));
     }
 
     if (certStatusInfo.getArchiveCutOff() != null) {
+      if (extensions == null) {
+        extensions = new ArrayList<>(1);
+      }
       extensions.add(Template.getArchiveOffExtension(certStatusInfo.getArchiveCutOff()));
     }
 
@@ -1049,7 +1267,7 @@ public class OcspServerImpl implements OcspServer {
       } else if (Arrays.equals(certStatus, bytes_certstatus_rfc6960_unknown)) {
         certStatusText = "RFC6960_unknown";
       } else  {
-        certStatusText = unknownAsRevoked.get() ? "unknown_as_revoked" : "revoked";
+        certStatusText = unknownAsRevoked ? "unknown_as_revoked" : "revoked";
       }
 
       String msg = StringUtil.concatObjectsCap(250, "issuer: ", certId.getIssuer(),
@@ -1104,6 +1322,15 @@ public class OcspServerImpl implements OcspServer {
     signerHealth.setHealthy(signerHealthy);
     result.addChildCheck(signerHealth);
 
+    if (responseCacher != null) {
+      // the response cache is optional, its state does not affect the health of the responder
+      HealthCheckResult cacheHealth = new HealthCheckResult();
+      cacheHealth.setName("ResponseCache");
+      cacheHealth.setHealthy(responseCacher.isOnService());
+      responseCacher.fillStatuses(cacheHealth.getStatuses());
+      result.addChildCheck(cacheHealth);
+    }
+
     result.setHealthy(healthy);
     return result;
   } // method healthCheck
@@ -1153,13 +1380,37 @@ public class OcspServerImpl implements OcspServer {
       }
     }
 
+    ResponseSigner signer;
     try {
-      return new ResponseSigner(singleSigners);
+      signer = new ResponseSigner(singleSigners);
     } catch (CertificateException | IOException ex) {
       throw new InvalidConfException(ex.getMessage(), ex);
     }
+
+    if (signerType.getSignScheduler() != null) {
+      try {
+        signer.startSigningSchedulers(signerType.getSignScheduler());
+      } catch (NoIdleSignerException ex) {
+        throw new InvalidConfException("could not start the signing schedulers of signer "
+            + signerType.getName() + ": " + ex.getMessage(), ex);
+      }
+    }
+    return signer;
   } // method initSigner
 
+  private static byte[] buildOcspResponse(OCSPRespBuilder builder, ResponseSigner signer,
+      ConcurrentContentSigner concurrentSigner, SignerPriority priority,
+      TaggedCertSequence certsInResp, Date producedAt)
+      throws OCSPException, NoIdleSignerException {
+    // the signing scheduler serves only the online requests, other responses, e.g. the
+    // pre-generated ones, borrow the signer with their own priority.
+    SigningScheduler scheduler = (priority == SignerPriority.OCSP)
+        ? signer.getSigningScheduler(concurrentSigner) : null;
+    return (scheduler == null)
+        ? builder.buildOCSPResponse(concurrentSigner, priority, certsInResp, producedAt)
+        : builder.buildOCSPResponse(scheduler, certsInResp, producedAt);
+  } // method buildOcspResponse
+
   private OcspStore newStore(OcspServerConf.Store conf, Map<String, DataSourceWrapper> datasources)
       throws InvalidConfException {
     OcspStore store;
@@ -1241,7 +1492,7 @@ public class OcspServerImpl implements OcspServer {
     return store;
   } // method newStore
 
-  private Object checkSignature(byte[] request, RequestOption requestOption)
+  private Object checkSignature(byte[] request, int requestLength, RequestOption requestOption)
       throws OCSPException, CertificateParsingException, InvalidAlgorithmParameterException {
     OCSPRequest req;
     try {
@@ -1249,7 +1500,7 @@ public class OcspServerImpl implements OcspServer {
         return OcspRequest.getInstance(request);
       }
 
-      if (!OcspRequest.containsSignature(request)) {
+      if (!OcspRequest.containsSignature(request, requestLength)) {
         if (requestOption.isSignatureRequired()) {
           LOG.warn("signature in request required");
           return unsuccesfulOCSPRespMap.get(OcspResponseStatus.sigRequired);
@@ -1259,7 +1510,9 @@ public class OcspServerImpl implements OcspServer {
       }
 
       try {
-        req = OCSPRequest.getInstance(request);
+        // BouncyCastle does not accept trailing bytes
+        req = OCSPRequest.getInstance((requestLength == request.length)
+            ? request : Arrays.copyOf(request, requestLength));
       } catch (IllegalArgumentException ex) {
         throw new EncodingException("could not parse OCSP request", ex);
       }
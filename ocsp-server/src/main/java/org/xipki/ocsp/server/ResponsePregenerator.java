@@ -0,0 +1,364 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.EnumerableCertStatusStore;
+import org.xipki.ocsp.server.store.EnumerableCertStatusStore.CertEntry;
+import org.xipki.ocsp.server.store.ResponseCacher;
+import org.xipki.ocsp.server.store.ResponseCacher.ResponseEntry;
+import org.xipki.ocsp.server.type.CertID;
+import org.xipki.security.AlgorithmCode;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.X509Cert;
+import org.xipki.util.LogUtil;
+import org.xipki.util.Validity;
+
+/**
+ * Pre-generates the OCSP responses of all certificates of the {@link EnumerableCertStatusStore}s
+ * of a responder and stores them in the cache database (RFC 5019 style). The certificates are
+ * read by id range, the responses are signed by several threads and written in batches.
+ * Only the responses whose certificate has been changed since the last generation, or whose
+ * nextUpdate or end of validity is approaching, are re-generated.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class ResponsePregenerator implements Runnable {
+
+  private class Writer implements Runnable {
+
+    @Override
+    public void run() {
+      List<ResponseEntry> batch = new ArrayList<>(batchSize);
+      boolean interrupted = false;
+      while (true) {
+        ResponseEntry entry = null;
+        try {
+          entry = results.poll(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          LOG.warn("interrupted, store the collected responses and stop");
+          interrupted = true;
+        }
+
+        if (entry != null) {
+          batch.add(entry);
+        }
+
+        boolean finished = interrupted
+            || (entry == null && producerFinished.get() && results.isEmpty());
+        if (batch.size() >= batchSize || ((entry == null || finished) && !batch.isEmpty())) {
+          try {
+            numStored.addAndGet(responseCacher.storeOcspResponses(batch));
+          } catch (Exception ex) {
+            numFailed.addAndGet(batch.size());
+            LogUtil.error(LOG, ex, "could not store pre-generated OCSP responses");
+          }
+          batch.clear();
+        }
+
+        if (finished) {
+          break;
+        }
+      }
+    } // method run
+
+  } // class Writer
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponsePregenerator.class);
+
+  private final OcspServerImpl server;
+
+  private final String responderName;
+
+  private final ResponderImpl responder;
+
+  private final ResponseCacher responseCacher;
+
+  private final int numThreads;
+
+  private final int batchSize;
+
+  private final long renewBeforeSec;
+
+  private final long validitySec;
+
+  private final AtomicBoolean inProcess = new AtomicBoolean(false);
+
+  private final AtomicBoolean producerFinished = new AtomicBoolean(false);
+
+  private final AtomicLong numGenerated = new AtomicLong(0);
+
+  private final AtomicLong numStored = new AtomicLong(0);
+
+  private final AtomicLong numFailed = new AtomicLong(0);
+
+  private BlockingQueue<ResponseEntry> results;
+
+  ResponsePregenerator(OcspServerImpl server, String responderName, ResponderImpl responder,
+      ResponseCacher responseCacher, long validitySec, OcspServerConf.Pregeneration conf) {
+    this.server = notNull(server, "server");
+    this.responderName = notNull(responderName, "responderName");
+    this.responder = notNull(responder, "responder");
+    this.responseCacher = notNull(responseCacher, "responseCacher");
+    this.validitySec = positive(validitySec, "validitySec");
+    this.numThreads = positive(conf.getThreads(), "conf.threads");
+    this.batchSize = positive(conf.getBatchSize(), "conf.batchSize");
+    this.renewBeforeSec = Validity.getInstance(conf.getRenewBefore()).approxMinutes() * 60;
+    if (renewBeforeSec >= validitySec) {
+      throw new IllegalArgumentException(
+          "renewBefore must be shorter than the validity of the cached responses");
+    }
+  }
+
+  @Override
+  public void run() {
+    if (!inProcess.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      for (OcspStore store : responder.getStores()) {
+        if (Thread.currentThread().isInterrupted()) {
+          LOG.warn("interrupted, stop pre-generating OCSP responses of responder {}",
+              responderName);
+          break;
+        }
+
+        if (store instanceof EnumerableCertStatusStore) {
+          pregenerate(store);
+        }
+      }
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not pre-generate OCSP responses of responder "
+          + responderName);
+    } finally {
+      inProcess.set(false);
+    }
+  } // method run
+
+  private void pregenerate(OcspStore store) throws Exception {
+    long start = System.currentTimeMillis();
+    LOG.info("start pre-generating OCSP responses of responder {} for store {}",
+        responderName, store.getName());
+
+    numGenerated.set(0);
+    numStored.set(0);
+    numFailed.set(0);
+    producerFinished.set(false);
+    results = new ArrayBlockingQueue<>(2 * batchSize);
+
+    ThreadPoolExecutor signers = new ThreadPoolExecutor(numThreads, numThreads,
+        0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(2 * batchSize),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    Thread writer = new Thread(new Writer(), "ocsp-pregeneration-writer-" + responderName);
+    writer.setDaemon(true);
+    writer.start();
+
+    long numSkipped = 0;
+    AlgorithmCode sigAlg = responder.getSigner().getFirstSigner().getAlgorithmCode();
+    Map<RequestIssuer, Integer> cacheIssuerIds = new HashMap<>();
+
+    try {
+      EnumerableCertStatusStore enumerableStore = (EnumerableCertStatusStore) store;
+      long minId = 1;
+      while (true) {
+        if (Thread.currentThread().isInterrupted()) {
+          // the signers are stopped in the finally block.
+          LOG.warn("interrupted, stop reading the certificates");
+          break;
+        }
+
+        List<CertEntry> entries = enumerableStore.nextCertEntries(minId, batchSize);
+        if (entries.isEmpty()) {
+          break;
+        }
+        minId = entries.get(entries.size() - 1).getId() + 1;
+
+        Map<RequestIssuer, List<CertEntry>> issuerEntriesMap = new LinkedHashMap<>();
+        for (CertEntry entry : entries) {
+          if (entry.getIssuer() == null) {
+            numSkipped++;
+            continue;
+          }
+
+          List<CertEntry> issuerEntries = issuerEntriesMap.get(entry.getIssuer());
+          if (issuerEntries == null) {
+            issuerEntries = new LinkedList<>();
+            issuerEntriesMap.put(entry.getIssuer(), issuerEntries);
+          }
+          issuerEntries.add(entry);
+        }
+
+        long nowInSec = System.currentTimeMillis() / 1000;
+        for (Map.Entry<RequestIssuer, List<CertEntry>> m : issuerEntriesMap.entrySet()) {
+          RequestIssuer reqIssuer = m.getKey();
+          List<CertEntry> issuerEntries = m.getValue();
+
+          Integer cacheIssuerId = getCacheIssuerId(cacheIssuerIds, store, reqIssuer);
+          if (cacheIssuerId == null) {
+            numSkipped += issuerEntries.size();
+            continue;
+          }
+
+          List<BigInteger> serials = new ArrayList<>(issuerEntries.size());
+          for (CertEntry entry : issuerEntries) {
+            serials.add(entry.getSerialNumber());
+          }
+
+          Map<BigInteger, ResponseCacheInfo> cacheInfos =
+              responseCacher.getCacheInfos(cacheIssuerId, serials, sigAlg);
+
+          for (final CertEntry entry : issuerEntries) {
+            if (!needsRegeneration(entry, cacheInfos.get(entry.getSerialNumber()), nowInSec)) {
+              numSkipped++;
+              continue;
+            }
+
+            final CertID certId = new CertID(reqIssuer, entry.getSerialNumber());
+            final int issuerId = cacheIssuerId;
+            signers.execute(new Runnable() {
+              @Override
+              public void run() {
+                generate(certId, issuerId);
+              }
+            });
+          }
+        }
+      }
+    } finally {
+      boolean interrupted = false;
+      try {
+        signers.shutdown();
+        while (!signers.awaitTermination(1, TimeUnit.SECONDS)) {
+          LOG.debug("waiting for the signers to finish");
+        }
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted, stop the signers");
+        interrupted = true;
+        signers.shutdownNow();
+      } finally {
+        // the writer stops after it has stored the queued responses.
+        producerFinished.set(true);
+      }
+
+      try {
+        writer.join();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+        writer.interrupt();
+      }
+
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    LOG.info("finished pre-generating OCSP responses of responder {} for store {} in {} ms: "
+        + "generated {}, stored {}, skipped {}, failed {}", responderName, store.getName(),
+        System.currentTimeMillis() - start, numGenerated.get(), numStored.get(), numSkipped,
+        numFailed.get());
+  } // method pregenerate
+
+  private void generate(CertID certId, int cacheIssuerId) {
+    try {
+      ResponseEntry resp = server.generateCacheableResponse(responder, certId, cacheIssuerId);
+      if (resp == null) {
+        return;
+      }
+
+      numGenerated.incrementAndGet();
+      results.put(resp);
+    } catch (NoIdleSignerException ex) {
+      numFailed.incrementAndGet();
+      LOG.warn("no idle signer to pre-generate OCSP response, will retry in next run");
+    } catch (InterruptedException ex) {
+      numFailed.incrementAndGet();
+      LOG.warn("interrupted while queuing the pre-generated OCSP response");
+    } catch (Exception ex) {
+      numFailed.incrementAndGet();
+      LogUtil.error(LOG, ex, "could not pre-generate OCSP response");
+    }
+  } // method generate
+
+  private boolean needsRegeneration(CertEntry entry, ResponseCacheInfo cacheInfo,
+      long nowInSec) {
+    if (cacheInfo == null) {
+      return true;
+    }
+
+    long generatedAt = cacheInfo.getGeneratedAt();
+    // status changed since the response has been generated
+    if (entry.getLastUpdate() >= generatedAt) {
+      return true;
+    }
+
+    long minEnd = nowInSec + renewBeforeSec;
+    Long nextUpdate = cacheInfo.getNextUpdate();
+    if (nextUpdate != null && nextUpdate < minEnd) {
+      return true;
+    }
+
+    // the cached response will be removed after the validity
+    return generatedAt + validitySec < minEnd;
+  } // method needsRegeneration
+
+  private Integer getCacheIssuerId(Map<RequestIssuer, Integer> cacheIssuerIds, OcspStore store,
+      RequestIssuer reqIssuer) throws Exception {
+    Integer id = cacheIssuerIds.get(reqIssuer);
+    if (id != null) {
+      return id;
+    }
+
+    id = responseCacher.getIssuerId(reqIssuer);
+    if (id == null) {
+      X509Cert issuerCert = store.getIssuerCert(reqIssuer);
+      if (issuerCert != null) {
+        id = responseCacher.storeIssuer(issuerCert);
+      }
+    }
+
+    if (id != null) {
+      cacheIssuerIds.put(reqIssuer, id);
+    }
+    return id;
+  } // method getCacheIssuerId
+
+}
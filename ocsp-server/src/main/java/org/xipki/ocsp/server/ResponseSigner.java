@@ -22,6 +22,7 @@ import static org.xipki.util.Args.notEmpty;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +36,7 @@ import org.xipki.ocsp.server.type.ResponderID;
 import org.xipki.ocsp.server.type.TaggedCertSequence;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.HashAlgo;
+import org.xipki.security.NoIdleSignerException;
 import org.xipki.security.X509Cert;
 
 /**
@@ -64,6 +66,9 @@ class ResponseSigner {
 
   private final boolean macSigner;
 
+  private final Map<ConcurrentContentSigner, SigningScheduler> schedulers =
+      new IdentityHashMap<>();
+
   ResponseSigner(List<ConcurrentContentSigner> signers) throws CertificateException, IOException {
     this.signers = notEmpty(signers, "signers");
     ConcurrentContentSigner firstSigner = signers.get(0);
@@ -119,6 +124,43 @@ class ResponseSigner {
     }
   } // constructor
 
+  /**
+   * Starts a {@link SigningScheduler} for each signer.
+   *
+   * @param conf
+   *          Configuration of the schedulers.
+   * @throws NoIdleSignerException
+   *           If the algorithm identifier of a signer could not be retrieved.
+   */
+  void startSigningSchedulers(OcspServerConf.SignScheduler conf) throws NoIdleSignerException {
+    try {
+      for (ConcurrentContentSigner signer : signers) {
+        schedulers.put(signer, new SigningScheduler(signer, conf));
+      }
+    } catch (NoIdleSignerException ex) {
+      close();
+      throw ex;
+    }
+  } // method startSigningSchedulers
+
+  /**
+   * Returns the scheduler of the given signer.
+   *
+   * @param signer
+   *          Signer of this ResponseSigner.
+   * @return the scheduler, or {@code null} if the responses are signed directly.
+   */
+  SigningScheduler getSigningScheduler(ConcurrentContentSigner signer) {
+    return schedulers.isEmpty() ? null : schedulers.get(signer);
+  }
+
+  void close() {
+    for (SigningScheduler scheduler : schedulers.values()) {
+      scheduler.close();
+    }
+    schedulers.clear();
+  }
+
   public boolean isMacSigner() {
     return macSigner;
   }
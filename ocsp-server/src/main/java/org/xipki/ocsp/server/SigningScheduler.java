@@ -0,0 +1,255 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.ConcurrentBagEntrySigner;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.SignerPriority;
+import org.xipki.util.LogUtil;
+
+/**
+ * Signs the TBS responses of a {@link ConcurrentContentSigner} by background threads. Each
+ * thread takes the queued TBS responses in batches and signs them with one borrowed signer
+ * via {@link ConcurrentContentSigner#sign(byte[][])}. A caller waits up to the configured
+ * time for its signature instead of failing as soon as no signer is idle.
+ *
+ * <p>The scheduler is used only for the responses of online requests, the signers are borrowed
+ * with the priority {@link SignerPriority#OCSP}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class SigningScheduler {
+
+  private static final class Job {
+
+    private final byte[] tbs;
+
+    private byte[] signature;
+
+    private Exception exception;
+
+    private boolean done;
+
+    private boolean cancelled;
+
+    Job(byte[] tbs) {
+      this.tbs = tbs;
+    }
+
+    synchronized void complete(byte[] signature, Exception exception) {
+      this.signature = signature;
+      this.exception = exception;
+      this.done = true;
+      notifyAll();
+    }
+
+  } // class Job
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      List<Job> batch = new ArrayList<>(batchSize);
+      while (!closed) {
+        Job job;
+        try {
+          job = queue.poll(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          continue;
+        }
+
+        if (job == null) {
+          continue;
+        }
+
+        addIfNotCancelled(batch, job);
+        while (batch.size() < batchSize) {
+          job = queue.poll();
+          if (job == null) {
+            break;
+          }
+          addIfNotCancelled(batch, job);
+        }
+
+        if (!batch.isEmpty()) {
+          signBatch(batch);
+          batch.clear();
+        }
+      }
+    } // method run
+
+  } // class Worker
+
+  private static final Logger LOG = LoggerFactory.getLogger(SigningScheduler.class);
+
+  private final ConcurrentContentSigner signer;
+
+  private final byte[] encodedAlgorithmIdentifier;
+
+  private final int batchSize;
+
+  private final long maxWaitMs;
+
+  private final BlockingQueue<Job> queue;
+
+  private final Thread[] workers;
+
+  private volatile boolean closed;
+
+  SigningScheduler(ConcurrentContentSigner signer, OcspServerConf.SignScheduler conf)
+      throws NoIdleSignerException {
+    this.signer = notNull(signer, "signer");
+    this.batchSize = positive(conf.getBatchSize(), "conf.batchSize");
+    this.maxWaitMs = positive(conf.getMaxWaitMs(), "conf.maxWaitMs");
+    this.queue = new ArrayBlockingQueue<>(positive(conf.getQueueSize(), "conf.queueSize"));
+
+    ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
+    try {
+      this.encodedAlgorithmIdentifier = signer0.value().getEncodedAlgorithmIdentifier();
+    } finally {
+      signer.requiteSigner(signer0);
+    }
+
+    this.workers = new Thread[positive(conf.getThreads(), "conf.threads")];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Thread(new Worker(), "ocsp-signer-" + signer.getName() + "-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  } // constructor
+
+  byte[] getEncodedAlgorithmIdentifier() {
+    return encodedAlgorithmIdentifier;
+  }
+
+  /**
+   * Signs the data.
+   *
+   * @param tbs
+   *          Data to be signed.
+   * @return the signature.
+   * @throws NoIdleSignerException
+   *           If the data could not be signed within the configured time.
+   * @throws OCSPException
+   *           If the data could not be signed.
+   */
+  byte[] sign(byte[] tbs) throws NoIdleSignerException, OCSPException {
+    if (closed) {
+      throw new NoIdleSignerException("signing scheduler is closed");
+    }
+
+    Job job = new Job(tbs);
+    if (!queue.offer(job)) {
+      throw new NoIdleSignerException("signing queue is full");
+    }
+
+    long deadline = System.currentTimeMillis() + maxWaitMs;
+    synchronized (job) {
+      while (!job.done) {
+        long waitMs = deadline - System.currentTimeMillis();
+        if (waitMs <= 0) {
+          job.cancelled = true;
+          throw new NoIdleSignerException("could not sign within " + maxWaitMs + " ms");
+        }
+
+        try {
+          job.wait(waitMs);
+        } catch (InterruptedException ex) {
+          job.cancelled = true;
+          throw new NoIdleSignerException("interrupted while waiting for the signature");
+        }
+      }
+    }
+
+    if (job.exception == null) {
+      return job.signature;
+    } else if (job.exception instanceof NoIdleSignerException) {
+      throw (NoIdleSignerException) job.exception;
+    } else {
+      throw new OCSPException("could not sign the response: " + job.exception.getMessage(),
+          job.exception);
+    }
+  } // method sign
+
+  private static void addIfNotCancelled(List<Job> batch, Job job) {
+    synchronized (job) {
+      if (!job.cancelled) {
+        batch.add(job);
+      }
+    }
+  }
+
+  private void signBatch(List<Job> batch) {
+    final int n = batch.size();
+    byte[][] tbsList = new byte[n][];
+    for (int i = 0; i < n; i++) {
+      tbsList[i] = batch.get(i).tbs;
+    }
+
+    byte[][] signatures;
+    try {
+      signatures = signer.sign(tbsList, SignerPriority.OCSP);
+    } catch (NoIdleSignerException | SignatureException | RuntimeException ex) {
+      if (!(ex instanceof NoIdleSignerException)) {
+        LogUtil.error(LOG, ex, "could not sign " + n + " responses");
+      }
+
+      for (Job job : batch) {
+        job.complete(null, ex);
+      }
+      return;
+    }
+
+    for (int i = 0; i < n; i++) {
+      batch.get(i).complete(signatures[i], null);
+    }
+  } // method signBatch
+
+  /**
+   * Stops the threads. The responses waiting to be signed fail with
+   * {@link NoIdleSignerException}.
+   */
+  void close() {
+    // the workers stop after at most one second, they are not interrupted since this may
+    // break the session with the HSM.
+    closed = true;
+
+    NoIdleSignerException ex = new NoIdleSignerException("signing scheduler is closed");
+    Job job;
+    while ((job = queue.poll()) != null) {
+      job.complete(null, ex);
+    }
+  } // method close
+
+}
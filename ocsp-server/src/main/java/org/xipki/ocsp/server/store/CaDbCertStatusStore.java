@@ -25,10 +25,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -68,7 +70,7 @@ import com.alibaba.fastjson.JSON;
  * @since 2.0.0
  */
 
-public class CaDbCertStatusStore extends OcspStore {
+public class CaDbCertStatusStore extends OcspStore implements EnumerableCertStatusStore {
 
   private class StoreUpdateService implements Runnable {
 
@@ -79,10 +81,28 @@ public class CaDbCertStatusStore extends OcspStore {
 
   } // class StoreUpdateService
 
+  private static class CertRow {
+
+    private boolean ignore;
+
+    private String b64CertHash;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+    private long invalTime;
+
+  } // class CertRow
+
   private DataSourceWrapper datasource;
 
   private static final Logger LOG = LoggerFactory.getLogger(CaDbCertStatusStore.class);
 
+  private static final int MAX_SERIALS_IN_SQL = 100;
+
   private final StoreUpdateService storeUpdateService = new StoreUpdateService();
 
   private final Object lock = new Object();
@@ -249,18 +269,8 @@ public class CaDbCertStatusStore extends OcspStore {
         sql = includeRit ? sqlCs : sqlCsNoRit;
       }
 
-      Date thisUpdate = new Date();
-
       ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
+      CertRow row = null;
 
       PreparedStatement ps = datasource.prepareStatement(sql);
 
@@ -270,121 +280,227 @@ public class CaDbCertStatusStore extends OcspStore {
         rs = ps.executeQuery();
 
         if (rs.next()) {
-          unknown = false;
-
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("SHA1");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
+          row = readCertRow(rs, time, includeCertHash, includeRit);
+        }
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         releaseDbResources(ps, rs);
       }
 
-      Date nextUpdate = null;
+      return buildCertStatusInfo(issuer, row, inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-        if (revoked) {
-          Date invTime = (invalTime == 0 || invalTime == revTime)
-              ? null : new Date(invalTime * 1000);
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), invTime);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
-        }
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> infos = new ArrayList<>(size);
+
+    try {
+      IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+      if (issuer == null) {
+        infos.addAll(Collections.<CertStatusInfo>nCopies(size, null));
+        return infos;
       }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+      // positive serial numbers, without duplicates
+      Set<BigInteger> querySerials = new LinkedHashSet<>();
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1) {
+          querySerials.add(serialNumber);
+        }
+      }
 
-          certStatusInfo.setArchiveCutOff(date);
+      Map<BigInteger, CertRow> rows = new HashMap<>();
+      List<BigInteger> chunk = new ArrayList<>(MAX_SERIALS_IN_SQL);
+      for (BigInteger serialNumber : querySerials) {
+        chunk.add(serialNumber);
+        if (chunk.size() == MAX_SERIALS_IN_SQL) {
+          readCertRows(issuer.getId(), chunk, time, includeCertHash, includeRit, rows);
+          chunk.clear();
         }
       }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+      if (!chunk.isEmpty()) {
+        readCertRows(issuer.getId(), chunk, time, includeCertHash, includeRit, rows);
       }
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          infos.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
+        } else {
+          infos.add(buildCertStatusInfo(issuer, rows.get(serialNumber), inheritCaRevocation));
         }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+      }
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  private void readCertRows(int caId, List<BigInteger> serialNumbers, Date time,
+      boolean includeCertHash, boolean includeRit, Map<BigInteger, CertRow> rows)
+          throws DataAccessException {
+    StringBuilder sb = new StringBuilder(100 + 2 * serialNumbers.size());
+    sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT");
+    if (includeRit) {
+      sb.append(",RIT");
+    }
+    if (includeCertHash) {
+      sb.append(",SHA1");
+    }
+    sb.append(" FROM CERT WHERE CA_ID=? AND SN IN (?");
+    for (int i = 1; i < serialNumbers.size(); i++) {
+      sb.append(",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
+
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    try {
+      int idx = 1;
+      ps.setInt(idx++, caId);
+      for (BigInteger serialNumber : serialNumbers) {
+        ps.setString(idx++, serialNumber.toString(16));
+      }
+      rs = ps.executeQuery();
+
+      while (rs.next()) {
+        rows.put(new BigInteger(rs.getString("SN"), 16),
+            readCertRow(rs, time, includeCertHash, includeRit));
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method readCertRows
+
+  private CertRow readCertRow(ResultSet rs, Date time, boolean includeCertHash,
+      boolean includeRit) throws SQLException {
+    CertRow row = new CertRow();
+
+    long timeInSec = time.getTime() / 1000;
+    if (!row.ignore && ignoreNotYetValidCert) {
+      long notBeforeInSec = rs.getLong("NBEFORE");
+      if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore && ignoreExpiredCert) {
+      long notAfterInSec = rs.getLong("NAFTER");
+      if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore) {
+      if (includeCertHash) {
+        row.b64CertHash = rs.getString("SHA1");
+      }
+
+      row.revoked = rs.getBoolean("REV");
+      if (row.revoked) {
+        row.reason = rs.getInt("RR");
+        row.revTime = rs.getLong("RT");
+        if (includeRit) {
+          row.invalTime = rs.getLong("RIT");
         }
       }
+    }
+    return row;
+  } // method readCertRow
+
+  // row is null if the certificate is unknown
+  private CertStatusInfo buildCertStatusInfo(IssuerEntry issuer, CertRow row,
+      boolean inheritCaRevocation) {
+    Date thisUpdate = new Date();
+    Date nextUpdate = null;
+
+    CertStatusInfo certStatusInfo;
+    if (row == null) {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    } else if (row.ignore) {
+      certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      byte[] certHash = (row.b64CertHash == null) ? null : Base64.decodeFast(row.b64CertHash);
+      if (row.revoked) {
+        Date invTime = (row.invalTime == 0 || row.invalTime == row.revTime)
+            ? null : new Date(row.invalTime * 1000);
+        CertRevocationInfo revInfo = new CertRevocationInfo(row.reason,
+            new Date(row.revTime * 1000), invTime);
+        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+            certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+            certHash, thisUpdate, nextUpdate, null);
+      }
+    }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus0
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
@@ -512,6 +628,15 @@ public class CaDbCertStatusStore extends OcspStore {
     }
   } // method close
 
+  @Override
+  public List<CertEntry> nextCertEntries(long minId, int numEntries) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    return CertEntryReader.nextCertEntries(datasource, issuerStore, "CA_ID", minId, numEntries);
+  } // method nextCertEntries
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * Small pool of dedicated database connections, each of which keeps its prepared statements
+ * open. The connections are taken from the {@link DataSourceWrapper} on first use and held
+ * until they are broken or the pool is closed, so that the hot status lookups neither borrow
+ * a connection from the datasource nor prepare the statement.
+ *
+ * <p>A slot is borrowed without waiting. If all slots are in use, the caller is expected to
+ * use the datasource directly.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CachedStatementPool implements Closeable {
+
+  static class Slot {
+
+    private Connection conn;
+
+    private final Map<String, PreparedStatement> statements = new HashMap<>(8);
+
+  } // class Slot
+
+  private final DataSourceWrapper datasource;
+
+  private final ArrayBlockingQueue<Slot> idleSlots;
+
+  private volatile boolean closed;
+
+  CachedStatementPool(DataSourceWrapper datasource, int size) {
+    this.datasource = notNull(datasource, "datasource");
+    positive(size, "size");
+
+    this.idleSlots = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      idleSlots.add(new Slot());
+    }
+  }
+
+  /**
+   * Borrows an idle slot.
+   *
+   * @return the slot, or {@code null} if all slots are in use.
+   */
+  Slot borrow() {
+    return closed ? null : idleSlots.poll();
+  }
+
+  /**
+   * Returns the prepared statement of the slot for the given SQL. The statement is prepared
+   * only at the first call for the SQL.
+   *
+   * @param slot
+   *          Borrowed slot.
+   * @param sql
+   *          SQL query.
+   * @return the prepared statement.
+   * @throws DataAccessException
+   *           If the connection could not be obtained or the statement could not be prepared.
+   */
+  PreparedStatement prepareStatement(Slot slot, String sql) throws DataAccessException {
+    PreparedStatement ps = slot.statements.get(sql);
+    if (ps != null) {
+      return ps;
+    }
+
+    if (slot.conn == null) {
+      slot.conn = datasource.getConnection();
+    }
+
+    ps = datasource.prepareStatement(slot.conn, sql);
+    slot.statements.put(sql, ps);
+    return ps;
+  } // method prepareStatement
+
+  /**
+   * Gives the slot back to the pool.
+   *
+   * @param slot
+   *          Borrowed slot.
+   * @param broken
+   *          Whether an error occurred while using the slot. The statements and the
+   *          connection of a broken slot are closed, and a new connection will be taken at
+   *          the next use.
+   */
+  void release(Slot slot, boolean broken) {
+    if (broken) {
+      reset(slot);
+    }
+
+    idleSlots.offer(slot);
+    if (closed) {
+      // the pool has been closed while the slot was in use
+      close();
+    }
+  } // method release
+
+  private void reset(Slot slot) {
+    for (PreparedStatement ps : slot.statements.values()) {
+      datasource.releaseResources(ps, null, false);
+    }
+    slot.statements.clear();
+
+    if (slot.conn != null) {
+      datasource.returnConnection(slot.conn);
+      slot.conn = null;
+    }
+  } // method reset
+
+  /**
+   * Closes the idle slots. The slots in use are closed when they are released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Slot slot;
+    while ((slot = idleSlots.poll()) != null) {
+      reset(slot);
+    }
+  } // method close
+
+}
@@ -0,0 +1,104 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.EnumerableCertStatusStore.CertEntry;
+import org.xipki.security.HashAlgo;
+
+/**
+ * Reads the certificates of the table CERT page by page, ordered by the database id. Used by
+ * the database based {@link EnumerableCertStatusStore}s.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class CertEntryReader {
+
+  private CertEntryReader() {
+  }
+
+  /**
+   * Returns the next certificates ordered by the database id.
+   *
+   * @param datasource
+   *          Datasource of the table CERT.
+   * @param issuerStore
+   *          Issuers of the store.
+   * @param issuerIdColumn
+   *          Name of the column referencing the issuer.
+   * @param minId
+   *          Minimal database id (inclusive).
+   * @param numEntries
+   *          Maximal number of entries to be returned.
+   * @return the certificates with id not less than {@code minId}.
+   * @throws OcspStoreException
+   *           If the certificates could not be retrieved.
+   */
+  static List<CertEntry> nextCertEntries(DataSourceWrapper datasource, IssuerStore issuerStore,
+      String issuerIdColumn, long minId, int numEntries) throws OcspStoreException {
+    final String sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
+        "ID," + issuerIdColumn + ",SN,LUPDATE FROM CERT WHERE ID>=?");
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    try {
+      ps = datasource.prepareStatement(sql);
+      ps.setLong(1, minId);
+      rs = ps.executeQuery();
+
+      List<CertEntry> entries = new ArrayList<>(numEntries);
+      Map<Integer, RequestIssuer> reqIssuers = new HashMap<>();
+      while (rs.next()) {
+        int issuerId = rs.getInt(issuerIdColumn);
+        RequestIssuer reqIssuer = reqIssuers.get(issuerId);
+        if (reqIssuer == null) {
+          IssuerEntry issuer = issuerStore.getIssuerForId(issuerId);
+          if (issuer != null) {
+            reqIssuer = new RequestIssuer(HashAlgo.SHA1, issuer.getEncodedHash(HashAlgo.SHA1));
+            reqIssuers.put(issuerId, reqIssuer);
+          }
+        }
+
+        entries.add(new CertEntry(rs.getLong("ID"), reqIssuer,
+            new BigInteger(rs.getString("SN"), 16), rs.getLong("LUPDATE")));
+      }
+      return entries;
+    } catch (SQLException ex) {
+      DataAccessException dex = datasource.translate(sql, ex);
+      throw new OcspStoreException(dex.getMessage(), dex);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method nextCertEntries
+
+}
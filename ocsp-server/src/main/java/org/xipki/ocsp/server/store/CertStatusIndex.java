@@ -0,0 +1,466 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * Immutable in-memory snapshot of the table CERT, used by the {@link CrlDbCertStatusStore}
+ * to answer the status requests without database access. The entries of an issuer are kept
+ * sorted by serial number in primitive arrays, without any object per entry, and are looked
+ * up by binary search.
+ *
+ * <p>An entry requires 5 bytes plus the length of the serial number, and 4 bytes more for
+ * each of the revocation time, invalidity time, notBefore, notAfter and CRL id, if such value
+ * is present in the issuer's entries. 10 million revoked certificates with 16-byte serial
+ * numbers and without invalidity time therefore take about 250 MB. While the index is being
+ * rebuilt, the old and the new index are both held in memory.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+final class CertStatusIndex {
+
+  static final class IssuerIndex {
+
+    private final int size;
+
+    // serial number i is serials[serialOffsets[i], serialOffsets[i + 1]), unsigned big-endian
+    // without leading zero bytes.
+    private final byte[] serials;
+
+    private final int[] serialOffsets;
+
+    // bits 0-3: revocation reason, bit 4: revoked, bit 5: with certificate hash
+    private final byte[] flags;
+
+    // times in seconds since January 1, 1970, 00:00:00 GMT, as unsigned int.
+    // null if the values of all entries are 0.
+    private final int[] revTimes;
+
+    private final int[] invalTimes;
+
+    private final int[] notBefores;
+
+    private final int[] notAfters;
+
+    // null if all entries have the same CRL id.
+    private final int[] crlIds;
+
+    private final int crlId;
+
+    private IssuerIndex(int size, byte[] serials, int[] serialOffsets, byte[] flags,
+        int[] revTimes, int[] invalTimes, int[] notBefores, int[] notAfters,
+        int[] crlIds, int crlId) {
+      this.size = size;
+      this.serials = serials;
+      this.serialOffsets = serialOffsets;
+      this.flags = flags;
+      this.revTimes = revTimes;
+      this.invalTimes = invalTimes;
+      this.notBefores = notBefores;
+      this.notAfters = notAfters;
+      this.crlIds = crlIds;
+      this.crlId = crlId;
+    }
+
+    /**
+     * Returns the position of the given serial number.
+     *
+     * @param serialNumber
+     *          Positive serial number.
+     * @return the position, or -1 if the serial number is not contained.
+     */
+    int indexOf(BigInteger serialNumber) {
+      byte[] sn = serialNumber.toByteArray();
+      int off = (sn.length > 1 && sn[0] == 0) ? 1 : 0;
+      int len = sn.length - off;
+
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compare(serials, serialOffsets[mid], serialOffsets[mid + 1] - serialOffsets[mid],
+            sn, off, len);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    } // method indexOf
+
+    boolean isRevoked(int index) {
+      return (flags[index] & FLAG_REVOKED) != 0;
+    }
+
+    boolean hasCertHash(int index) {
+      return (flags[index] & FLAG_CERT_HASH) != 0;
+    }
+
+    int getReason(int index) {
+      return flags[index] & MASK_REASON;
+    }
+
+    long getRevTime(int index) {
+      return value(revTimes, index);
+    }
+
+    long getInvalTime(int index) {
+      return value(invalTimes, index);
+    }
+
+    long getNotBefore(int index) {
+      return value(notBefores, index);
+    }
+
+    long getNotAfter(int index) {
+      return value(notAfters, index);
+    }
+
+    int getCrlId(int index) {
+      return (crlIds == null) ? crlId : crlIds[index];
+    }
+
+    int size() {
+      return size;
+    }
+
+    long sizeInBytes() {
+      return 64 + sizeOf(serials) + sizeOf(serialOffsets) + sizeOf(flags) + sizeOf(revTimes)
+          + sizeOf(invalTimes) + sizeOf(notBefores) + sizeOf(notAfters) + sizeOf(crlIds);
+    }
+
+    private static long value(int[] values, int index) {
+      return (values == null) ? 0 : values[index] & 0xFFFFFFFFL;
+    }
+
+  } // class IssuerIndex
+
+  private static final class IssuerIndexBuilder {
+
+    private int size;
+
+    private byte[] serials = new byte[1024];
+
+    private int serialsLen;
+
+    private int[] serialOffsets = new int[65];
+
+    private byte[] flags = new byte[64];
+
+    private int[] revTimes = new int[64];
+
+    private int[] invalTimes = new int[64];
+
+    private int[] notBefores = new int[64];
+
+    private int[] notAfters = new int[64];
+
+    private int[] crlIds = new int[64];
+
+    void add(String hexSerial, boolean revoked, int reason, long revTime, long invalTime,
+        long notBefore, long notAfter, int crlId, boolean withCertHash) {
+      if (size == flags.length) {
+        int newLen = size * 2;
+        serialOffsets = Arrays.copyOf(serialOffsets, newLen + 1);
+        flags = Arrays.copyOf(flags, newLen);
+        revTimes = Arrays.copyOf(revTimes, newLen);
+        invalTimes = Arrays.copyOf(invalTimes, newLen);
+        notBefores = Arrays.copyOf(notBefores, newLen);
+        notAfters = Arrays.copyOf(notAfters, newLen);
+        crlIds = Arrays.copyOf(crlIds, newLen);
+      }
+
+      appendSerial(hexSerial);
+      serialOffsets[size + 1] = serialsLen;
+
+      int flag = reason & MASK_REASON;
+      if (revoked) {
+        flag |= FLAG_REVOKED;
+      }
+      if (withCertHash) {
+        flag |= FLAG_CERT_HASH;
+      }
+      flags[size] = (byte) flag;
+      revTimes[size] = (int) revTime;
+      invalTimes[size] = (int) invalTime;
+      notBefores[size] = (int) notBefore;
+      notAfters[size] = (int) notAfter;
+      crlIds[size] = crlId;
+      size++;
+    } // method add
+
+    private void appendSerial(String hexSerial) {
+      int len = hexSerial.length();
+      int start = 0;
+      while (start < len - 1 && hexSerial.charAt(start) == '0') {
+        start++;
+      }
+
+      int numDigits = len - start;
+      int numBytes = (numDigits + 1) / 2;
+      if (serialsLen + numBytes > serials.length) {
+        serials = Arrays.copyOf(serials, Math.max(2 * serials.length, serialsLen + numBytes));
+      }
+
+      int idx = start;
+      if (numDigits % 2 == 1) {
+        serials[serialsLen++] = (byte) Character.digit(hexSerial.charAt(idx++), 16);
+      }
+
+      while (idx < len) {
+        serials[serialsLen++] = (byte) ((Character.digit(hexSerial.charAt(idx), 16) << 4)
+            | Character.digit(hexSerial.charAt(idx + 1), 16));
+        idx += 2;
+      }
+    } // method appendSerial
+
+    IssuerIndex build() {
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      sort(order, new int[size], 0, size);
+
+      byte[] sortedSerials = new byte[serialsLen];
+      int[] sortedOffsets = new int[size + 1];
+      byte[] sortedFlags = new byte[size];
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        int from = serialOffsets[order[i]];
+        int len = serialOffsets[order[i] + 1] - from;
+        System.arraycopy(serials, from, sortedSerials, offset, len);
+        offset += len;
+        sortedOffsets[i + 1] = offset;
+        sortedFlags[i] = flags[order[i]];
+      }
+
+      boolean sameCrlId = true;
+      for (int i = 1; i < size; i++) {
+        if (crlIds[i] != crlIds[0]) {
+          sameCrlId = false;
+          break;
+        }
+      }
+
+      return new IssuerIndex(size, sortedSerials, sortedOffsets, sortedFlags,
+          sortNonZero(revTimes, order), sortNonZero(invalTimes, order),
+          sortNonZero(notBefores, order), sortNonZero(notAfters, order),
+          sameCrlId ? null : sort(crlIds, order), size == 0 ? 0 : crlIds[0]);
+    } // method build
+
+    private int[] sortNonZero(int[] values, int[] order) {
+      for (int i = 0; i < size; i++) {
+        if (values[i] != 0) {
+          return sort(values, order);
+        }
+      }
+      return null;
+    }
+
+    private int[] sort(int[] values, int[] order) {
+      int[] sorted = new int[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = values[order[i]];
+      }
+      return sorted;
+    }
+
+    // merge sort of order[from, to) by serial number
+    private void sort(int[] order, int[] tmp, int from, int to) {
+      if (to - from < 2) {
+        return;
+      }
+
+      int mid = (from + to) >>> 1;
+      sort(order, tmp, from, mid);
+      sort(order, tmp, mid, to);
+
+      int i = from;
+      int j = mid;
+      int k = from;
+      while (i < mid && j < to) {
+        tmp[k++] = (compareSerials(order[i], order[j]) <= 0) ? order[i++] : order[j++];
+      }
+      while (i < mid) {
+        tmp[k++] = order[i++];
+      }
+      while (j < to) {
+        tmp[k++] = order[j++];
+      }
+      System.arraycopy(tmp, from, order, from, to - from);
+    } // method sort
+
+    private int compareSerials(int index1, int index2) {
+      int from1 = serialOffsets[index1];
+      int from2 = serialOffsets[index2];
+      return compare(serials, from1, serialOffsets[index1 + 1] - from1,
+          serials, from2, serialOffsets[index2 + 1] - from2);
+    }
+
+  } // class IssuerIndexBuilder
+
+  private static final int MASK_REASON = 0x0F;
+
+  private static final int FLAG_REVOKED = 0x10;
+
+  private static final int FLAG_CERT_HASH = 0x20;
+
+  private static final int ROWS_PER_QUERY = 10000;
+
+  private final Map<Integer, IssuerIndex> issuerIndexes;
+
+  private final long numEntries;
+
+  private CertStatusIndex(Map<Integer, IssuerIndex> issuerIndexes) {
+    this.issuerIndexes = Collections.unmodifiableMap(issuerIndexes);
+    long num = 0;
+    for (IssuerIndex m : issuerIndexes.values()) {
+      num += m.size();
+    }
+    this.numEntries = num;
+  }
+
+  /**
+   * Reads all entries of the table CERT.
+   *
+   * @param datasource
+   *          Datasource of the OCSP database.
+   * @return the index.
+   * @throws DataAccessException
+   *           If the entries could not be read.
+   */
+  static CertStatusIndex build(DataSourceWrapper datasource) throws DataAccessException {
+    final String sql = datasource.buildSelectFirstSql(ROWS_PER_QUERY, "ID ASC",
+        "ID,IID,SN,REV,RR,RT,RIT,NBEFORE,NAFTER,CRL_ID,HASH FROM CERT WHERE ID>=?");
+
+    Map<Integer, IssuerIndexBuilder> builders = new HashMap<>();
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      long minId = 1;
+      while (true) {
+        ps.setLong(1, minId);
+        rs = ps.executeQuery();
+
+        int numRows = 0;
+        while (rs.next()) {
+          numRows++;
+          minId = rs.getLong("ID") + 1;
+
+          int issuerId = rs.getInt("IID");
+          IssuerIndexBuilder builder = builders.get(issuerId);
+          if (builder == null) {
+            builder = new IssuerIndexBuilder();
+            builders.put(issuerId, builder);
+          }
+
+          boolean revoked = rs.getBoolean("REV");
+          builder.add(rs.getString("SN"), revoked,
+              revoked ? rs.getInt("RR") : 0, revoked ? rs.getLong("RT") : 0,
+              revoked ? rs.getLong("RIT") : 0, rs.getLong("NBEFORE"), rs.getLong("NAFTER"),
+              rs.getInt("CRL_ID"), rs.getString("HASH") != null);
+        }
+
+        rs.close();
+        rs = null;
+
+        if (numRows < ROWS_PER_QUERY) {
+          break;
+        }
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    Map<Integer, IssuerIndex> issuerIndexes = new HashMap<>();
+    for (Map.Entry<Integer, IssuerIndexBuilder> m : builders.entrySet()) {
+      issuerIndexes.put(m.getKey(), m.getValue().build());
+      m.setValue(null);
+    }
+    return new CertStatusIndex(issuerIndexes);
+  } // method build
+
+  /**
+   * Returns the index of the given issuer.
+   *
+   * @param issuerId
+   *          Database id of the issuer.
+   * @return the index, or {@code null} if the table CERT contains no entry of the issuer.
+   */
+  IssuerIndex getIssuerIndex(int issuerId) {
+    return issuerIndexes.get(issuerId);
+  }
+
+  int getNumIssuers() {
+    return issuerIndexes.size();
+  }
+
+  long getNumEntries() {
+    return numEntries;
+  }
+
+  long sizeInBytes() {
+    long size = 0;
+    for (IssuerIndex m : issuerIndexes.values()) {
+      size += m.sizeInBytes();
+    }
+    return size;
+  }
+
+  private static int compare(byte[] a, int aFrom, int aLen, byte[] b, int bFrom, int bLen) {
+    if (aLen != bLen) {
+      return aLen < bLen ? -1 : 1;
+    }
+
+    for (int i = 0; i < aLen; i++) {
+      int x = a[aFrom + i] & 0xFF;
+      int y = b[bFrom + i] & 0xFF;
+      if (x != y) {
+        return x < y ? -1 : 1;
+      }
+    }
+    return 0;
+  } // method compare
+
+  private static long sizeOf(byte[] array) {
+    return (array == null) ? 0 : 16 + array.length;
+  }
+
+  private static long sizeOf(int[] array) {
+    return (array == null) ? 0 : 16 + 4L * array.length;
+  }
+
+}
@@ -71,6 +71,8 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
 
   private boolean crlUpdated;
 
+  private boolean memoryIndex;
+
   /**
    * Initialize the store.
    *
@@ -86,6 +88,10 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
    * <li>ignoreExpiredCrls:
    *   <p>
    *   Whether expired CRLs are ignored, default to true.</li>
+   * <li>memoryIndex:
+   *   <p>
+   *   Whether the certificate statuses are held in memory and answered without database
+   *   access, default to false. The index is rebuilt after each import of the CRLs.</li>
    * </ul>
    * @param datasource DataSource.
    */
@@ -100,6 +106,9 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     value = getStrValue(sourceConf, "ignoreExpiredCrls", false);
     this.ignoreExpiredCrls = StringUtil.isBlank(value) ? true : Boolean.parseBoolean(value);
 
+    value = getStrValue(sourceConf, "memoryIndex", false);
+    this.memoryIndex = StringUtil.isBlank(value) ? false : Boolean.parseBoolean(value);
+
     super.datasource = datasource;
     updateStore(true);
     super.init(sourceConf, datasource);
@@ -167,6 +176,9 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
 
         if (!updateMe) {
           LOG.info("CertStore {} not changed", name);
+          if (firstTime) {
+            updateCertStatusIndex();
+          }
           return;
         }
 
@@ -178,6 +190,8 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
           LOG.error("updating CertStore {} failed", name);
         }
 
+        updateCertStatusIndex();
+
         if (!firstTime) {
           super.updateIssuerStore(true);
         }
@@ -190,4 +204,23 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     } // end lock
   } // method updateStore
 
+  private void updateCertStatusIndex() {
+    if (!memoryIndex) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      CertStatusIndex index = CertStatusIndex.build(datasource);
+      setCertStatusIndex(index);
+      LOG.info("built in-memory index of CertStore {} in {} ms: {} entries of {} issuers, "
+          + "{} bytes", name, System.currentTimeMillis() - start, index.getNumEntries(),
+          index.getNumIssuers(), index.sizeInBytes());
+    } catch (Throwable th) {
+      // fall back to the database
+      setCertStatusIndex(null);
+      LogUtil.error(LOG, th, "could not build in-memory index of CertStore " + name);
+    }
+  } // method updateCertStatusIndex
+
 }
@@ -27,12 +27,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -73,7 +75,7 @@ import com.alibaba.fastjson.JSON;
  * @since 2.0.0
  */
 
-public class DbCertStatusStore extends OcspStore {
+public class DbCertStatusStore extends OcspStore implements EnumerableCertStatusStore {
 
   private class StoreUpdateService implements Runnable {
 
@@ -84,12 +86,34 @@ public class DbCertStatusStore extends OcspStore {
 
   } // class StoreUpdateService
 
+  private static class CertRow {
+
+    private boolean ignore;
+
+    private String b64CertHash;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+    private long invalTime;
+
+    private int crlId;
+
+  } // class CertRow
+
   protected DataSourceWrapper datasource;
 
   private static final Logger LOG = LoggerFactory.getLogger(DbCertStatusStore.class);
 
   private static final long MS_PER_5MIN = 300L * 1000;
 
+  private static final int MAX_SERIALS_IN_SQL = 100;
+
+  private static final CertRow UNKNOWN_CERT = new CertRow();
+
   private final Object lock = new Object();
 
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
@@ -114,6 +138,10 @@ public class DbCertStatusStore extends OcspStore {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  private volatile CertStatusIndex certStatusIndex;
+
+  private CachedStatementPool statementPool;
+
   protected List<Runnable> getScheduledServices() {
     return Arrays.asList(storeUpdateService);
   }
@@ -295,8 +323,6 @@ public class DbCertStatusStore extends OcspStore {
       throw new OcspStoreException("initialization of CertStore is still in process");
     }
 
-    String sql;
-
     try {
       IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
       if (issuer == null) {
@@ -315,175 +341,392 @@ public class DbCertStatusStore extends OcspStore {
         }
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
-      } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
+      CertRow row = getIndexedCertRow(issuer.getId(), serialNumber, time, includeCertHash,
+          includeRit);
+      if (row == UNKNOWN_CERT) {
+        row = null;
+      } else if (row == null) {
+        row = readCertRow(issuer.getId(), serialNumber, time, includeCertHash, includeRit);
       }
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
+      return buildCertStatusInfo(time, issuer, crlInfo, row, inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
 
-      boolean unknown = true;
-      boolean ignore = false;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
-      int crlId = 0;
+  } // method getCertStatus0
 
-      PreparedStatement ps = datasource.prepareStatement(sql);
+  private CertRow readCertRow(int issuerId, BigInteger serialNumber, Date time,
+      boolean includeCertHash, boolean includeRit) throws DataAccessException {
+    String sql;
+    if (includeCertHash) {
+      sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+    } else {
+      sql = includeRit ? sqlCs : sqlCsNoRit;
+    }
 
+    CachedStatementPool pool = statementPool;
+    CachedStatementPool.Slot slot = (pool == null) ? null : pool.borrow();
+    if (slot != null) {
+      boolean broken = true;
+      ResultSet rs = null;
       try {
-        ps.setInt(1, issuer.getId());
+        PreparedStatement ps = pool.prepareStatement(slot, sql);
+        ps.setInt(1, issuerId);
         ps.setString(2, serialNumber.toString(16));
         rs = ps.executeQuery();
 
-        if (rs.next()) {
-          unknown = false;
-          crlId = rs.getInt("CRL_ID");
+        CertRow row = rs.next() ? readCertRow(rs, time, includeCertHash, includeRit) : null;
+        broken = false;
+        return row;
+      } catch (SQLException | DataAccessException ex) {
+        // the held connection may have been closed by the database, retry without the pool
+        LogUtil.warn(LOG, ex, "could not read certificate via cached statement");
+      } finally {
+        datasource.releaseResources(null, rs);
+        pool.release(slot, broken);
+      }
+    }
 
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(sql);
 
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
-          }
+    try {
+      ps.setInt(1, issuerId);
+      ps.setString(2, serialNumber.toString(16));
+      rs = ps.executeQuery();
+
+      return rs.next() ? readCertRow(rs, time, includeCertHash, includeRit) : null;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method readCertRow
 
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
+  /**
+   * Reads the certificate from the in-memory index.
+   *
+   * @return the certificate, {@link #UNKNOWN_CERT} if the certificate is not contained
+   *         in the store, or {@code null} if the certificate must be read from the database.
+   */
+  private CertRow getIndexedCertRow(int issuerId, BigInteger serialNumber, Date time,
+      boolean includeCertHash, boolean includeRit) {
+    CertStatusIndex index = certStatusIndex;
+    if (index == null) {
+      return null;
+    }
 
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
+    CertStatusIndex.IssuerIndex issuerIndex = index.getIssuerIndex(issuerId);
+    int idx = (issuerIndex == null) ? -1 : issuerIndex.indexOf(serialNumber);
+    if (idx == -1) {
+      return UNKNOWN_CERT;
+    }
+
+    if (includeCertHash && issuerIndex.hasCertHash(idx)) {
+      // the certificate hash is not contained in the index
+      return null;
+    }
+
+    CertRow row = new CertRow();
+    row.crlId = issuerIndex.getCrlId(idx);
+
+    long timeInSec = time.getTime() / 1000;
+    if (ignoreNotYetValidCert) {
+      long notBeforeInSec = issuerIndex.getNotBefore(idx);
+      if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+        row.ignore = true;
       }
+    }
 
-      if (crlId == 0) {
-        crlId = issuer.getCrlId();
+    if (!row.ignore && ignoreExpiredCert) {
+      long notAfterInSec = issuerIndex.getNotAfter(idx);
+      if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+        row.ignore = true;
       }
+    }
 
-      if (crlInfo == null && crlId != 0) {
-        crlInfo = issuerStore.getCrlInfo(crlId);
+    if (!row.ignore) {
+      row.revoked = issuerIndex.isRevoked(idx);
+      if (row.revoked) {
+        row.reason = issuerIndex.getReason(idx);
+        row.revTime = issuerIndex.getRevTime(idx);
+        if (includeRit) {
+          row.invalTime = issuerIndex.getInvalTime(idx);
+        }
       }
+    }
+    return row;
+  } // method getIndexedCertRow
 
-      Date thisUpdate;
-      Date nextUpdate;
-      if (crlInfo == null) {
-        thisUpdate = new Date();
-        nextUpdate = null;
-      } else {
-        thisUpdate = crlInfo.getThisUpdate();
-        nextUpdate = crlInfo.getNextUpdate();
+  /**
+   * Sets the in-memory snapshot of the table CERT used to answer the status requests.
+   *
+   * @param certStatusIndex
+   *          The index. {@code null} to read the statuses from the database.
+   */
+  void setCertStatusIndex(CertStatusIndex certStatusIndex) {
+    this.certStatusIndex = certStatusIndex;
+  }
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
 
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> infos = new ArrayList<>(size);
+
+    try {
+      IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+      if (issuer == null) {
+        infos.addAll(Collections.<CertStatusInfo>nCopies(size, null));
+        return infos;
+      }
+
+      CrlInfo crlInfo = null;
+      if (issuer.getCrlId() != 0) {
+        crlInfo = issuerStore.getCrlInfo(issuer.getCrlId());
+        // check whether CRL is expired
         if (isIgnoreExpiredCrls()) {
           // CRL will expire in 5 minutes
           if (crlInfo.getNextUpdate().getTime() < time.getTime() + MS_PER_5MIN) {
-            return CertStatusInfo.getCrlExpiredStatusInfo();
+            for (int i = 0; i < size; i++) {
+              infos.add(CertStatusInfo.getCrlExpiredStatusInfo());
+            }
+            return infos;
           }
         }
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-        if (revoked) {
-          Date invTime = (invalTime == 0 || invalTime == revTime)
-              ? null : new Date(invalTime * 1000);
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), invTime);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
+      // positive serial numbers not found in the index, without duplicates
+      Map<BigInteger, CertRow> rows = new HashMap<>();
+      Set<BigInteger> querySerials = new LinkedHashSet<>();
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() != 1) {
+          continue;
+        }
+
+        CertRow row = getIndexedCertRow(issuer.getId(), serialNumber, time, includeCertHash,
+            includeRit);
+        if (row == null) {
+          querySerials.add(serialNumber);
+        } else if (row != UNKNOWN_CERT) {
+          rows.put(serialNumber, row);
         }
       }
 
-      if (includeCrlId && crlInfo != null) {
-        certStatusInfo.setCrlId(crlInfo.getCrlId());
+      List<BigInteger> chunk = new ArrayList<>(MAX_SERIALS_IN_SQL);
+      for (BigInteger serialNumber : querySerials) {
+        chunk.add(serialNumber);
+        if (chunk.size() == MAX_SERIALS_IN_SQL) {
+          readCertRows(issuer.getId(), chunk, time, includeCertHash, includeRit, rows);
+          chunk.clear();
+        }
       }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+      if (!chunk.isEmpty()) {
+        readCertRows(issuer.getId(), chunk, time, includeCertHash, includeRit, rows);
+      }
 
-          certStatusInfo.setArchiveCutOff(date);
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          infos.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
+        } else {
+          infos.add(buildCertStatusInfo(time, issuer, crlInfo, rows.get(serialNumber),
+              inheritCaRevocation));
         }
       }
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  private void readCertRows(int issuerId, List<BigInteger> serialNumbers, Date time,
+      boolean includeCertHash, boolean includeRit, Map<BigInteger, CertRow> rows)
+          throws DataAccessException {
+    StringBuilder sb = new StringBuilder(100 + 2 * serialNumbers.size());
+    sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT");
+    if (includeRit) {
+      sb.append(",RIT");
+    }
+    if (includeCertHash) {
+      sb.append(",HASH");
+    }
+    sb.append(",CRL_ID FROM CERT WHERE IID=? AND SN IN (?");
+    for (int i = 1; i < serialNumbers.size(); i++) {
+      sb.append(",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    try {
+      int idx = 1;
+      ps.setInt(idx++, issuerId);
+      for (BigInteger serialNumber : serialNumbers) {
+        ps.setString(idx++, serialNumber.toString(16));
       }
+      rs = ps.executeQuery();
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
+      while (rs.next()) {
+        rows.put(new BigInteger(rs.getString("SN"), 16),
+            readCertRow(rs, time, includeCertHash, includeRit));
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method readCertRows
+
+  private CertRow readCertRow(ResultSet rs, Date time, boolean includeCertHash,
+      boolean includeRit) throws SQLException {
+    CertRow row = new CertRow();
+    row.crlId = rs.getInt("CRL_ID");
+
+    long timeInSec = time.getTime() / 1000;
+    if (!row.ignore && ignoreNotYetValidCert) {
+      long notBeforeInSec = rs.getLong("NBEFORE");
+      if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore && ignoreExpiredCert) {
+      long notAfterInSec = rs.getLong("NAFTER");
+      if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore) {
+      if (includeCertHash) {
+        row.b64CertHash = rs.getString("HASH");
+      }
+
+      row.revoked = rs.getBoolean("REV");
+      if (row.revoked) {
+        row.reason = rs.getInt("RR");
+        row.revTime = rs.getLong("RT");
+        if (includeRit) {
+          row.invalTime = rs.getLong("RIT");
         }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+      }
+    }
+    return row;
+  } // method readCertRow
+
+  // row is null if the certificate is unknown
+  private CertStatusInfo buildCertStatusInfo(Date time, IssuerEntry issuer, CrlInfo crlInfo,
+      CertRow row, boolean inheritCaRevocation) {
+    int crlId = (row == null) ? 0 : row.crlId;
+    if (crlId == 0) {
+      crlId = issuer.getCrlId();
+    }
+
+    if (crlInfo == null && crlId != 0) {
+      crlInfo = issuerStore.getCrlInfo(crlId);
+    }
+
+    Date thisUpdate;
+    Date nextUpdate;
+    if (crlInfo == null) {
+      thisUpdate = new Date();
+      nextUpdate = null;
+    } else {
+      thisUpdate = crlInfo.getThisUpdate();
+      nextUpdate = crlInfo.getNextUpdate();
+
+      if (isIgnoreExpiredCrls()) {
+        // CRL will expire in 5 minutes
+        if (crlInfo.getNextUpdate().getTime() < time.getTime() + MS_PER_5MIN) {
+          return CertStatusInfo.getCrlExpiredStatusInfo();
         }
       }
+    }
+
+    CertStatusInfo certStatusInfo;
+    if (row == null) {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    } else if (row.ignore) {
+      certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      byte[] certHash = (row.b64CertHash == null) ? null : Base64.decodeFast(row.b64CertHash);
+      if (row.revoked) {
+        Date invTime = (row.invalTime == 0 || row.invalTime == row.revTime)
+            ? null : new Date(row.invalTime * 1000);
+        CertRevocationInfo revInfo = new CertRevocationInfo(row.reason,
+            new Date(row.revTime * 1000), invTime);
+        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+            certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+            certHash, thisUpdate, nextUpdate, null);
+      }
+    }
+
+    if (includeCrlId && crlInfo != null) {
+      certStatusInfo.setCrlId(crlInfo.getCrlId());
+    }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus0
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
@@ -530,6 +773,11 @@ public class DbCertStatusStore extends OcspStore {
    * <li>caCerts: optional
    *   <p>
    *   CA certificate files to be included / excluded.</li>
+   * <li>lookupConnections: optional
+   *   <p>
+   *   Number of database connections which are reserved for the status lookup and keep
+   *   their prepared statements open, default to 0 (statements are prepared for each
+   *   lookup).</li>
    *  </ul>
    * @param datasource DataSource.
    */
@@ -537,14 +785,32 @@ public class DbCertStatusStore extends OcspStore {
   public void init(Map<String, ? extends Object> sourceConf, DataSourceWrapper datasource)
       throws OcspStoreException {
     OcspServerConf.CaCerts caCerts = null;
+    int lookupConnections = 0;
     if (sourceConf != null) {
       Object objValue = sourceConf.get("caCerts");
       if (objValue != null) {
         caCerts = JSON.parseObject(JSON.toJSONBytes(objValue), OcspServerConf.CaCerts.class);
       }
+
+      objValue = sourceConf.get("lookupConnections");
+      if (objValue != null) {
+        try {
+          lookupConnections = Integer.parseInt(objValue.toString());
+        } catch (NumberFormatException ex) {
+          throw new OcspStoreException("invalid lookupConnections " + objValue);
+        }
+      }
     }
 
     this.datasource = notNull(datasource, "datasource");
+    if (lookupConnections > 0) {
+      if (lookupConnections >= datasource.getMaximumPoolSize()) {
+        throw new OcspStoreException("lookupConnections (" + lookupConnections
+            + ") must be less than the maximal pool size of the datasource ("
+            + datasource.getMaximumPoolSize() + ")");
+      }
+      this.statementPool = new CachedStatementPool(datasource, lookupConnections);
+    }
 
     sqlCs = datasource.buildSelectFirstSql(1,
         "NBEFORE,NAFTER,REV,RR,RT,RIT,CRL_ID FROM CERT WHERE IID=? AND SN=?");
@@ -611,11 +877,25 @@ public class DbCertStatusStore extends OcspStore {
       scheduledThreadPoolExecutor = null;
     }
 
+    if (statementPool != null) {
+      statementPool.close();
+      statementPool = null;
+    }
+
     if (datasource != null) {
       datasource.close();
     }
   }
 
+  @Override
+  public List<CertEntry> nextCertEntries(long minId, int numEntries) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    return CertEntryReader.nextCertEntries(datasource, issuerStore, "IID", minId, numEntries);
+  } // method nextCertEntries
+
   @Override
   public boolean knowsIssuer(RequestIssuer reqIssuer) {
     return issuerStore != null && null != issuerStore.getIssuerForFp(reqIssuer);
@@ -0,0 +1,95 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+
+/**
+ * OCSP store whose certificates can be enumerated, e.g. to pre-generate the OCSP responses.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public interface EnumerableCertStatusStore {
+
+  /**
+   * Entry of a certificate in the store.
+   */
+  class CertEntry {
+
+    private final long id;
+
+    private final RequestIssuer issuer;
+
+    private final BigInteger serialNumber;
+
+    private final long lastUpdate;
+
+    public CertEntry(long id, RequestIssuer issuer, BigInteger serialNumber, long lastUpdate) {
+      this.id = id;
+      this.issuer = issuer;
+      this.serialNumber = serialNumber;
+      this.lastUpdate = lastUpdate;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * Returns the issuer, identified by the SHA-1 hashes of its name and key.
+     * @return the issuer, {@code null} if the issuer is not known by the store.
+     */
+    public RequestIssuer getIssuer() {
+      return issuer;
+    }
+
+    public BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    /**
+     * Returns the last update of the certificate entry.
+     * @return the last update, in seconds since January 1, 1970, 00:00:00 GMT.
+     */
+    public long getLastUpdate() {
+      return lastUpdate;
+    }
+
+  } // class CertEntry
+
+  /**
+   * Returns the next certificates ordered by the database id.
+   *
+   * @param minId
+   *          Minimal database id (inclusive).
+   * @param numEntries
+   *          Maximal number of entries to be returned.
+   * @return the certificates with id not less than {@code minId}, empty list if there is no
+   *         more certificate.
+   * @throws OcspStoreException
+   *           If the certificates could not be retrieved.
+   */
+  List<CertEntry> nextCertEntries(long minId, int numEntries) throws OcspStoreException;
+
+}
@@ -21,9 +21,12 @@ import static org.xipki.util.Args.notNull;
 
 import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.asn1.x509.Certificate;
@@ -47,6 +50,8 @@ class IssuerEntry {
 
   private final Map<HashAlgo, byte[]> issuerHashMap;
 
+  private final List<IssuerHashKey> issuerHashKeys;
+
   private final Date notBefore;
 
   private final X509Cert cert;
@@ -60,6 +65,12 @@ class IssuerEntry {
     this.cert = notNull(cert, "cert");
     this.notBefore = cert.getNotBefore();
     this.issuerHashMap = getIssuerHashAndKeys(cert.getEncoded());
+
+    List<IssuerHashKey> keys = new ArrayList<>(issuerHashMap.size());
+    for (Map.Entry<HashAlgo, byte[]> entry : issuerHashMap.entrySet()) {
+      keys.add(new IssuerHashKey(entry.getKey(), entry.getValue()));
+    }
+    this.issuerHashKeys = Collections.unmodifiableList(keys);
   }
 
   private static Map<HashAlgo, byte[]> getIssuerHashAndKeys(byte[] encodedCert)
@@ -102,6 +113,14 @@ class IssuerEntry {
     return Arrays.copyOf(data, data.length);
   }
 
+  /**
+   * Returns the keys of this issuer for all supported hash algorithms.
+   * @return the keys of this issuer.
+   */
+  public List<IssuerHashKey> getIssuerHashKeys() {
+    return issuerHashKeys;
+  }
+
   public boolean matchHash(RequestIssuer reqIssuer) {
     byte[] issuerHash = issuerHashMap.get(reqIssuer.hashAlgorithm());
     if (issuerHash == null) {
@@ -36,38 +36,64 @@ import org.xipki.ocsp.api.RequestIssuer;
 
 class IssuerStore {
 
-  private List<IssuerEntry> issuers = new ArrayList<>();
+  /**
+   * Immutable view of the issuers. It will be replaced as a whole when the issuers change,
+   * so that the lookup does not need any lock.
+   */
+  private static class Index {
+
+    private final List<IssuerEntry> issuers;
+
+    private final Set<Integer> ids;
+
+    private final Map<Integer, IssuerEntry> idMap;
+
+    private final Map<IssuerHashKey, IssuerEntry> hashMap;
+
+    private Index(List<IssuerEntry> issuers) {
+      Map<Integer, IssuerEntry> newIdMap = new HashMap<>(issuers.size() * 4 / 3 + 1);
+      Map<IssuerHashKey, IssuerEntry> newHashMap = new HashMap<>();
+      for (IssuerEntry issuer : issuers) {
+        int id = issuer.getId();
+        if (newIdMap.containsKey(id)) {
+          throw new IllegalArgumentException(
+              "issuer with the same id " + id + " duplicated");
+        }
+        newIdMap.put(id, issuer);
+
+        for (IssuerHashKey key : issuer.getIssuerHashKeys()) {
+          // if several issuers have the same key, the first one is used
+          if (!newHashMap.containsKey(key)) {
+            newHashMap.put(key, issuer);
+          }
+        }
+      }
+
+      this.issuers = Collections.unmodifiableList(new ArrayList<>(issuers));
+      this.ids = Collections.unmodifiableSet(new HashSet<>(newIdMap.keySet()));
+      this.idMap = newIdMap;
+      this.hashMap = newHashMap;
+    }
+
+  } // class Index
 
-  private Set<Integer> ids = Collections.emptySet();
+  private volatile Index index = new Index(Collections.emptyList());
 
   private Map<Integer, CrlInfo> crlInfos = new HashMap<>();
 
   public IssuerStore() {
   }
 
-  public void setIssuers(List<IssuerEntry> issuers) {
-    Set<Integer> newIds = new HashSet<>();
-    for (IssuerEntry issuer : issuers) {
-      int id = issuer.getId();
-      if (newIds.contains(id)) {
-        throw new IllegalArgumentException(
-            "issuer with the same id " + id + " duplicated");
-      }
-      newIds.add(id);
-    }
-
-    // to accelerate the switch
-    List<IssuerEntry> copy = new ArrayList<IssuerEntry>(issuers);
-    this.ids = Collections.unmodifiableSet(newIds);
-    this.issuers = copy;
+  public synchronized void setIssuers(List<IssuerEntry> issuers) {
+    this.index = new Index(issuers);
   } // method setIssuers
 
   public int size() {
-    return ids.size();
+    return index.ids.size();
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return index.ids;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -76,31 +102,19 @@ class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.getId() == id) {
-        return entry;
-      }
-    }
-
-    return null;
+    return index.idMap.get(id);
   }
 
   public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
-    }
-
-    return null;
+    IssuerHashKey key = IssuerHashKey.getInstance(reqIssuer);
+    return (key == null) ? null : index.hashMap.get(key);
   }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.issuers.add(issuer);
-
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    List<IssuerEntry> newIssuers = new ArrayList<>(index.issuers.size() + 1);
+    newIssuers.addAll(index.issuers);
+    newIssuers.add(issuer);
+    this.index = new Index(newIssuers);
   }
 
   public void setCrlInfos(Map<Integer, CrlInfo> crlInfos) {
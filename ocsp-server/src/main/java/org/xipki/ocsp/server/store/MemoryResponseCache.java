@@ -0,0 +1,283 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.security.AlgorithmCode;
+
+/**
+ * Bounded in-memory tier of the {@link ResponseCacher}. The entries are distributed over
+ * several LRU segments, each protected by its own monitor. An entry is evicted if its
+ * nextUpdate is approaching, or if the number or the total size of the entries of the
+ * segment exceeds the configured limit.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class MemoryResponseCache {
+
+  static final class Key {
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final byte sigAlgCode;
+
+    private final int hashCode;
+
+    Key(int issuerId, BigInteger serialNumber, byte sigAlgCode) {
+      this.issuerId = issuerId;
+      this.serialNumber = serialNumber;
+      this.sigAlgCode = sigAlgCode;
+      this.hashCode = 31 * (31 * issuerId + serialNumber.hashCode()) + sigAlgCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return issuerId == other.issuerId && sigAlgCode == other.sigAlgCode
+          && serialNumber.equals(other.serialNumber);
+    }
+
+  } // class Key
+
+  private static final class CachedResponse {
+
+    private final byte[] response;
+
+    private final long generatedAt;
+
+    // 0 for no nextUpdate
+    private final long nextUpdate;
+
+    CachedResponse(byte[] response, long generatedAt, long nextUpdate) {
+      this.response = response;
+      this.generatedAt = generatedAt;
+      this.nextUpdate = nextUpdate;
+    }
+
+  } // class CachedResponse
+
+  private final class Segment extends LinkedHashMap<Key, CachedResponse> {
+
+    private static final long serialVersionUID = 1L;
+
+    private long size;
+
+    Segment() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized CachedResponse get(Object key) {
+      return super.get(key);
+    }
+
+    synchronized void putEntry(Key key, CachedResponse entry) {
+      CachedResponse previous = super.get(key);
+      if (previous != null && previous.generatedAt > entry.generatedAt) {
+        // keep the newer response
+        return;
+      }
+
+      previous = super.put(key, entry);
+      if (previous != null) {
+        size -= previous.response.length;
+      }
+      size += entry.response.length;
+
+      Iterator<CachedResponse> it = values().iterator();
+      while (it.hasNext() && (super.size() > maxEntriesPerSegment || size > maxSizePerSegment)) {
+        CachedResponse eldest = it.next();
+        it.remove();
+        size -= eldest.response.length;
+        evictions.incrementAndGet();
+      }
+    }
+
+    synchronized void removeEntry(Key key) {
+      CachedResponse previous = super.remove(key);
+      if (previous != null) {
+        size -= previous.response.length;
+      }
+    }
+
+    synchronized int removeExpired(long minNextUpdate, long minGeneratedAt) {
+      int num = 0;
+      Iterator<CachedResponse> it = values().iterator();
+      while (it.hasNext()) {
+        CachedResponse entry = it.next();
+        if (entry.generatedAt < minGeneratedAt
+            || (entry.nextUpdate != 0 && entry.nextUpdate < minNextUpdate)) {
+          it.remove();
+          size -= entry.response.length;
+          num++;
+        }
+      }
+      return num;
+    }
+
+    synchronized long sizeInBytes() {
+      return size;
+    }
+
+    synchronized int numEntries() {
+      return super.size();
+    }
+
+  } // class Segment
+
+  private static final int NUM_SEGMENTS = 16;
+
+  private final Segment[] segments;
+
+  private final int maxEntriesPerSegment;
+
+  private final long maxSizePerSegment;
+
+  private final AtomicLong hits = new AtomicLong(0);
+
+  private final AtomicLong misses = new AtomicLong(0);
+
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries
+   *          maximal number of cached responses.
+   * @param maxSize
+   *          maximal sum of the length of the cached responses in bytes.
+   */
+  MemoryResponseCache(int maxEntries, long maxSize) {
+    positive(maxEntries, "maxEntries");
+    positive(maxSize, "maxSize");
+    this.maxEntriesPerSegment = Math.max(1, maxEntries / NUM_SEGMENTS);
+    this.maxSizePerSegment = Math.max(1, maxSize / NUM_SEGMENTS);
+    this.segments = new Segment[NUM_SEGMENTS];
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  OcspRespWithCacheInfo get(int issuerId, BigInteger serialNumber, AlgorithmCode sigAlg,
+      long minNextUpdate) {
+    Key key = new Key(issuerId, serialNumber, sigAlg.getCode());
+    Segment segment = segmentFor(key);
+    CachedResponse entry = segment.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    if (entry.nextUpdate != 0 && entry.nextUpdate < minNextUpdate) {
+      segment.removeEntry(key);
+      evictions.incrementAndGet();
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(entry.generatedAt);
+    if (entry.nextUpdate != 0) {
+      cacheInfo.setNextUpdate(entry.nextUpdate);
+    }
+    return new OcspRespWithCacheInfo(entry.response, cacheInfo);
+  } // method get
+
+  void put(int issuerId, BigInteger serialNumber, AlgorithmCode sigAlg, long generatedAt,
+      Long nextUpdate, byte[] response) {
+    notNull(response, "response");
+    Key key = new Key(issuerId, serialNumber, sigAlg.getCode());
+    segmentFor(key).putEntry(key,
+        new CachedResponse(response, generatedAt, nextUpdate == null ? 0 : nextUpdate));
+  }
+
+  /**
+   * Removes the responses generated before {@code minGeneratedAt} or expiring
+   * before {@code minNextUpdate}.
+   *
+   * @param minGeneratedAt
+   *          Minimal generatedAt, in seconds since January 1, 1970, 00:00:00 GMT.
+   * @param minNextUpdate
+   *          Minimal nextUpdate, in seconds since January 1, 1970, 00:00:00 GMT.
+   * @return number of removed entries.
+   */
+  int removeExpired(long minGeneratedAt, long minNextUpdate) {
+    int num = 0;
+    for (Segment segment : segments) {
+      num += segment.removeExpired(minNextUpdate, minGeneratedAt);
+    }
+    evictions.addAndGet(num);
+    return num;
+  }
+
+  void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+        segment.size = 0;
+      }
+    }
+  }
+
+  void fillStatuses(Map<String, Object> statuses) {
+    int numEntries = 0;
+    long sizeInBytes = 0;
+    for (Segment segment : segments) {
+      numEntries += segment.numEntries();
+      sizeInBytes += segment.sizeInBytes();
+    }
+
+    statuses.put("hits", hits.get());
+    statuses.put("misses", misses.get());
+    statuses.put("evictions", evictions.get());
+    statuses.put("entries", numEntries);
+    statuses.put("size", sizeInBytes);
+  } // method fillStatuses
+
+  private Segment segmentFor(Key key) {
+    int hash = key.hashCode;
+    hash ^= (hash >>> 16);
+    return segments[hash & (NUM_SEGMENTS - 1)];
+  }
+
+}
@@ -26,10 +26,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -45,6 +49,7 @@ import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.OcspRespWithCacheInfo;
 import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.OcspServerConf.WriteBehindDropPolicy;
 import org.xipki.security.AlgorithmCode;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
@@ -89,6 +94,61 @@ public class ResponseCacher implements Closeable {
   private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET GENERATED_AT=?,"
       + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
 
+  private static final String SQL_DELETE_RESP = "DELETE FROM OCSP WHERE ID=?";
+
+  /**
+   * OCSP response to be stored in the cache database.
+   */
+  public static class ResponseEntry {
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final AlgorithmCode sigAlgCode;
+
+    private final long generatedAt;
+
+    private final Long nextUpdate;
+
+    private final byte[] response;
+
+    public ResponseEntry(int issuerId, BigInteger serialNumber, AlgorithmCode sigAlgCode,
+        long generatedAt, Long nextUpdate, byte[] response) {
+      this.issuerId = issuerId;
+      this.serialNumber = notNull(serialNumber, "serialNumber");
+      this.sigAlgCode = notNull(sigAlgCode, "sigAlgCode");
+      this.generatedAt = generatedAt;
+      this.nextUpdate = nextUpdate;
+      this.response = notNull(response, "response");
+    }
+
+    public int getIssuerId() {
+      return issuerId;
+    }
+
+    public BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    public AlgorithmCode getSigAlgCode() {
+      return sigAlgCode;
+    }
+
+    public long getGeneratedAt() {
+      return generatedAt;
+    }
+
+    public Long getNextUpdate() {
+      return nextUpdate;
+    }
+
+    public byte[] getResponse() {
+      return response;
+    }
+
+  } // class ResponseEntry
+
   private final ConcurrentBag<ConcurrentBagEntry<Digest>> idDigesters;
 
   private class IssuerUpdater implements Runnable {
@@ -122,6 +182,14 @@ public class ResponseCacher implements Closeable {
         long maxGeneratedAt = now - validity;
         long minNextUpdate = now + SEC_NEXT_UPDATE_BUFFER;
 
+        if (memoryCache != null) {
+          int num0 = memoryCache.removeExpired(maxGeneratedAt, minNextUpdate);
+          if (num0 > 0) {
+            LOG.info("removed {} from the memory cache",
+                num0 == 1 ? "1 response" : num0 + " responses");
+          }
+        }
+
         try {
           int num1 = removeExpiredResponses(maxGeneratedAt, minNextUpdate);
           if (num1 > 0 && LOG.isInfoEnabled()) {
@@ -151,6 +219,10 @@ public class ResponseCacher implements Closeable {
 
   private final AtomicBoolean onService;
 
+  private final MemoryResponseCache memoryCache;
+
+  private WriteBehindQueue writeBehindQueue;
+
   private DataSourceWrapper datasource;
 
   private IssuerStore issuerStore = new IssuerStore();
@@ -162,6 +234,26 @@ public class ResponseCacher implements Closeable {
   private ScheduledFuture<?> issuerUpdater;
 
   public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity) {
+    this(datasource, master, validity, 0, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param datasource
+   *          Datasource of the cache database.
+   * @param master
+   *          Whether this responder is master.
+   * @param validity
+   *          Validity of the cached responses.
+   * @param memoryCacheMaxEntries
+   *          Maximal number of responses cached in memory. If not positive, no response
+   *          will be cached in memory.
+   * @param memoryCacheMaxSize
+   *          Maximal sum of the size of the responses cached in memory, in bytes.
+   */
+  public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity,
+      int memoryCacheMaxEntries, long memoryCacheMaxSize) {
     this.datasource = notNull(datasource, "datasource");
     this.master = master;
     this.validity = (int) (notNull(validity, "validity").approxMinutes() * 60);
@@ -169,6 +261,8 @@ public class ResponseCacher implements Closeable {
     this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
         "IID,IDENT,GENERATED_AT,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
     this.onService = new AtomicBoolean(false);
+    this.memoryCache = (memoryCacheMaxEntries > 0 && memoryCacheMaxSize > 0)
+        ? new MemoryResponseCache(memoryCacheMaxEntries, memoryCacheMaxSize) : null;
 
     this.idDigesters = new ConcurrentBag<>();
     for (int i = 0; i < 20; i++) {
@@ -181,9 +275,54 @@ public class ResponseCacher implements Closeable {
     return onService.get() && issuerStore != null;
   }
 
+  public boolean isMemoryCacheEnabled() {
+    return memoryCache != null;
+  }
+
+  /**
+   * Writes the responses to the cache database asynchronously. Must be called before
+   * {@link #init()}.
+   *
+   * @param queueSize
+   *          Maximal number of responses waiting to be written.
+   * @param batchSize
+   *          Maximal number of responses written in one batch.
+   * @param flushIntervalMs
+   *          Maximal time in milliseconds a response waits before it is written.
+   * @param dropPolicy
+   *          What to do if the queue is full.
+   */
+  public void setWriteBehind(int queueSize, int batchSize, long flushIntervalMs,
+      WriteBehindDropPolicy dropPolicy) {
+    this.writeBehindQueue =
+        new WriteBehindQueue(this, queueSize, batchSize, flushIntervalMs, dropPolicy);
+  }
+
+  /**
+   * Fills the statistics of the memory cache, namely hits, misses, evictions, number of
+   * entries and size, and of the write-behind queue, namely queue depth, coalesced, dropped,
+   * written and failed writes, in the given map.
+   *
+   * @param statuses
+   *          Map to be filled.
+   */
+  public void fillStatuses(Map<String, Object> statuses) {
+    if (memoryCache != null) {
+      memoryCache.fillStatuses(statuses);
+    }
+
+    if (writeBehindQueue != null) {
+      writeBehindQueue.fillStatuses(statuses);
+    }
+  } // method fillStatuses
+
   public void init() {
     updateCacheStore();
 
+    if (writeBehindQueue != null) {
+      writeBehindQueue.start();
+    }
+
     scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
     scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
 
@@ -198,6 +337,15 @@ public class ResponseCacher implements Closeable {
 
   @Override
   public void close() {
+    if (writeBehindQueue != null) {
+      // write the queued responses before the datasource is closed
+      writeBehindQueue.close();
+    }
+
+    if (memoryCache != null) {
+      memoryCache.clear();
+    }
+
     if (datasource != null) {
       datasource.close();
       datasource = null;
@@ -278,6 +426,15 @@ public class ResponseCacher implements Closeable {
 
   public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
       AlgorithmCode sigAlg) throws DataAccessException {
+    // nextUpdate must be at least in 600 seconds
+    long minNextUpdate = System.currentTimeMillis() / 1000 + SEC_NEXT_UPDATE_BUFFER;
+    if (memoryCache != null) {
+      OcspRespWithCacheInfo resp = memoryCache.get(issuerId, serialNumber, sigAlg, minNextUpdate);
+      if (resp != null) {
+        return resp;
+      }
+    }
+
     final String sql = sqlSelectOcsp;
     byte[] identBytes = buildIdent(serialNumber, sigAlg);
     long id = deriveId(issuerId, identBytes);
@@ -303,18 +460,18 @@ public class ResponseCacher implements Closeable {
       }
 
       long nextUpdate = rs.getLong("NEXT_UPDATE");
-      if (nextUpdate != 0) {
-        // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
-
-        if (nextUpdate < minNextUpdate) {
-          return null;
-        }
+      if (nextUpdate != 0 && nextUpdate < minNextUpdate) {
+        return null;
       }
 
       long generatedAt = rs.getLong("GENERATED_AT");
       String b64Resp = rs.getString("RESP");
       byte[] resp = Base64.decodeFast(b64Resp);
+      if (memoryCache != null) {
+        memoryCache.put(issuerId, serialNumber, sigAlg, generatedAt,
+            nextUpdate == 0 ? null : nextUpdate, resp);
+      }
+
       ResponseCacheInfo cacheInfo = new ResponseCacheInfo(generatedAt);
       if (nextUpdate != 0) {
         cacheInfo.setNextUpdate(nextUpdate);
@@ -338,67 +495,288 @@ public class ResponseCacher implements Closeable {
       return;
     }
 
+    if (memoryCache != null) {
+      memoryCache.put(issuerId, serialNumber, sigAlgCode, generatedAt, nextUpdate, response);
+    }
+
+    if (writeBehindQueue != null && writeBehindQueue.offer(
+        new ResponseEntry(issuerId, serialNumber, sigAlgCode, generatedAt, nextUpdate, response))) {
+      return;
+    }
+
     byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
     String ident = Base64.encodeToString(identBytes);
     try {
-      long id = deriveId(issuerId, identBytes);
+      upsertOcspResponse(deriveId(issuerId, identBytes), issuerId, ident, generatedAt,
+          nextUpdate, Base64.encodeToString(response));
+    } catch (DataAccessException ex) {
+      LOG.info("could not cache OCSP response iid={}, ident={}", issuerId, ident);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("could not cache OCSP response iid=" + issuerId + ", ident=" + ident, ex);
+      }
+    }
+  } // method storeOcspResponse
 
-      Connection conn = datasource.getConnection();
+  /**
+   * Adds the response, or replaces the existing response with the same id.
+   */
+  private void upsertOcspResponse(long id, int issuerId, String ident, long generatedAt,
+      long nextUpdate, String b64Response) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    try {
+      String sql = SQL_ADD_RESP;
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+
+      Boolean dataIntegrityViolationException = null;
       try {
-        String sql = SQL_ADD_RESP;
-        PreparedStatement ps = datasource.prepareStatement(conn, sql);
+        int idx = 1;
+        ps.setLong(idx++, id);
+        ps.setInt(idx++, issuerId);
+        ps.setString(idx++, ident);
+        ps.setLong(idx++, generatedAt);
+        ps.setLong(idx++, nextUpdate);
+        ps.setString(idx++, b64Response);
+        ps.execute();
+      } catch (SQLException ex) {
+        DataAccessException dex = datasource.translate(sql, ex);
+        if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
+          dataIntegrityViolationException = Boolean.TRUE;
+        } else {
+          throw dex;
+        }
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
 
-        String b64Response = Base64.encodeToString(response);
-        Boolean dataIntegrityViolationException = null;
-        try {
-          int idx = 1;
-          ps.setLong(idx++, id);
-          ps.setInt(idx++, issuerId);
-          ps.setString(idx++, ident);
-          ps.setLong(idx++, generatedAt);
-          ps.setLong(idx++, nextUpdate);
-          ps.setString(idx++, b64Response);
-          ps.execute();
-        } catch (SQLException ex) {
-          DataAccessException dex = datasource.translate(sql, ex);
-          if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
-            dataIntegrityViolationException = Boolean.TRUE;
-          } else {
-            throw dex;
-          }
-        } finally {
-          datasource.releaseResources(ps, null, false);
+      if (dataIntegrityViolationException == null) {
+        LOG.debug("added cached OCSP response iid={}, ident={}", issuerId, ident);
+        return;
+      }
+
+      sql = SQL_UPDATE_RESP;
+      ps = datasource.prepareStatement(conn, sql);
+      try {
+        int idx = 1;
+        ps.setLong(idx++, generatedAt);
+        ps.setLong(idx++, nextUpdate);
+        ps.setString(idx++, b64Response);
+        ps.setLong(idx++, id);
+        ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  } // method upsertOcspResponse
+
+  /**
+   * Returns the generatedAt and nextUpdate of the cached responses.
+   *
+   * @param issuerId
+   *          Issuer id in the cache database.
+   * @param serialNumbers
+   *          Serial numbers of the certificates.
+   * @param sigAlg
+   *          Signature algorithm of the responses.
+   * @return map of serial number to the cache information. Serial numbers without cached
+   *         response are not contained.
+   * @throws DataAccessException
+   *           if database error occurs.
+   */
+  public Map<BigInteger, ResponseCacheInfo> getCacheInfos(int issuerId,
+      Collection<BigInteger> serialNumbers, AlgorithmCode sigAlg) throws DataAccessException {
+    Map<BigInteger, ResponseCacheInfo> ret = new HashMap<>();
+    if (serialNumbers.isEmpty()) {
+      return ret;
+    }
+
+    Map<Long, BigInteger> idSerialMap = new HashMap<>();
+    Map<Long, String> idIdentMap = new HashMap<>();
+    for (BigInteger serialNumber : serialNumbers) {
+      byte[] identBytes = buildIdent(serialNumber, sigAlg);
+      long id = deriveId(issuerId, identBytes);
+      idSerialMap.put(id, serialNumber);
+      idIdentMap.put(id, Base64.encodeToString(identBytes));
+    }
+
+    StringBuilder sb = new StringBuilder(100 + 2 * idSerialMap.size());
+    sb.append("SELECT ID,IID,IDENT,GENERATED_AT,NEXT_UPDATE FROM OCSP WHERE ID IN (");
+    for (int i = 0; i < idSerialMap.size(); i++) {
+      sb.append(i == 0 ? "?" : ",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
+
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      int idx = 1;
+      for (Long id : idSerialMap.keySet()) {
+        ps.setLong(idx++, id);
+      }
+
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        long id = rs.getLong("ID");
+        if (rs.getInt("IID") != issuerId || !idIdentMap.get(id).equals(rs.getString("IDENT"))) {
+          continue;
         }
 
-        if (dataIntegrityViolationException == null) {
-          LOG.debug("added cached OCSP response iid={}, ident={}", issuerId, ident);
-          return;
+        ResponseCacheInfo cacheInfo = new ResponseCacheInfo(rs.getLong("GENERATED_AT"));
+        long nextUpdate = rs.getLong("NEXT_UPDATE");
+        if (nextUpdate != 0) {
+          cacheInfo.setNextUpdate(nextUpdate);
         }
+        ret.put(idSerialMap.get(id), cacheInfo);
+      }
+      return ret;
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getCacheInfos
 
-        sql = SQL_UPDATE_RESP;
-        ps = datasource.prepareStatement(conn, sql);
-        try {
-          int idx = 1;
-          ps.setLong(idx++, generatedAt);
-          ps.setLong(idx++, nextUpdate);
-          ps.setString(idx++, b64Response);
-          ps.setLong(idx++, id);
-          ps.executeUpdate();
-        } catch (SQLException ex) {
-          throw datasource.translate(sql, ex);
-        } finally {
-          datasource.releaseResources(ps, null, false);
+  /**
+   * Stores the responses in the cache database within one transaction, using JDBC batch.
+   * Existing responses with the same key will be replaced. If the batch fails, e.g. because
+   * a response with the same key has been added concurrently, the responses are stored one
+   * by one. The stored responses are also put in the in-memory cache, if configured.
+   *
+   * @param entries
+   *          Responses to be stored.
+   * @return number of stored responses.
+   * @throws DataAccessException
+   *           if none of the responses could be stored.
+   */
+  public int storeOcspResponses(Collection<ResponseEntry> entries) throws DataAccessException {
+    long nowInSec = System.currentTimeMillis() / 1000;
+
+    // the last entry wins if there are several entries with the same key
+    Map<Long, ResponseEntry> idEntryMap = new LinkedHashMap<>();
+    Map<Long, String> idIdentMap = new HashMap<>();
+    for (ResponseEntry entry : entries) {
+      Long nextUpdate = entry.nextUpdate;
+      if (nextUpdate != null && nextUpdate - nowInSec < validity) {
+        continue;
+      }
+
+      byte[] identBytes = buildIdent(entry.serialNumber, entry.sigAlgCode);
+      long id = deriveId(entry.issuerId, identBytes);
+      idEntryMap.put(id, entry);
+      idIdentMap.put(id, Base64.encodeToString(identBytes));
+    }
+
+    if (idEntryMap.isEmpty()) {
+      return 0;
+    }
+
+    try {
+      storeOcspResponsesInBatch(idEntryMap, idIdentMap, nowInSec);
+      LOG.debug("added {} cached OCSP responses", idEntryMap.size());
+      if (memoryCache != null) {
+        for (ResponseEntry entry : idEntryMap.values()) {
+          memoryCache.put(entry.issuerId, entry.serialNumber, entry.sigAlgCode,
+              entry.generatedAt, getNextUpdate(entry, nowInSec), entry.response);
         }
-      } finally {
-        datasource.returnConnection(conn);
       }
+      return idEntryMap.size();
     } catch (DataAccessException ex) {
-      LOG.info("could not cache OCSP response iid={}, ident={}", issuerId, ident);
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("could not cache OCSP response iid=" + issuerId + ", ident=" + ident, ex);
+      LogUtil.warn(LOG, ex, "could not store " + idEntryMap.size()
+          + " cached OCSP responses at once, store them one by one");
+    }
+
+    int num = 0;
+    DataAccessException lastException = null;
+    for (Map.Entry<Long, ResponseEntry> m : idEntryMap.entrySet()) {
+      ResponseEntry entry = m.getValue();
+      String ident = idIdentMap.get(m.getKey());
+      try {
+        long nextUpdate = getNextUpdate(entry, nowInSec);
+        upsertOcspResponse(m.getKey(), entry.issuerId, ident, entry.generatedAt,
+            nextUpdate, Base64.encodeToString(entry.response));
+        num++;
+        if (memoryCache != null) {
+          memoryCache.put(entry.issuerId, entry.serialNumber, entry.sigAlgCode,
+              entry.generatedAt, nextUpdate, entry.response);
+        }
+      } catch (DataAccessException ex) {
+        lastException = ex;
+        LOG.info("could not cache OCSP response iid={}, ident={}", entry.issuerId, ident);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("could not cache OCSP response iid=" + entry.issuerId + ", ident=" + ident,
+              ex);
+        }
       }
     }
-  } // method storeOcspResponse
+
+    if (num == 0) {
+      throw lastException;
+    }
+    return num;
+  } // method storeOcspResponses
+
+  private static long getNextUpdate(ResponseEntry entry, long nowInSec) {
+    return (entry.nextUpdate == null)
+        ? nowInSec + SEC_DFLT_NEXT_UPDATE_DURATION : entry.nextUpdate;
+  }
+
+  private void storeOcspResponsesInBatch(Map<Long, ResponseEntry> idEntryMap,
+      Map<Long, String> idIdentMap, long nowInSec) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    String sql = null;
+    PreparedStatement deletePs = null;
+    PreparedStatement addPs = null;
+    boolean origAutoCommit = true;
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      sql = SQL_DELETE_RESP;
+      deletePs = datasource.prepareStatement(conn, sql);
+      for (Long id : idEntryMap.keySet()) {
+        deletePs.setLong(1, id);
+        deletePs.addBatch();
+      }
+      deletePs.executeBatch();
+
+      sql = SQL_ADD_RESP;
+      addPs = datasource.prepareStatement(conn, sql);
+      for (Map.Entry<Long, ResponseEntry> m : idEntryMap.entrySet()) {
+        ResponseEntry entry = m.getValue();
+        int idx = 1;
+        addPs.setLong(idx++, m.getKey());
+        addPs.setInt(idx++, entry.issuerId);
+        addPs.setString(idx++, idIdentMap.get(m.getKey()));
+        addPs.setLong(idx++, entry.generatedAt);
+        addPs.setLong(idx++, getNextUpdate(entry, nowInSec));
+        addPs.setString(idx++, Base64.encodeToString(entry.response));
+        addPs.addBatch();
+      }
+      addPs.executeBatch();
+
+      conn.commit();
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LogUtil.warn(LOG, ex2, "could not rollback");
+      }
+      throw datasource.translate(sql, ex);
+    } finally {
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not restore autoCommit");
+      }
+      datasource.releaseResources(deletePs, null, false);
+      datasource.releaseResources(addPs, null, false);
+      datasource.returnConnection(conn);
+    }
+  } // method storeOcspResponsesInBatch
 
   private int removeExpiredResponses(long maxGeneratedAt, long minNextUpdate)
       throws DataAccessException {
@@ -514,6 +892,7 @@ public class ResponseCacher implements Closeable {
       ps = datasource.prepareStatement(SQL_SELECT_ISSUER);
       rs = ps.executeQuery();
       List<IssuerEntry> caInfos = new LinkedList<>();
+      Set<IssuerHashKey> sha1Keys = new HashSet<>();
 
       PreparedStatement deleteIssuerStmt = null;
 
@@ -521,16 +900,8 @@ public class ResponseCacher implements Closeable {
         int id = rs.getInt("ID");
         X509Cert cert = X509Util.parseCert(StringUtil.toUtf8Bytes(rs.getString("CERT")));
         IssuerEntry caInfoEntry = new IssuerEntry(id, cert);
-        RequestIssuer reqIssuer = new RequestIssuer(HashAlgo.SHA1,
-            caInfoEntry.getEncodedHash(HashAlgo.SHA1));
-
-        boolean duplicated = false;
-        for (IssuerEntry existingIssuer : caInfos) {
-          if (existingIssuer.matchHash(reqIssuer)) {
-            duplicated = true;
-            break;
-          }
-        }
+        boolean duplicated = !sha1Keys.add(new IssuerHashKey(HashAlgo.SHA1,
+            caInfoEntry.getEncodedHash(HashAlgo.SHA1)));
 
         String subject = cert.getSubject().toString();
         if (duplicated) {
@@ -0,0 +1,207 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.server.OcspServerConf.WriteBehindDropPolicy;
+import org.xipki.ocsp.server.store.ResponseCacher.ResponseEntry;
+import org.xipki.util.LogUtil;
+
+/**
+ * Bounded write-behind queue of the {@link ResponseCacher}. The responses are written to the
+ * cache database by a background thread in batches via
+ * {@link ResponseCacher#storeOcspResponses(java.util.Collection)}. A queued response is
+ * replaced by a newer response with the same {@link MemoryResponseCache.Key key}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class WriteBehindQueue implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+  private final ResponseCacher responseCacher;
+
+  private final int queueSize;
+
+  private final int batchSize;
+
+  private final long flushIntervalMs;
+
+  private final WriteBehindDropPolicy dropPolicy;
+
+  private final Object lock = new Object();
+
+  private final LinkedHashMap<MemoryResponseCache.Key, ResponseEntry> pending = new LinkedHashMap<>();
+
+  private final AtomicLong coalesced = new AtomicLong(0);
+
+  private final AtomicLong dropped = new AtomicLong(0);
+
+  private final AtomicLong written = new AtomicLong(0);
+
+  private final AtomicLong failed = new AtomicLong(0);
+
+  private boolean closed;
+
+  private Thread writer;
+
+  WriteBehindQueue(ResponseCacher responseCacher, int queueSize, int batchSize,
+      long flushIntervalMs, WriteBehindDropPolicy dropPolicy) {
+    this.responseCacher = notNull(responseCacher, "responseCacher");
+    this.queueSize = positive(queueSize, "queueSize");
+    this.batchSize = positive(batchSize, "batchSize");
+    this.flushIntervalMs = positive(flushIntervalMs, "flushIntervalMs");
+    this.dropPolicy = notNull(dropPolicy, "dropPolicy");
+  }
+
+  void start() {
+    writer = new Thread(this, "ocsp-cache-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queues the response.
+   *
+   * @param entry
+   *          Response to be written.
+   * @return {@code false} if the response has not been queued and must be written by the
+   *         caller, {@code true} otherwise, including the case that the response is dropped.
+   */
+  boolean offer(ResponseEntry entry) {
+    MemoryResponseCache.Key key = new MemoryResponseCache.Key(entry.getIssuerId(),
+        entry.getSerialNumber(), entry.getSigAlgCode().getCode());
+    synchronized (lock) {
+      if (closed) {
+        return false;
+      }
+
+      if (pending.containsKey(key)) {
+        pending.put(key, entry);
+        coalesced.incrementAndGet();
+        return true;
+      }
+
+      if (pending.size() >= queueSize) {
+        if (dropPolicy == WriteBehindDropPolicy.DROP_NEWEST) {
+          dropped.incrementAndGet();
+          return true;
+        } else if (dropPolicy == WriteBehindDropPolicy.DROP_OLDEST) {
+          Iterator<ResponseEntry> it = pending.values().iterator();
+          it.next();
+          it.remove();
+          dropped.incrementAndGet();
+        } else {
+          // WRITE_THROUGH
+          return false;
+        }
+      }
+
+      pending.put(key, entry);
+      if (pending.size() >= batchSize) {
+        lock.notifyAll();
+      }
+    }
+    return true;
+  } // method offer
+
+  @Override
+  public void run() {
+    List<ResponseEntry> batch = new ArrayList<>(batchSize);
+    while (true) {
+      synchronized (lock) {
+        if (!closed && pending.size() < batchSize) {
+          try {
+            lock.wait(flushIntervalMs);
+          } catch (InterruptedException ex) {
+            LOG.warn("interrupted, continue writing");
+          }
+        }
+
+        if (pending.isEmpty()) {
+          if (closed) {
+            break;
+          }
+          continue;
+        }
+
+        Iterator<ResponseEntry> it = pending.values().iterator();
+        while (it.hasNext() && batch.size() < batchSize) {
+          batch.add(it.next());
+          it.remove();
+        }
+      }
+
+      // storeOcspResponses() stores the responses one by one if the batch fails, and throws
+      // an exception only if none of the responses could be stored.
+      try {
+        written.addAndGet(responseCacher.storeOcspResponses(batch));
+      } catch (Exception ex) {
+        failed.addAndGet(batch.size());
+        LogUtil.warn(LOG, ex, "could not write " + batch.size() + " cached OCSP responses");
+      }
+      batch.clear();
+    }
+  } // method run
+
+  /**
+   * Writes the queued responses and stops the background thread.
+   */
+  void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+
+    if (writer != null) {
+      try {
+        writer.join();
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted while waiting for the writer");
+      }
+      writer = null;
+    }
+  } // method close
+
+  void fillStatuses(Map<String, Object> statuses) {
+    int queueDepth;
+    synchronized (lock) {
+      queueDepth = pending.size();
+    }
+
+    statuses.put("writeQueueDepth", queueDepth);
+    statuses.put("coalescedWrites", coalesced.get());
+    statuses.put("droppedWrites", dropped.get());
+    statuses.put("writtenResponses", written.get());
+    statuses.put("failedWrites", failed.get());
+  } // method fillStatuses
+
+}
@@ -27,12 +27,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -83,8 +85,24 @@ public class EjbcaCertStatusStore extends OcspStore {
 
   } // class StoreUpdateService
 
+  private static class CertRow {
+
+    private boolean ignore;
+
+    private String hexCertHash;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+  } // class CertRow
+
   private static final Logger LOG = LoggerFactory.getLogger(EjbcaCertStatusStore.class);
 
+  private static final int MAX_SERIALS_IN_SQL = 100;
+
   private final HashAlgo certHashAlgo = HashAlgo.SHA1;
 
   private final StoreUpdateService storeUpdateService = new StoreUpdateService();
@@ -219,21 +237,11 @@ public class EjbcaCertStatusStore extends OcspStore {
   protected CertStatusInfo getCertStatus0(Date time, RequestIssuer reqIssuer,
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException {
-    if (includeRit) {
-      throw new OcspStoreException("EJBCA store does not support includeRit");
-    }
-
     if (serialNumber.signum() != 1) { // non-positive serial number
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
-    if (!initialized) {
-      throw new OcspStoreException("initialization of CertStore is still in process");
-    }
-
-    if (initializationFailed) {
-      throw new OcspStoreException("initialization of CertStore failed");
-    }
+    assertInitialized();
 
     try {
       EjbcaIssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
@@ -243,18 +251,8 @@ public class EjbcaCertStatusStore extends OcspStore {
 
       String sql = includeCertHash ? sqlCsWithCertHash : sqlCs;
 
-      Date thisUpdate = new Date();
-      Date nextUpdate = null;
-
       ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String hexCertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
+      CertRow row = null;
 
       PreparedStatement ps = datasource.prepareStatement(sql);
 
@@ -265,115 +263,229 @@ public class EjbcaCertStatusStore extends OcspStore {
         rs = ps.executeQuery();
 
         if (rs.next()) {
-          unknown = false;
-
-          long timeInMs = time.getTime();
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBefore = rs.getLong("notBefore");
-            if (timeInMs < notBefore) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("expireDate");
-            if (timeInMs > notAfterInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              hexCertHash = rs.getString("fingerprint");
-            }
-
-            int status = rs.getInt("status");
-            revoked = status == 40;
-            if (revoked) {
-              reason = rs.getInt("revocationReason");
-              revTime = rs.getLong("revocationDate") / 1000;
-            }
-          }
-        } // end if (rs.next())
+          row = readCertRow(rs, time, includeCertHash);
+        }
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         releaseDbResources(ps, rs);
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (hexCertHash == null) ? null : Hex.decode(hexCertHash);
-        if (revoked) {
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), null);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
-        }
+      return buildCertStatusInfo(issuer, row, inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    assertInitialized();
+
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> infos = new ArrayList<>(size);
+
+    try {
+      EjbcaIssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+      if (issuer == null) {
+        infos.addAll(Collections.<CertStatusInfo>nCopies(size, null));
+        return infos;
       }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+      // positive serial numbers, without duplicates
+      Set<BigInteger> querySerials = new LinkedHashSet<>();
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1) {
+          querySerials.add(serialNumber);
+        }
+      }
 
-          certStatusInfo.setArchiveCutOff(date);
+      Map<BigInteger, CertRow> rows = new HashMap<>();
+      List<BigInteger> chunk = new ArrayList<>(MAX_SERIALS_IN_SQL);
+      for (BigInteger serialNumber : querySerials) {
+        chunk.add(serialNumber);
+        if (chunk.size() == MAX_SERIALS_IN_SQL) {
+          readCertRows(issuer.getId(), chunk, time, includeCertHash, rows);
+          chunk.clear();
         }
       }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+      if (!chunk.isEmpty()) {
+        readCertRows(issuer.getId(), chunk, time, includeCertHash, rows);
       }
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
-        }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          infos.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
+        } else {
+          infos.add(buildCertStatusInfo(issuer, rows.get(serialNumber), inheritCaRevocation));
         }
       }
+      return infos;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  private void assertInitialized() throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    if (initializationFailed) {
+      throw new OcspStoreException("initialization of CertStore failed");
+    }
+  } // method assertInitialized
+
+  private void readCertRows(String caFingerprint, List<BigInteger> serialNumbers, Date time,
+      boolean includeCertHash, Map<BigInteger, CertRow> rows) throws DataAccessException {
+    StringBuilder sb = new StringBuilder(150 + 2 * serialNumbers.size());
+    sb.append("SELECT serialNumber,");
+    if (includeCertHash) {
+      sb.append("fingerprint,");
+    }
+    sb.append("notBefore,expireDate,status,revocationReason,revocationDate"
+        + " FROM CertificateData WHERE cAFingerprint=? AND serialNumber IN (?");
+    for (int i = 1; i < serialNumbers.size(); i++) {
+      sb.append(",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
+
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    try {
+      int idx = 1;
+      ps.setString(idx++, caFingerprint);
+      for (BigInteger serialNumber : serialNumbers) {
+        // decimal serial number
+        ps.setString(idx++, serialNumber.toString());
+      }
+      rs = ps.executeQuery();
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+      while (rs.next()) {
+        rows.put(new BigInteger(rs.getString("serialNumber")),
+            readCertRow(rs, time, includeCertHash));
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method readCertRows
+
+  private CertRow readCertRow(ResultSet rs, Date time, boolean includeCertHash)
+      throws SQLException {
+    CertRow row = new CertRow();
+
+    long timeInMs = time.getTime();
+    if (!row.ignore && ignoreNotYetValidCert) {
+      long notBefore = rs.getLong("notBefore");
+      if (timeInMs < notBefore) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore && ignoreExpiredCert) {
+      long notAfterInSec = rs.getLong("expireDate");
+      if (timeInMs > notAfterInSec) {
+        row.ignore = true;
+      }
+    }
+
+    if (!row.ignore) {
+      if (includeCertHash) {
+        row.hexCertHash = rs.getString("fingerprint");
+      }
+
+      int status = rs.getInt("status");
+      row.revoked = status == 40;
+      if (row.revoked) {
+        row.reason = rs.getInt("revocationReason");
+        row.revTime = rs.getLong("revocationDate") / 1000;
+      }
+    }
+    return row;
+  } // method readCertRow
+
+  // row is null if the certificate is unknown
+  private CertStatusInfo buildCertStatusInfo(EjbcaIssuerEntry issuer, CertRow row,
+      boolean inheritCaRevocation) {
+    Date thisUpdate = new Date();
+    Date nextUpdate = null;
+
+    CertStatusInfo certStatusInfo;
+    if (row == null) {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    } else if (row.ignore) {
+      certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      byte[] certHash = (row.hexCertHash == null) ? null : Hex.decode(row.hexCertHash);
+      if (row.revoked) {
+        CertRevocationInfo revInfo = new CertRevocationInfo(row.reason,
+            new Date(row.revTime * 1000), null);
+        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+            certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+            certHash, thisUpdate, nextUpdate, null);
+      }
+    }
+
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus0
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
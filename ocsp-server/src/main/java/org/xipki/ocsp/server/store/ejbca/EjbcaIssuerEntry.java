@@ -21,13 +21,17 @@ import static org.xipki.util.Args.notNull;
 
 import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.asn1.x509.Certificate;
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.IssuerHashKey;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
@@ -47,6 +51,8 @@ class EjbcaIssuerEntry {
 
   private final Map<HashAlgo, byte[]> issuerHashMap;
 
+  private final List<IssuerHashKey> issuerHashKeys;
+
   private final Date notBefore;
 
   private final X509Cert cert;
@@ -60,6 +66,12 @@ class EjbcaIssuerEntry {
     byte[] encodedCert = cert.getEncoded();
     this.id = HashAlgo.SHA1.hexHash(encodedCert);
     this.issuerHashMap = getIssuerHashAndKeys(encodedCert);
+
+    List<IssuerHashKey> keys = new ArrayList<>(issuerHashMap.size());
+    for (Map.Entry<HashAlgo, byte[]> entry : issuerHashMap.entrySet()) {
+      keys.add(new IssuerHashKey(entry.getKey(), entry.getValue()));
+    }
+    this.issuerHashKeys = Collections.unmodifiableList(keys);
   }
 
   private static Map<HashAlgo, byte[]> getIssuerHashAndKeys(byte[] encodedCert)
@@ -102,6 +114,14 @@ class EjbcaIssuerEntry {
     return Arrays.copyOf(data, data.length);
   }
 
+  /**
+   * Returns the keys of this issuer for all supported hash algorithms.
+   * @return the keys of this issuer.
+   */
+  public List<IssuerHashKey> getIssuerHashKeys() {
+    return issuerHashKeys;
+  }
+
   public boolean matchHash(RequestIssuer reqIssuer) {
     byte[] issuerHash = issuerHashMap.get(reqIssuer.hashAlgorithm());
     if (issuerHash == null) {
@@ -17,14 +17,15 @@
 
 package org.xipki.ocsp.server.store.ejbca;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.IssuerHashKey;
 
 /**
  * IssuerStore for the EJBCA database.
@@ -35,26 +36,34 @@ import org.xipki.ocsp.api.RequestIssuer;
 
 class EjbcaIssuerStore {
 
-  private final List<EjbcaIssuerEntry> entries;
+  private final Map<String, EjbcaIssuerEntry> idMap;
 
-  private Set<String> ids;
+  private final Map<IssuerHashKey, EjbcaIssuerEntry> hashMap;
+
+  private final Set<String> ids;
 
   public EjbcaIssuerStore(Collection<EjbcaIssuerEntry> entries) {
-    this.entries = new ArrayList<>(entries.size());
-    Set<String> idSet = new HashSet<>(entries.size());
+    Map<String, EjbcaIssuerEntry> newIdMap = new HashMap<>(entries.size() * 4 / 3 + 1);
+    Map<IssuerHashKey, EjbcaIssuerEntry> newHashMap = new HashMap<>();
 
     for (EjbcaIssuerEntry entry : entries) {
-      for (EjbcaIssuerEntry existingEntry : this.entries) {
-        if (existingEntry.getId().contentEquals(entry.getId())) {
-          throw new IllegalArgumentException(
-              "issuer with the same id (fingerprint) " + entry.getId() + " already available");
+      if (newIdMap.containsKey(entry.getId())) {
+        throw new IllegalArgumentException(
+            "issuer with the same id (fingerprint) " + entry.getId() + " already available");
+      }
+      newIdMap.put(entry.getId(), entry);
+
+      for (IssuerHashKey key : entry.getIssuerHashKeys()) {
+        // if several issuers have the same key, the first one is used
+        if (!newHashMap.containsKey(key)) {
+          newHashMap.put(key, entry);
         }
       }
-      this.entries.add(entry);
-      idSet.add(entry.getId());
     }
 
-    this.ids = Collections.unmodifiableSet(idSet);
+    this.idMap = newIdMap;
+    this.hashMap = newHashMap;
+    this.ids = Collections.unmodifiableSet(new HashSet<>(newIdMap.keySet()));
   }
 
   public int size() {
@@ -71,30 +80,12 @@ class EjbcaIssuerStore {
   }
 
   public EjbcaIssuerEntry getIssuerForId(String id) {
-    for (EjbcaIssuerEntry entry : entries) {
-      if (entry.getId().contentEquals(id)) {
-        return entry;
-      }
-    }
-
-    return null;
+    return idMap.get(id);
   }
 
   public EjbcaIssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (EjbcaIssuerEntry entry : entries) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
-    }
-
-    return null;
-  }
-
-  public void addIssuer(EjbcaIssuerEntry issuer) {
-    this.entries.add(issuer);
-    Set<String> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+    IssuerHashKey key = IssuerHashKey.getInstance(reqIssuer);
+    return (key == null) ? null : hashMap.get(key);
   }
 
 }
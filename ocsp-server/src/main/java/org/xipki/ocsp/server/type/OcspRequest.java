@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -103,7 +102,7 @@ public class OcspRequest {
       }
     }
 
-    List<CertID> requestList = new LinkedList<>();
+    List<CertID> requestList = new ArrayList<>(1);
     Header hdrRequestList = hdr;
 
     Header hdrSingleReq = readHeader(request, hdr.readerIndex);
@@ -130,7 +129,7 @@ public class OcspRequest {
     }
 
     // extensions
-    List<ExtendedExtension> extensions = new LinkedList<>();
+    List<ExtendedExtension> extensions = new ArrayList<>(2);
     int extensionsOffset = hdrRequestList.readerIndex + hdrRequestList.len;
 
     if (extensionsOffset < hdrTbs.readerIndex + hdrTbs.len) {
@@ -196,7 +195,7 @@ public class OcspRequest {
       requestList.add(certId);
     }
 
-    List<ExtendedExtension> extensions = new LinkedList<>();
+    List<ExtendedExtension> extensions = new ArrayList<>(2);
     if (extensions0 != null) {
       ASN1ObjectIdentifier[] extOids = extensions0.getExtensionOIDs();
       for (ASN1ObjectIdentifier oid : extOids) {
@@ -235,14 +234,47 @@ public class OcspRequest {
   } // method readRequestVersion
 
   public static boolean containsSignature(byte[] request) throws EncodingException {
+    return containsSignature(request, request.length);
+  }
+
+  public static boolean containsSignature(byte[] request, int requestLength)
+      throws EncodingException {
     // OCSPRequest
     Header hdr = readHeader(request, 0);
     // tbsRequest
     Header hdrTbs = readHeader(request, hdr.readerIndex);
     int signatureIndex = hdrTbs.readerIndex + hdrTbs.len;
-    return signatureIndex < request.length;
+    return signatureIndex < requestLength;
   }
 
+  /**
+   * Checks whether the OCSPRequest occupies exactly the first {@code requestLength} bytes of
+   * {@code request}. The array may be longer than the request, e.g. if it is a reused buffer.
+   *
+   * @param request
+   *          Buffer containing the DER encoded OCSPRequest.
+   * @param requestLength
+   *          Number of valid bytes in the buffer.
+   * @throws EncodingException
+   *           If the length of the OCSPRequest does not equal {@code requestLength}.
+   */
+  public static void checkLength(byte[] request, int requestLength) throws EncodingException {
+    if (requestLength < 2 || requestLength > request.length) {
+      throw new EncodingException("invalid request length " + requestLength);
+    }
+
+    Header hdr;
+    try {
+      hdr = readHeader(request, 0);
+    } catch (ArrayIndexOutOfBoundsException ex) {
+      throw new EncodingException("invalid length field of OCSPRequest");
+    }
+
+    if (hdr.readerIndex + hdr.len != requestLength) {
+      throw new EncodingException("OCSPRequest is not of length " + requestLength);
+    }
+  } // method checkLength
+
   static Header readHeader(byte[] encoded, int readerIndex) throws EncodingException {
     int off = readerIndex;
     byte tag = encoded[off++];
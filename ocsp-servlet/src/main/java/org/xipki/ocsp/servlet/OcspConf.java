@@ -74,6 +74,11 @@ public class OcspConf extends ValidatableConf {
 
   private SecurityConf security;
 
+  /**
+   * Maximal number of responses to HTTP GET requests kept in memory, 0 to disable the cache.
+   */
+  private int getResponseCacheSize;
+
   public static OcspConf readConfFromFile(String fileName)
       throws IOException, InvalidConfException {
     notBlank(fileName, "fileName");
@@ -110,8 +115,19 @@ public class OcspConf extends ValidatableConf {
     this.security = security;
   }
 
+  public int getGetResponseCacheSize() {
+    return getResponseCacheSize;
+  }
+
+  public void setGetResponseCacheSize(int getResponseCacheSize) {
+    this.getResponseCacheSize = getResponseCacheSize;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
+    if (getResponseCacheSize < 0) {
+      throw new InvalidConfException("getResponseCacheSize may not be negative");
+    }
     validate(remoteMgmt);
     validate(security);
   }
@@ -21,7 +21,9 @@ import static org.xipki.util.Args.notNull;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -39,9 +41,10 @@ import org.xipki.util.Base64;
 import org.xipki.util.Base64Url;
 import org.xipki.util.Hex;
 import org.xipki.util.HttpConstants;
-import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
+import org.xipki.util.http.ConditionalRequests;
 
 /**
  * HTTP servlet of the OCSP responder.
@@ -52,6 +55,50 @@ import org.xipki.util.StringUtil;
 
 public class OcspServlet extends HttpServlet {
 
+  /**
+   * Response to a HTTP GET request, together with the values of its caching headers.
+   */
+  private static class CachedGetResponse {
+
+    private final byte[] response;
+
+    private final String etag;
+
+    /**
+     * In milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * In milliseconds, 0 if the response has no nextUpdate.
+     */
+    private final long expires;
+
+    /**
+     * In milliseconds.
+     */
+    private final long validUntil;
+
+    CachedGetResponse(byte[] response, OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo,
+        Long responderMaxAge, long now) {
+      this.response = response;
+      this.etag = StringUtil.concat("\"", HashAlgo.SHA1.hexHash(response), "\"");
+      // the times in ResponseCacheInfo are in seconds
+      this.lastModified = cacheInfo.getGeneratedAt() * 1000;
+      Long nextUpdate = cacheInfo.getNextUpdate();
+      this.expires = (nextUpdate == null) ? 0 : nextUpdate.longValue() * 1000;
+
+      // Max age in seconds
+      long maxAge = (responderMaxAge != null) ? responderMaxAge.longValue() : DFLT_CACHE_MAX_AGE;
+      long validUntil = now + maxAge * 1000;
+      if (expires != 0) {
+        validUntil = Math.min(validUntil, expires);
+      }
+      this.validUntil = validUntil;
+    }
+
+  } // class CachedGetResponse
+
   private static final Logger LOG = LoggerFactory.getLogger(OcspServlet.class);
 
   private static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
@@ -62,10 +109,18 @@ public class OcspServlet extends HttpServlet {
 
   private static final String CT_RESPONSE = "application/ocsp-response";
 
+  /**
+   * Per-thread buffer to read the POST requests, grows up to the maximal request size
+   * of the responders.
+   */
+  private final ThreadLocal<byte[]> requestBuffer = new ThreadLocal<>();
+
   private boolean logReqResp;
 
   private OcspServer server;
 
+  private LruCache<String, CachedGetResponse> getResponseCache;
+
   public void setLogReqResp(boolean logReqResp) {
     this.logReqResp = logReqResp;
   }
@@ -74,6 +129,16 @@ public class OcspServlet extends HttpServlet {
     this.server = notNull(server, "server");
   }
 
+  /**
+   * Sets the maximal number of responses to HTTP GET requests kept in memory.
+   *
+   * @param size
+   *          Maximal number of cached responses, 0 to disable the cache.
+   */
+  public void setGetResponseCacheSize(int size) {
+    this.getResponseCache = (size > 0) ? new LruCache<>(size) : null;
+  }
+
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp)
       throws ServletException, IOException {
@@ -93,24 +158,42 @@ public class OcspServlet extends HttpServlet {
       }
 
       Responder responder = responderAndPath.getResponder();
-      byte[] reqContent = IoUtil.read(req.getInputStream());
+      int maxRequestSize = responder.getMaxRequestSize();
       // request too long
-      if (reqContent.length > responder.getMaxRequestSize()) {
+      if (req.getContentLength() > maxRequestSize) {
+        sendError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return;
+      }
+
+      byte[] reqBuffer = getRequestBuffer(maxRequestSize);
+      int reqLength = readRequest(req.getInputStream(), reqBuffer, maxRequestSize);
+      if (reqLength == -1) {
+        Arrays.fill(reqBuffer, (byte) 0);
         sendError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         return;
       }
 
-      OcspRespWithCacheInfo ocspRespWithCacheInfo = server.answer(responder, reqContent, false);
+      OcspRespWithCacheInfo ocspRespWithCacheInfo;
+      try {
+        ocspRespWithCacheInfo = server.answer(responder, reqBuffer, reqLength, false);
+
+        if (logReqResp && LOG.isDebugEnabled() && ocspRespWithCacheInfo != null) {
+          LOG.debug("HTTP POST OCSP path: {}\nRequest:\n{}\nResponse:\n{}",
+              req.getRequestURI(), LogUtil.base64Encode(Arrays.copyOf(reqBuffer, reqLength)),
+              LogUtil.base64Encode(ocspRespWithCacheInfo.getResponse()));
+        }
+      } finally {
+        // do not leak the content of this request into the next one
+        Arrays.fill(reqBuffer, 0, reqLength, (byte) 0);
+      }
+
       if (ocspRespWithCacheInfo == null || ocspRespWithCacheInfo.getResponse() == null) {
         LOG.error("processRequest returned null, this should not happen");
         sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
       }
 
       byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
-      if (logReqResp && LOG.isDebugEnabled()) {
-        LOG.debug("HTTP POST OCSP path: {}\nRequest:\n{}\nResponse:\n{}", req.getRequestURI(),
-            LogUtil.base64Encode(reqContent), LogUtil.base64Encode(encodedOcspResp));
-      }
 
       resp.setStatus(HttpServletResponse.SC_OK);
       resp.setContentType(CT_RESPONSE);
@@ -147,21 +230,34 @@ public class OcspServlet extends HttpServlet {
       return;
     }
 
-    String b64OcspReq;
+    try {
+      LruCache<String, CachedGetResponse> cache = getResponseCache;
+      if (cache != null) {
+        CachedGetResponse cachedResp = cache.get(path);
+        if (cachedResp != null) {
+          long now = System.currentTimeMillis();
+          if (cachedResp.validUntil > now) {
+            sendGetResponse(req, resp, cachedResp, now);
+            return;
+          }
+          cache.remove(path);
+        }
+      }
+
+      String b64OcspReq;
 
-    int offset = servletPath.length();
-    // GET URI contains the request and must be much longer than 10.
-    if (path.length() - offset > 10) {
-      if (path.charAt(offset) == '/') {
-        offset++;
+      int offset = servletPath.length();
+      // GET URI contains the request and must be much longer than 10.
+      if (path.length() - offset > 10) {
+        if (path.charAt(offset) == '/') {
+          offset++;
+        }
+        b64OcspReq = path.substring(offset);
+      } else {
+        sendError(resp, HttpServletResponse.SC_BAD_REQUEST);
+        return;
       }
-      b64OcspReq = path.substring(offset);
-    } else {
-      sendError(resp, HttpServletResponse.SC_BAD_REQUEST);
-      return;
-    }
 
-    try {
       // 1. RFC 2560/6960 A.1.1 specifies that request longer than 255 bytes SHOULD be sent by
       //    POST, we support GET for longer requests anyway.
       // 2. If OCSP request is sent via HTTP GET, it should be Base64-then-URL encoded, we relax
@@ -193,52 +289,20 @@ public class OcspServlet extends HttpServlet {
       }
 
       OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
-      if (cacheInfo != null) {
-        encodedOcspResp = ocspRespWithCacheInfo.getResponse();
-        long now = System.currentTimeMillis();
-
-        // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
-        // the HTTP response.
-        resp.addDateHeader("Date", now);
-        // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
-        // last modified the response.
-        resp.addDateHeader("Last-Modified", cacheInfo.getGeneratedAt());
-        // RFC 5019 6.2: Expires: This date and time will be the same as the
-        // nextUpdate time-stamp in the OCSP
-        // response itself.
-        // This is overridden by max-age on HTTP/1.1 compatible components
-
-        Long nextUpdate = cacheInfo.getNextUpdate();
-
-        if (nextUpdate != null) {
-          resp.addDateHeader("Expires", nextUpdate.longValue());
-        }
-        // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
-        // HEX representation of the SHA1 hash of the OCSPResponse structure.
-        resp.addHeader("ETag",
-            StringUtil.concat("\"", HashAlgo.SHA1.hexHash(encodedOcspResp), "\""));
-
-        // Max age must be in seconds in the cache-control header
-        long maxAge;
-        if (responder.getCacheMaxAge() != null) {
-          maxAge = responder.getCacheMaxAge().longValue();
-        } else {
-          maxAge = DFLT_CACHE_MAX_AGE;
-        }
-
-        if (cacheInfo.getNextUpdate() != null) {
-          maxAge = Math.min(maxAge,
-              (nextUpdate.longValue() - cacheInfo.getGeneratedAt()) / 1000);
-        }
-
-        resp.addHeader("Cache-Control",
-            StringUtil.concat("max-age=", Long.toString(maxAge),
-              ",public,no-transform,must-revalidate"));
-      } // end if (ocspRespWithCacheInfo)
+      if (cacheInfo == null) {
+        resp.setContentLength(encodedOcspResp.length);
+        resp.setContentType(CT_RESPONSE);
+        resp.getOutputStream().write(encodedOcspResp);
+        return;
+      }
 
-      resp.setContentLength(encodedOcspResp.length);
-      resp.setContentType(CT_RESPONSE);
-      resp.getOutputStream().write(encodedOcspResp);
+      long now = System.currentTimeMillis();
+      CachedGetResponse cachedResp = new CachedGetResponse(encodedOcspResp, cacheInfo,
+          responder.getCacheMaxAge(), now);
+      if (cache != null && cachedResp.validUntil > now) {
+        cache.put(path, cachedResp);
+      }
+      sendGetResponse(req, resp, cachedResp, now);
     } catch (Throwable th) {
       if (th instanceof EOFException) {
         LogUtil.warn(LOG, th, "Connection reset by peer");
@@ -252,6 +316,70 @@ public class OcspServlet extends HttpServlet {
     }
   } // method doGet
 
+  private static void sendGetResponse(HttpServletRequest req, HttpServletResponse resp,
+      CachedGetResponse cachedResp, long now) throws IOException {
+    // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
+    // the HTTP response.
+    resp.addDateHeader("Date", now);
+    // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
+    // last modified the response.
+    resp.addDateHeader("Last-Modified", cachedResp.lastModified);
+    // RFC 5019 6.2: Expires: This date and time will be the same as the
+    // nextUpdate time-stamp in the OCSP response itself.
+    // This is overridden by max-age on HTTP/1.1 compatible components
+    if (cachedResp.expires != 0) {
+      resp.addDateHeader("Expires", cachedResp.expires);
+    }
+    // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
+    // HEX representation of the SHA1 hash of the OCSPResponse structure.
+    resp.addHeader("ETag", cachedResp.etag);
+
+    // Max age must be in seconds in the cache-control header
+    long maxAge = Math.max(0, (cachedResp.validUntil - now) / 1000);
+    resp.addHeader("Cache-Control",
+        StringUtil.concat("max-age=", Long.toString(maxAge),
+          ",public,no-transform,must-revalidate"));
+
+    if (ConditionalRequests.isNotModified(req.getHeader("If-None-Match"),
+        req.getHeader("If-Modified-Since"), cachedResp.etag, cachedResp.lastModified)) {
+      resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    byte[] encodedOcspResp = cachedResp.response;
+    resp.setContentLength(encodedOcspResp.length);
+    resp.setContentType(CT_RESPONSE);
+    resp.getOutputStream().write(encodedOcspResp);
+  } // method sendGetResponse
+
+  private byte[] getRequestBuffer(int maxRequestSize) {
+    byte[] buffer = requestBuffer.get();
+    // one more byte to detect too long requests
+    if (buffer == null || buffer.length <= maxRequestSize) {
+      buffer = new byte[maxRequestSize + 1];
+      requestBuffer.set(buffer);
+    }
+    return buffer;
+  } // method getRequestBuffer
+
+  /**
+   * Reads the request into the given buffer.
+   *
+   * @return the length of the request, or -1 if the request is longer than maxRequestSize.
+   */
+  private static int readRequest(InputStream in, byte[] buffer, int maxRequestSize)
+      throws IOException {
+    int len = 0;
+    while (len <= maxRequestSize) {
+      int read = in.read(buffer, len, maxRequestSize + 1 - len);
+      if (read == -1) {
+        return len;
+      }
+      len += read;
+    }
+    return -1;
+  } // method readRequest
+
   private static void sendError(HttpServletResponse resp, int status) {
     resp.setStatus(status);
     resp.setContentLength(0);
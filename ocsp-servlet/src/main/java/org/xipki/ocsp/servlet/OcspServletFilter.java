@@ -115,6 +115,8 @@ public class OcspServletFilter implements Filter {
     this.ocspServlet = new OcspServlet();
     this.ocspServlet.setServer(this.server);
     this.ocspServlet.setLogReqResp(logReqResp);
+    this.ocspServlet.setGetResponseCacheSize(conf.getGetResponseCacheSize());
+    LOG.info("getResponseCacheSize: {}", conf.getGetResponseCacheSize());
 
     RemoteMgmt remoteMgmt = conf.getRemoteMgmt();
     this.remoteMgmtEnabled = remoteMgmt == null ? false : remoteMgmt.isEnabled();
@@ -53,7 +53,11 @@ public class HttpProxyServlet extends HttpServlet {
   private boolean logReqResp;
 
   public HttpProxyServlet() {
-    responder = new P11ProxyResponder();
+    this(P11ProxyConf.DFLT_SIGN_THREADS, P11ProxyConf.DFLT_MAX_SIGN_BATCH_SIZE);
+  }
+
+  public HttpProxyServlet(int signThreads, int maxSignBatchSize) {
+    responder = new P11ProxyResponder(signThreads, maxSignBatchSize);
   }
 
   public void setLogReqResp(boolean logReqResp) {
@@ -100,6 +104,12 @@ public class HttpProxyServlet extends HttpServlet {
     this.localP11CryptServicePool = localP11CryptServicePool;
   }
 
+  @Override
+  public void destroy() {
+    responder.close();
+    super.destroy();
+  }
+
   private static void sendError(HttpServletResponse resp, int status) {
     resp.setStatus(status);
     resp.setContentLength(0);
@@ -35,8 +35,22 @@ import com.alibaba.fastjson.JSON;
  */
 public class P11ProxyConf extends ValidatableConf {
 
+  public static final int DFLT_SIGN_THREADS = 8;
+
+  public static final int DFLT_MAX_SIGN_BATCH_SIZE = 1000;
+
   private SecurityConf security;
 
+  /**
+   * Number of threads to sign the messages of a batch sign request in parallel.
+   */
+  private int signThreads = DFLT_SIGN_THREADS;
+
+  /**
+   * Maximal number of messages in a batch sign request. Larger requests are rejected.
+   */
+  private int maxSignBatchSize = DFLT_MAX_SIGN_BATCH_SIZE;
+
   public static P11ProxyConf readConfFromFile(String fileName)
       throws IOException, InvalidConfException {
     notBlank(fileName, "fileName");
@@ -56,9 +70,31 @@ public class P11ProxyConf extends ValidatableConf {
     this.security = security;
   }
 
+  public int getSignThreads() {
+    return signThreads;
+  }
+
+  public void setSignThreads(int signThreads) {
+    this.signThreads = signThreads;
+  }
+
+  public int getMaxSignBatchSize() {
+    return maxSignBatchSize;
+  }
+
+  public void setMaxSignBatchSize(int maxSignBatchSize) {
+    this.maxSignBatchSize = maxSignBatchSize;
+  }
+
   @Override
   public void validate() throws InvalidConfException {
     validate(security);
+    if (signThreads < 1) {
+      throw new InvalidConfException("signThreads must be positive: " + signThreads);
+    }
+    if (maxSignBatchSize < 1) {
+      throw new InvalidConfException("maxSignBatchSize must be positive: " + maxSignBatchSize);
+    }
   }
 
 }
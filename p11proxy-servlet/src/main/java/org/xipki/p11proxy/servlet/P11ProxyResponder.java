@@ -21,10 +21,18 @@ import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -53,6 +61,7 @@ import org.xipki.security.pkcs11.P11UnsupportedMechanismException;
 import org.xipki.security.pkcs11.proxy.P11ProxyConstants;
 import org.xipki.security.pkcs11.proxy.ProxyMessage;
 import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
 import org.xipki.util.Hex;
 import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
@@ -75,6 +84,11 @@ public class P11ProxyResponder {
 
   private final Set<Short> versions;
 
+  // signs the messages of ACTION_SIGN_BATCH in parallel.
+  private final ExecutorService signExecutor;
+
+  private final int maxSignBatchSize;
+
   static {
     Set<Short> actions = new HashSet<>();
     actions.add(P11ProxyConstants.ACTION_GET_SERVER_CAPS);
@@ -101,6 +115,7 @@ public class P11ProxyResponder {
     actions.add(P11ProxyConstants.ACTION_REMOVE_IDENTITY);
     actions.add(P11ProxyConstants.ACTION_REMOVE_OBJECTS);
     actions.add(P11ProxyConstants.ACTION_SIGN);
+    actions.add(P11ProxyConstants.ACTION_SIGN_BATCH);
     actions.add(P11ProxyConstants.ACTION_UPDATE_CERT);
     actions.add(P11ProxyConstants.ACTION_DIGEST_SECRETKEY);
     actions.add(P11ProxyConstants.ACTION_IMPORT_SECRET_KEY);
@@ -117,11 +132,28 @@ public class P11ProxyResponder {
   } // method static
 
   public P11ProxyResponder() {
+    this(P11ProxyConf.DFLT_SIGN_THREADS, P11ProxyConf.DFLT_MAX_SIGN_BATCH_SIZE);
+  }
+
+  public P11ProxyResponder(int signThreads, int maxSignBatchSize) {
     LOG.info("XiPKI PKCS#11 Proxy Responder version {}", version);
     Set<Short> tmpVersions = new HashSet<>();
     tmpVersions.add(P11ProxyConstants.VERSION_V1_0);
     this.versions = Collections.unmodifiableSet(tmpVersions);
-  }
+    this.maxSignBatchSize = Args.positive(maxSignBatchSize, "maxSignBatchSize");
+
+    final AtomicInteger threadIndex = new AtomicInteger();
+    this.signExecutor = Executors.newFixedThreadPool(
+        Args.positive(signThreads, "signThreads"), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                "p11proxy-signer-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  } // constructor
 
   public Set<Short> versions() {
     return versions;
@@ -404,40 +436,22 @@ public class P11ProxyResponder {
         }
         case P11ProxyConstants.ACTION_SIGN: {
           ProxyMessage.SignTemplate signTemplate = ProxyMessage.SignTemplate.getInstance(content);
-          long mechanism = signTemplate.getMechanism().getMechanism();
-          ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
-
-          P11Params params = null;
-
-          if (asn1Params != null) {
-            switch (asn1Params.getTagNo()) {
-              case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
-                params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-                break;
-              case ProxyMessage.P11Params.TAG_OPAQUE:
-                params = new P11ByteArrayParams(
-                    ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              case ProxyMessage.P11Params.TAG_IV:
-                params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              default:
-                throw new BadAsn1ObjectException(
-                    "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
-            }
-          }
-
-          byte[] message = signTemplate.getMessage();
-          P11Identity identity = p11CryptService.getIdentity(signTemplate.getSlotId().getValue(),
-              signTemplate.getObjectId().getValue());
-          if (identity == null) {
-            return getResp(version, transactionId, P11ProxyConstants.RC_UNKNOWN_ENTITY, action);
-          }
-
-          byte[] signature = identity.sign(mechanism, params, message);
+          byte[] signature = sign(p11CryptService, signTemplate);
           ASN1Object obj = new DEROctetString(signature);
           return getSuccessResp(version, transactionId, action, obj);
         }
+        case P11ProxyConstants.ACTION_SIGN_BATCH: {
+          ProxyMessage.SignBatchTemplate batchTemplate =
+              ProxyMessage.SignBatchTemplate.getInstance(content);
+          int batchSize = batchTemplate.getTemplates().size();
+          if (batchSize > maxSignBatchSize) {
+            LOG.error("too many messages in the batch: {} > {}", batchSize, maxSignBatchSize);
+            return getResp(version, transactionId, P11ProxyConstants.RC_BAD_REQUEST, action);
+          }
+          ASN1Object obj = signBatch(p11CryptService, batchTemplate.getTemplates(),
+              transactionId);
+          return getSuccessResp(version, transactionId, action, obj);
+        }
         case P11ProxyConstants.ACTION_UPDATE_CERT: {
           ProxyMessage.ObjectIdAndCert asn1 = ProxyMessage.ObjectIdAndCert.getInstance(content);
           P11Slot slot = getSlot(p11CryptService, asn1.getSlotId().getValue());
@@ -456,18 +470,7 @@ public class P11ProxyResponder {
       return getResp(version, transactionId, P11ProxyConstants.RC_BAD_REQUEST, action);
     } catch (P11TokenException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
-      short rc;
-      if (ex instanceof P11UnknownEntityException) {
-        rc = P11ProxyConstants.RC_UNKNOWN_ENTITY;
-      } else if (ex instanceof P11DuplicateEntityException) {
-        rc = P11ProxyConstants.RC_DUPLICATE_ENTITY;
-      } else if (ex instanceof P11UnsupportedMechanismException) {
-        rc = P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
-      } else {
-        rc = P11ProxyConstants.RC_P11_TOKENERROR;
-      }
-
-      return getResp(version, transactionId, rc, action);
+      return getResp(version, transactionId, getReturnCode(ex), action);
     } catch (XiSecurityException | CertificateException | InvalidKeyException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
       return getResp(version, transactionId, P11ProxyConstants.RC_INTERNAL_ERROR, action);
@@ -477,6 +480,139 @@ public class P11ProxyResponder {
     }
   } // method processRequest
 
+  private static byte[] sign(P11CryptService p11CryptService,
+      ProxyMessage.SignTemplate signTemplate) throws BadAsn1ObjectException, P11TokenException {
+    long mechanism = signTemplate.getMechanism().getMechanism();
+    ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
+
+    P11Params params = null;
+
+    if (asn1Params != null) {
+      switch (asn1Params.getTagNo()) {
+        case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
+          params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+          break;
+        case ProxyMessage.P11Params.TAG_OPAQUE:
+          params = new P11ByteArrayParams(
+              ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        case ProxyMessage.P11Params.TAG_IV:
+          params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        default:
+          throw new BadAsn1ObjectException(
+              "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
+      }
+    }
+
+    byte[] message = signTemplate.getMessage();
+    P11SlotIdentifier slotId = signTemplate.getSlotId().getValue();
+    P11ObjectIdentifier objectId = signTemplate.getObjectId().getValue();
+    P11Identity identity = p11CryptService.getIdentity(slotId, objectId);
+    if (identity == null) {
+      throw new P11UnknownEntityException(slotId, objectId);
+    }
+
+    return identity.sign(mechanism, params, message);
+  } // method sign
+
+  /**
+   * Signs the messages in parallel, each in its own session of the HSM.
+   */
+  private ASN1Object signBatch(final P11CryptService p11CryptService,
+      final List<ProxyMessage.SignTemplate> templates, byte[] transactionId) {
+    final int n = templates.size();
+    final short[] rcs = new short[n];
+    final byte[][] signatures = new byte[n][];
+
+    List<Future<?>> futures = new ArrayList<>(n);
+    // the first message is signed by the current thread.
+    for (int i = 1; i < n; i++) {
+      final int index = i;
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          signOne(p11CryptService, templates.get(index), index, rcs, signatures);
+        }
+      };
+
+      try {
+        futures.add(signExecutor.submit(task));
+      } catch (RejectedExecutionException ex) {
+        task.run();
+      }
+    }
+
+    signOne(p11CryptService, templates.get(0), 0, rcs, signatures);
+
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException ex) {
+          // the signatures are being generated, wait for them.
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          LogUtil.error(LOG, ex.getCause(), buildErrorMsg(
+              P11ProxyConstants.ACTION_SIGN_BATCH, transactionId));
+          break;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (int i = 0; i < n; i++) {
+      if (signatures[i] == null && rcs[i] == P11ProxyConstants.RC_SUCCESS) {
+        // task failed with unexpected error
+        rcs[i] = P11ProxyConstants.RC_INTERNAL_ERROR;
+      }
+    }
+    return new ProxyMessage.SignBatchResult(rcs, signatures);
+  } // method signBatch
+
+  private static void signOne(P11CryptService p11CryptService,
+      ProxyMessage.SignTemplate template, int index, short[] rcs, byte[][] signatures) {
+    short rc;
+    try {
+      signatures[index] = sign(p11CryptService, template);
+      rc = P11ProxyConstants.RC_SUCCESS;
+    } catch (BadAsn1ObjectException ex) {
+      LogUtil.error(LOG, ex, "could not sign message " + index + " of the batch");
+      rc = P11ProxyConstants.RC_BAD_REQUEST;
+    } catch (P11TokenException ex) {
+      LogUtil.error(LOG, ex, "could not sign message " + index + " of the batch");
+      rc = getReturnCode(ex);
+    } catch (RuntimeException ex) {
+      LogUtil.error(LOG, ex, "could not sign message " + index + " of the batch");
+      rc = P11ProxyConstants.RC_INTERNAL_ERROR;
+    }
+    rcs[index] = rc;
+  } // method signOne
+
+  private static short getReturnCode(P11TokenException ex) {
+    if (ex instanceof P11UnknownEntityException) {
+      return P11ProxyConstants.RC_UNKNOWN_ENTITY;
+    } else if (ex instanceof P11DuplicateEntityException) {
+      return P11ProxyConstants.RC_DUPLICATE_ENTITY;
+    } else if (ex instanceof P11UnsupportedMechanismException) {
+      return P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
+    } else {
+      return P11ProxyConstants.RC_P11_TOKENERROR;
+    }
+  } // method getReturnCode
+
+  /**
+   * Stops the threads which sign the messages of {@link P11ProxyConstants#ACTION_SIGN_BATCH}.
+   */
+  public void close() {
+    signExecutor.shutdown();
+  }
+
   private static String buildErrorMsg(short action, byte[] transactionId) {
     return "could not process action " + P11ProxyConstants.getActionName(action)
         + " (tid=" + Hex.encode(transactionId) + ")";
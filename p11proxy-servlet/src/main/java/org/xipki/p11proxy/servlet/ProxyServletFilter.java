@@ -89,13 +89,17 @@ public class ProxyServletFilter implements Filter {
           "could not initialize LocalP11CryptServicePool: " + ex.getMessage(), ex);
     }
 
-    servlet = new HttpProxyServlet();
+    servlet = new HttpProxyServlet(conf.getSignThreads(), conf.getMaxSignBatchSize());
     servlet.setLogReqResp(logReqResp);
     servlet.setLocalP11CryptServicePool(pool);
   } // method init
 
   @Override
   public void destroy() {
+    if (servlet != null) {
+      servlet.destroy();
+    }
+
     if (securities != null) {
       securities.close();
     }
@@ -19,7 +19,9 @@ package org.xipki.qa.security;
 
 import static org.xipki.util.Args.notBlank;
 import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
@@ -224,7 +226,7 @@ public abstract class P11SignSpeed extends BenchmarkExecutor {
 
     private static final int batch = 10;
 
-    private final byte[][] data = new byte[batch][16];
+    private final byte[][] data = new byte[batch][messageSize];
 
     public Testor() {
       for (int i = 0; i < data.length; i++) {
@@ -251,38 +253,86 @@ public abstract class P11SignSpeed extends BenchmarkExecutor {
 
   private final P11Slot slot;
 
-  private final ConcurrentContentSigner signer;
+  private final SecurityFactory securityFactory;
+
+  private final String signatureAlgorithm;
+
+  private final int parallelism;
+
+  private ConcurrentContentSigner signer;
 
   private final P11ObjectIdentifier objectId;
 
   private final boolean deleteKeyAfterTest;
 
+  private int messageSize = 16;
+
   public P11SignSpeed(SecurityFactory securityFactory, P11Slot slot, String signatureAlgorithm,
       boolean deleteKeyAfterTest, P11ObjectIdentifier objectId, String description, int threads)
           throws ObjectCreationException {
     super(description + "\nsignature algorithm: " + signatureAlgorithm);
 
-    notNull(securityFactory, "securityFactory");
+    this.securityFactory = notNull(securityFactory, "securityFactory");
     this.slot = notNull(slot, "slot");
-    notBlank(signatureAlgorithm, "signatureAlgorithm");
+    this.signatureAlgorithm = notBlank(signatureAlgorithm, "signatureAlgorithm");
     this.objectId = notNull(objectId, "objectId");
 
     this.deleteKeyAfterTest = deleteKeyAfterTest;
+    this.parallelism = threads + Math.max(2, threads * 5 / 4);
+    this.signer = createSigner(false);
+  } // constructor
+
+  /**
+   * Sets whether the message is hashed in the JVM and only the digest is signed by the token.
+   * Running the same key with and without pre-hash compares both modes.
+   *
+   * @param preHash
+   *          Whether to hash the message in the JVM.
+   * @throws ObjectCreationException
+   *           If the signer could not be created.
+   */
+  public void setPreHash(boolean preHash) throws ObjectCreationException {
+    // release the sessions of the current signer before the new signer borrows its own.
+    closeSigner();
+    this.signer = createSigner(preHash);
+  }
 
+  /**
+   * Sets the size of the signed messages in bytes, default 16.
+   *
+   * @param messageSize
+   *          Size of the messages in bytes.
+   */
+  public void setMessageSize(int messageSize) {
+    this.messageSize = positive(messageSize, "messageSize");
+  }
+
+  private ConcurrentContentSigner createSigner(boolean preHash) throws ObjectCreationException {
     P11SlotIdentifier slotId = slot.getSlotId();
     SignerConf signerConf = getPkcs11SignerConf(slot.getModuleName(),
-        slotId.getId(), objectId.getId(), signatureAlgorithm,
-        threads + Math.max(2, threads * 5 / 4));
+        slotId.getId(), objectId.getId(), signatureAlgorithm, parallelism, preHash);
     try {
-      this.signer = securityFactory.createSigner("PKCS11", signerConf, (X509Cert) null);
+      return securityFactory.createSigner("PKCS11", signerConf, (X509Cert) null);
     } catch (ObjectCreationException ex) {
       close();
       throw ex;
     }
-  } // constructor
+  } // method createSigner
+
+  private void closeSigner() {
+    if (signer != null) {
+      try {
+        signer.close();
+      } catch (IOException ex) {
+        LogUtil.warn(LOG, ex, "could not close signer");
+      }
+      signer = null;
+    }
+  } // method closeSigner
 
   @Override
   public final void close() {
+    closeSigner();
     if (deleteKeyAfterTest) {
       try {
         LOG.info("delete key {}", objectId);
@@ -315,9 +365,12 @@ public abstract class P11SignSpeed extends BenchmarkExecutor {
   }
 
   private static SignerConf getPkcs11SignerConf(String pkcs11ModuleName, Long slotId, byte[] keyId,
-      String signatureAlgorithm, int parallelism) {
+      String signatureAlgorithm, int parallelism, boolean preHash) {
     ConfPairs conf = new ConfPairs("algo", signatureAlgorithm);
     conf.putPair("parallelism", Integer.toString(parallelism));
+    if (preHash) {
+      conf.putPair("prehash", "true");
+    }
 
     if (pkcs11ModuleName != null && pkcs11ModuleName.length() > 0) {
       conf.putPair("module", pkcs11ModuleName);
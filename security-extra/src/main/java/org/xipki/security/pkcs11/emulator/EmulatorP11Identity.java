@@ -156,6 +156,17 @@ public class EmulatorP11Identity extends P11Identity {
     mechHashMap.put(PKCS11Constants.CKM_SHA3_384_RSA_PKCS,   HashAlgo.SHA3_384);
     mechHashMap.put(PKCS11Constants.CKM_SHA3_512_RSA_PKCS,   HashAlgo.SHA3_512);
 
+    // RSA PSS sign metchanisms
+    mechHashMap.put(PKCS11Constants.CKM_SHA1_RSA_PKCS_PSS,     HashAlgo.SHA1);
+    mechHashMap.put(PKCS11Constants.CKM_SHA224_RSA_PKCS_PSS,   HashAlgo.SHA224);
+    mechHashMap.put(PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS,   HashAlgo.SHA256);
+    mechHashMap.put(PKCS11Constants.CKM_SHA384_RSA_PKCS_PSS,   HashAlgo.SHA384);
+    mechHashMap.put(PKCS11Constants.CKM_SHA512_RSA_PKCS_PSS,   HashAlgo.SHA512);
+    mechHashMap.put(PKCS11Constants.CKM_SHA3_224_RSA_PKCS_PSS, HashAlgo.SHA3_224);
+    mechHashMap.put(PKCS11Constants.CKM_SHA3_256_RSA_PKCS_PSS, HashAlgo.SHA3_256);
+    mechHashMap.put(PKCS11Constants.CKM_SHA3_384_RSA_PKCS_PSS, HashAlgo.SHA3_384);
+    mechHashMap.put(PKCS11Constants.CKM_SHA3_512_RSA_PKCS_PSS, HashAlgo.SHA3_512);
+
     // HMAC
     mechHashMap.put(PKCS11Constants.CKM_SHA_1_HMAC,    HashAlgo.SHA1);
     mechHashMap.put(PKCS11Constants.CKM_SHA224_HMAC,   HashAlgo.SHA224);
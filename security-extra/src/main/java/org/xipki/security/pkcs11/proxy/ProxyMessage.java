@@ -19,6 +19,7 @@ package org.xipki.security.pkcs11.proxy;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -1796,6 +1797,159 @@ public abstract class ProxyMessage extends ASN1Object {
     }
   } // class ServerCaps
 
+  /**
+   * Definition of SignBatchResult. For each {@link SignTemplate} of a {@link SignBatchTemplate},
+   * in the same order, the return code and, if successful, the signature.
+   *
+   * <pre>
+   * SignBatchResult ::= SEQUENCE OF SignResult
+   *
+   * SignResult ::= SEQUENCE {
+   *     rc             INTEGER,
+   *     signature      OCTET STRING OPTIONAL }
+   * </pre>
+   */
+  public static class SignBatchResult extends ProxyMessage {
+
+    private final short[] rcs;
+
+    private final byte[][] signatures;
+
+    public SignBatchResult(short[] rcs, byte[][] signatures) {
+      this.rcs = Args.notNull(rcs, "rcs");
+      this.signatures = Args.notNull(signatures, "signatures");
+      if (rcs.length != signatures.length) {
+        throw new IllegalArgumentException("rcs and signatures have different lengths");
+      }
+    }
+
+    private SignBatchResult(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      this.rcs = new short[size];
+      this.signatures = new byte[size][];
+      for (int i = 0; i < size; i++) {
+        ASN1Sequence result;
+        try {
+          result = ASN1Sequence.getInstance(seq.getObjectAt(i));
+        } catch (IllegalArgumentException ex) {
+          throw new BadAsn1ObjectException("invalid SignResult: " + ex.getMessage(), ex);
+        }
+        requireRange(result, 1, 2);
+        rcs[i] = getInteger(result.getObjectAt(0)).shortValue();
+        if (result.size() > 1) {
+          signatures[i] = getOctetStringBytes(result.getObjectAt(1));
+        }
+      }
+    }
+
+    public static SignBatchResult getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchResult) {
+        return (SignBatchResult) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchResult((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (int i = 0; i < rcs.length; i++) {
+        ASN1EncodableVector result = new ASN1EncodableVector();
+        result.add(new ASN1Integer(rcs[i]));
+        if (signatures[i] != null) {
+          result.add(new DEROctetString(signatures[i]));
+        }
+        vec.add(new DERSequence(result));
+      }
+      return new DERSequence(vec);
+    }
+
+    public int size() {
+      return rcs.length;
+    }
+
+    public short getRc(int index) {
+      return rcs[index];
+    }
+
+    public byte[] getSignature(int index) {
+      return signatures[index];
+    }
+
+  } // class SignBatchResult
+
+  /**
+   * List of {@link SignTemplate}s.
+   *
+   * <pre>
+   * SignBatchTemplate ::= SEQUENCE OF SignTemplate
+   * </pre>
+   */
+  public static class SignBatchTemplate extends ProxyMessage {
+
+    private final List<SignTemplate> templates;
+
+    public SignBatchTemplate(List<SignTemplate> templates) {
+      this.templates = Args.notEmpty(templates, "templates");
+    }
+
+    private SignBatchTemplate(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      if (size == 0) {
+        throw new BadAsn1ObjectException("SignBatchTemplate may not be empty");
+      }
+
+      this.templates = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        templates.add(SignTemplate.getInstance(seq.getObjectAt(i)));
+      }
+    }
+
+    public static SignBatchTemplate getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchTemplate) {
+        return (SignBatchTemplate) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchTemplate((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vec = new ASN1EncodableVector();
+      for (SignTemplate template : templates) {
+        vec.add(template);
+      }
+      return new DERSequence(vec);
+    }
+
+    public List<SignTemplate> getTemplates() {
+      return templates;
+    }
+
+  } // class SignBatchTemplate
+
   /**
    * Definition of SignTemplate.
    *
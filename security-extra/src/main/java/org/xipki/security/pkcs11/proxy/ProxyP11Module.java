@@ -17,12 +17,8 @@
 
 package org.xipki.security.pkcs11.proxy;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.KeyManagementException;
@@ -30,17 +26,20 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.security.BadAsn1ObjectException;
@@ -67,6 +66,19 @@ import org.xipki.util.http.SSLContextBuilder;
 
 public class ProxyP11Module extends P11Module {
 
+  /**
+   * Thrown if the server does not support the action.
+   */
+  static class UnsupportedActionException extends P11TokenException {
+
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedActionException(String message) {
+      super(message);
+    }
+
+  } // class UnsupportedActionException
+
   public static final String TYPE = "proxy";
 
   private static final String PROP_URL = "url";
@@ -85,11 +97,24 @@ public class ProxyP11Module extends P11Module {
 
   private static final String PROP_SSL_HOStNAMEVERIFIER = "ssl.hostnameVerifier";
 
-  private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Module.class);
+  // maximal number of kept-alive connections per server, default to 16.
+  private static final String PROP_MAX_CONNECTIONS = "max.connections";
+
+  private static final String PROP_CONNECT_TIMEOUT_MS = "connect.timeout.ms";
+
+  // default to 0 (no timeout), since generating keypair may take long.
+  private static final String PROP_READ_TIMEOUT_MS = "read.timeout.ms";
 
-  private static final String REQUEST_MIMETYPE = "application/x-xipki-pkcs11";
+  // maximal number of messages signed in one request, 1 (default) to send one message
+  // per request. Must not be greater than maxSignBatchSize of the p11proxy server.
+  private static final String PROP_SIGN_BATCH_SIZE = "sign.batch.size";
 
-  private static final String RESPONSE_MIMETYPE = "application/x-xipki-pkcs11";
+  // number of concurrent requests of batched messages, default to 4.
+  private static final String PROP_SIGN_BATCH_THREADS = "sign.batch.threads";
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Module.class);
+
+  private static final String MIMETYPE = "application/x-xipki-pkcs11";
 
   private final Random random = new Random();
 
@@ -97,15 +122,13 @@ public class ProxyP11Module extends P11Module {
 
   private final String description;
 
-  private URL serverUrl;
+  private ProxyP11Transport transport;
 
   private short moduleId;
 
   private boolean readOnly;
 
-  private SSLSocketFactory sslSocketFactory;
-
-  private HostnameVerifier hostnameVerifier;
+  private ProxySignBatcher signBatcher;
 
   private ProxyP11Module(P11ModuleConf moduleConf) throws P11TokenException {
     super(moduleConf);
@@ -116,11 +139,19 @@ public class ProxyP11Module extends P11Module {
 
     ConfPairs confPairs = new ConfPairs(modulePath);
 
-    String urlStr = confPairs.value(PROP_URL);
-    try {
-      serverUrl = new URL(urlStr);
-    } catch (MalformedURLException ex) {
-      throw new IllegalArgumentException("invalid url: " + urlStr);
+    // several URLs are separated by whitespace.
+    String urlsStr = confPairs.value(PROP_URL);
+    if (StringUtil.isBlank(urlsStr)) {
+      throw new P11TokenException("url not specified");
+    }
+
+    List<URL> serverUrls = new ArrayList<>(1);
+    for (String urlStr : urlsStr.trim().split("\\s+")) {
+      try {
+        serverUrls.add(new URL(urlStr));
+      } catch (MalformedURLException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
     }
 
     String moduleStr = confPairs.value(PROP_MODULE);
@@ -174,20 +205,60 @@ public class ProxyP11Module extends P11Module {
       }
     }
 
+    SSLSocketFactory sslSocketFactory;
     try {
-      this.sslSocketFactory = builder.build().getSocketFactory();
+      sslSocketFactory = builder.build().getSocketFactory();
     } catch (KeyManagementException | NoSuchAlgorithmException ex) {
       throw new P11TokenException("could not build SSLSocketFactroy", ex);
     }
+    HostnameVerifier hostnameVerifier;
     try {
-      this.hostnameVerifier = HostnameVerifiers.createHostnameVerifier(sslHostnameVerifier);
+      hostnameVerifier = HostnameVerifiers.createHostnameVerifier(sslHostnameVerifier);
     } catch (ObjectCreationException ex) {
       throw new P11TokenException("could not create HostnameVerifier", ex);
     }
 
+    int maxConnections = getInt(confPairs, PROP_MAX_CONNECTIONS, 16, 1);
+    int connectTimeoutMs = getInt(confPairs, PROP_CONNECT_TIMEOUT_MS, 10000, 0);
+    int readTimeoutMs = getInt(confPairs, PROP_READ_TIMEOUT_MS, 0, 0);
+    try {
+      this.transport = new ProxyP11Transport(serverUrls, sslSocketFactory, hostnameVerifier,
+          maxConnections, connectTimeoutMs, readTimeoutMs);
+    } catch (IOException ex) {
+      throw new P11TokenException(ex.getMessage(), ex);
+    }
+
     refresh();
+
+    int signBatchSize = getInt(confPairs, PROP_SIGN_BATCH_SIZE, 1, 1);
+    if (signBatchSize > 1) {
+      int threads = getInt(confPairs, PROP_SIGN_BATCH_THREADS, 4, 1);
+      this.signBatcher = new ProxySignBatcher(this, moduleConf.getName(), signBatchSize, threads);
+      LOG.info("sign in batches: {}={}, {}={}", PROP_SIGN_BATCH_SIZE, signBatchSize,
+          PROP_SIGN_BATCH_THREADS, threads);
+    }
   } // constructor
 
+  private static int getInt(ConfPairs confPairs, String name, int defaultValue, int minValue)
+      throws P11TokenException {
+    String str = confPairs.value(name);
+    if (str == null) {
+      return defaultValue;
+    }
+
+    int value;
+    try {
+      value = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new P11TokenException("invalid " + name + ": " + str);
+    }
+
+    if (value < minValue) {
+      throw new P11TokenException(name + " must not be less than " + minValue + ": " + str);
+    }
+    return value;
+  } // method getInt
+
   public static P11Module getInstance(P11ModuleConf moduleConf) throws P11TokenException {
     Args.notNull(moduleConf, "moduleConf");
     return new ProxyP11Module(moduleConf);
@@ -258,6 +329,11 @@ public class ProxyP11Module extends P11Module {
 
   @Override
   public void close() {
+    if (signBatcher != null) {
+      signBatcher.close();
+      signBatcher = null;
+    }
+
     for (P11SlotIdentifier slotId : getSlotIds()) {
       try {
         getSlot(slotId).close();
@@ -265,93 +341,13 @@ public class ProxyP11Module extends P11Module {
         LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
       }
     }
+
+    transport.close();
   }
 
   protected byte[] send(byte[] request) throws IOException {
     Args.notNull(request, "request");
-    HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
-
-    if (httpUrlConnection instanceof HttpsURLConnection) {
-      if (sslSocketFactory != null) {
-        ((HttpsURLConnection) httpUrlConnection).setSSLSocketFactory(sslSocketFactory);
-      }
-
-      if (hostnameVerifier != null) {
-        ((HttpsURLConnection) httpUrlConnection).setHostnameVerifier(hostnameVerifier);
-      }
-    }
-
-    httpUrlConnection.setDoOutput(true);
-    httpUrlConnection.setUseCaches(false);
-
-    int size = request.length;
-
-    httpUrlConnection.setRequestMethod("POST");
-    httpUrlConnection.setRequestProperty("Content-Type", REQUEST_MIMETYPE);
-    httpUrlConnection.setRequestProperty("Content-Length", Integer.toString(size));
-    OutputStream outputstream = httpUrlConnection.getOutputStream();
-    outputstream.write(request);
-    outputstream.flush();
-
-    if (httpUrlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-      try {
-        try {
-          InputStream is = httpUrlConnection.getInputStream();
-          if (is != null) {
-            is.close();
-          }
-        } catch (IOException ex) {
-          InputStream errStream = httpUrlConnection.getErrorStream();
-          if (errStream != null) {
-            errStream.close();
-          }
-        }
-      } catch (Throwable th) {
-        // ignore it
-      }
-
-      throw new IOException("bad response: code=" + httpUrlConnection.getResponseCode()
-          + ", message=" + httpUrlConnection.getResponseMessage());
-    }
-
-    InputStream inputstream = null;
-    try {
-      inputstream = httpUrlConnection.getInputStream();
-    } catch (IOException ex) {
-      InputStream errStream = httpUrlConnection.getErrorStream();
-      if (errStream != null) {
-        errStream.close();
-      }
-      throw ex;
-    }
-
-    try {
-      String responseContentType = httpUrlConnection.getContentType();
-      boolean isValidContentType = false;
-      if (responseContentType != null) {
-        if (responseContentType.equalsIgnoreCase(RESPONSE_MIMETYPE)) {
-          isValidContentType = true;
-        }
-      }
-      if (!isValidContentType) {
-        throw new IOException("bad response: mime type " + responseContentType
-            + " is not supported!");
-      }
-
-      byte[] buf = new byte[4096];
-      ByteArrayOutputStream bytearrayoutputstream = new ByteArrayOutputStream();
-      do {
-        int readedByte = inputstream.read(buf);
-        if (readedByte == -1) {
-          break;
-        }
-        bytearrayoutputstream.write(buf, 0, readedByte);
-      } while (true);
-
-      return bytearrayoutputstream.toByteArray();
-    } finally {
-      inputstream.close();
-    }
+    return transport.send(request, MIMETYPE);
   } // method send
 
   /**
@@ -430,7 +426,10 @@ public class ProxyP11Module extends P11Module {
 
     // RC
     short rc = IoUtil.parseShort(response, 10);
-    if (rc != 0) {
+    if (rc == P11ProxyConstants.RC_UNSUPPORTED_ACTION) {
+      throw new UnsupportedActionException("server does not support action "
+          + P11ProxyConstants.getActionName(action));
+    } else if (rc != 0) {
       throw new P11TokenException("server returned RC " + P11ProxyConstants.getReturnCodeName(rc));
     }
 
@@ -464,6 +463,33 @@ public class ProxyP11Module extends P11Module {
     return respContent;
   } // method send
 
+  /**
+   * Signs the message. Concurrent calls are sent in one request if {@code sign.batch.size}
+   * is greater than 1.
+   *
+   * @param signTemplate
+   *          Sign template.
+   * @return the signature.
+   * @throws P11TokenException If error occurred.
+   */
+  byte[] sign(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    ProxySignBatcher batcher = signBatcher;
+    return (batcher == null) ? signSingle(signTemplate) : batcher.sign(signTemplate);
+  }
+
+  byte[] signSingle(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    byte[] result = send(P11ProxyConstants.ACTION_SIGN, signTemplate);
+
+    ASN1OctetString octetString;
+    try {
+      octetString = DEROctetString.getInstance(result);
+    } catch (IllegalArgumentException ex) {
+      throw new P11TokenException("the returned result is not OCTET STRING");
+    }
+
+    return (octetString == null) ? null : octetString.getOctets();
+  } // method signSingle
+
   private byte[] randomTransactionId() {
     byte[] tid = new byte[4];
     random.nextBytes(tid);
@@ -0,0 +1,640 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import static org.xipki.util.Args.notEmpty;
+import static org.xipki.util.Args.notNegative;
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.IoUtil;
+
+/**
+ * HTTP/1.1 transport of the PKCS#11 proxy client. It keeps the connections to the proxy
+ * servers alive and reuses them, so that the TCP and TLS handshakes are done once per
+ * connection instead of once per request. At most {@code maxConnections} requests are sent to
+ * one server concurrently.
+ *
+ * <p>If several servers are configured, the requests are distributed round-robin. A server
+ * which cannot be connected is skipped for {@link #SERVER_DOWN_MS} milliseconds, and the
+ * request is sent to the next server. Requests which have been sent to a server are not
+ * resent to another server. A request is resent to the same server over a new connection only
+ * if it was sent over a kept-alive connection which the server had already closed, namely if
+ * writing the request failed, or the connection was closed before any byte of the response.
+ *
+ * <p>The proxy returned by the default {@link ProxySelector} for the URL of a server is used.
+ * HTTP proxies are used with absolute request URIs for HTTP servers, and via CONNECT tunnels
+ * for HTTPS servers. Authentication to the proxy is not supported.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class ProxyP11Transport implements Closeable {
+
+  /**
+   * The connection to the server could not be established.
+   */
+  private static class ConnectException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    ConnectException(String message, Throwable cause) {
+      super(message, cause);
+    }
+
+  } // class ConnectException
+
+  /**
+   * A kept-alive connection has been closed by the server before the request has been
+   * processed. The request can be safely resent.
+   */
+  private static class StaleConnectionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    StaleConnectionException(Throwable cause) {
+      super("connection has been closed by the server", cause);
+    }
+
+  } // class StaleConnectionException
+
+  private static final class Connection {
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final byte[] requestHeaderPrefix;
+
+    private long lastUsed;
+
+    Connection(Socket socket, byte[] requestHeaderPrefix) throws IOException {
+      this.socket = socket;
+      this.requestHeaderPrefix = requestHeaderPrefix;
+      this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+      this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException ex) {
+        LOG.debug("could not close socket: {}", ex.getMessage());
+      }
+    }
+
+  } // class Connection
+
+  private static final class Server {
+
+    private final URL url;
+
+    private final URI uri;
+
+    private final String host;
+
+    private final int port;
+
+    private final boolean https;
+
+    private final byte[] requestHeaderPrefix;
+
+    // request header prefix with the absolute URI, used via HTTP proxy.
+    private final byte[] proxyRequestHeaderPrefix;
+
+    private final Semaphore permits;
+
+    // guarded by itself
+    private final Deque<Connection> idleConnections = new ArrayDeque<>();
+
+    private volatile long downUntil;
+
+    Server(URL url, int maxConnections) throws IOException {
+      this.url = url;
+      String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+      if ("https".equals(protocol)) {
+        https = true;
+      } else if ("http".equals(protocol)) {
+        https = false;
+      } else {
+        throw new IOException(url + " is not of protocol HTTP: " + url.getProtocol());
+      }
+
+      try {
+        this.uri = url.toURI();
+      } catch (URISyntaxException ex) {
+        throw new IOException("invalid URL " + url + ": " + ex.getMessage(), ex);
+      }
+
+      this.host = url.getHost();
+      this.port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+
+      String path = url.getFile();
+      if (path.isEmpty()) {
+        path = "/";
+      }
+
+      String hostHeader = (url.getPort() == -1) ? host : host + ":" + port;
+      this.requestHeaderPrefix = ("POST " + path + " HTTP/1.1\r\nHost: " + hostHeader
+          + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+      this.proxyRequestHeaderPrefix = ("POST " + url.getProtocol() + "://" + hostHeader + path
+          + " HTTP/1.1\r\nHost: " + hostHeader + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+      this.permits = new Semaphore(maxConnections, true);
+    } // constructor
+
+    Connection pollIdleConnection() {
+      long minLastUsed = System.currentTimeMillis() - KEEP_ALIVE_MS;
+      while (true) {
+        Connection conn;
+        synchronized (idleConnections) {
+          conn = idleConnections.pollLast();
+        }
+
+        if (conn == null || conn.lastUsed > minLastUsed) {
+          return conn;
+        }
+
+        // the server may have closed the connection.
+        conn.close();
+      }
+    } // method pollIdleConnection
+
+    void releaseConnection(Connection conn) {
+      conn.lastUsed = System.currentTimeMillis();
+      synchronized (idleConnections) {
+        idleConnections.addLast(conn);
+      }
+    }
+
+    void closeIdleConnections() {
+      synchronized (idleConnections) {
+        for (Connection conn : idleConnections) {
+          conn.close();
+        }
+        idleConnections.clear();
+      }
+    }
+
+  } // class Server
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Transport.class);
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  /**
+   * Idle connections older than this are not used anymore. Shorter than the default
+   * keep-alive timeout of most servlet containers.
+   */
+  private static final long KEEP_ALIVE_MS = 15000;
+
+  /**
+   * Time a server which could not be connected is skipped.
+   */
+  private static final long SERVER_DOWN_MS = 10000;
+
+  private final Server[] servers;
+
+  private final SSLSocketFactory sslSocketFactory;
+
+  private final HostnameVerifier hostnameVerifier;
+
+  private final int connectTimeoutMs;
+
+  private final int readTimeoutMs;
+
+  private final AtomicInteger nextServer = new AtomicInteger();
+
+  ProxyP11Transport(List<URL> urls, SSLSocketFactory sslSocketFactory,
+      HostnameVerifier hostnameVerifier, int maxConnections, int connectTimeoutMs,
+      int readTimeoutMs) throws IOException {
+    notEmpty(urls, "urls");
+    positive(maxConnections, "maxConnections");
+    this.sslSocketFactory = sslSocketFactory;
+    this.hostnameVerifier = hostnameVerifier;
+    this.connectTimeoutMs = notNegative(connectTimeoutMs, "connectTimeoutMs");
+    this.readTimeoutMs = notNegative(readTimeoutMs, "readTimeoutMs");
+
+    this.servers = new Server[urls.size()];
+    for (int i = 0; i < servers.length; i++) {
+      servers[i] = new Server(notNull(urls.get(i), "urls[" + i + "]"), maxConnections);
+      if (servers[i].https && sslSocketFactory == null) {
+        throw new IllegalArgumentException("sslSocketFactory is required for " + urls.get(i));
+      }
+    }
+  } // constructor
+
+  /**
+   * Sends the request and returns the body of the response.
+   *
+   * @param request
+   *          Body of the request.
+   * @param mimeType
+   *          Content type of the request and the response.
+   * @return the body of the response.
+   * @throws IOException
+   *           If the request could not be sent, or the response is not valid.
+   */
+  byte[] send(byte[] request, String mimeType) throws IOException {
+    final int n = servers.length;
+    final int start = (nextServer.getAndIncrement() & 0x7FFFFFFF) % n;
+
+    IOException lastException = null;
+    // in the first pass, only the servers which are not down are tried.
+    for (int pass = 0; pass < 2; pass++) {
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < n; i++) {
+        Server server = servers[(start + i) % n];
+        boolean down = server.downUntil > now;
+        if (down != (pass == 1)) {
+          continue;
+        }
+
+        try {
+          return send(server, request, mimeType);
+        } catch (ConnectException ex) {
+          LOG.warn("could not connect to {}, try the next server: {}",
+              server.url, ex.getMessage());
+          server.downUntil = System.currentTimeMillis() + SERVER_DOWN_MS;
+          lastException = ex;
+        }
+      }
+    }
+
+    throw lastException;
+  } // method send
+
+  private byte[] send(Server server, byte[] request, String mimeType) throws IOException {
+    try {
+      if (!server.permits.tryAcquire(Math.max(connectTimeoutMs + readTimeoutMs, 60000),
+          TimeUnit.MILLISECONDS)) {
+        throw new IOException("no connection to " + server.url + " is available");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a connection to " + server.url);
+    }
+
+    try {
+      Connection conn = server.pollIdleConnection();
+      if (conn != null) {
+        try {
+          return exchange(server, conn, request, mimeType, true);
+        } catch (StaleConnectionException ex) {
+          LOG.debug("kept-alive connection to {} has been closed, open a new one", server.url);
+        }
+      }
+
+      return exchange(server, connect(server), request, mimeType, false);
+    } finally {
+      server.permits.release();
+    }
+  } // method send
+
+  private Connection connect(Server server) throws ConnectException {
+    Proxy proxy = selectProxy(server);
+    boolean httpProxy = proxy.type() == Proxy.Type.HTTP;
+
+    Socket socket = (proxy.type() == Proxy.Type.SOCKS) ? new Socket(proxy) : new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(readTimeoutMs);
+      if (httpProxy) {
+        socket.connect(proxy.address(), connectTimeoutMs);
+        if (server.https) {
+          openTunnel(socket, server);
+        }
+      } else {
+        SocketAddress address = (proxy.type() == Proxy.Type.SOCKS)
+            ? InetSocketAddress.createUnresolved(server.host, server.port)
+            : new InetSocketAddress(server.host, server.port);
+        socket.connect(address, connectTimeoutMs);
+      }
+
+      if (server.https) {
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket,
+            server.host, server.port, true);
+        socket = sslSocket;
+        if (hostnameVerifier == null) {
+          SSLParameters params = sslSocket.getSSLParameters();
+          params.setEndpointIdentificationAlgorithm("HTTPS");
+          sslSocket.setSSLParameters(params);
+        }
+
+        sslSocket.startHandshake();
+
+        if (hostnameVerifier != null
+            && !hostnameVerifier.verify(server.host, sslSocket.getSession())) {
+          throw new SSLPeerUnverifiedException("hostname " + server.host + " not verified");
+        }
+      }
+
+      // the absolute URI is required only if the HTTP proxy forwards the request.
+      return new Connection(socket, (httpProxy && !server.https)
+          ? server.proxyRequestHeaderPrefix : server.requestHeaderPrefix);
+    } catch (IOException ex) {
+      try {
+        socket.close();
+      } catch (IOException ex2) {
+        LOG.debug("could not close socket: {}", ex2.getMessage());
+      }
+      throw new ConnectException(ex.getMessage(), ex);
+    }
+  } // method connect
+
+  private static Proxy selectProxy(Server server) {
+    ProxySelector selector = ProxySelector.getDefault();
+    List<Proxy> proxies = (selector == null) ? null : selector.select(server.uri);
+    if (proxies == null) {
+      proxies = Collections.emptyList();
+    }
+
+    for (Proxy proxy : proxies) {
+      if (proxy.type() == Proxy.Type.DIRECT) {
+        return proxy;
+      } else if (proxy.address() instanceof InetSocketAddress) {
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        if (address.isUnresolved()) {
+          // resolve the proxy host
+          address = new InetSocketAddress(address.getHostString(), address.getPort());
+          proxy = new Proxy(proxy.type(), address);
+        }
+        return proxy;
+      }
+    }
+    return Proxy.NO_PROXY;
+  } // method selectProxy
+
+  /**
+   * Opens a tunnel to the server via the connected HTTP proxy.
+   */
+  private static void openTunnel(Socket socket, Server server) throws IOException {
+    String target = server.host + ":" + server.port;
+    OutputStream out = socket.getOutputStream();
+    out.write(("CONNECT " + target + " HTTP/1.1\r\nHost: " + target + "\r\n\r\n")
+        .getBytes(StandardCharsets.ISO_8859_1));
+    out.flush();
+
+    // the proxy does not send data after the headers before the TLS handshake, so the
+    // response is read without buffering.
+    InputStream in = socket.getInputStream();
+    String statusLine = readLine(in, in.read());
+    String[] tokens = statusLine.split(" ", 3);
+    if (tokens.length < 2 || !tokens[0].startsWith("HTTP/") || !"200".equals(tokens[1])) {
+      throw new IOException("could not open tunnel to " + target + " via proxy: "
+          + statusLine);
+    }
+
+    while (!readLine(in, in.read()).isEmpty()) {
+      // skip the headers
+    }
+  } // method openTunnel
+
+  private byte[] exchange(Server server, Connection conn, byte[] request, String mimeType,
+      boolean reused) throws IOException {
+    boolean keepAlive = false;
+    boolean completed = false;
+    try {
+      try {
+        OutputStream out = conn.out;
+        out.write(conn.requestHeaderPrefix);
+        out.write(("Content-Type: " + mimeType + "\r\nContent-Length: " + request.length
+            + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(request);
+        out.flush();
+      } catch (IOException ex) {
+        if (reused) {
+          throw new StaleConnectionException(ex);
+        }
+        throw ex;
+      }
+
+      // The request may have been processed by the server once it has been written. It is
+      // only safe to resend it if the server closed the connection without sending any byte.
+      // Other errors, e.g. a read timeout, are not retried.
+      InputStream in = conn.in;
+      int firstByte = in.read();
+      if (firstByte == -1) {
+        EOFException ex = new EOFException("connection closed before the response");
+        if (reused) {
+          throw new StaleConnectionException(ex);
+        }
+        throw ex;
+      }
+
+      String statusLine = readLine(in, firstByte);
+
+      // HTTP/1.1 200 OK
+      String[] tokens = statusLine.split(" ", 3);
+      if (tokens.length < 2 || !tokens[0].startsWith("HTTP/")) {
+        throw new IOException("invalid status line: " + statusLine);
+      }
+
+      int statusCode;
+      try {
+        statusCode = Integer.parseInt(tokens[1]);
+      } catch (NumberFormatException ex) {
+        throw new IOException("invalid status line: " + statusLine);
+      }
+
+      keepAlive = "HTTP/1.1".equals(tokens[0]);
+      long contentLength = -1;
+      boolean chunked = false;
+      String contentType = null;
+
+      String line;
+      while (!(line = readLine(in)).isEmpty()) {
+        int idx = line.indexOf(':');
+        if (idx == -1) {
+          continue;
+        }
+
+        String name = line.substring(0, idx).trim().toLowerCase(Locale.ROOT);
+        String value = line.substring(idx + 1).trim();
+        if ("content-length".equals(name)) {
+          try {
+            contentLength = Long.parseLong(value);
+          } catch (NumberFormatException ex) {
+            throw new IOException("invalid Content-Length: " + value);
+          }
+        } else if ("transfer-encoding".equals(name)) {
+          chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+        } else if ("connection".equals(name)) {
+          String lv = value.toLowerCase(Locale.ROOT);
+          if (lv.contains("close")) {
+            keepAlive = false;
+          } else if (lv.contains("keep-alive")) {
+            keepAlive = true;
+          }
+        } else if ("content-type".equals(name)) {
+          contentType = value;
+        }
+      }
+
+      byte[] body;
+      if (chunked) {
+        body = readChunkedBody(in);
+      } else if (contentLength >= 0) {
+        if (contentLength > Integer.MAX_VALUE) {
+          throw new IOException("response too large: " + contentLength);
+        }
+        body = new byte[(int) contentLength];
+        readFully(in, body);
+      } else {
+        // the body ends with the connection.
+        body = IoUtil.read(in);
+        keepAlive = false;
+      }
+
+      if (statusCode != 200) {
+        String message = (tokens.length > 2) ? tokens[2] : "";
+        throw new IOException("bad response: code=" + statusCode + ", message=" + message);
+      }
+
+      if (contentType == null || !contentType.equalsIgnoreCase(mimeType)) {
+        throw new IOException("bad response: mime type " + contentType
+            + " is not supported!");
+      }
+
+      completed = true;
+      return body;
+    } finally {
+      if (completed && keepAlive) {
+        server.releaseConnection(conn);
+      } else {
+        conn.close();
+      }
+    }
+  } // method exchange
+
+  private static String readLine(InputStream in) throws IOException {
+    return readLine(in, in.read());
+  }
+
+  private static String readLine(InputStream in, int firstChar) throws IOException {
+    StringBuilder sb = new StringBuilder(64);
+    int ch = firstChar;
+    while (true) {
+      if (ch == -1) {
+        throw new EOFException("unexpected end of stream");
+      } else if (ch == '\n') {
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') {
+          sb.setLength(len - 1);
+        }
+        return sb.toString();
+      }
+
+      if (sb.length() > 8192) {
+        throw new IOException("line too long");
+      }
+      sb.append((char) ch);
+      ch = in.read();
+    }
+  } // method readLine
+
+  private static byte[] readChunkedBody(InputStream in) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    while (true) {
+      String line = readLine(in);
+      int idx = line.indexOf(';');
+      String sizeText = (idx == -1 ? line : line.substring(0, idx)).trim();
+      int size;
+      try {
+        size = Integer.parseInt(sizeText, 16);
+      } catch (NumberFormatException ex) {
+        throw new IOException("invalid chunk size: " + sizeText);
+      }
+
+      if (size < 0) {
+        throw new IOException("invalid chunk size: " + sizeText);
+      } else if (size == 0) {
+        // skip the trailers
+        while (!readLine(in).isEmpty()) {
+          // do nothing
+        }
+        return bout.toByteArray();
+      }
+
+      byte[] chunk = new byte[size];
+      readFully(in, chunk);
+      bout.write(chunk);
+      if (!readLine(in).isEmpty()) {
+        throw new IOException("invalid chunk");
+      }
+    }
+  } // method readChunkedBody
+
+  private static void readFully(InputStream in, byte[] buffer) throws IOException {
+    int off = 0;
+    while (off < buffer.length) {
+      int read = in.read(buffer, off, buffer.length - off);
+      if (read == -1) {
+        throw new EOFException("unexpected end of stream");
+      }
+      off += read;
+    }
+  } // method readFully
+
+  /**
+   * Closes the idle connections.
+   */
+  @Override
+  public void close() {
+    for (Server server : servers) {
+      server.closeIdleConnections();
+    }
+  }
+
+}
@@ -0,0 +1,227 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.BadAsn1ObjectException;
+import org.xipki.security.pkcs11.P11TokenException;
+
+/**
+ * Aggregates the concurrent sign calls of a {@link ProxyP11Module} and sends them by
+ * background threads with {@link P11ProxyConstants#ACTION_SIGN_BATCH}, so that one round
+ * trip carries several signatures. Each thread takes all queued sign calls, up to
+ * {@code batchSize}, no sign call waits for more calls to arrive.
+ *
+ * <p>If the server does not support {@link P11ProxyConstants#ACTION_SIGN_BATCH}, the sign
+ * calls are sent one by one with {@link P11ProxyConstants#ACTION_SIGN}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class ProxySignBatcher {
+
+  private static final class Job {
+
+    private final ProxyMessage.SignTemplate template;
+
+    private byte[] signature;
+
+    private P11TokenException exception;
+
+    private boolean done;
+
+    Job(ProxyMessage.SignTemplate template) {
+      this.template = template;
+    }
+
+    synchronized void complete(byte[] signature, P11TokenException exception) {
+      this.signature = signature;
+      this.exception = exception;
+      this.done = true;
+      notifyAll();
+    }
+
+  } // class Job
+
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      List<Job> batch = new ArrayList<>(batchSize);
+      while (!closed) {
+        Job job;
+        try {
+          job = queue.poll(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          continue;
+        }
+
+        if (job == null) {
+          continue;
+        }
+
+        batch.add(job);
+        queue.drainTo(batch, batchSize - 1);
+
+        try {
+          sendBatch(batch);
+        } catch (RuntimeException ex) {
+          P11TokenException ex2 = new P11TokenException(ex.getMessage(), ex);
+          for (Job m : batch) {
+            m.complete(null, ex2);
+          }
+        }
+        batch.clear();
+      }
+    } // method run
+
+  } // class Worker
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProxySignBatcher.class);
+
+  private final ProxyP11Module module;
+
+  private final int batchSize;
+
+  private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+
+  private final Thread[] workers;
+
+  private volatile boolean batchSupported = true;
+
+  private volatile boolean closed;
+
+  ProxySignBatcher(ProxyP11Module module, String name, int batchSize, int threads) {
+    this.module = notNull(module, "module");
+    this.batchSize = positive(batchSize, "batchSize");
+
+    this.workers = new Thread[positive(threads, "threads")];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Thread(new Worker(), "p11proxy-signer-" + name + "-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  } // constructor
+
+  byte[] sign(ProxyMessage.SignTemplate template) throws P11TokenException {
+    if (closed) {
+      throw new P11TokenException("sign batcher is closed");
+    }
+
+    Job job = new Job(template);
+    queue.add(job);
+    if (closed && queue.remove(job)) {
+      // closed concurrently, the job would never be sent.
+      throw new P11TokenException("sign batcher is closed");
+    }
+
+    synchronized (job) {
+      while (!job.done) {
+        try {
+          job.wait();
+        } catch (InterruptedException ex) {
+          // the job may be being sent, it will be completed in any case.
+          Thread.currentThread().interrupt();
+          throw new P11TokenException("interrupted while waiting for the signature");
+        }
+      }
+    }
+
+    if (job.exception != null) {
+      throw job.exception;
+    }
+    return job.signature;
+  } // method sign
+
+  private void sendBatch(List<Job> batch) {
+    if (batch.size() > 1 && batchSupported) {
+      List<ProxyMessage.SignTemplate> templates = new ArrayList<>(batch.size());
+      for (Job job : batch) {
+        templates.add(job.template);
+      }
+
+      ProxyMessage.SignBatchResult result;
+      try {
+        byte[] resp = module.send(P11ProxyConstants.ACTION_SIGN_BATCH,
+            new ProxyMessage.SignBatchTemplate(templates));
+        result = ProxyMessage.SignBatchResult.getInstance(resp);
+        if (result == null || result.size() != batch.size()) {
+          throw new P11TokenException("number of signatures and messages differ");
+        }
+      } catch (ProxyP11Module.UnsupportedActionException ex) {
+        LOG.warn("server does not support ACTION_SIGN_BATCH, send the messages one by one");
+        batchSupported = false;
+        result = null;
+      } catch (BadAsn1ObjectException | P11TokenException ex) {
+        P11TokenException ex2 = (ex instanceof P11TokenException) ? (P11TokenException) ex
+            : new P11TokenException("invalid response: " + ex.getMessage(), ex);
+        for (Job job : batch) {
+          job.complete(null, ex2);
+        }
+        return;
+      }
+
+      if (result != null) {
+        for (int i = 0; i < batch.size(); i++) {
+          short rc = result.getRc(i);
+          if (rc == P11ProxyConstants.RC_SUCCESS) {
+            batch.get(i).complete(result.getSignature(i), null);
+          } else {
+            batch.get(i).complete(null, new P11TokenException(
+                "server returned RC " + P11ProxyConstants.getReturnCodeName(rc)));
+          }
+        }
+        return;
+      }
+    }
+
+    for (Job job : batch) {
+      try {
+        job.complete(module.signSingle(job.template), null);
+      } catch (P11TokenException ex) {
+        job.complete(null, ex);
+      }
+    }
+  } // method sendBatch
+
+  /**
+   * Stops the threads. The sign calls waiting to be sent fail.
+   */
+  void close() {
+    // the workers stop after at most one second.
+    closed = true;
+
+    P11TokenException ex = new P11TokenException("sign batcher is closed");
+    Job job;
+    while ((job = queue.poll()) != null) {
+      job.complete(null, ex);
+    }
+  } // method close
+
+}
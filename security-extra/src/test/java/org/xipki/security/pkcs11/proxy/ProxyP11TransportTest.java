@@ -0,0 +1,373 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * ProxyP11Transport test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class ProxyP11TransportTest {
+
+  private static final String MIMETYPE = "application/x-xipki-pkcs11";
+
+  /**
+   * Writes the response to the request with the given index.
+   */
+  private interface Handler {
+
+    /**
+     * Handles the request.
+     * @return whether the connection is kept open.
+     */
+    boolean handle(int index, byte[] body, OutputStream out) throws IOException;
+
+  } // interface Handler
+
+  /**
+   * HTTP server which counts the connections and records the request lines.
+   */
+  private static class MockServer implements Runnable {
+
+    private final ServerSocket serverSocket;
+
+    private final Handler handler;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final List<String> requestLines = Collections.synchronizedList(new ArrayList<>());
+
+    MockServer(Handler handler) throws IOException {
+      this.serverSocket = new ServerSocket(0);
+      this.handler = handler;
+      Thread thread = new Thread(this, "mock-server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    URL getUrl() throws IOException {
+      return new URL("http://localhost:" + serverSocket.getLocalPort() + "/p11proxy");
+    }
+
+    @Override
+    public void run() {
+      while (!serverSocket.isClosed()) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException ex) {
+          return;
+        }
+
+        connections.incrementAndGet();
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } // method run
+
+    private void serve(Socket socket) {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+          String requestLine = readLine(in);
+          if (requestLine == null) {
+            break;
+          }
+
+          int contentLength = 0;
+          String line;
+          while (!(line = readLine(in)).isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+              contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+          }
+
+          byte[] body = new byte[contentLength];
+          int off = 0;
+          while (off < contentLength) {
+            off += in.read(body, off, contentLength - off);
+          }
+
+          int index;
+          synchronized (requestLines) {
+            index = requestLines.size();
+            requestLines.add(requestLine);
+          }
+
+          boolean keepOpen = handler.handle(index, body, out);
+          out.flush();
+          if (!keepOpen) {
+            break;
+          }
+        }
+      } catch (IOException ex) {
+        // connection closed by the client
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // ignore
+        }
+      }
+    } // method serve
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+
+  } // class MockServer
+
+  private MockServer server;
+
+  private ProxyP11Transport transport;
+
+  @After
+  public void shutdown() throws IOException {
+    if (transport != null) {
+      transport.close();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void contentLengthResponse() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        writeResponse(out, "Content-Length: " + body.length + "\r\n", body);
+        return true;
+      }
+    }, 0);
+
+    byte[] request = "hello".getBytes(StandardCharsets.UTF_8);
+    Assert.assertArrayEquals(request, transport.send(request, MIMETYPE));
+    Assert.assertEquals("POST /p11proxy HTTP/1.1", server.requestLines.get(0));
+  } // method contentLengthResponse
+
+  @Test
+  public void chunkedResponse() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        String chunked = "3;ext=1\r\nabc\r\n4\r\ndefg\r\n0\r\nX-Trailer: 1\r\n\r\n";
+        writeResponse(out, "Transfer-Encoding: chunked\r\n",
+            chunked.getBytes(StandardCharsets.ISO_8859_1));
+        return true;
+      }
+    }, 0);
+
+    Assert.assertEquals("abcdefg", new String(transport.send(new byte[1], MIMETYPE),
+        StandardCharsets.ISO_8859_1));
+    // the connection is reusable after the chunked body.
+    Assert.assertEquals("abcdefg", new String(transport.send(new byte[1], MIMETYPE),
+        StandardCharsets.ISO_8859_1));
+    Assert.assertEquals(1, server.connections.get());
+  } // method chunkedResponse
+
+  @Test
+  public void reuseKeptAliveConnection() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        writeResponse(out, "Content-Length: " + body.length + "\r\n", body);
+        return true;
+      }
+    }, 0);
+
+    for (int i = 0; i < 5; i++) {
+      byte[] request = new byte[] {(byte) i};
+      Assert.assertArrayEquals(request, transport.send(request, MIMETYPE));
+    }
+    Assert.assertEquals(1, server.connections.get());
+    Assert.assertEquals(5, server.requestLines.size());
+  } // method reuseKeptAliveConnection
+
+  @Test
+  public void closedConnectionIsNotReused() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        writeResponse(out, "Connection: close\r\nContent-Length: " + body.length + "\r\n",
+            body);
+        return false;
+      }
+    }, 0);
+
+    transport.send(new byte[1], MIMETYPE);
+    transport.send(new byte[1], MIMETYPE);
+    Assert.assertEquals(2, server.connections.get());
+  } // method closedConnectionIsNotReused
+
+  @Test
+  public void retryOnStaleConnection() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        writeResponse(out, "Content-Length: " + body.length + "\r\n", body);
+        // close the connection without notifying the client, as after the idle timeout
+        return false;
+      }
+    }, 0);
+
+    transport.send(new byte[1], MIMETYPE);
+    // wait until the connection has been closed by the server
+    Thread.sleep(200);
+
+    byte[] request = new byte[] {2};
+    Assert.assertArrayEquals(request, transport.send(request, MIMETYPE));
+    Assert.assertEquals(2, server.connections.get());
+    // the request is not processed by the server before the retry.
+    Assert.assertEquals(2, server.requestLines.size());
+  } // method retryOnStaleConnection
+
+  @Test
+  public void noRetryAfterReadTimeout() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        if (index > 0) {
+          // the request is being processed, do not respond in time.
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+          return false;
+        }
+
+        writeResponse(out, "Content-Length: " + body.length + "\r\n", body);
+        return true;
+      }
+    }, 200);
+
+    transport.send(new byte[1], MIMETYPE);
+    try {
+      transport.send(new byte[1], MIMETYPE);
+      Assert.fail("SocketTimeoutException expected");
+    } catch (SocketTimeoutException ex) {
+      // expected
+    }
+
+    Thread.sleep(1200);
+    // the request sent over the kept-alive connection is not resent.
+    Assert.assertEquals(2, server.requestLines.size());
+    Assert.assertEquals(1, server.connections.get());
+  } // method noRetryAfterReadTimeout
+
+  @Test
+  public void useHttpProxy() throws Exception {
+    start(new Handler() {
+      @Override
+      public boolean handle(int index, byte[] body, OutputStream out) throws IOException {
+        writeResponse(out, "Content-Length: " + body.length + "\r\n", body);
+        return true;
+      }
+    }, 0);
+
+    // the mock server acts as proxy of the unreachable server.
+    final SocketAddress proxyAddress =
+        new InetSocketAddress("localhost", server.serverSocket.getLocalPort());
+    ProxySelector defaultSelector = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList(new Proxy(Proxy.Type.HTTP, proxyAddress));
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+      }
+    });
+
+    try {
+      transport = new ProxyP11Transport(
+          Collections.singletonList(new URL("http://p11proxy.invalid:8080/p11proxy")),
+          null, null, 4, 5000, 0);
+      byte[] request = new byte[] {1};
+      Assert.assertArrayEquals(request, transport.send(request, MIMETYPE));
+    } finally {
+      ProxySelector.setDefault(defaultSelector);
+    }
+
+    Assert.assertEquals("POST http://p11proxy.invalid:8080/p11proxy HTTP/1.1",
+        server.requestLines.get(0));
+  } // method useHttpProxy
+
+  private void start(Handler handler, int readTimeoutMs) throws IOException {
+    server = new MockServer(handler);
+    transport = new ProxyP11Transport(Collections.singletonList(server.getUrl()), null, null,
+        4, 5000, readTimeoutMs);
+  } // method start
+
+  private static void writeResponse(OutputStream out, String headers, byte[] body)
+      throws IOException {
+    out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + MIMETYPE + "\r\n" + headers + "\r\n")
+        .getBytes(StandardCharsets.ISO_8859_1));
+    out.write(body);
+  } // method writeResponse
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    int ch;
+    while ((ch = in.read()) != '\n') {
+      if (ch == -1) {
+        return null;
+      }
+      if (ch != '\r') {
+        bout.write(ch);
+      }
+    }
+    return new String(bout.toByteArray(), StandardCharsets.ISO_8859_1);
+  } // method readLine
+
+}
@@ -110,6 +110,42 @@ public interface ConcurrentContentSigner extends Closeable {
    */
   byte[][] sign(byte[][] data) throws NoIdleSignerException, SignatureException;
 
+  /**
+   * Sign the data with a signer borrowed with the given priority. The default implementation
+   * ignores the priority.
+   * @param data
+   *          Data to be signed. Must not be {@code null}.
+   * @param priority
+   *          Priority class of the request. Must not be {@code null}.
+   * @return the signature
+   * @throws NoIdleSignerException
+   *         If no idle signer is available
+   * @throws SignatureException
+   *         if could not sign the data.
+   */
+  default byte[] sign(byte[] data, SignerPriority priority)
+      throws NoIdleSignerException, SignatureException {
+    return sign(data);
+  }
+
+  /**
+   * Sign the data with a signer borrowed with the given priority. The default implementation
+   * ignores the priority.
+   * @param data
+   *          Data to be signed. Must not be {@code null}.
+   * @param priority
+   *          Priority class of the request. Must not be {@code null}.
+   * @return the signature
+   * @throws NoIdleSignerException
+   *         If no idle signer is available
+   * @throws SignatureException
+   *         if could not sign the data.
+   */
+  default byte[][] sign(byte[][] data, SignerPriority priority)
+      throws NoIdleSignerException, SignatureException {
+    return sign(data);
+  }
+
   /**
    * Borrows a signer with implementation-dependent default timeout.
    * @return the signer
@@ -127,8 +163,51 @@ public interface ConcurrentContentSigner extends Closeable {
    */
   ConcurrentBagEntrySigner borrowSigner(int soTimeout) throws NoIdleSignerException;
 
+  /**
+   * Borrows a signer with the given priority and implementation-dependent default timeout.
+   * The default implementation ignores the priority.
+   * @param priority
+   *          Priority class of the request. Must not be {@code null}.
+   * @return the signer
+   * @throws SignerBusyException
+   *         If too many requests of the given priority are waiting for a signer
+   * @throws NoIdleSignerException
+   *         If no idle signer is available
+   */
+  default ConcurrentBagEntrySigner borrowSigner(SignerPriority priority)
+      throws NoIdleSignerException {
+    return borrowSigner();
+  }
+
+  /**
+   * Borrows a signer with the given priority and {@code soTimeout}. The default
+   * implementation ignores the priority.
+   * @param priority
+   *          Priority class of the request. Must not be {@code null}.
+   * @param soTimeout timeout in milliseconds, 0 for infinitely.
+   * @return the signer
+   * @throws SignerBusyException
+   *         If too many requests of the given priority are waiting for a signer
+   * @throws NoIdleSignerException
+   *         If no idle signer is available
+   */
+  default ConcurrentBagEntrySigner borrowSigner(SignerPriority priority, int soTimeout)
+      throws NoIdleSignerException {
+    return borrowSigner(soTimeout);
+  }
+
   void requiteSigner(ConcurrentBagEntrySigner signer);
 
   boolean isHealthy();
 
+  /**
+   * Returns the statistics of the waiting queue of the given priority.
+   * @param priority
+   *          Priority class. Must not be {@code null}.
+   * @return the statistics, or {@code null} if not supported.
+   */
+  default SignerQueueStatistics getQueueStatistics(SignerPriority priority) {
+    return null;
+  }
+
 }
@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.cert.CertException;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.xipki.security.util.SignerUtil;
+
+/**
+ * Thread-safe cache of the {@link ContentVerifierProvider}s of public keys. Creating the
+ * provider, which includes parsing the public key, is done only once per key. The returned
+ * providers are shared by all threads; each call of
+ * {@link ContentVerifierProvider#get(org.bouncycastle.asn1.x509.AlgorithmIdentifier)} creates
+ * a new lightweight verifier for the requested signature algorithm.
+ *
+ * <p>The least recently used providers are removed if the cache contains more than
+ * {@code maxSize} providers.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class ContentVerifierProviderCache {
+
+  private static final class CacheKey {
+
+    private final String algorithm;
+
+    private final byte[] encoded;
+
+    private final int hashCode;
+
+    CacheKey(PublicKey publicKey) {
+      this.algorithm = publicKey.getAlgorithm();
+      this.encoded = publicKey.getEncoded();
+      this.hashCode = 31 * algorithm.hashCode() + Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return hashCode == other.hashCode && algorithm.equals(other.algorithm)
+          && Arrays.equals(encoded, other.encoded);
+    }
+
+  } // class CacheKey
+
+  private final int maxSize;
+
+  // guarded by itself
+  private final Map<CacheKey, ContentVerifierProvider> cache;
+
+  public ContentVerifierProviderCache(int maxSize) {
+    this.maxSize = positive(maxSize, "maxSize");
+    this.cache = new LinkedHashMap<CacheKey, ContentVerifierProvider>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<CacheKey, ContentVerifierProvider> eldest) {
+        return size() > ContentVerifierProviderCache.this.maxSize;
+      }
+
+    };
+  } // constructor
+
+  /**
+   * Returns the cached provider of the public key, creates and caches it if not cached.
+   *
+   * @param publicKey
+   *          Public key. Must not be {@code null}. Keys of the DH-based signature
+   *          algorithms X25519 and X448 are not supported.
+   * @return the provider.
+   * @throws InvalidKeyException
+   *           If the public key is not supported.
+   */
+  public ContentVerifierProvider get(PublicKey publicKey) throws InvalidKeyException {
+    CacheKey key = new CacheKey(notNull(publicKey, "publicKey"));
+    synchronized (cache) {
+      ContentVerifierProvider provider = cache.get(key);
+      if (provider != null) {
+        return provider;
+      }
+    }
+
+    // create outside of the lock, if two threads create the provider of the same key
+    // concurrently, both providers are equivalent.
+    ContentVerifierProvider provider = SignerUtil.getContentVerifierProvider(publicKey, null);
+    synchronized (cache) {
+      cache.put(key, provider);
+    }
+    return provider;
+  } // method get
+
+  /**
+   * Verifies the signature of the certificate.
+   *
+   * @param cert
+   *          Certificate to be verified. Must not be {@code null}.
+   * @param issuerPublicKey
+   *          Public key of the issuer. Must not be {@code null}.
+   * @return whether the signature is valid.
+   * @throws InvalidKeyException
+   *           If the public key is not supported.
+   * @throws CertException
+   *           If the signature could not be verified.
+   */
+  public boolean verify(X509Cert cert, PublicKey issuerPublicKey)
+      throws InvalidKeyException, CertException {
+    X509CertificateHolder bcCert = notNull(cert, "cert").toBcCert();
+    return bcCert.isSignatureValid(get(issuerPublicKey));
+  } // method verify
+
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public void clear() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+}
@@ -18,6 +18,8 @@
 package org.xipki.security;
 
 import static org.xipki.util.Args.notEmpty;
+import static org.xipki.util.Args.notNegative;
+import static org.xipki.util.Args.notNull;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,10 +27,14 @@ import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.SignatureException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.slf4j.Logger;
@@ -37,24 +43,84 @@ import org.xipki.password.PasswordResolver;
 import org.xipki.security.util.AlgorithmUtil;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
-import org.xipki.util.concurrent.ConcurrentBag;
 
 /**
  * An implementation of {@link ConcurrentContentSigner}.
  *
+ * <p>If all signers are in use, a borrower waits in the bounded queue of its
+ * {@link SignerPriority}. A returned signer is handed over directly to a waiting borrower, the
+ * queues are served in a weighted round-robin manner. If the queue of a priority is full, the
+ * borrower is rejected immediately with {@link SignerBusyException}. The queue sizes can be
+ * configured via the system properties {@code org.xipki.security.signservice.queue.interactive},
+ * {@code org.xipki.security.signservice.queue.ocsp} and
+ * {@code org.xipki.security.signservice.queue.batch}.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
+  private static final class Waiter {
+
+    private final Condition condition;
+
+    private ConcurrentBagEntrySigner signer;
+
+    Waiter(Condition condition) {
+      this.condition = condition;
+    }
+
+  } // class Waiter
+
+  private static final class QueueStats {
+
+    private long borrows;
+
+    private long queuedBorrows;
+
+    private long totalQueueTimeNanos;
+
+    private long maxQueueTimeNanos;
+
+    private long rejected;
+
+    private long timeouts;
+
+    void recordBorrow(long queueTimeNanos) {
+      borrows++;
+      if (queueTimeNanos > 0) {
+        queuedBorrows++;
+        totalQueueTimeNanos += queueTimeNanos;
+        maxQueueTimeNanos = Math.max(maxQueueTimeNanos, queueTimeNanos);
+      }
+    } // method recordBorrow
+
+  } // class QueueStats
+
   private static final Logger LOG = LoggerFactory.getLogger(DfltConcurrentContentSigner.class);
 
   private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
 
   private static int defaultSignServiceTimeout = 10000; // 10 seconds
 
-  private final ConcurrentBag<ConcurrentBagEntrySigner> signers = new ConcurrentBag<>();
+  private static final SignerPriority[] PRIORITIES = SignerPriority.values();
+
+  private static final int[] DEFAULT_QUEUE_SIZES = new int[PRIORITIES.length];
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Deque<ConcurrentBagEntrySigner> idleSigners = new ArrayDeque<>();
+
+  private final Deque<Waiter>[] waiters;
+
+  private final QueueStats[] queueStats;
+
+  private final int[] queueSizes;
+
+  private int roundRobinIndex;
+
+  private int roundRobinCredit;
 
   private final String name;
 
@@ -86,6 +152,23 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
         defaultSignServiceTimeout = vi;
       }
     }
+
+    for (SignerPriority priority : PRIORITIES) {
+      int size = (priority == SignerPriority.BATCH) ? 100 : 1000;
+      String queuePropKey = "org.xipki.security.signservice.queue."
+          + priority.name().toLowerCase();
+      str = System.getProperty(queuePropKey);
+      if (str != null) {
+        int vi = Integer.parseInt(str);
+        if (vi < 0) {
+          LOG.error("invalid {}: {}", queuePropKey, vi);
+        } else {
+          LOG.info("use {}: {}", queuePropKey, vi);
+          size = vi;
+        }
+      }
+      DEFAULT_QUEUE_SIZES[priority.ordinal()] = size;
+    }
   } // method static
 
   public DfltConcurrentContentSigner(boolean mac, List<XiContentSigner> signers)
@@ -103,9 +186,20 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     this.algorithmCode = AlgorithmUtil.getSigOrMacAlgoCode(algorithmIdentifier);
 
     for (XiContentSigner signer : signers) {
-      this.signers.add(new ConcurrentBagEntrySigner(signer));
+      this.idleSigners.add(new ConcurrentBagEntrySigner(signer));
     }
 
+    @SuppressWarnings("unchecked")
+    Deque<Waiter>[] queues = new Deque[PRIORITIES.length];
+    this.waiters = queues;
+    this.queueStats = new QueueStats[PRIORITIES.length];
+    for (int i = 0; i < PRIORITIES.length; i++) {
+      this.waiters[i] = new ArrayDeque<>();
+      this.queueStats[i] = new QueueStats();
+    }
+    this.queueSizes = DEFAULT_QUEUE_SIZES.clone();
+    this.roundRobinCredit = PRIORITIES[0].getWeight();
+
     this.signingKey = signingKey;
     this.name = "defaultSigner-" + NAME_INDEX.getAndIncrement();
   }
@@ -140,35 +234,159 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return algorithmCode;
   }
 
+  /**
+   * Sets the maximal number of borrowers of the given priority waiting for a signer.
+   *
+   * @param priority priority class.
+   * @param queueSize maximal number of waiting borrowers, 0 to reject a borrower immediately
+   *        if no signer is idle.
+   */
+  public void setQueueSize(SignerPriority priority, int queueSize) {
+    notNull(priority, "priority");
+    notNegative(queueSize, "queueSize");
+    lock.lock();
+    try {
+      queueSizes[priority.ordinal()] = queueSize;
+    } finally {
+      lock.unlock();
+    }
+  } // method setQueueSize
+
+  /**
+   * Borrows a signer with the priority {@link SignerPriority#INTERACTIVE}.
+   */
   @Override
   public ConcurrentBagEntrySigner borrowSigner() throws NoIdleSignerException {
-    return borrowSigner(defaultSignServiceTimeout);
+    return borrowSigner(SignerPriority.INTERACTIVE, defaultSignServiceTimeout);
   }
 
   /**
-   * Borrows a signer.
+   * Borrows a signer with the priority {@link SignerPriority#INTERACTIVE}.
    *
    * @param soTimeout timeout in milliseconds, 0 for infinitely.
    */
   @Override
   public ConcurrentBagEntrySigner borrowSigner(int soTimeout) throws NoIdleSignerException {
-    ConcurrentBagEntrySigner signer = null;
+    return borrowSigner(SignerPriority.INTERACTIVE, soTimeout);
+  }
+
+  @Override
+  public ConcurrentBagEntrySigner borrowSigner(SignerPriority priority)
+      throws NoIdleSignerException {
+    return borrowSigner(priority, defaultSignServiceTimeout);
+  }
+
+  /**
+   * Borrows a signer.
+   *
+   * @param priority priority class.
+   * @param soTimeout timeout in milliseconds, 0 for infinitely.
+   */
+  @Override
+  public ConcurrentBagEntrySigner borrowSigner(SignerPriority priority, int soTimeout)
+      throws NoIdleSignerException {
+    notNull(priority, "priority");
+    final int idx = priority.ordinal();
+    final long start = System.nanoTime();
+
+    lock.lock();
     try {
-      signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
-    } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+      // a returned signer is handed over to the waiting borrowers, hence a signer is only idle
+      // if nobody is waiting.
+      ConcurrentBagEntrySigner signer = idleSigners.pollFirst();
+      if (signer != null) {
+        queueStats[idx].recordBorrow(0);
+        return signer;
+      }
+
+      Deque<Waiter> queue = waiters[idx];
+      if (queue.size() >= queueSizes[idx]) {
+        queueStats[idx].rejected++;
+        throw new SignerBusyException("too many " + priority + " requests waiting for signer "
+            + name + ": " + queue.size());
+      }
+
+      Waiter waiter = new Waiter(lock.newCondition());
+      queue.addLast(waiter);
+
+      long nanos = TimeUnit.MILLISECONDS.toNanos(soTimeout);
+      try {
+        while (waiter.signer == null) {
+          if (soTimeout == 0) {
+            waiter.condition.await();
+          } else if (nanos > 0) {
+            nanos = waiter.condition.awaitNanos(nanos);
+          } else {
+            break;
+          }
+        }
+      } catch (InterruptedException ex) {
+        // a signer handed over meanwhile is still returned, the caller sees the interrupt.
+        Thread.currentThread().interrupt();
+      }
+
+      if (waiter.signer == null) {
+        queue.remove(waiter);
+        queueStats[idx].timeouts++;
+        throw new NoIdleSignerException(Thread.currentThread().isInterrupted()
+            ? "interrupted while waiting for an idle signer" : "no idle signer available");
+      }
+
+      queueStats[idx].recordBorrow(Math.max(1, System.nanoTime() - start));
+      return waiter.signer;
+    } finally {
+      lock.unlock();
     }
+  } // method borrowSigner
 
-    if (signer == null) {
-      throw new NoIdleSignerException("no idle signer available");
+  @Override
+  public void requiteSigner(ConcurrentBagEntrySigner signer) {
+    lock.lock();
+    try {
+      Waiter waiter = nextWaiter();
+      if (waiter == null) {
+        // LIFO, the most recently used signer is borrowed first.
+        idleSigners.addFirst(signer);
+      } else {
+        waiter.signer = signer;
+        waiter.condition.signal();
+      }
+    } finally {
+      lock.unlock();
     }
+  } // method requiteSigner
 
-    return signer;
-  }
+  /**
+   * Removes the next waiter to be served. Each priority may be served {@code weight} times in a
+   * row before the next priority with waiters is served. Must be called with the lock held.
+   */
+  private Waiter nextWaiter() {
+    for (int i = 0; i <= PRIORITIES.length; i++) {
+      Deque<Waiter> queue = waiters[roundRobinIndex];
+      if (roundRobinCredit > 0 && !queue.isEmpty()) {
+        roundRobinCredit--;
+        return queue.pollFirst();
+      }
+
+      roundRobinIndex = (roundRobinIndex + 1) % PRIORITIES.length;
+      roundRobinCredit = PRIORITIES[roundRobinIndex].getWeight();
+    }
+    return null;
+  } // method nextWaiter
 
   @Override
-  public void requiteSigner(ConcurrentBagEntrySigner signer) {
-    signers.requite(signer);
-  }
+  public SignerQueueStatistics getQueueStatistics(SignerPriority priority) {
+    final int idx = notNull(priority, "priority").ordinal();
+    lock.lock();
+    try {
+      QueueStats stats = queueStats[idx];
+      return new SignerQueueStatistics(priority, queueSizes[idx], waiters[idx].size(),
+          stats.borrows, stats.queuedBorrows, stats.totalQueueTimeNanos / 1000,
+          stats.maxQueueTimeNanos / 1000, stats.rejected, stats.timeouts);
+    } finally {
+      lock.unlock();
+    }
+  } // method getQueueStatistics
 
   @Override
   public void initialize(String conf, PasswordResolver passwordResolver)
@@ -241,7 +459,13 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   @Override
   public byte[] sign(byte[] data) throws NoIdleSignerException, SignatureException {
-    ConcurrentBagEntrySigner signer = borrowSigner();
+    return sign(data, SignerPriority.INTERACTIVE);
+  }
+
+  @Override
+  public byte[] sign(byte[] data, SignerPriority priority)
+      throws NoIdleSignerException, SignatureException {
+    ConcurrentBagEntrySigner signer = borrowSigner(priority);
     try {
       OutputStream signatureStream = signer.value().getOutputStream();
       try {
@@ -258,8 +482,14 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   @Override
   public byte[][] sign(byte[][] data) throws NoIdleSignerException, SignatureException {
+    return sign(data, SignerPriority.INTERACTIVE);
+  }
+
+  @Override
+  public byte[][] sign(byte[][] data, SignerPriority priority)
+      throws NoIdleSignerException, SignatureException {
     byte[][] signatures = new byte[data.length][];
-    ConcurrentBagEntrySigner signer = borrowSigner();
+    ConcurrentBagEntrySigner signer = borrowSigner(priority);
 
     try {
       XiContentSigner xiSigner = signer.value();
@@ -0,0 +1,37 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+/**
+ * Exception that indicates the waiting queue of a {@link SignerPriority} is full. The request
+ * is rejected without waiting, and should be answered with a "try later" response, e.g. the
+ * OCSP response status tryLater or the HTTP status 503.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class SignerBusyException extends NoIdleSignerException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SignerBusyException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+/**
+ * Priority class of a request to borrow a signer from a {@link ConcurrentContentSigner}. If
+ * all signers are in use, each class has its own bounded waiting queue, and the returned
+ * signers are distributed among the queues in a weighted round-robin manner, so that requests
+ * of a lower class are served less often, but are not starved.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public enum SignerPriority {
+
+  /**
+   * Interactive requests, e.g. the issuance of certificates.
+   */
+  INTERACTIVE(4),
+
+  /**
+   * Online OCSP requests.
+   */
+  OCSP(2),
+
+  /**
+   * Background and batch work, e.g. the generation of CRLs and the pre-generation of OCSP
+   * responses.
+   */
+  BATCH(1);
+
+  private final int weight;
+
+  SignerPriority(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Returns the number of waiting requests of this class served in one round.
+   * @return the weight.
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import static org.xipki.util.Args.notNull;
+
+/**
+ * Snapshot of the waiting queue of one {@link SignerPriority} of a
+ * {@link ConcurrentContentSigner}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class SignerQueueStatistics {
+
+  private final SignerPriority priority;
+
+  private final int queueSize;
+
+  private final int waiting;
+
+  private final long borrows;
+
+  private final long queuedBorrows;
+
+  private final long totalQueueTimeMicros;
+
+  private final long maxQueueTimeMicros;
+
+  private final long rejected;
+
+  private final long timeouts;
+
+  public SignerQueueStatistics(SignerPriority priority, int queueSize, int waiting,
+      long borrows, long queuedBorrows, long totalQueueTimeMicros, long maxQueueTimeMicros,
+      long rejected, long timeouts) {
+    this.priority = notNull(priority, "priority");
+    this.queueSize = queueSize;
+    this.waiting = waiting;
+    this.borrows = borrows;
+    this.queuedBorrows = queuedBorrows;
+    this.totalQueueTimeMicros = totalQueueTimeMicros;
+    this.maxQueueTimeMicros = maxQueueTimeMicros;
+    this.rejected = rejected;
+    this.timeouts = timeouts;
+  } // constructor
+
+  public SignerPriority getPriority() {
+    return priority;
+  }
+
+  /**
+   * Returns the maximal number of requests of this class which may wait for a signer.
+   * @return the capacity of the queue.
+   */
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Returns the number of requests currently waiting for a signer.
+   * @return the number of waiting requests.
+   */
+  public int getWaiting() {
+    return waiting;
+  }
+
+  /**
+   * Returns the number of borrowed signers, including those borrowed without waiting.
+   * @return the number of borrowed signers.
+   */
+  public long getBorrows() {
+    return borrows;
+  }
+
+  /**
+   * Returns the number of signers borrowed after having waited in the queue.
+   * @return the number of signers borrowed after having waited.
+   */
+  public long getQueuedBorrows() {
+    return queuedBorrows;
+  }
+
+  public long getTotalQueueTimeMicros() {
+    return totalQueueTimeMicros;
+  }
+
+  public long getMaxQueueTimeMicros() {
+    return maxQueueTimeMicros;
+  }
+
+  /**
+   * Returns the average time a borrowed signer has been waited for, in microseconds.
+   * @return the average queue time.
+   */
+  public long getAverageQueueTimeMicros() {
+    return (borrows == 0) ? 0 : totalQueueTimeMicros / borrows;
+  }
+
+  /**
+   * Returns the number of requests rejected with {@link SignerBusyException} because the queue
+   * was full.
+   * @return the number of rejected requests.
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * Returns the number of requests which did not get a signer within their timeout.
+   * @return the number of timed out requests.
+   */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  @Override
+  public String toString() {
+    return priority + ": queueSize=" + queueSize + ", waiting=" + waiting
+        + ", borrows=" + borrows + ", queuedBorrows=" + queuedBorrows
+        + ", avgQueueTimeUs=" + getAverageQueueTimeMicros()
+        + ", maxQueueTimeUs=" + maxQueueTimeMicros
+        + ", rejected=" + rejected + ", timeouts=" + timeouts;
+  } // method toString
+
+}
@@ -59,6 +59,11 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 /**
  * PKCS#11 {@link XiContentSigner}.
  *
+ * <p>In the pre-hash mode, DSA, ECDSA, RSA, RSAPSS and SM2 signers compute the digest in the
+ * JVM and let the token sign only the digest (CKM_DSA, CKM_ECDSA, CKM_RSA_PKCS,
+ * CKM_RSA_PKCS_PSS and CKM_VENDOR_SM2), if the token supports the mechanism. Otherwise the
+ * whole message is sent to the token. EdDSA and HMAC always send the whole message.
+ *
  * @author Lijun Liao
  *
  */
@@ -133,7 +138,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     } // method static
 
     DSA(P11CryptService cryptService, P11IdentityId identityId,
-        AlgorithmIdentifier signatureAlgId, boolean plain)
+        AlgorithmIdentifier signatureAlgId, boolean plain, boolean preHash)
         throws XiSecurityException, P11TokenException {
       super(cryptService, identityId, signatureAlgId);
 
@@ -149,7 +154,10 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Slot slot = cryptService.getSlot(slotId);
 
       long mech = hashMechMap.get(hashAlgo).longValue();
-      if (slot.supportsMechanism(mech)) {
+      if (preHash && slot.supportsMechanism(PKCS11Constants.CKM_DSA)) {
+        mechanism = PKCS11Constants.CKM_DSA;
+        this.outputStream = new DigestOutputStream(hashAlgo.createDigest());
+      } else if (slot.supportsMechanism(mech)) {
         mechanism = mech;
         this.outputStream = new ByteArrayOutputStream();
       } else if (slot.supportsMechanism(PKCS11Constants.CKM_DSA)) {
@@ -241,7 +249,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     } // method static
 
     ECDSA(P11CryptService cryptService, P11IdentityId identityId,
-        AlgorithmIdentifier signatureAlgId, boolean plain)
+        AlgorithmIdentifier signatureAlgId, boolean plain, boolean preHash)
         throws XiSecurityException, P11TokenException {
       super(cryptService, identityId, signatureAlgId);
 
@@ -256,7 +264,10 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Slot slot = cryptService.getSlot(identityId.getSlotId());
 
       long mech = hashMechMap.get(hashAlgo).longValue();
-      if (slot.supportsMechanism(mech)) {
+      if (preHash && slot.supportsMechanism(PKCS11Constants.CKM_ECDSA)) {
+        mechanism = PKCS11Constants.CKM_ECDSA;
+        this.outputStream = new DigestOutputStream(hashAlgo.createDigest());
+      } else if (slot.supportsMechanism(mech)) {
         mechanism = mech;
         this.outputStream = new ByteArrayOutputStream();
       } else if (slot.supportsMechanism(PKCS11Constants.CKM_ECDSA)) {
@@ -458,7 +469,8 @@ abstract class P11ContentSigner implements XiContentSigner {
     } // method static
 
     RSA(P11CryptService cryptService, P11IdentityId identityId,
-        AlgorithmIdentifier signatureAlgId) throws XiSecurityException, P11TokenException {
+        AlgorithmIdentifier signatureAlgId, boolean preHash)
+        throws XiSecurityException, P11TokenException {
       super(cryptService, identityId, signatureAlgId);
 
       ASN1ObjectIdentifier algOid = signatureAlgId.getAlgorithm();
@@ -471,7 +483,9 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Slot slot = cryptService.getSlot(slotId);
 
       long mech = hashAlgMechMap.get(hashAlgo).longValue();
-      if (slot.supportsMechanism(mech)) {
+      if (preHash && slot.supportsMechanism(PKCS11Constants.CKM_RSA_PKCS)) {
+        mechanism = PKCS11Constants.CKM_RSA_PKCS;
+      } else if (slot.supportsMechanism(mech)) {
         mechanism = mech;
       } else if (slot.supportsMechanism(PKCS11Constants.CKM_RSA_PKCS)) {
         mechanism = PKCS11Constants.CKM_RSA_PKCS;
@@ -599,7 +613,7 @@ abstract class P11ContentSigner implements XiContentSigner {
     private final OutputStream outputStream;
 
     RSAPSS(P11CryptService cryptService, P11IdentityId identityId,
-        AlgorithmIdentifier signatureAlgId, SecureRandom random)
+        AlgorithmIdentifier signatureAlgId, SecureRandom random, boolean preHash)
         throws XiSecurityException, P11TokenException {
       super(cryptService, identityId, signatureAlgId);
       notNull(random, "random");
@@ -621,7 +635,11 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Slot slot = cryptService.getSlot(slotId);
 
       long mech = hashAlgMechMap.get(hashAlgo).longValue();
-      if (slot.supportsMechanism(mech)) {
+      if (preHash && slot.supportsMechanism(PKCS11Constants.CKM_RSA_PKCS_PSS)) {
+        this.mechanism = PKCS11Constants.CKM_RSA_PKCS_PSS;
+        this.parameters = new P11Params.P11RSAPkcsPssParams(asn1Params);
+        this.outputStream = new DigestOutputStream(hashAlgo.createDigest());
+      } else if (slot.supportsMechanism(mech)) {
         this.mechanism = mech;
         this.parameters = new P11Params.P11RSAPkcsPssParams(asn1Params);
         this.outputStream = new ByteArrayOutputStream();
@@ -710,7 +728,7 @@ abstract class P11ContentSigner implements XiContentSigner {
 
     SM2(P11CryptService cryptService, P11IdentityId identityId,
         AlgorithmIdentifier signatureAlgId, ASN1ObjectIdentifier curveOid, BigInteger pubPointX,
-        BigInteger pubPointY) throws XiSecurityException, P11TokenException {
+        BigInteger pubPointY, boolean preHash) throws XiSecurityException, P11TokenException {
       super(cryptService, identityId, signatureAlgId);
 
       String algOid = signatureAlgId.getAlgorithm().getId();
@@ -722,7 +740,8 @@ abstract class P11ContentSigner implements XiContentSigner {
       P11Slot slot = cryptService.getSlot(identityId.getSlotId());
 
       long mech = hashMechMap.get(hashAlgo);
-      if (slot.supportsMechanism(mech)) {
+      if (slot.supportsMechanism(mech)
+          && !(preHash && slot.supportsMechanism(PKCS11Constants.CKM_VENDOR_SM2))) {
         this.mechanism = mech;
         this.z = null; // not required
         this.outputStream = new ByteArrayOutputStream();
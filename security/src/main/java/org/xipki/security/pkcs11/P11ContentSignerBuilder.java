@@ -120,6 +120,27 @@ public class P11ContentSignerBuilder {
 
   public ConcurrentContentSigner createSigner(AlgorithmIdentifier signatureAlgId,
       int parallelism) throws XiSecurityException, P11TokenException {
+    return createSigner(signatureAlgId, parallelism, false);
+  }
+
+  /**
+   * Creates a signer.
+   *
+   * @param signatureAlgId
+   *          Signature algorithm.
+   * @param parallelism
+   *          Number of signers which can be used concurrently.
+   * @param preHash
+   *          Whether to hash the message in the JVM and let the token sign only the digest,
+   *          if the algorithm and the token allow it.
+   * @return the signer.
+   * @throws XiSecurityException
+   *           If the signer could not be created.
+   * @throws P11TokenException
+   *           If PKCS#11 error happens.
+   */
+  public ConcurrentContentSigner createSigner(AlgorithmIdentifier signatureAlgId,
+      int parallelism, boolean preHash) throws XiSecurityException, P11TokenException {
     positive(parallelism, "parallelism");
 
     List<XiContentSigner> signers = new ArrayList<>(parallelism);
@@ -133,7 +154,7 @@ public class P11ContentSignerBuilder {
               "the given algorithm is not a valid RSA signature algorithm '"
               + signatureAlgId.getAlgorithm().getId() + "'");
         }
-        signer = createRSAContentSigner(signatureAlgId);
+        signer = createRSAContentSigner(signatureAlgId, preHash);
       } else if (publicKey instanceof ECPublicKey) {
         ECPublicKey ecKey = (ECPublicKey) publicKey;
 
@@ -157,9 +178,9 @@ public class P11ContentSignerBuilder {
         if (isSm2p256v1) {
           java.security.spec.ECPoint w = ecKey.getW();
           signer = createSM2ContentSigner(signatureAlgId, GMObjectIdentifiers.sm2p256v1,
-              w.getAffineX(), w.getAffineY());
+              w.getAffineX(), w.getAffineY(), preHash);
         } else {
-          signer = createECContentSigner(signatureAlgId);
+          signer = createECContentSigner(signatureAlgId, preHash);
         }
       } else if (publicKey instanceof DSAPublicKey) {
         if (i == 0 && !AlgorithmUtil.isDSASigAlg(signatureAlgId)) {
@@ -167,7 +188,7 @@ public class P11ContentSignerBuilder {
               "the given algorithm is not a valid DSA signature algorithm '"
               + signatureAlgId.getAlgorithm().getId() + "'");
         }
-        signer = createDSAContentSigner(signatureAlgId);
+        signer = createDSAContentSigner(signatureAlgId, preHash);
       } else if (publicKey instanceof EdDSAKey) {
         signer = createEdDSAContentSigner(signatureAlgId);
       } else {
@@ -195,36 +216,36 @@ public class P11ContentSignerBuilder {
   } // method createSigner
 
   // CHECKSTYLE:SKIP
-  private XiContentSigner createRSAContentSigner(AlgorithmIdentifier signatureAlgId)
-      throws XiSecurityException, P11TokenException {
+  private XiContentSigner createRSAContentSigner(AlgorithmIdentifier signatureAlgId,
+      boolean preHash) throws XiSecurityException, P11TokenException {
     if (PKCSObjectIdentifiers.id_RSASSA_PSS.equals(signatureAlgId.getAlgorithm())) {
       return new P11ContentSigner.RSAPSS(cryptService, identityId, signatureAlgId,
-          securityFactory.getRandom4Sign());
+          securityFactory.getRandom4Sign(), preHash);
     } else {
-      return new P11ContentSigner.RSA(cryptService, identityId, signatureAlgId);
+      return new P11ContentSigner.RSA(cryptService, identityId, signatureAlgId, preHash);
     }
   }
 
   // CHECKSTYLE:SKIP
-  private XiContentSigner createECContentSigner(AlgorithmIdentifier signatureAlgId)
-      throws XiSecurityException, P11TokenException {
+  private XiContentSigner createECContentSigner(AlgorithmIdentifier signatureAlgId,
+      boolean preHash) throws XiSecurityException, P11TokenException {
     return new P11ContentSigner.ECDSA(cryptService, identityId, signatureAlgId,
-        AlgorithmUtil.isDSAPlainSigAlg(signatureAlgId));
+        AlgorithmUtil.isDSAPlainSigAlg(signatureAlgId), preHash);
   }
 
   // CHECKSTYLE:SKIP
   private XiContentSigner createSM2ContentSigner(AlgorithmIdentifier signatureAlgId,
-      ASN1ObjectIdentifier curveOid, BigInteger pubPointX, BigInteger pubPointy)
+      ASN1ObjectIdentifier curveOid, BigInteger pubPointX, BigInteger pubPointy, boolean preHash)
       throws XiSecurityException, P11TokenException {
     return new P11ContentSigner.SM2(cryptService, identityId, signatureAlgId,
-        curveOid, pubPointX, pubPointy);
+        curveOid, pubPointX, pubPointy, preHash);
   }
 
   // CHECKSTYLE:SKIP
-  private XiContentSigner createDSAContentSigner(AlgorithmIdentifier signatureAlgId)
-      throws XiSecurityException, P11TokenException {
+  private XiContentSigner createDSAContentSigner(AlgorithmIdentifier signatureAlgId,
+      boolean preHash) throws XiSecurityException, P11TokenException {
     return new P11ContentSigner.DSA(cryptService, identityId, signatureAlgId,
-        AlgorithmUtil.isDSAPlainSigAlg(signatureAlgId));
+        AlgorithmUtil.isDSAPlainSigAlg(signatureAlgId), preHash);
   }
 
   // CHECKSTYLE:SKIP
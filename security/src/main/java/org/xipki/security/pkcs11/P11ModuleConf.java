@@ -307,6 +307,12 @@ public class P11ModuleConf {
 
   private final int maxMessageSize;
 
+  private final Integer maxSessions;
+
+  private final int minSessions;
+
+  private final int newSessionTimeout;
+
   private final long userType;
 
   private final P11NewObjectConf newObjectConf;
@@ -343,6 +349,26 @@ public class P11ModuleConf {
       throw new InvalidConfException("invalid maxMessageSize (< 128): " + maxMessageSize);
     }
 
+    this.maxSessions = moduleType.getMaxSessions();
+    if (maxSessions != null && maxSessions < 1) {
+      throw new InvalidConfException("invalid maxSessions (< 1): " + maxSessions);
+    }
+
+    this.minSessions = moduleType.getMinSessions();
+    if (minSessions < 1) {
+      throw new InvalidConfException("invalid minSessions (< 1): " + minSessions);
+    }
+
+    if (maxSessions != null && minSessions > maxSessions) {
+      throw new InvalidConfException("minSessions (" + minSessions
+          + ") may not be greater than maxSessions (" + maxSessions + ")");
+    }
+
+    this.newSessionTimeout = moduleType.getNewSessionTimeout();
+    if (newSessionTimeout < 0) {
+      throw new InvalidConfException("invalid newSessionTimeout (< 0): " + newSessionTimeout);
+    }
+
     // parse mechanismSets
     Map<String, Set<Long>> mechanismSetsMap = new HashMap<>(mechanismSets.size() * 3 / 2);
     for (Pkcs11conf.MechanismSet m : mechanismSets) {
@@ -473,6 +499,23 @@ public class P11ModuleConf {
     return maxMessageSize;
   }
 
+  /**
+   * Returns the maximal number of sessions per slot.
+   * @return the maximal number of sessions per slot, or {@code null} to derive it from the
+   *         token.
+   */
+  public Integer getMaxSessions() {
+    return maxSessions;
+  }
+
+  public int getMinSessions() {
+    return minSessions;
+  }
+
+  public int getNewSessionTimeout() {
+    return newSessionTimeout;
+  }
+
   public boolean isReadOnly() {
     return readOnly;
   }
@@ -0,0 +1,144 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11;
+
+/**
+ * Snapshot of the session pool of a {@link P11Slot}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class P11SessionPoolStatistics {
+
+  /**
+   * Upper bounds, in milliseconds, of the buckets of the borrow-wait histogram. The last
+   * bucket of the histogram counts the waits longer than the last bound.
+   */
+  public static final long[] WAIT_BUCKET_BOUNDS_MS = {0, 1, 5, 10, 50, 100, 500, 1000, 5000};
+
+  private final int maxSessions;
+
+  private final int openSessions;
+
+  private final int inUseSessions;
+
+  private final int waitingThreads;
+
+  private final long createdSessions;
+
+  private final long evictedSessions;
+
+  private final long borrowTimeouts;
+
+  private final long[] waitHistogram;
+
+  public P11SessionPoolStatistics(int maxSessions, int openSessions, int inUseSessions,
+      int waitingThreads, long createdSessions, long evictedSessions, long borrowTimeouts,
+      long[] waitHistogram) {
+    if (waitHistogram.length != WAIT_BUCKET_BOUNDS_MS.length + 1) {
+      throw new IllegalArgumentException("invalid waitHistogram.length " + waitHistogram.length);
+    }
+
+    this.maxSessions = maxSessions;
+    this.openSessions = openSessions;
+    this.inUseSessions = inUseSessions;
+    this.waitingThreads = waitingThreads;
+    this.createdSessions = createdSessions;
+    this.evictedSessions = evictedSessions;
+    this.borrowTimeouts = borrowTimeouts;
+    this.waitHistogram = waitHistogram.clone();
+  } // constructor
+
+  public int getMaxSessions() {
+    return maxSessions;
+  }
+
+  public int getOpenSessions() {
+    return openSessions;
+  }
+
+  public int getInUseSessions() {
+    return inUseSessions;
+  }
+
+  public int getIdleSessions() {
+    return Math.max(0, openSessions - inUseSessions);
+  }
+
+  public int getWaitingThreads() {
+    return waitingThreads;
+  }
+
+  /**
+   * Returns the number of sessions opened since the slot has been initialized.
+   * @return the number of opened sessions.
+   */
+  public long getCreatedSessions() {
+    return createdSessions;
+  }
+
+  /**
+   * Returns the number of sessions which have been discarded because the token reported
+   * them as invalid or closed.
+   * @return the number of discarded sessions.
+   */
+  public long getEvictedSessions() {
+    return evictedSessions;
+  }
+
+  public long getBorrowTimeouts() {
+    return borrowTimeouts;
+  }
+
+  /**
+   * Returns the number of borrowed sessions per wait time. The element {@code i} counts the
+   * borrows which waited at most {@code WAIT_BUCKET_BOUNDS_MS[i]} milliseconds and longer than
+   * the previous bound.
+   * @return the borrow-wait histogram.
+   */
+  public long[] getWaitHistogram() {
+    return waitHistogram.clone();
+  }
+
+  public long getBorrowCount() {
+    long sum = 0;
+    for (long v : waitHistogram) {
+      sum += v;
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("sessions: max=").append(maxSessions).append(", open=").append(openSessions)
+      .append(", inUse=").append(inUseSessions).append(", waiting=").append(waitingThreads)
+      .append(", created=").append(createdSessions).append(", evicted=").append(evictedSessions)
+      .append(", borrowTimeouts=").append(borrowTimeouts).append(", borrowWaitMs={");
+    for (int i = 0; i < waitHistogram.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(i < WAIT_BUCKET_BOUNDS_MS.length ? "<=" + WAIT_BUCKET_BOUNDS_MS[i]
+          : ">" + WAIT_BUCKET_BOUNDS_MS[i - 1]).append(": ").append(waitHistogram[i]);
+    }
+    return sb.append("}").toString();
+  } // method toString
+
+}
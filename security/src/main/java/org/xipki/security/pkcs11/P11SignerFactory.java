@@ -106,6 +106,9 @@ public class P11SignerFactory implements SignerFactory {
       }
     }
 
+    // hash in the JVM and send only the digest to the token.
+    boolean preHash = Boolean.parseBoolean(conf.getConfValue("prehash"));
+
     String moduleName = conf.getConfValue("module");
     str = conf.getConfValue("slot");
     Integer slotIndex = (str == null) ? null : Integer.parseInt(str);
@@ -180,7 +183,7 @@ public class P11SignerFactory implements SignerFactory {
 
         P11ContentSignerBuilder signerBuilder = new P11ContentSignerBuilder(p11Service,
             securityFactory, identityId, certificateChain);
-        return signerBuilder.createSigner(signatureAlgId, parallelism);
+        return signerBuilder.createSigner(signatureAlgId, parallelism, preHash);
       }
     } catch (P11TokenException | NoSuchAlgorithmException | XiSecurityException ex) {
       throw new ObjectCreationException(ex.getMessage(), ex);
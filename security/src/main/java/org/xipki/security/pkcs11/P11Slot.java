@@ -448,6 +448,16 @@ public abstract class P11Slot implements Closeable {
   @Override
   public abstract void close();
 
+  /**
+   * Returns the statistics of the session pool.
+   *
+   * @return the statistics of the session pool, or {@code null} if the slot does not pool
+   *         sessions.
+   */
+  public P11SessionPoolStatistics getSessionPoolStatistics() {
+    return null;
+  }
+
   /**
    * Remove objects.
    *
@@ -147,6 +147,21 @@ public class Pkcs11conf extends ValidatableConf {
      */
     private Integer maxMessageSize;
 
+    /**
+     * maximal number of sessions opened on a slot. Absent to derive it from the token.
+     */
+    private Integer maxSessions;
+
+    /**
+     * number of sessions opened and logged in while initializing a slot, default 1.
+     */
+    private Integer minSessions;
+
+    /**
+     * maximal time in milliseconds to wait for an idle session, default 10000.
+     */
+    private Integer newSessionTimeout;
+
     private List<PasswordSet> passwordSets;
 
     private List<MechanimFilter> mechanismFilters;
@@ -254,6 +269,30 @@ public class Pkcs11conf extends ValidatableConf {
       return maxMessageSize == null ? 16384 : maxMessageSize.intValue();
     }
 
+    public Integer getMaxSessions() {
+      return maxSessions;
+    }
+
+    public void setMaxSessions(Integer maxSessions) {
+      this.maxSessions = maxSessions;
+    }
+
+    public int getMinSessions() {
+      return minSessions == null ? 1 : minSessions.intValue();
+    }
+
+    public void setMinSessions(Integer minSessions) {
+      this.minSessions = minSessions;
+    }
+
+    public int getNewSessionTimeout() {
+      return newSessionTimeout == null ? 10000 : newSessionTimeout.intValue();
+    }
+
+    public void setNewSessionTimeout(Integer newSessionTimeout) {
+      this.newSessionTimeout = newSessionTimeout;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notBlank(name, "name");
@@ -144,7 +144,9 @@ public class IaikP11Module extends P11Module {
       }
       P11Slot p11Slot = new IaikP11Slot(moduleConf.getName(), slotId, slot,
           moduleConf.isReadOnly(), moduleConf.getUserType(), pwd, moduleConf.getMaxMessageSize(),
-          moduleConf.getP11MechanismFilter(), moduleConf.getP11NewObjectConf());
+          moduleConf.getMaxSessions(), moduleConf.getMinSessions(),
+          moduleConf.getNewSessionTimeout(), moduleConf.getP11MechanismFilter(),
+          moduleConf.getP11NewObjectConf());
 
       slots.add(p11Slot);
     }
@@ -17,6 +17,7 @@
 
 package org.xipki.security.pkcs11.iaik;
 
+import static org.xipki.util.Args.notNegative;
 import static org.xipki.util.Args.notNull;
 import static org.xipki.util.Args.positive;
 import static org.xipki.util.CollectionUtil.isEmpty;
@@ -36,8 +37,6 @@ import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.DEROctetString;
@@ -56,6 +55,7 @@ import org.xipki.security.pkcs11.P11ModuleConf.P11MechanismFilter;
 import org.xipki.security.pkcs11.P11ModuleConf.P11NewObjectConf;
 import org.xipki.security.pkcs11.P11ObjectIdentifier;
 import org.xipki.security.pkcs11.P11Params;
+import org.xipki.security.pkcs11.P11SessionPoolStatistics;
 import org.xipki.security.pkcs11.P11Slot;
 import org.xipki.security.pkcs11.P11SlotIdentifier;
 import org.xipki.security.pkcs11.P11TokenException;
@@ -63,7 +63,6 @@ import org.xipki.security.pkcs11.P11UnknownEntityException;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.LogUtil;
-import org.xipki.util.concurrent.ConcurrentBag;
 import org.xipki.util.concurrent.ConcurrentBagEntry;
 
 import iaik.pkcs.pkcs11.Mechanism;
@@ -122,26 +121,43 @@ class IaikP11Slot extends P11Slot {
 
   private List<char[]> password;
 
-  private int maxSessionCount;
-
-  private long timeOutWaitNewSession = 10000; // maximal wait for 10 second
-
-  private final AtomicLong countSessions = new AtomicLong(0);
-
   private final SecureRandom random = new SecureRandom();
 
   private final P11NewObjectConf newObjectConf;
 
-  private final ConcurrentBag<ConcurrentBagEntry<Session>> sessions = new ConcurrentBag<>();
+  private final P11SessionPool<Session> sessions;
 
   IaikP11Slot(String moduleName, P11SlotIdentifier slotId, Slot slot, boolean readOnly,
-      long userType, List<char[]> password, int maxMessageSize, P11MechanismFilter mechanismFilter,
+      long userType, List<char[]> password, int maxMessageSize, Integer maxSessions,
+      int minSessions, int newSessionTimeout, P11MechanismFilter mechanismFilter,
       P11NewObjectConf newObjectConf) throws P11TokenException {
     super(moduleName, slotId, readOnly, mechanismFilter);
 
     this.newObjectConf = notNull(newObjectConf, "newObjectConf");
     this.slot = notNull(slot, "slot");
     this.maxMessageSize = positive(maxMessageSize, "maxMessageSize");
+    positive(minSessions, "minSessions");
+    this.sessions = new P11SessionPool<>(new P11SessionPool.SessionFactory<Session>() {
+      @Override
+      public Session openSession() throws P11TokenException {
+        return IaikP11Slot.this.openSession();
+      }
+
+      @Override
+      public void login(Session session) throws P11TokenException {
+        IaikP11Slot.this.login(session);
+      }
+
+      @Override
+      public void closeSession(Session session) {
+        IaikP11Slot.closeSession(session);
+      }
+
+      @Override
+      public boolean isSessionInvalid(P11TokenException ex) {
+        return IaikP11Slot.isSessionInvalid(ex.getCause());
+      }
+    }, notNegative(newSessionTimeout, "newSessionTimeout"));
 
     this.userType = userType;
     if (userType == PKCS11Constants.CKU_SO) {
@@ -162,7 +178,7 @@ class IaikP11Slot extends P11Slot {
       Session session;
       try {
         // SO (Security Officer) cannot login in READ-ONLY session
-        session = openSession();
+        session = sessions.openSession();
       } catch (P11TokenException ex) {
         LogUtil.error(LOG, ex, "openSession");
         throw ex;
@@ -195,10 +211,19 @@ class IaikP11Slot extends P11Slot {
         // 2 sessions as buffer, they may be used elsewhere.
         maxSessionCount2 = (maxSessionCount2 < 3) ? 1 : maxSessionCount2 - 2;
       }
-      this.maxSessionCount = (int) maxSessionCount2;
-      LOG.info("maxSessionCount: {}", this.maxSessionCount);
+      if (maxSessions != null) {
+        if (maxSessions > maxSessionCount2) {
+          LOG.warn("maxSessions {} is greater than the derived maxSessionCount {}",
+              maxSessions, maxSessionCount2);
+        }
+        maxSessionCount2 = positive(maxSessions, "maxSessions");
+      }
 
-      sessions.add(new ConcurrentBagEntry<Session>(session));
+      sessions.setMaxSessions((int) maxSessionCount2);
+      LOG.info("maxSessionCount: {}", maxSessionCount2);
+
+      sessions.add(session);
+      sessions.openInitialSessions(minSessions);
       refresh();
       successful = true;
     } finally {
@@ -285,24 +310,21 @@ class IaikP11Slot extends P11Slot {
   @Override
   public final void close() {
     if (slot != null) {
-      try {
-        LOG.info("close all sessions on token: {}", slot.getSlotID());
-
-        for (ConcurrentBagEntry<Session> session : sessions.values()) {
-          session.value().closeSession();
-        }
-      } catch (Throwable th) {
-        LogUtil.error(LOG, th, "could not slot.getToken().closeAllSessions()");
-      }
-
+      LOG.info("close all sessions on token: {}", slot.getSlotID());
       slot = null;
     }
 
-    // clear the session pool
+    LOG.info("closed slot {}, {}", slotId, getSessionPoolStatistics());
+
+    // close the sessions and clear the session pool
     sessions.close();
-    countSessions.lazySet(0);
   } // method close
 
+  @Override
+  public P11SessionPoolStatistics getSessionPoolStatistics() {
+    return sessions.getStatistics();
+  }
+
   private void analyseSingleKey(SecretKey secretKey, P11SlotRefreshResult refreshResult) {
     byte[] id = secretKey.getId().getByteArrayValue();
     char[] label = secretKey.getLabel().getCharArrayValue();
@@ -388,19 +410,26 @@ class IaikP11Slot extends P11Slot {
     Mechanism mechanismObj = Mechanism.get(mechanism);
 
     try {
-      Session session = session0.value();
       try {
-        return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
+        return digestKey0(session0.value(), digestLen, mechanismObj, (SecretKey) key);
       } catch (PKCS11Exception ex) {
-        if (ex.getErrorCode() != PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+        long errorCode = ex.getErrorCode();
+        if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+          LOG.info("digestKey ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
+          // force the login
+          forceLogin(session0.value());
+        } else if (isSessionInvalid(errorCode)) {
+          LOG.info("digestKey ended with ERROR {}, retry it with another session",
+              Functions.errorCodeToString(errorCode));
+          sessions.evict(session0);
+          session0 = null;
+          session0 = borrowSession();
+        } else {
           throw new P11TokenException(ex.getMessage(), ex);
         }
 
-        LOG.info("digestKey ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
-        // force the login
-        forceLogin(session);
         try {
-          return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
+          return digestKey0(session0.value(), digestLen, mechanismObj, (SecretKey) key);
         } catch (TokenException ex2) {
           throw new P11TokenException(ex2.getMessage(), ex2);
         }
@@ -408,7 +437,9 @@ class IaikP11Slot extends P11Slot {
         throw new P11TokenException(ex.getMessage(), ex);
       }
     } finally {
-      sessions.requite(session0);
+      if (session0 != null) {
+        sessions.requite(session0);
+      }
     }
   } // method digestKey
 
@@ -453,21 +484,29 @@ class IaikP11Slot extends P11Slot {
 
     ConcurrentBagEntry<Session> session0 = borrowSession();
     try {
-      Session session = session0.value();
       try {
-        return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
+        return sign0(session0.value(), expectedSignatureLen, mechanismObj, content, signingKey);
       } catch (PKCS11Exception ex) {
         long errorCode = ex.getErrorCode();
         if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
           LOG.info("sign ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
           // force the login
-          forceLogin(session);
-          return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
+          forceLogin(session0.value());
+        } else if (isSessionInvalid(errorCode)) {
+          LOG.info("sign ended with ERROR {}, retry it with another session",
+              Functions.errorCodeToString(errorCode));
+          sessions.evict(session0);
+          session0 = null;
+          session0 = borrowSession();
         } else {
           throw ex;
         }
+
+        return sign0(session0.value(), expectedSignatureLen, mechanismObj, content, signingKey);
       } finally {
-        sessions.requite(session0);
+        if (session0 != null) {
+          sessions.requite(session0);
+        }
       }
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
@@ -537,40 +576,30 @@ class IaikP11Slot extends P11Slot {
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
     }
-    countSessions.incrementAndGet();
     return session;
   } // method openSession
 
-  private ConcurrentBagEntry<Session> borrowSession() throws P11TokenException {
-    ConcurrentBagEntry<Session> session = null;
-    synchronized (sessions) {
-      if (countSessions.get() < maxSessionCount) {
-        try {
-          session = sessions.borrow(1, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-        }
-
-        if (session == null) {
-          // create new session
-          sessions.add(new ConcurrentBagEntry<>(openSession()));
-        }
-      }
+  private static void closeSession(Session session) {
+    try {
+      session.closeSession();
+    } catch (Throwable th) {
+      LogUtil.warn(LOG, th, "could not close session");
     }
+  }
 
-    if (session == null) {
-      try {
-        session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-      }
-    }
+  private ConcurrentBagEntry<Session> borrowSession() throws P11TokenException {
+    return sessions.borrow();
+  }
 
-    if (session == null) {
-      throw new P11TokenException("no idle session");
-    }
+  private static boolean isSessionInvalid(Throwable th) {
+    return (th instanceof PKCS11Exception)
+        && isSessionInvalid(((PKCS11Exception) th).getErrorCode());
+  }
 
-    login(session.value());
-    return session;
-  } // method borrowSession
+  private static boolean isSessionInvalid(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_CLOSED;
+  }
 
   private void firstLogin(Session session, List<char[]> password) throws P11TokenException {
     try {
@@ -0,0 +1,294 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.iaik;
+
+import static org.xipki.util.Args.notNegative;
+import static org.xipki.util.Args.notNull;
+import static org.xipki.util.Args.positive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.pkcs11.P11SessionPoolStatistics;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.LogUtil;
+import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
+import org.xipki.util.concurrent.ConcurrentBagEntry;
+
+/**
+ * Pool of the sessions of a slot. Sessions are opened on demand up to {@code maxSessions}
+ * without any global lock. Sessions reported as invalid by the token are closed and replaced.
+ *
+ * @param <S> type of the session.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+class P11SessionPool<S> {
+
+  /**
+   * Opens, logs in and closes the sessions of the pool.
+   *
+   * @param <S> type of the session.
+   */
+  interface SessionFactory<S> {
+
+    S openSession() throws P11TokenException;
+
+    /**
+     * Logs in the session if it is not logged in yet.
+     */
+    void login(S session) throws P11TokenException;
+
+    void closeSession(S session);
+
+    /**
+     * Returns whether the exception reports the session as invalid or closed.
+     */
+    boolean isSessionInvalid(P11TokenException ex);
+
+  } // interface SessionFactory
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11SessionPool.class);
+
+  private final SessionFactory<S> factory;
+
+  private final long newSessionTimeoutMs;
+
+  private int maxSessions = 1;
+
+  // number of open sessions, including those being opened.
+  private final AtomicLong countSessions = new AtomicLong(0);
+
+  private final AtomicLong countCreatedSessions = new AtomicLong(0);
+
+  private final AtomicLong countEvictedSessions = new AtomicLong(0);
+
+  private final AtomicLong countBorrowTimeouts = new AtomicLong(0);
+
+  private final AtomicLongArray borrowWaits =
+      new AtomicLongArray(P11SessionPoolStatistics.WAIT_BUCKET_BOUNDS_MS.length + 1);
+
+  private final ConcurrentBag<ConcurrentBagEntry<S>> sessions = new ConcurrentBag<>();
+
+  P11SessionPool(SessionFactory<S> factory, long newSessionTimeoutMs) {
+    this.factory = notNull(factory, "factory");
+    this.newSessionTimeoutMs = notNegative(newSessionTimeoutMs, "newSessionTimeoutMs");
+  }
+
+  int getMaxSessions() {
+    return maxSessions;
+  }
+
+  void setMaxSessions(int maxSessions) {
+    this.maxSessions = positive(maxSessions, "maxSessions");
+  }
+
+  /**
+   * Opens a new session which is not added to the pool yet.
+   */
+  S openSession() throws P11TokenException {
+    S session = factory.openSession();
+    countCreatedSessions.incrementAndGet();
+    return session;
+  }
+
+  /**
+   * Adds the opened and logged-in session to the pool.
+   */
+  void add(S session) {
+    countSessions.incrementAndGet();
+    sessions.add(new ConcurrentBagEntry<>(session));
+  }
+
+  /**
+   * Opens and logs in sessions until {@code count} sessions are open.
+   */
+  void openInitialSessions(int count) {
+    count = Math.min(count, maxSessions);
+    for (int i = (int) countSessions.get(); i < count; i++) {
+      S session;
+      try {
+        session = openSession();
+      } catch (P11TokenException ex) {
+        LogUtil.warn(LOG, ex, "could open only " + i + " of " + count + " initial sessions");
+        break;
+      }
+
+      try {
+        factory.login(session);
+      } catch (P11TokenException ex) {
+        LogUtil.warn(LOG, ex, "could not login the initial session " + (i + 1));
+        factory.closeSession(session);
+        break;
+      }
+
+      add(session);
+    }
+
+    LOG.info("opened {} initial sessions", countSessions.get());
+  } // method openInitialSessions
+
+  /**
+   * Borrows an idle session. If there is no idle session and less than maxSessions
+   * sessions are open, a new session is opened, otherwise waits for an idle session. The
+   * borrowed session is checked, sessions reported as invalid or closed by the token are
+   * replaced.
+   */
+  ConcurrentBagEntry<S> borrow() throws P11TokenException {
+    final long start = System.nanoTime();
+    final long deadline = start + TimeUnit.MILLISECONDS.toNanos(newSessionTimeoutMs);
+
+    // each failed attempt evicts one session
+    for (int i = 0; ; i++) {
+      ConcurrentBagEntry<S> session = borrow0(deadline);
+      try {
+        factory.login(session.value());
+      } catch (P11TokenException ex) {
+        if (i < maxSessions && factory.isSessionInvalid(ex)) {
+          LOG.info("evict invalid session: {}", ex.getMessage());
+          evict(session);
+          continue;
+        }
+
+        sessions.requite(session);
+        throw ex;
+      }
+
+      recordBorrowWait(System.nanoTime() - start);
+      return session;
+    }
+  } // method borrow
+
+  private ConcurrentBagEntry<S> borrow0(long deadline) throws P11TokenException {
+    ConcurrentBagEntry<S> session = null;
+    try {
+      session = sessions.borrow(1, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (session != null) {
+      return session;
+    }
+
+    // reserve a place for the new session, the session is opened without any lock.
+    while (true) {
+      long count = countSessions.get();
+      if (count >= maxSessions) {
+        break;
+      }
+
+      if (countSessions.compareAndSet(count, count + 1)) {
+        try {
+          session = new ConcurrentBagEntry<>(openSession());
+        } catch (P11TokenException ex) {
+          countSessions.decrementAndGet();
+          if (countSessions.get() == 0) {
+            throw ex;
+          }
+          LogUtil.warn(LOG, ex, "could not open new session, wait for an idle one");
+          break;
+        }
+
+        // the new session is used by this thread.
+        session.setState(IConcurrentBagEntry.STATE_IN_USE);
+        try {
+          sessions.add(session);
+        } catch (IllegalStateException ex) {
+          factory.closeSession(session.value());
+          throw new P11TokenException("slot has been closed");
+        }
+        return session;
+      }
+    }
+
+    long waitNs = deadline - System.nanoTime();
+    if (waitNs > 0) {
+      try {
+        session = sessions.borrow(waitNs, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (session == null) {
+      countBorrowTimeouts.incrementAndGet();
+      throw new P11TokenException("no idle session");
+    }
+
+    return session;
+  } // method borrow0
+
+  void requite(ConcurrentBagEntry<S> session) {
+    sessions.requite(session);
+  }
+
+  /**
+   * Removes the borrowed session from the pool and closes it.
+   */
+  void evict(ConcurrentBagEntry<S> session) {
+    if (sessions.remove(session)) {
+      countSessions.decrementAndGet();
+    }
+    countEvictedSessions.incrementAndGet();
+    factory.closeSession(session.value());
+  } // method evict
+
+  private void recordBorrowWait(long waitNs) {
+    long waitMs = TimeUnit.NANOSECONDS.toMillis(waitNs);
+    long[] bounds = P11SessionPoolStatistics.WAIT_BUCKET_BOUNDS_MS;
+    int idx = 0;
+    while (idx < bounds.length && waitMs > bounds[idx]) {
+      idx++;
+    }
+    borrowWaits.incrementAndGet(idx);
+  } // method recordBorrowWait
+
+  P11SessionPoolStatistics getStatistics() {
+    long[] waits = new long[borrowWaits.length()];
+    for (int i = 0; i < waits.length; i++) {
+      waits[i] = borrowWaits.get(i);
+    }
+
+    return new P11SessionPoolStatistics(maxSessions, (int) countSessions.get(),
+        sessions.getCount(IConcurrentBagEntry.STATE_IN_USE), sessions.getWaitingThreadCount(),
+        countCreatedSessions.get(), countEvictedSessions.get(), countBorrowTimeouts.get(), waits);
+  } // method getStatistics
+
+  /**
+   * Closes all sessions of the pool. Sessions cannot be borrowed afterwards.
+   */
+  void close() {
+    List<ConcurrentBagEntry<S>> entries = new ArrayList<>(sessions.values());
+    for (ConcurrentBagEntry<S> session : entries) {
+      factory.closeSession(session.value());
+    }
+
+    sessions.close();
+    countSessions.lazySet(0);
+  } // method close
+
+}
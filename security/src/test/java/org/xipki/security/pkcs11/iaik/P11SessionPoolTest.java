@@ -0,0 +1,329 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.iaik;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.pkcs11.P11SessionPoolStatistics;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.concurrent.ConcurrentBagEntry;
+
+/**
+ * P11SessionPool test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class P11SessionPoolTest {
+
+  private static class MockSession {
+
+    private final int id;
+
+    private volatile boolean invalid;
+
+    private volatile boolean closed;
+
+    MockSession(int id) {
+      this.id = id;
+    }
+
+  } // class MockSession
+
+  private static class MockSessionFactory implements P11SessionPool.SessionFactory<MockSession> {
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private final List<MockSession> openedSessions = new ArrayList<>();
+
+    private volatile boolean openFails;
+
+    @Override
+    public MockSession openSession() throws P11TokenException {
+      if (openFails) {
+        throw new P11TokenException("CKR_SESSION_COUNT");
+      }
+
+      MockSession session = new MockSession(nextId.incrementAndGet());
+      synchronized (openedSessions) {
+        openedSessions.add(session);
+      }
+      return session;
+    }
+
+    @Override
+    public void login(MockSession session) throws P11TokenException {
+      if (session.closed) {
+        throw new IllegalStateException("session " + session.id + " has been closed");
+      }
+
+      if (session.invalid) {
+        throw new P11TokenException("CKR_SESSION_HANDLE_INVALID",
+            new IllegalStateException("invalid"));
+      }
+    }
+
+    @Override
+    public void closeSession(MockSession session) {
+      session.closed = true;
+    }
+
+    @Override
+    public boolean isSessionInvalid(P11TokenException ex) {
+      return ex.getCause() instanceof IllegalStateException;
+    }
+
+  } // class MockSessionFactory
+
+  private final MockSessionFactory factory = new MockSessionFactory();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private P11SessionPool<MockSession> pool;
+
+  @After
+  public void shutdown() {
+    if (pool != null) {
+      pool.close();
+    }
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void openInitialSessions() throws Exception {
+    createPool(4, 1000);
+    pool.add(pool.openSession());
+    pool.openInitialSessions(3);
+
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertEquals(3, stats.getOpenSessions());
+    Assert.assertEquals(3, stats.getIdleSessions());
+    Assert.assertEquals(3, stats.getCreatedSessions());
+
+    // minSessions greater than maxSessions
+    pool.openInitialSessions(10);
+    Assert.assertEquals(4, pool.getStatistics().getOpenSessions());
+  } // method openInitialSessions
+
+  @Test
+  public void reuseIdleSession() throws Exception {
+    createPool(4, 1000);
+    for (int i = 0; i < 10; i++) {
+      ConcurrentBagEntry<MockSession> session = pool.borrow();
+      Assert.assertEquals(1, session.value().id);
+      pool.requite(session);
+    }
+
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertEquals(1, stats.getCreatedSessions());
+    Assert.assertEquals(0, stats.getInUseSessions());
+    Assert.assertEquals(10, stats.getBorrowCount());
+  } // method reuseIdleSession
+
+  @Test
+  public void borrowTimeout() throws Exception {
+    createPool(2, 100);
+    ConcurrentBagEntry<MockSession> session1 = pool.borrow();
+    ConcurrentBagEntry<MockSession> session2 = pool.borrow();
+    Assert.assertTrue(session1.value().id != session2.value().id);
+
+    try {
+      pool.borrow();
+      Assert.fail("P11TokenException expected");
+    } catch (P11TokenException ex) {
+      Assert.assertEquals("no idle session", ex.getMessage());
+    }
+
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertEquals(2, stats.getOpenSessions());
+    Assert.assertEquals(2, stats.getInUseSessions());
+    Assert.assertEquals(2, stats.getCreatedSessions());
+    Assert.assertEquals(1, stats.getBorrowTimeouts());
+  } // method borrowTimeout
+
+  @Test
+  public void waitForIdleSession() throws Exception {
+    createPool(1, 10000);
+    ConcurrentBagEntry<MockSession> session = pool.borrow();
+
+    Future<ConcurrentBagEntry<MockSession>> waiting = submitBorrow();
+    waitForWaitingThreads(1);
+    // let the waiting borrow wait longer than the first bucket bound.
+    Thread.sleep(10);
+    pool.requite(session);
+
+    Assert.assertSame(session, waiting.get(10, TimeUnit.SECONDS));
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertEquals(1, stats.getCreatedSessions());
+    Assert.assertEquals(2, stats.getBorrowCount());
+    long[] histogram = stats.getWaitHistogram();
+    long waited = 0;
+    for (int i = 1; i < histogram.length; i++) {
+      waited += histogram[i];
+    }
+    Assert.assertTrue("waiting borrow not recorded", waited >= 1);
+  } // method waitForIdleSession
+
+  @Test
+  public void replaceInvalidSession() throws Exception {
+    createPool(2, 1000);
+    ConcurrentBagEntry<MockSession> session = pool.borrow();
+    pool.requite(session);
+    session.value().invalid = true;
+
+    ConcurrentBagEntry<MockSession> replaced = pool.borrow();
+    Assert.assertTrue(session.value().id != replaced.value().id);
+    Assert.assertTrue(session.value().closed);
+
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertEquals(1, stats.getOpenSessions());
+    Assert.assertEquals(2, stats.getCreatedSessions());
+    Assert.assertEquals(1, stats.getEvictedSessions());
+  } // method replaceInvalidSession
+
+  @Test
+  public void evictBorrowedSession() throws Exception {
+    createPool(1, 100);
+    ConcurrentBagEntry<MockSession> session = pool.borrow();
+    pool.evict(session);
+    Assert.assertTrue(session.value().closed);
+
+    // the place of the evicted session can be used by a new session.
+    ConcurrentBagEntry<MockSession> newSession = pool.borrow();
+    Assert.assertEquals(2, newSession.value().id);
+    Assert.assertEquals(1, pool.getStatistics().getOpenSessions());
+  } // method evictBorrowedSession
+
+  @Test
+  public void openSessionFails() throws Exception {
+    createPool(2, 10000);
+    factory.openFails = true;
+    try {
+      pool.borrow();
+      Assert.fail("P11TokenException expected");
+    } catch (P11TokenException ex) {
+      Assert.assertEquals("CKR_SESSION_COUNT", ex.getMessage());
+    }
+    Assert.assertEquals(0, pool.getStatistics().getOpenSessions());
+
+    // with an open session, the borrower waits for it.
+    factory.openFails = false;
+    ConcurrentBagEntry<MockSession> session = pool.borrow();
+    factory.openFails = true;
+    Future<ConcurrentBagEntry<MockSession>> waiting = submitBorrow();
+    waitForWaitingThreads(1);
+    pool.requite(session);
+    Assert.assertSame(session, waiting.get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(1, pool.getStatistics().getOpenSessions());
+  } // method openSessionFails
+
+  @Test
+  public void concurrentBorrow() throws Exception {
+    final int maxSessions = 3;
+    createPool(maxSessions, 10000);
+
+    final AtomicInteger inUse = new AtomicInteger();
+    final AtomicInteger maxInUse = new AtomicInteger();
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int j = 0; j < 200; j++) {
+            ConcurrentBagEntry<MockSession> session = pool.borrow();
+            int num = inUse.incrementAndGet();
+            while (true) {
+              int max = maxInUse.get();
+              if (num <= max || maxInUse.compareAndSet(max, num)) {
+                break;
+              }
+            }
+            Thread.yield();
+            inUse.decrementAndGet();
+            pool.requite(session);
+          }
+          return null;
+        }
+      }));
+    }
+
+    for (Future<Void> future : futures) {
+      future.get(60, TimeUnit.SECONDS);
+    }
+
+    P11SessionPoolStatistics stats = pool.getStatistics();
+    Assert.assertTrue("too many sessions in use: " + maxInUse.get(),
+        maxInUse.get() <= maxSessions);
+    Assert.assertTrue("too many sessions opened: " + stats.getCreatedSessions(),
+        stats.getCreatedSessions() <= maxSessions);
+    Assert.assertEquals(factory.openedSessions.size(), stats.getOpenSessions());
+    Assert.assertEquals(0, stats.getInUseSessions());
+    Assert.assertEquals(8 * 200, stats.getBorrowCount());
+    Assert.assertEquals(0, stats.getBorrowTimeouts());
+  } // method concurrentBorrow
+
+  @Test
+  public void closePool() throws Exception {
+    createPool(2, 100);
+    ConcurrentBagEntry<MockSession> session1 = pool.borrow();
+    ConcurrentBagEntry<MockSession> session2 = pool.borrow();
+    pool.requite(session1);
+    pool.requite(session2);
+
+    pool.close();
+    Assert.assertTrue(session1.value().closed);
+    Assert.assertTrue(session2.value().closed);
+    Assert.assertEquals(0, pool.getStatistics().getOpenSessions());
+  } // method closePool
+
+  private void createPool(int maxSessions, long newSessionTimeoutMs) {
+    pool = new P11SessionPool<>(factory, newSessionTimeoutMs);
+    pool.setMaxSessions(maxSessions);
+  }
+
+  private Future<ConcurrentBagEntry<MockSession>> submitBorrow() {
+    return executor.submit(new Callable<ConcurrentBagEntry<MockSession>>() {
+      @Override
+      public ConcurrentBagEntry<MockSession> call() throws Exception {
+        return pool.borrow();
+      }
+    });
+  } // method submitBorrow
+
+  private void waitForWaitingThreads(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pool.getStatistics().getWaitingThreads() < count) {
+      Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    // the waiting thread is blocked in the bag.
+    Thread.sleep(50);
+  } // method waitForWaitingThreads
+
+}
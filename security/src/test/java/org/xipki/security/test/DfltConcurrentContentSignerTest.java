@@ -0,0 +1,236 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.ConcurrentBagEntrySigner;
+import org.xipki.security.DfltConcurrentContentSigner;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.SignerBusyException;
+import org.xipki.security.SignerPriority;
+import org.xipki.security.SignerQueueStatistics;
+import org.xipki.security.XiContentSigner;
+
+/**
+ * DfltConcurrentContentSigner test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class DfltConcurrentContentSignerTest {
+
+  private static class MockContentSigner implements XiContentSigner {
+
+    private static final AlgorithmIdentifier ALGID = new AlgorithmIdentifier(
+        PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return ALGID;
+    }
+
+    @Override
+    public byte[] getEncodedAlgorithmIdentifier() {
+      try {
+        return ALGID.getEncoded();
+      } catch (IOException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      out.reset();
+      return out;
+    }
+
+    @Override
+    public byte[] getSignature() {
+      // the signature is the signed data.
+      return out.toByteArray();
+    }
+
+  } // class MockContentSigner
+
+  @Test
+  public void weightedRoundRobinHandoff() throws Exception {
+    final DfltConcurrentContentSigner signer = newSigner(1);
+    ConcurrentBagEntrySigner borrowed = signer.borrowSigner();
+
+    // queue 6 waiters of each priority, each records its priority when it gets the signer
+    // and returns the signer immediately.
+    final List<SignerPriority> served = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+    for (final SignerPriority priority : SignerPriority.values()) {
+      for (int i = 0; i < 6; i++) {
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              ConcurrentBagEntrySigner signer0 = signer.borrowSigner(priority, 60000);
+              served.add(priority);
+              signer.requiteSigner(signer0);
+            } catch (NoIdleSignerException ex) {
+              throw new IllegalStateException(ex);
+            }
+          }
+        });
+        thread.start();
+        threads.add(thread);
+        waitForWaiting(signer, priority, i + 1);
+      }
+    }
+
+    signer.requiteSigner(borrowed);
+    for (Thread thread : threads) {
+      thread.join(60000);
+    }
+
+    // weights: INTERACTIVE 4, OCSP 2, BATCH 1. The queues without waiters are skipped.
+    SignerPriority i = SignerPriority.INTERACTIVE;
+    SignerPriority o = SignerPriority.OCSP;
+    SignerPriority b = SignerPriority.BATCH;
+    List<SignerPriority> expected = Arrays.asList(i, i, i, i, o, o, b, i, i, o, o, b, o, o,
+        b, b, b, b);
+    Assert.assertEquals(expected, served);
+
+    for (SignerPriority priority : SignerPriority.values()) {
+      SignerQueueStatistics stats = signer.getQueueStatistics(priority);
+      Assert.assertEquals(0, stats.getWaiting());
+      Assert.assertEquals(6, stats.getQueuedBorrows());
+    }
+  } // method weightedRoundRobinHandoff
+
+  @Test
+  public void fullQueueRejects() throws Exception {
+    final DfltConcurrentContentSigner signer = newSigner(1);
+    signer.setQueueSize(SignerPriority.BATCH, 1);
+    ConcurrentBagEntrySigner borrowed = signer.borrowSigner();
+
+    Thread waiting = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          signer.requiteSigner(signer.borrowSigner(SignerPriority.BATCH, 60000));
+        } catch (NoIdleSignerException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+    });
+    waiting.start();
+    waitForWaiting(signer, SignerPriority.BATCH, 1);
+
+    try {
+      signer.borrowSigner(SignerPriority.BATCH, 60000);
+      Assert.fail("NoIdleSignerException expected");
+    } catch (NoIdleSignerException ex) {
+      // rejected immediately, callers handling NoIdleSignerException handle it.
+      Assert.assertTrue(ex instanceof SignerBusyException);
+    }
+
+    // the queues of the other priorities are not affected.
+    try {
+      signer.borrowSigner(SignerPriority.OCSP, 100);
+      Assert.fail("NoIdleSignerException expected");
+    } catch (SignerBusyException ex) {
+      Assert.fail("OCSP request rejected by the full BATCH queue");
+    } catch (NoIdleSignerException ex) {
+      // timeout: the signer is still borrowed.
+    }
+
+    signer.requiteSigner(borrowed);
+    waiting.join(60000);
+
+    SignerQueueStatistics stats = signer.getQueueStatistics(SignerPriority.BATCH);
+    Assert.assertEquals(1, stats.getRejected());
+    Assert.assertEquals(1, stats.getQueuedBorrows());
+    Assert.assertEquals(0, stats.getWaiting());
+  } // method fullQueueRejects
+
+  @Test
+  public void borrowTimeout() throws Exception {
+    DfltConcurrentContentSigner signer = newSigner(1);
+    ConcurrentBagEntrySigner borrowed = signer.borrowSigner();
+    try {
+      signer.borrowSigner(SignerPriority.OCSP, 100);
+      Assert.fail("NoIdleSignerException expected");
+    } catch (NoIdleSignerException ex) {
+      Assert.assertFalse(ex instanceof SignerBusyException);
+    }
+    signer.requiteSigner(borrowed);
+
+    SignerQueueStatistics stats = signer.getQueueStatistics(SignerPriority.OCSP);
+    Assert.assertEquals(1, stats.getTimeouts());
+    Assert.assertEquals(0, stats.getWaiting());
+
+    // the signer is idle again.
+    byte[] data = {1, 2, 3};
+    Assert.assertArrayEquals(data, signer.sign(data, SignerPriority.OCSP));
+  } // method borrowTimeout
+
+  @Test
+  public void borrowInterrupted() throws Exception {
+    DfltConcurrentContentSigner signer = newSigner(1);
+    ConcurrentBagEntrySigner borrowed = signer.borrowSigner();
+    Thread.currentThread().interrupt();
+    try {
+      signer.borrowSigner(SignerPriority.OCSP, 10000);
+      Assert.fail("NoIdleSignerException expected");
+    } catch (NoIdleSignerException ex) {
+      // the interrupt flag is restored, Thread.interrupted() clears it.
+      Assert.assertTrue("interrupt flag not restored", Thread.interrupted());
+    } finally {
+      Thread.interrupted();
+    }
+    signer.requiteSigner(borrowed);
+    Assert.assertEquals(0, signer.getQueueStatistics(SignerPriority.OCSP).getWaiting());
+  } // method borrowInterrupted
+
+  private static DfltConcurrentContentSigner newSigner(int count) throws Exception {
+    List<XiContentSigner> signers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      signers.add(new MockContentSigner());
+    }
+    return new DfltConcurrentContentSigner(false, signers);
+  } // method newSigner
+
+  private static void waitForWaiting(DfltConcurrentContentSigner signer,
+      SignerPriority priority, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (signer.getQueueStatistics(priority).getWaiting() < count) {
+      Assert.assertTrue("timeout", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  } // method waitForWaiting
+
+}
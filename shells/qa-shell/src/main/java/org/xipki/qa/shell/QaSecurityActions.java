@@ -488,7 +488,7 @@ public class QaSecurityActions {
     private String sigAlgo;
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       if (qlen == null) {
         qlen = (plen >= 2048) ? 256 : 160;
       }
@@ -541,7 +541,7 @@ public class QaSecurityActions {
     private String sigAlgo;
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       return new P11SignSpeed.EC(keyPresent, securityFactory, getSlot(), getKeyId(), keyLabel,
           sigAlgo, getNumThreads(), AlgorithmUtil.getCurveOidForCurveNameOrOid(curveName));
     }
@@ -580,7 +580,7 @@ public class QaSecurityActions {
     private String sigAlgo;
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       ASN1ObjectIdentifier curveOid = EdECConstants.getCurveOid(sigAlgo);
       if (curveOid == null) {
         throw new IllegalCmdParamException("invalid sigAlgo " + sigAlgo);
@@ -602,7 +602,7 @@ public class QaSecurityActions {
     private String sigAlgo;
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       return new P11SignSpeed.HMAC(keyPresent, securityFactory, getSlot(), getKeyId(), keyLabel,
           sigAlgo, getNumThreads());
     }
@@ -648,7 +648,7 @@ public class QaSecurityActions {
     private String sigAlgo;
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       return new P11SignSpeed.RSA(keyPresent, securityFactory, getSlot(), getKeyId(), keyLabel,
           sigAlgo, getNumThreads(), keysize, toBigInt(publicExponent));
     }
@@ -663,6 +663,25 @@ public class QaSecurityActions {
     @Option(name = "--key-label", description = "label of the PKCS#11 key")
     protected String keyLabel;
 
+    @Option(name = "--prehash",
+        description = "hash the message locally and let the PKCS#11 token sign only the digest")
+    private Boolean preHash = Boolean.FALSE;
+
+    @Option(name = "--message-size", description = "size of the message in bytes")
+    private Integer messageSize = 16;
+
+    protected abstract P11SignSpeed getSignTester() throws Exception;
+
+    @Override
+    protected BenchmarkExecutor getTester() throws Exception {
+      P11SignSpeed tester = getSignTester();
+      tester.setMessageSize(messageSize);
+      if (preHash) {
+        tester.setPreHash(true);
+      }
+      return tester;
+    }
+
   } // class SpeedP11SignAction
 
   @Command(scope = "xi", name = "speed-sm2-gen-p11",
@@ -688,7 +707,7 @@ public class QaSecurityActions {
   public static class SpeedSm2SignP11 extends SpeedP11SignAction {
 
     @Override
-    protected BenchmarkExecutor getTester() throws Exception {
+    protected P11SignSpeed getSignTester() throws Exception {
       return new P11SignSpeed.SM2(keyPresent, securityFactory, getSlot(), getKeyId(), keyLabel,
           getNumThreads());
     }
@@ -49,10 +49,32 @@ public class DefaultCurl implements Curl {
 
   private ObjectCreationException initException;
 
+  private int connectTimeoutMs;
+
+  private int readTimeoutMs;
+
   public void setSslContextConf(SslContextConf sslContextConf) {
     this.sslContextConf = sslContextConf;
   }
 
+  /**
+   * Sets the connect timeout.
+   * @param connectTimeoutMs
+   *          Connect timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setConnectTimeoutMs(int connectTimeoutMs) {
+    this.connectTimeoutMs = Args.notNegative(connectTimeoutMs, "connectTimeoutMs");
+  }
+
+  /**
+   * Sets the read timeout.
+   * @param readTimeoutMs
+   *          Read timeout in milliseconds, 0 for infinite timeout.
+   */
+  public void setReadTimeoutMs(int readTimeoutMs) {
+    this.readTimeoutMs = Args.notNegative(readTimeoutMs, "readTimeoutMs");
+  }
+
   private synchronized void initIfNotDone() throws ObjectCreationException {
     if (initException != null) {
       throw initException;
@@ -115,6 +137,14 @@ public class DefaultCurl implements Curl {
       }
     }
 
+    if (connectTimeoutMs > 0) {
+      httpConn.setConnectTimeout(connectTimeoutMs);
+    }
+
+    if (readTimeoutMs > 0) {
+      httpConn.setReadTimeout(readTimeoutMs);
+    }
+
     try {
       httpConn.setRequestMethod(post ? "POST" : "GET");
       httpConn.setUseCaches(false);
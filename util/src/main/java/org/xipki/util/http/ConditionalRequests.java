@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.util.http;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+
+/**
+ * Evaluation of the conditional headers If-None-Match and If-Modified-Since of a GET request,
+ * as specified in RFC 7232.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class ConditionalRequests {
+
+  /**
+   * Formats of HTTP-date, see RFC 7231 section 7.1.1.1: the preferred IMF-fixdate, and the
+   * obsolete RFC 850 and asctime formats.
+   */
+  private static final DateTimeFormatter[] HTTP_DATE_FORMATTERS = {
+    DateTimeFormatter.RFC_1123_DATE_TIME,
+    // two-digit years are mapped to 1970 - 2069
+    new DateTimeFormatterBuilder().appendPattern("EEEE, dd-MMM-")
+        .appendValueReduced(ChronoField.YEAR, 2, 2, 1970)
+        .appendPattern(" HH:mm:ss zzz").toFormatter(Locale.US),
+    DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US)
+        .withZone(ZoneOffset.UTC)};
+
+  private ConditionalRequests() {
+  }
+
+  /**
+   * Evaluates the conditional headers as specified in RFC 7232 section 6: If-Modified-Since
+   * is only considered if If-None-Match is absent.
+   *
+   * @param ifNoneMatch
+   *          Value of the header If-None-Match. May be {@code null}.
+   * @param ifModifiedSince
+   *          Value of the header If-Modified-Since. May be {@code null}.
+   * @param etag
+   *          The (strong) entity-tag of the current representation, including the quotes.
+   * @param lastModified
+   *          Last modification time of the current representation, in milliseconds.
+   * @return whether the response 304 (Not Modified) shall be sent.
+   */
+  public static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String etag,
+      long lastModified) {
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          // weak comparison
+          tag = tag.substring(2);
+        }
+
+        if ("*".equals(tag) || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    if (ifModifiedSince == null) {
+      return false;
+    }
+
+    long since = parseHttpDate(ifModifiedSince.trim());
+    // invalid date is ignored. HTTP dates have the precision of seconds.
+    return since != -1 && lastModified / 1000 <= since;
+  } // method isNotModified
+
+  /**
+   * Parses the HTTP-date.
+   * @param date the date text.
+   * @return the seconds since January 1, 1970, 00:00:00 GMT, or -1 if the date is invalid.
+   */
+  private static long parseHttpDate(String date) {
+    for (DateTimeFormatter formatter : HTTP_DATE_FORMATTERS) {
+      try {
+        return ZonedDateTime.parse(date, formatter).toEpochSecond();
+      } catch (DateTimeParseException ex) {
+        // try the next format
+      }
+    }
+    return -1;
+  } // method parseHttpDate
+
+}
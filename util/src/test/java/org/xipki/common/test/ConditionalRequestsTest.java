@@ -0,0 +1,94 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.common.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.http.ConditionalRequests;
+
+/**
+ * Test for {@link ConditionalRequests}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.9
+ */
+
+public class ConditionalRequestsTest {
+
+  private static final String ETAG = "\"5-5e0a0b80\"";
+
+  // Sun, 06 Nov 1994 08:49:37 GMT
+  private static final long LAST_MODIFIED = 784111777000L;
+
+  @Test
+  public void testNoConditionalHeaders() {
+    Assert.assertFalse(ConditionalRequests.isNotModified(null, null, ETAG, LAST_MODIFIED));
+  }
+
+  @Test
+  public void testIfNoneMatch() {
+    Assert.assertTrue(ConditionalRequests.isNotModified(ETAG, null, ETAG, LAST_MODIFIED));
+    Assert.assertTrue(ConditionalRequests.isNotModified("W/" + ETAG, null, ETAG,
+        LAST_MODIFIED));
+    Assert.assertTrue(ConditionalRequests.isNotModified("\"a\", " + ETAG + " ,\"b\"", null,
+        ETAG, LAST_MODIFIED));
+    Assert.assertTrue(ConditionalRequests.isNotModified("*", null, ETAG, LAST_MODIFIED));
+    Assert.assertFalse(ConditionalRequests.isNotModified("\"other\"", null, ETAG,
+        LAST_MODIFIED));
+  }
+
+  @Test
+  public void testIfModifiedSince() {
+    Assert.assertTrue(ConditionalRequests.isNotModified(null,
+        "Sun, 06 Nov 1994 08:49:37 GMT", ETAG, LAST_MODIFIED));
+    // HTTP dates have the precision of seconds
+    Assert.assertTrue(ConditionalRequests.isNotModified(null,
+        "Sun, 06 Nov 1994 08:49:37 GMT", ETAG, LAST_MODIFIED + 999));
+    Assert.assertTrue(ConditionalRequests.isNotModified(null,
+        "Mon, 07 Nov 1994 08:49:37 GMT", ETAG, LAST_MODIFIED));
+    Assert.assertFalse(ConditionalRequests.isNotModified(null,
+        "Sun, 06 Nov 1994 08:49:36 GMT", ETAG, LAST_MODIFIED));
+  }
+
+  @Test
+  public void testObsoleteDateFormats() {
+    Assert.assertTrue(ConditionalRequests.isNotModified(null,
+        "Sunday, 06-Nov-94 08:49:37 GMT", ETAG, LAST_MODIFIED));
+    Assert.assertTrue(ConditionalRequests.isNotModified(null,
+        "Sun Nov  6 08:49:37 1994", ETAG, LAST_MODIFIED));
+    Assert.assertFalse(ConditionalRequests.isNotModified(null,
+        "Sun Nov  6 08:49:36 1994", ETAG, LAST_MODIFIED));
+  }
+
+  @Test
+  public void testInvalidIfModifiedSince() {
+    Assert.assertFalse(ConditionalRequests.isNotModified(null, "yesterday", ETAG,
+        LAST_MODIFIED));
+  }
+
+  @Test
+  public void testIfNoneMatchHasPrecedence() {
+    // If-Modified-Since would match, but is ignored since If-None-Match is present.
+    Assert.assertFalse(ConditionalRequests.isNotModified("\"other\"",
+        "Sun, 06 Nov 1994 08:49:37 GMT", ETAG, LAST_MODIFIED));
+    // If-Modified-Since would not match, but If-None-Match matches.
+    Assert.assertTrue(ConditionalRequests.isNotModified(ETAG,
+        "Sun, 06 Nov 1994 08:49:36 GMT", ETAG, LAST_MODIFIED));
+  }
+
+}